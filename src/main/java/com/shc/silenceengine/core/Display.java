@@ -29,6 +29,8 @@
 import com.shc.silenceengine.core.glfw.Monitor;
 import com.shc.silenceengine.core.glfw.VideoMode;
 import com.shc.silenceengine.core.glfw.Window;
+import com.shc.silenceengine.graphics.opengl.GL3Context;
+import com.shc.silenceengine.graphics.opengl.GLError;
 import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.graphics.opengl.VertexArray;
@@ -478,6 +480,12 @@ public static void update()
             Program.CURRENT = null;
             Texture.CURRENT = null;
 
+            // The state of the new context is not known, and the debug callback has to be installed again
+            GL3Context.getStateCache().invalidate();
+
+            if (GLError.getMode() == GLError.Mode.DEBUG_CALLBACK)
+                GLError.setMode(GLError.Mode.DEBUG_CALLBACK);
+
             dirty = false;
         }
 
@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An Archetype is the unique set of component types an entity has. All the entities with exactly the same set of
+ * components are stored together in the chunks of the same archetype.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Archetype
+{
+    private long            mask;
+    private ComponentType[] types;
+    private List<Chunk>     chunks;
+
+    Archetype(long mask, ComponentType[] types)
+    {
+        this.mask = mask;
+        this.types = types;
+
+        chunks = new ArrayList<>();
+    }
+
+    /**
+     * @return A chunk that has space for at least one more entity.
+     */
+    Chunk getFreeChunk()
+    {
+        // Only the last chunk can have space, the removals always pack the chunks by moving the last rows
+        if (chunks.size() > 0)
+        {
+            Chunk last = chunks.get(chunks.size() - 1);
+
+            if (!last.isFull())
+                return last;
+        }
+
+        Chunk chunk = new Chunk(this);
+        chunks.add(chunk);
+
+        return chunk;
+    }
+
+    /**
+     * Removes a row from a chunk, keeping all the chunks packed by filling the hole with the very last entity of this
+     * archetype.
+     *
+     * @return The entity that was moved into the row, or -1 if none was moved.
+     */
+    int remove(Chunk chunk, int row)
+    {
+        Chunk last = chunks.get(chunks.size() - 1);
+
+        int moved = -1;
+
+        if (last != chunk)
+        {
+            int lastRow = last.size() - 1;
+
+            moved = last.getEntities()[lastRow];
+            chunk.copyFrom(last, lastRow, row);
+            chunk.getEntities()[row] = moved;
+
+            last.remove(lastRow);
+        }
+        else
+            moved = chunk.remove(row);
+
+        if (last.size() == 0)
+            chunks.remove(chunks.size() - 1);
+
+        return moved;
+    }
+
+    public boolean matches(long required)
+    {
+        return (mask & required) == required;
+    }
+
+    public long getMask()
+    {
+        return mask;
+    }
+
+    public ComponentType[] getTypes()
+    {
+        return types;
+    }
+
+    public List<Chunk> getChunks()
+    {
+        return chunks;
+    }
+
+    public int size()
+    {
+        int size = 0;
+
+        for (Chunk chunk : chunks)
+            size += chunk.size();
+
+        return size;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+/**
+ * A Chunk is a fixed capacity block of entities that all belong to the same Archetype. Every field of every component
+ * is stored in its own primitive array (structure of arrays), so a system that only reads the positions only touches
+ * the position arrays. The entities in a chunk are always packed from the start of the arrays, up to the size.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Chunk
+{
+    public static final int CAPACITY = 1024;
+
+    private Archetype archetype;
+
+    private int[] entities;
+
+    // Columns indexed by the index of the component type, null when the archetype doesn't have the type
+    private float[][][] floats;
+    private int[][][]   ints;
+    private Object[][]  objects;
+
+    private int size;
+
+    Chunk(Archetype archetype)
+    {
+        this.archetype = archetype;
+
+        entities = new int[CAPACITY];
+
+        floats = new float[ComponentType.MAX_TYPES][][];
+        ints = new int[ComponentType.MAX_TYPES][][];
+        objects = new Object[ComponentType.MAX_TYPES][];
+
+        for (ComponentType type : archetype.getTypes())
+        {
+            switch (type.getKind())
+            {
+                case FLOAT:
+                    floats[type.getIndex()] = new float[type.getNumFields()][CAPACITY];
+                    break;
+
+                case INT:
+                    ints[type.getIndex()] = new int[type.getNumFields()][CAPACITY];
+                    break;
+
+                case OBJECT:
+                    objects[type.getIndex()] = new Object[CAPACITY];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adds an entity at the end of this chunk, with all its fields zeroed.
+     *
+     * @return The row of the entity in this chunk.
+     */
+    int add(int entity)
+    {
+        int row = size++;
+        entities[row] = entity;
+
+        return row;
+    }
+
+    /**
+     * Removes a row by moving the last row into its place.
+     *
+     * @return The entity that was moved into the row, or -1 if the last row itself was removed.
+     */
+    int remove(int row)
+    {
+        int last = --size;
+        int moved = -1;
+
+        if (row != last)
+        {
+            moved = entities[last];
+            entities[row] = moved;
+        }
+
+        for (ComponentType type : archetype.getTypes())
+        {
+            int index = type.getIndex();
+
+            switch (type.getKind())
+            {
+                case FLOAT:
+                    for (float[] column : floats[index])
+                    {
+                        column[row] = column[last];
+                        column[last] = 0;
+                    }
+                    break;
+
+                case INT:
+                    for (int[] column : ints[index])
+                    {
+                        column[row] = column[last];
+                        column[last] = 0;
+                    }
+                    break;
+
+                case OBJECT:
+                    objects[index][row] = objects[index][last];
+                    objects[index][last] = null;
+                    break;
+            }
+        }
+
+        return moved;
+    }
+
+    /**
+     * Copies the fields of all the components common to both the chunks from a row in another chunk.
+     */
+    void copyFrom(Chunk src, int srcRow, int row)
+    {
+        for (ComponentType type : archetype.getTypes())
+        {
+            int index = type.getIndex();
+
+            switch (type.getKind())
+            {
+                case FLOAT:
+                    if (src.floats[index] != null)
+                        for (int f = 0; f < type.getNumFields(); f++)
+                            floats[index][f][row] = src.floats[index][f][srcRow];
+                    break;
+
+                case INT:
+                    if (src.ints[index] != null)
+                        for (int f = 0; f < type.getNumFields(); f++)
+                            ints[index][f][row] = src.ints[index][f][srcRow];
+                    break;
+
+                case OBJECT:
+                    if (src.objects[index] != null)
+                        objects[index][row] = src.objects[index][srcRow];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the array holding a float field of a component for all the entities in this chunk. Only the first size()
+     * elements are valid.
+     *
+     * @param type  The type of the component.
+     * @param field The index of the field in the component.
+     *
+     * @return The packed array of the field.
+     */
+    public float[] getFloats(ComponentType type, int field)
+    {
+        return floats[type.getIndex()][field];
+    }
+
+    /**
+     * Returns the array holding an int field of a component for all the entities in this chunk. Only the first size()
+     * elements are valid.
+     *
+     * @param type  The type of the component.
+     * @param field The index of the field in the component.
+     *
+     * @return The packed array of the field.
+     */
+    public int[] getInts(ComponentType type, int field)
+    {
+        return ints[type.getIndex()][field];
+    }
+
+    /**
+     * Returns the array holding an object component for all the entities in this chunk. Only the first size()
+     * elements are valid.
+     *
+     * @param type The type of the component.
+     *
+     * @return The packed array of the objects.
+     */
+    public Object[] getObjects(ComponentType type)
+    {
+        return objects[type.getIndex()];
+    }
+
+    public boolean has(ComponentType type)
+    {
+        return (archetype.getMask() & type.getMask()) != 0;
+    }
+
+    /**
+     * @return The IDs of the entities in this chunk, only the first size() elements are valid.
+     */
+    public int[] getEntities()
+    {
+        return entities;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isFull()
+    {
+        return size == CAPACITY;
+    }
+
+    public Archetype getArchetype()
+    {
+        return archetype;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import com.shc.silenceengine.core.SilenceException;
+
+import java.util.Arrays;
+
+/**
+ * <p> A ComponentType describes a kind of component that can be attached to the entities of an EntityWorld. The data of
+ * a component is not stored in an object, instead it is made up of a number of primitive fields which are stored in
+ * separate arrays in every Chunk, so that the systems can iterate over them tightly packed. </p>
+ *
+ * <pre>
+ *     public static final ComponentType HEALTH = ComponentType.ofFloats("Health", 1);
+ * </pre>
+ *
+ * <p> Component types are identified by an index, and there can be at most 64 types in a program, which allows the
+ * archetypes to be identified by a single bit mask. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public final class ComponentType
+{
+    public static final int MAX_TYPES = 64;
+
+    private static final ComponentType[] registered = new ComponentType[MAX_TYPES];
+
+    private static int nextIndex = 0;
+
+    private String name;
+    private Kind   kind;
+    private int    numFields;
+    private int    index;
+
+    private ComponentType(String name, Kind kind, int numFields)
+    {
+        if (nextIndex >= MAX_TYPES)
+            throw new SilenceException("There cannot be more than " + MAX_TYPES + " component types");
+
+        this.name = name;
+        this.kind = kind;
+        this.numFields = numFields;
+
+        index = nextIndex++;
+        registered[index] = this;
+    }
+
+    /**
+     * Creates a component type whose data is a number of float fields.
+     *
+     * @param name      The name of the component, used for debugging.
+     * @param numFields The number of float fields in this component.
+     *
+     * @return The new component type.
+     */
+    public static synchronized ComponentType ofFloats(String name, int numFields)
+    {
+        return new ComponentType(name, Kind.FLOAT, numFields);
+    }
+
+    /**
+     * Creates a component type whose data is a number of int fields.
+     *
+     * @param name      The name of the component, used for debugging.
+     * @param numFields The number of int fields in this component.
+     *
+     * @return The new component type.
+     */
+    public static synchronized ComponentType ofInts(String name, int numFields)
+    {
+        return new ComponentType(name, Kind.INT, numFields);
+    }
+
+    /**
+     * Creates a component type whose data is a single object reference, like a Sprite. Use these sparingly, as they
+     * take the data away from the packed arrays.
+     *
+     * @param name The name of the component, used for debugging.
+     *
+     * @return The new component type.
+     */
+    public static synchronized ComponentType ofObject(String name)
+    {
+        return new ComponentType(name, Kind.OBJECT, 1);
+    }
+
+    static synchronized ComponentType[] getTypes()
+    {
+        return Arrays.copyOf(registered, nextIndex);
+    }
+
+    public static long maskOf(ComponentType... types)
+    {
+        long mask = 0;
+
+        for (ComponentType type : types)
+            mask |= type.getMask();
+
+        return mask;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public int getNumFields()
+    {
+        return numFields;
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public long getMask()
+    {
+        return 1L << index;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ComponentType{" +
+               "name='" + name + '\'' +
+               ", kind=" + kind +
+               ", numFields=" + numFields +
+               '}';
+    }
+
+    public enum Kind
+    {
+        FLOAT, INT, OBJECT
+    }
+}
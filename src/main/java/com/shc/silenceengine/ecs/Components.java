@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+/**
+ * The built-in component types that are used by the systems in this package.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public final class Components
+{
+    /**
+     * The position of the entity in the 2D world, with the fields X and Y.
+     */
+    public static final ComponentType POSITION = ComponentType.ofFloats("Position", 2);
+
+    /**
+     * The velocity of the entity in the 2D world, with the fields X and Y. Like the velocity of an Entity2D, this is
+     * added to the position once per update.
+     */
+    public static final ComponentType VELOCITY = ComponentType.ofFloats("Velocity", 2);
+
+    /**
+     * The Sprite used to render the entity. Entities can share the same Sprite object.
+     */
+    public static final ComponentType SPRITE = ComponentType.ofObject("Sprite");
+
+    // Field indices of the POSITION and VELOCITY components
+    public static final int X = 0;
+    public static final int Y = 1;
+
+    private Components()
+    {
+    }
+}
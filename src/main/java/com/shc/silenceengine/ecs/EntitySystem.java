@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+/**
+ * An EntitySystem contains the logic that operates on the components of the entities in an EntityWorld. Systems are
+ * updated and rendered in the order they are added to the world.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public abstract class EntitySystem
+{
+    protected EntityWorld world;
+
+    /**
+     * Called when this system is added to a world. This is the place to create the queries.
+     *
+     * @param world The world this system is added to.
+     */
+    public void init(EntityWorld world)
+    {
+        this.world = world;
+    }
+
+    public void update(float delta)
+    {
+    }
+
+    public void render(float delta)
+    {
+    }
+
+    public void dispose()
+    {
+    }
+
+    public EntityWorld getWorld()
+    {
+        return world;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import com.shc.silenceengine.core.IUpdatable;
+import com.shc.silenceengine.core.SilenceException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p> An EntityWorld holds the entities of the entity component system. Unlike an Entity2D or an Entity3D, an entity
+ * here is just an integer ID, and all its data lives in the components, which are stored in the chunks of the
+ * archetype of the entity. The logic is written in the systems, which iterate over the packed arrays of the chunks
+ * using queries. </p>
+ *
+ * <pre>
+ *     EntityWorld world = new EntityWorld();
+ *     world.addSystem(new MovementSystem());
+ *
+ *     int bullet = world.create(Components.POSITION, Components.VELOCITY);
+ *     world.setFloat(bullet, Components.VELOCITY, Components.X, 4);
+ * </pre>
+ *
+ * <p> Entities that are destroyed during an update are only removed after all the systems are updated, so a system
+ * can safely destroy entities while it is iterating over the chunks. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class EntityWorld implements IUpdatable
+{
+    // The location of each entity, a null chunk means the ID is not alive
+    private Chunk[] entityChunks;
+    private int[]   entityRows;
+
+    // The IDs that are free to be reused
+    private int[] freeIDs;
+    private int   numFreeIDs;
+    private int   nextID;
+
+    private Map<Long, Archetype> archetypes;
+    private List<Query>          queries;
+    private List<EntitySystem>   systems;
+
+    private int[]   pendingDestroys;
+    private int     numPendingDestroys;
+    private boolean updating;
+
+    private int numEntities;
+
+    public EntityWorld()
+    {
+        entityChunks = new Chunk[Chunk.CAPACITY];
+        entityRows = new int[Chunk.CAPACITY];
+
+        freeIDs = new int[64];
+        pendingDestroys = new int[64];
+
+        archetypes = new HashMap<>();
+        queries = new ArrayList<>();
+        systems = new ArrayList<>();
+    }
+
+    /**
+     * Creates a new entity with the specified components. All the fields of the components are initially zero.
+     *
+     * @param types The types of the components of the new entity.
+     *
+     * @return The ID of the new entity.
+     */
+    public int create(ComponentType... types)
+    {
+        int entity = numFreeIDs > 0 ? freeIDs[--numFreeIDs] : nextID++;
+
+        if (entity >= entityChunks.length)
+        {
+            entityChunks = Arrays.copyOf(entityChunks, entityChunks.length * 2);
+            entityRows = Arrays.copyOf(entityRows, entityRows.length * 2);
+        }
+
+        Chunk chunk = getArchetype(ComponentType.maskOf(types)).getFreeChunk();
+
+        entityChunks[entity] = chunk;
+        entityRows[entity] = chunk.add(entity);
+
+        numEntities++;
+
+        return entity;
+    }
+
+    /**
+     * Destroys an entity. If the world is being updated, the entity is removed after all the systems are updated.
+     *
+     * @param entity The ID of the entity to destroy.
+     */
+    public void destroy(int entity)
+    {
+        checkAlive(entity);
+
+        if (updating)
+        {
+            if (numPendingDestroys == pendingDestroys.length)
+                pendingDestroys = Arrays.copyOf(pendingDestroys, numPendingDestroys * 2);
+
+            pendingDestroys[numPendingDestroys++] = entity;
+            return;
+        }
+
+        removeFromChunk(entity);
+
+        entityChunks[entity] = null;
+
+        if (numFreeIDs == freeIDs.length)
+            freeIDs = Arrays.copyOf(freeIDs, numFreeIDs * 2);
+
+        freeIDs[numFreeIDs++] = entity;
+        numEntities--;
+    }
+
+    /**
+     * Adds a component to an entity, which moves the entity to a different archetype. This cannot be done while the
+     * world is being updated, since it changes the chunks the systems are iterating over.
+     *
+     * @param entity The ID of the entity.
+     * @param type   The type of the component to add.
+     */
+    public void addComponent(int entity, ComponentType type)
+    {
+        checkAlive(entity);
+
+        long mask = entityChunks[entity].getArchetype().getMask();
+
+        if ((mask & type.getMask()) == 0)
+            moveEntity(entity, mask | type.getMask());
+    }
+
+    /**
+     * Removes a component from an entity, which moves the entity to a different archetype. This cannot be done while
+     * the world is being updated, since it changes the chunks the systems are iterating over.
+     *
+     * @param entity The ID of the entity.
+     * @param type   The type of the component to remove.
+     */
+    public void removeComponent(int entity, ComponentType type)
+    {
+        checkAlive(entity);
+
+        long mask = entityChunks[entity].getArchetype().getMask();
+
+        if ((mask & type.getMask()) != 0)
+            moveEntity(entity, mask & ~type.getMask());
+    }
+
+    private void moveEntity(int entity, long newMask)
+    {
+        if (updating)
+            throw new SilenceException("Cannot change the components of an entity while the world is updating");
+
+        Chunk oldChunk = entityChunks[entity];
+        int oldRow = entityRows[entity];
+
+        Chunk newChunk = getArchetype(newMask).getFreeChunk();
+        int newRow = newChunk.add(entity);
+        newChunk.copyFrom(oldChunk, oldRow, newRow);
+
+        removeFromChunk(entity);
+
+        entityChunks[entity] = newChunk;
+        entityRows[entity] = newRow;
+    }
+
+    private void removeFromChunk(int entity)
+    {
+        Chunk chunk = entityChunks[entity];
+        int row = entityRows[entity];
+
+        int moved = chunk.getArchetype().remove(chunk, row);
+
+        if (moved != -1)
+        {
+            entityChunks[moved] = chunk;
+            entityRows[moved] = row;
+        }
+    }
+
+    private Archetype getArchetype(long mask)
+    {
+        Archetype archetype = archetypes.get(mask);
+
+        if (archetype == null)
+        {
+            archetype = new Archetype(mask, typesOf(mask));
+            archetypes.put(mask, archetype);
+
+            // Let the existing queries know about the new archetype
+            for (Query query : queries)
+                if (archetype.matches(query.getMask()))
+                    query.addArchetype(archetype);
+        }
+
+        return archetype;
+    }
+
+    private static ComponentType[] typesOf(long mask)
+    {
+        List<ComponentType> types = new ArrayList<>();
+
+        for (ComponentType type : ComponentType.getTypes())
+            if ((mask & type.getMask()) != 0)
+                types.add(type);
+
+        return types.toArray(new ComponentType[types.size()]);
+    }
+
+    /**
+     * Creates a query that matches all the entities that have at least the specified components. Queries are cached,
+     * so calling this method again with the same types returns the same query.
+     *
+     * @param types The types of the components the entities should have.
+     *
+     * @return The query that matches the entities.
+     */
+    public Query query(ComponentType... types)
+    {
+        long mask = ComponentType.maskOf(types);
+
+        for (Query query : queries)
+            if (query.getMask() == mask)
+                return query;
+
+        Query query = new Query(mask);
+
+        for (Archetype archetype : archetypes.values())
+            if (archetype.matches(mask))
+                query.addArchetype(archetype);
+
+        queries.add(query);
+
+        return query;
+    }
+
+    public void addSystem(EntitySystem system)
+    {
+        systems.add(system);
+        system.init(this);
+    }
+
+    public void removeSystem(EntitySystem system)
+    {
+        systems.remove(system);
+    }
+
+    @Override
+    public void update(float delta)
+    {
+        updating = true;
+
+        for (EntitySystem system : systems)
+            system.update(delta);
+
+        updating = false;
+
+        for (int i = 0; i < numPendingDestroys; i++)
+            if (isAlive(pendingDestroys[i]))
+                destroy(pendingDestroys[i]);
+
+        numPendingDestroys = 0;
+    }
+
+    public void render(float delta)
+    {
+        for (EntitySystem system : systems)
+            system.render(delta);
+    }
+
+    public boolean isAlive(int entity)
+    {
+        return entity >= 0 && entity < nextID && entityChunks[entity] != null;
+    }
+
+    public boolean has(int entity, ComponentType type)
+    {
+        return isAlive(entity) && entityChunks[entity].has(type);
+    }
+
+    private void checkAlive(int entity)
+    {
+        if (!isAlive(entity))
+            throw new SilenceException("Entity " + entity + " is not alive");
+    }
+
+    public float getFloat(int entity, ComponentType type, int field)
+    {
+        return entityChunks[entity].getFloats(type, field)[entityRows[entity]];
+    }
+
+    public void setFloat(int entity, ComponentType type, int field, float value)
+    {
+        entityChunks[entity].getFloats(type, field)[entityRows[entity]] = value;
+    }
+
+    public int getInt(int entity, ComponentType type, int field)
+    {
+        return entityChunks[entity].getInts(type, field)[entityRows[entity]];
+    }
+
+    public void setInt(int entity, ComponentType type, int field, int value)
+    {
+        entityChunks[entity].getInts(type, field)[entityRows[entity]] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(int entity, ComponentType type)
+    {
+        return (T) entityChunks[entity].getObjects(type)[entityRows[entity]];
+    }
+
+    public void setObject(int entity, ComponentType type, Object value)
+    {
+        entityChunks[entity].getObjects(type)[entityRows[entity]] = value;
+    }
+
+    /**
+     * @return The number of live entities in this world.
+     */
+    public int size()
+    {
+        return numEntities;
+    }
+
+    /**
+     * Destroys all the entities in this world, and removes all the systems.
+     */
+    public void destroy()
+    {
+        for (EntitySystem system : systems)
+            system.dispose();
+
+        systems.clear();
+        queries.clear();
+        archetypes.clear();
+
+        Arrays.fill(entityChunks, null);
+
+        nextID = numFreeIDs = numPendingDestroys = numEntities = 0;
+    }
+}
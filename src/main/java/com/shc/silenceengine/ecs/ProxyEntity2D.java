@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import com.shc.silenceengine.graphics.SpriteBatch;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.math.geom2d.Polygon;
+import com.shc.silenceengine.scene.entity.Entity2D;
+
+import static com.shc.silenceengine.ecs.Components.*;
+
+/**
+ * <p> A ProxyEntity2D is an Entity2D that mirrors the POSITION and VELOCITY of an entity in an EntityWorld, so that the
+ * ECS entities can be added to a Scene2D and collided by a SceneCollider2D. Extend this class to register the collision
+ * types, and override the collision() method to react to the collisions. </p>
+ *
+ * <pre>
+ *     public class BulletProxy extends ProxyEntity2D
+ *     {
+ *         public BulletProxy(EntityWorld world, int entity)
+ *         {
+ *             super(world, entity, new Rectangle(0, 0, 8, 8));
+ *         }
+ *
+ *         public void collision(Entity2D other)
+ *         {
+ *             getWorld().destroy(getEntity());
+ *         }
+ *     }
+ * </pre>
+ *
+ * <p> The proxy is not rendered, the SpriteRenderSystem renders the ECS entity. It destroys itself once the ECS entity
+ * is destroyed. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class ProxyEntity2D extends Entity2D
+{
+    private EntityWorld world;
+    private int         entity;
+
+    public ProxyEntity2D(EntityWorld world, int entity, Polygon polygon)
+    {
+        super(polygon);
+
+        this.world = world;
+        this.entity = entity;
+
+        sync();
+    }
+
+    @Override
+    public void preUpdate(float delta)
+    {
+        if (isDestroyed())
+            return;
+
+        if (!world.isAlive(entity))
+        {
+            destroy();
+            return;
+        }
+
+        update(delta);
+        sync();
+    }
+
+    private void sync()
+    {
+        if (!world.has(entity, POSITION))
+            return;
+
+        Vector2 temp = Vector2.REUSABLE_STACK.pop();
+
+        setPosition(temp.set(world.getFloat(entity, POSITION, X), world.getFloat(entity, POSITION, Y)));
+
+        // The velocity is only mirrored, the MovementSystem has already moved the entity. The collider uses it to
+        // know which entities are to be updated in the broadphase.
+        if (world.has(entity, VELOCITY))
+            getVelocity().set(world.getFloat(entity, VELOCITY, X), world.getFloat(entity, VELOCITY, Y));
+
+        Vector2.REUSABLE_STACK.push(temp);
+    }
+
+    @Override
+    public void render(float delta, SpriteBatch batch)
+    {
+    }
+
+    public EntityWorld getWorld()
+    {
+        return world;
+    }
+
+    public int getEntity()
+    {
+        return entity;
+    }
+}
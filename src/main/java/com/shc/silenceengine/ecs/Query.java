@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Query matches all the archetypes that contain a set of component types, and lets the systems iterate over the
+ * chunks of those archetypes. Queries are created by the EntityWorld, and are kept up to date as new archetypes are
+ * created.
+ *
+ * <pre>
+ *     query.forEach(chunk ->
+ *     {
+ *         float[] x = chunk.getFloats(Components.POSITION, Components.X);
+ *
+ *         for (int i = 0; i < chunk.size(); i++)
+ *             x[i] += 1;
+ *     });
+ * </pre>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Query
+{
+    private long            mask;
+    private List<Archetype> archetypes;
+
+    Query(long mask)
+    {
+        this.mask = mask;
+        archetypes = new ArrayList<>();
+    }
+
+    void addArchetype(Archetype archetype)
+    {
+        archetypes.add(archetype);
+    }
+
+    /**
+     * Calls the consumer with every non empty chunk that matches this query.
+     *
+     * @param consumer The consumer to receive the chunks.
+     */
+    public void forEach(ChunkConsumer consumer)
+    {
+        // Indexed loops, so that the entities created by the consumer don't break the iteration
+        for (int i = 0; i < archetypes.size(); i++)
+        {
+            List<Chunk> chunks = archetypes.get(i).getChunks();
+
+            for (int j = 0; j < chunks.size(); j++)
+            {
+                Chunk chunk = chunks.get(j);
+
+                if (chunk.size() > 0)
+                    consumer.accept(chunk);
+            }
+        }
+    }
+
+    /**
+     * @return The number of entities that match this query.
+     */
+    public int count()
+    {
+        int count = 0;
+
+        for (Archetype archetype : archetypes)
+            count += archetype.size();
+
+        return count;
+    }
+
+    public long getMask()
+    {
+        return mask;
+    }
+
+    public List<Archetype> getArchetypes()
+    {
+        return archetypes;
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer
+    {
+        void accept(Chunk chunk);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.ecs;
+
+import com.shc.silenceengine.graphics.Sprite;
+import com.shc.silenceengine.graphics.SpriteBatch;
+
+import static com.shc.silenceengine.ecs.Components.*;
+
+/**
+ * A system that renders all the entities having a POSITION and a SPRITE using a SpriteBatch.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SpriteRenderSystem extends EntitySystem
+{
+    private Query       query;
+    private SpriteBatch batch;
+
+    public SpriteRenderSystem(SpriteBatch batch)
+    {
+        this.batch = batch;
+    }
+
+    @Override
+    public void init(EntityWorld world)
+    {
+        super.init(world);
+        query = world.query(POSITION, SPRITE);
+    }
+
+    @Override
+    public void render(float delta)
+    {
+        batch.begin();
+        {
+            query.forEach(chunk ->
+            {
+                float[] x = chunk.getFloats(POSITION, X);
+                float[] y = chunk.getFloats(POSITION, Y);
+                Object[] sprites = chunk.getObjects(SPRITE);
+
+                for (int i = 0, size = chunk.size(); i < size; i++)
+                    if (sprites[i] != null)
+                        batch.addSprite((Sprite) sprites[i], x[i], y[i]);
+            });
+        }
+        batch.end();
+    }
+
+    public SpriteBatch getBatch()
+    {
+        return batch;
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics;
+
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.graphics.opengl.SubTexture;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.io.FilePath;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Packs a number of images into a few large atlas pages, so that the sprites, tiles and glyphs in them can be drawn in
+ * a single batch. The images are placed with a {@link MaxRectsPacker}, the largest ones first. Every image is
+ * surrounded by a border of its own edge pixels (the extrusion), and some empty space (the padding), so that the
+ * filtering doesn't bleed the neighbouring images into it.
+ *
+ * <p>The packing is done entirely on the CPU, and the pages can be written to files along with a descriptor, to pack
+ * the atlases at build time. Use {@link TextureAtlas} to create the textures from the packed pages, or to load the
+ * written files.</p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class AtlasPacker
+{
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+
+    private int pageWidth;
+    private int pageHeight;
+    private int padding;
+    private int extrusion;
+
+    private List<Image> images;
+    private List<Page>  pages;
+
+    // The free space of every page, so that the images packed later are placed around the images already in it
+    private List<MaxRectsPacker> packers;
+
+    public AtlasPacker()
+    {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_PAGE_SIZE, 2, 1);
+    }
+
+    /**
+     * Constructs an AtlasPacker.
+     *
+     * @param pageWidth  The width of the atlas pages in pixels.
+     * @param pageHeight The height of the atlas pages in pixels.
+     * @param padding    The empty space left between the images, in pixels.
+     * @param extrusion  The number of times the edge pixels of the images are repeated around them.
+     */
+    public AtlasPacker(int pageWidth, int pageHeight, int padding, int extrusion)
+    {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.padding = padding;
+        this.extrusion = extrusion;
+
+        images = new ArrayList<>();
+        pages = new ArrayList<>();
+        packers = new ArrayList<>();
+    }
+
+    /**
+     * Adds an image to be packed.
+     *
+     * @param name   The name to find the image with in the atlas.
+     * @param pixels The pixels of the image, row by row from the top, in ARGB format.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     */
+    public void add(String name, int[] pixels, int width, int height)
+    {
+        if (width + 2 * extrusion > pageWidth || height + 2 * extrusion > pageHeight)
+            throw new SilenceException("The image " + name + " is larger than the atlas pages");
+
+        images.add(new Image(name, pixels, width, height));
+    }
+
+    public void add(String name, BufferedImage image)
+    {
+        add(name, image, 0, 0, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Adds a part of an image to be packed.
+     */
+    public void add(String name, BufferedImage image, int x, int y, int width, int height)
+    {
+        add(name, image.getRGB(x, y, width, height, null, 0, width), width, height);
+    }
+
+    /**
+     * Adds an image file to be packed.
+     */
+    public void add(String name, FilePath path)
+    {
+        try (InputStream stream = path.getInputStream())
+        {
+            BufferedImage image = ImageIO.read(stream);
+
+            if (image == null)
+                throw new SilenceException("Failed to load image: " + path);
+
+            add(name, image);
+        }
+        catch (IOException e)
+        {
+            SilenceException.reThrow(e);
+        }
+    }
+
+    /**
+     * Adds the image of a texture to be packed. The pixels are read back from the texture, so this needs the OpenGL
+     * context, and is meant for the textures created at runtime, like the glyph pages of the fonts. The sub textures
+     * share the image of their parent, so only the rectangle between their minimum and maximum texture coordinates is
+     * read from it.
+     */
+    public void add(String name, Texture texture)
+    {
+        Texture image = texture;
+
+        while (image instanceof SubTexture)
+            image = ((SubTexture) image).getParent();
+
+        int imageWidth = (int) image.getWidth();
+        int imageHeight = (int) image.getHeight();
+
+        // The texture coordinates of a sub texture are always in the image of the root parent
+        int minX = clamp(Math.round(Math.min(texture.getMinU(), texture.getMaxU()) * imageWidth), imageWidth);
+        int minY = clamp(Math.round(Math.min(texture.getMinV(), texture.getMaxV()) * imageHeight), imageHeight);
+        int maxX = clamp(Math.round(Math.max(texture.getMinU(), texture.getMaxU()) * imageWidth), imageWidth);
+        int maxY = clamp(Math.round(Math.max(texture.getMinV(), texture.getMaxV()) * imageHeight), imageHeight);
+
+        int width = maxX - minX;
+        int height = maxY - minY;
+
+        if (width == 0 || height == 0)
+            throw new SilenceException("The texture " + name + " has no pixels to pack");
+
+        Texture original = Texture.CURRENT;
+        image.bind();
+
+        ByteBuffer data = image.getImage2D(GL_RGBA, GL_UNSIGNED_BYTE);
+
+        if (original != null)
+            original.bind();
+
+        int[] pixels = new int[width * height];
+
+        for (int y = 0; y < height; y++)
+        {
+            data.position(((minY + y) * imageWidth + minX) * 4);
+
+            for (int x = 0; x < width; x++)
+            {
+                int r = data.get() & 0xFF;
+                int g = data.get() & 0xFF;
+                int b = data.get() & 0xFF;
+                int a = data.get() & 0xFF;
+
+                pixels[y * width + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+
+        add(name, pixels, width, height);
+    }
+
+    private static int clamp(int value, int max)
+    {
+        return Math.max(0, Math.min(value, max));
+    }
+
+    /**
+     * Adds all the cells of a sprite sheet to be packed. The cells are named as name_row_column.
+     */
+    public void addSpriteSheet(String name, BufferedImage image, int cellWidth, int cellHeight)
+    {
+        for (int row = 0; row < image.getHeight() / cellHeight; row++)
+        {
+            for (int column = 0; column < image.getWidth() / cellWidth; column++)
+                add(name + "_" + row + "_" + column, image, column * cellWidth, row * cellHeight, cellWidth,
+                        cellHeight);
+        }
+    }
+
+    /**
+     * Packs the images added so far into the pages. The images are placed the largest first, since the small ones fill
+     * the gaps left by the large ones better than the other way around. The images added after a pack are placed in the
+     * space left in the existing pages by the next pack, and new pages are only added when they don't fit there.
+     *
+     * @return The packed pages.
+     */
+    public List<Page> pack()
+    {
+        images.sort((a, b) ->
+        {
+            int sideA = Math.max(a.width, a.height);
+            int sideB = Math.max(b.width, b.height);
+
+            return sideA != sideB ? Integer.compare(sideB, sideA) : Integer.compare(b.width * b.height,
+                    a.width * a.height);
+        });
+
+        int[] position = new int[2];
+
+        for (Image image : images)
+        {
+            // The padding is only needed between the images, so the pages get one extra padding on the edges
+            int width = image.width + 2 * extrusion + padding;
+            int height = image.height + 2 * extrusion + padding;
+
+            int page = 0;
+
+            while (page < packers.size() && !packers.get(page).insert(width, height, position))
+                page++;
+
+            if (page == packers.size())
+            {
+                MaxRectsPacker packer = new MaxRectsPacker(pageWidth + padding, pageHeight + padding);
+                packer.insert(width, height, position);
+
+                packers.add(packer);
+                pages.add(new Page(pageWidth, pageHeight));
+            }
+
+            pages.get(page).draw(image, position[0] + extrusion, position[1] + extrusion, extrusion);
+        }
+
+        images.clear();
+
+        return pages;
+    }
+
+    /**
+     * Writes the pages as PNG images into a directory, along with a descriptor that lists the images in the pages.
+     * The descriptor is named name.atlas and the pages are named name0.png, name1.png and so on. The atlas can be
+     * loaded again with {@link TextureAtlas#fromFilePath(FilePath)}.
+     *
+     * @param directory The directory to write the files in.
+     * @param name      The name of the atlas.
+     */
+    public void write(FilePath directory, String name)
+    {
+        if (pages.isEmpty())
+            pack();
+
+        try
+        {
+            directory.mkdirs();
+
+            try (Writer writer = directory.getChild(name + ".atlas").getWriter();
+                 PrintWriter descriptor = new PrintWriter(writer))
+            {
+                for (int i = 0; i < pages.size(); i++)
+                {
+                    Page page = pages.get(i);
+                    String fileName = name + i + ".png";
+
+                    try (OutputStream stream = directory.getChild(fileName).getOutputStream())
+                    {
+                        ImageIO.write(page.toBufferedImage(), "png", stream);
+                    }
+
+                    descriptor.println("page\t" + fileName + "\t" + page.width + "\t" + page.height);
+
+                    for (Region region : page.regions)
+                        descriptor.println(region.name + "\t" + region.x + "\t" + region.y + "\t" + region.width
+                                           + "\t" + region.height);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            SilenceException.reThrow(e);
+        }
+    }
+
+    public List<Page> getPages()
+    {
+        return pages;
+    }
+
+    private static class Image
+    {
+        private String name;
+        private int[]  pixels;
+        private int    width;
+        private int    height;
+
+        private Image(String name, int[] pixels, int width, int height)
+        {
+            this.name = name;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The place of an image in a page, in pixels.
+     */
+    public static class Region
+    {
+        public final String name;
+        public final int    x;
+        public final int    y;
+        public final int    width;
+        public final int    height;
+
+        public Region(String name, int x, int y, int width, int height)
+        {
+            this.name = name;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * A page of the atlas, with its pixels and the regions of the images in it.
+     */
+    public static class Page
+    {
+        private int[]        pixels;
+        private int          width;
+        private int          height;
+        private List<Region> regions;
+
+        private Page(int width, int height)
+        {
+            this.width = width;
+            this.height = height;
+
+            pixels = new int[width * height];
+            regions = new ArrayList<>();
+        }
+
+        private void draw(Image image, int x, int y, int extrusion)
+        {
+            // Copy the image, clamping the coordinates to its edges to repeat the edge pixels around it
+            for (int row = -extrusion; row < image.height + extrusion; row++)
+            {
+                int sourceRow = Math.max(0, Math.min(row, image.height - 1)) * image.width;
+                int targetRow = (y + row) * width + x;
+
+                for (int column = -extrusion; column < image.width + extrusion; column++)
+                {
+                    int sourceColumn = Math.max(0, Math.min(column, image.width - 1));
+                    pixels[targetRow + column] = image.pixels[sourceRow + sourceColumn];
+                }
+            }
+
+            regions.add(new Region(image.name, x, y, image.width, image.height));
+        }
+
+        /**
+         * @return The pixels of the page in RGBA order, ready to be uploaded to a texture.
+         */
+        public ByteBuffer toByteBuffer(ByteBuffer buffer)
+        {
+            for (int pixel : pixels)
+            {
+                buffer.put((byte) (pixel >> 16))
+                        .put((byte) (pixel >> 8))
+                        .put((byte) pixel)
+                        .put((byte) (pixel >> 24));
+            }
+
+            buffer.flip();
+            return buffer;
+        }
+
+        public BufferedImage toBufferedImage()
+        {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+
+            return image;
+        }
+
+        public int[] getPixels()
+        {
+            return pixels;
+        }
+
+        public int getWidth()
+        {
+            return width;
+        }
+
+        public int getHeight()
+        {
+            return height;
+        }
+
+        public List<Region> getRegions()
+        {
+            return regions;
+        }
+    }
+}
@@ -24,10 +24,12 @@
 
 package com.shc.silenceengine.graphics;
 
+import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.graphics.opengl.BufferObject;
 import com.shc.silenceengine.graphics.opengl.GL3Context;
 import com.shc.silenceengine.graphics.opengl.Primitive;
 import com.shc.silenceengine.graphics.opengl.Program;
+import com.shc.silenceengine.graphics.opengl.RingBuffer;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.graphics.opengl.VertexArray;
 import com.shc.silenceengine.math.Matrix4;
@@ -36,8 +38,10 @@
 import com.shc.silenceengine.math.Vector3;
 import com.shc.silenceengine.math.Vector4;
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL20;
 
 import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
 import static org.lwjgl.opengl.GL11.*;
 
@@ -67,36 +71,59 @@
     public static final int SIZE_OF_COLOR    = Float.BYTES * NUM_COLOR_COMPONENTS;
     public static final int SIZE_OF_TEXCOORD = Float.BYTES * NUM_TEXCOORD_COMPONENTS;
 
-    // The maximum size of the batch is 1024^2 = 10,48,576 vertices
-    public static final int BATCH_SIZE = 1024 * 1024;
+    // The default size of the streaming buffer, 12 MB, in which the batches are written one after the other
+    public static final int DEFAULT_BUFFER_SIZE = 12 * 1024 * 1024;
+
+    // The maximum no. of quads in a single draw call, limited by the 16-bit indices of the quad index buffer
+    public static final int MAX_QUADS = 16384;
+
+    // The maximum no. of textures in a single draw call, the size of the sampler array in the default shader. OpenGL 3.3
+    // guarantees at least 16 texture units in the fragment shader.
+    public static final int MAX_TEXTURE_SLOTS = 16;
 
     // Active state of this batcher
     private boolean active = false;
 
-    // The buffers to store the collected data
-    private ByteBuffer vBuffer;
-    private ByteBuffer cBuffer;
-    private ByteBuffer tBuffer;
-    private ByteBuffer nBuffer;
+    // The ring of buffer space the batches are streamed into, and the range the current batch is being written to
+    private RingBuffer ring;
+    private ByteBuffer buffer;
 
-    // VAO and VBOs
+    // VAO, and the layout and locations its attributes are currently pointed with
     private VertexArray  vao;
-    private BufferObject vboVert;
-    private BufferObject vboCol;
-    private BufferObject vboTex;
-    private BufferObject vboNorm;
+    private VertexLayout pointedLayout;
+    private long         pointedLocations;
+
+    // The layout of the vertices in the buffer
+    private VertexLayout layout;
+
+    // The indices of the quads, 0-1-2 and 2-3-0 for every four vertices, and whether the batch is of quads
+    private BufferObject quadIndices;
+    private boolean      quads;
+
+    // The attributes of the last vertex, written to the buffer when the next vertex starts
+    private float[] pending;
+    private boolean pendingVertex;
+    private boolean pendingColor;
+    private boolean pendingTexCoord;
+
+    // The textures bound to the texture units in the current batch, the slot of each texture is its unit
+    private Texture[] slotTextures;
+    private int       numTextureSlots;
+    private int       maxTextureSlots;
 
     // VBO index locations in shader
     private int vertexLocation;
     private int colorLocation;
     private int texCoordLocation;
     private int normalLocation;
+    private int textureSlotLocation;
+
+    // The first of the four locations of the per-instance transform, used by the instanced static meshes
+    private int instanceTransformLocation;
 
-    // The no. of vertices in the current batch
+    // The no. of vertices in the current batch, and the no. that fit in the current range of the ring
     private int vertexCount;
-    private int colorCount;
-    private int texCoordCount;
-    private int normalCount;
+    private int maxVertices;
 
     // The rendering mode
     private Primitive beginMode;
@@ -105,54 +132,87 @@
     private Transform transform;
 
     /**
-     * Creates the Batcher, and initialises OpenGL
+     * Creates the Batcher with the default buffer size, and initialises OpenGL
      */
     public Batcher()
     {
-        // Create the buffers
-        vBuffer = BufferUtils.createByteBuffer(BATCH_SIZE * SIZE_OF_VERTEX);
-        nBuffer = BufferUtils.createByteBuffer(BATCH_SIZE * SIZE_OF_NORMAL);
-        cBuffer = BufferUtils.createByteBuffer(BATCH_SIZE * SIZE_OF_COLOR);
-        tBuffer = BufferUtils.createByteBuffer(BATCH_SIZE * SIZE_OF_TEXCOORD);
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates the Batcher, and initialises OpenGL
+     *
+     * @param bufferSize The size of the streaming buffer in bytes. A third of this is the largest batch that can be
+     *                   drawn in a single draw call, larger batches are split. It must be at least {@link
+     *                   #getMinBufferSize(VertexLayout)} of VertexLayout.FULL (16128 bytes), so that every range of the
+     *                   buffer fits a whole primitive.
+     *
+     * @throws IllegalArgumentException If the buffer size is less than the minimum size.
+     */
+    public Batcher(int bufferSize)
+    {
+        if (bufferSize < getMinBufferSize(VertexLayout.FULL))
+            throw new IllegalArgumentException("The buffer size of the Batcher should be at least "
+                                               + getMinBufferSize(VertexLayout.FULL) + " bytes, was " + bufferSize);
+
+        pending = new float[20];
+        layout = VertexLayout.FULL;
+
+        maxTextureSlots = Math.min(MAX_TEXTURE_SLOTS, glGetInteger(GL20.GL_MAX_TEXTURE_IMAGE_UNITS));
+
+        // No instancing until a program sets the location of the instance transform
+        instanceTransformLocation = -1;
+        slotTextures = new Texture[maxTextureSlots];
 
         // Create the transformations
         transform = new Transform();
 
         // Initialise OpenGL handles
-        initGLHandles();
+        vao = new VertexArray();
+        ring = new RingBuffer(bufferSize, BufferObject.Target.ARRAY_BUFFER);
+
+        createQuadIndices();
     }
 
+    /**
+     * Finds the smallest streaming buffer that can be used with a vertex layout. The buffer is split into the segments
+     * of the ring, and a range is never started in less than a MIN_FREE_DIVISOR-th of a segment, so that part of a
+     * segment should hold 12 vertices, the smallest count that is whole lines, triangles and quads.
+     *
+     * @param layout The vertex layout.
+     *
+     * @return The minimum buffer size in bytes.
+     */
+    public static int getMinBufferSize(VertexLayout layout)
+    {
+        return RingBuffer.NUM_SEGMENTS * RingBuffer.MIN_FREE_DIVISOR * 12 * layout.getStride();
+    }
 
     /**
-     * Initialises VAOs and VBOs and creates the data store to store the entire batch.
+     * Creates the static element buffer with the indices of MAX_QUADS quads. The base vertex of the draw call selects
+     * the vertices, so the same indices are used for every batch of quads.
      */
-    private void initGLHandles()
+    private void createQuadIndices()
     {
-        // Create a VAO
-        vao = new VertexArray();
-        vao.bind();
+        ShortBuffer indices = BufferUtils.createShortBuffer(MAX_QUADS * 6);
 
-        // Create VBOs
-        vboVert = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        vboCol = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        vboTex = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        vboNorm = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
+        for (int i = 0; i < MAX_QUADS; i++)
+        {
+            short first = (short) (i * 4);
 
-        // Initialize vertex-buffer
-        vboVert.bind();
-        vboVert.uploadData(BATCH_SIZE, BufferObject.Usage.STREAM_DRAW);
+            indices.put(first).put((short) (first + 1)).put((short) (first + 2))
+                    .put((short) (first + 2)).put((short) (first + 3)).put(first);
+        }
 
-        // Initialize color-buffer
-        vboCol.bind();
-        vboCol.uploadData(BATCH_SIZE, BufferObject.Usage.STREAM_DRAW);
+        indices.flip();
 
-        // Initialize texcoord-buffer
-        vboTex.bind();
-        vboTex.uploadData(BATCH_SIZE, BufferObject.Usage.STREAM_DRAW);
+        // The element array buffer binding is stored in the VAO
+        vao.bind();
 
-        // Initialize normal-buffer
-        vboNorm.bind();
-        vboNorm.uploadData(BATCH_SIZE, BufferObject.Usage.STREAM_DRAW);
+        quadIndices = new BufferObject(BufferObject.Target.ELEMENT_ARRAY_BUFFER);
+        quadIndices.uploadData(indices, BufferObject.Usage.STATIC_DRAW);
+
+        GL3Context.bindVertexArray(null);
     }
 
     /**
@@ -161,20 +221,41 @@ private void initGLHandles()
      * @param beginMode The Mode to begin rendering with
      */
     public void begin(Primitive beginMode)
+    {
+        begin(beginMode, false);
+    }
+
+    /**
+     * Begins the batcher to draw quads, which are added using the quad() methods. Each quad is four vertices, which are
+     * drawn as two triangles using the static quad indices.
+     */
+    public void beginQuads()
+    {
+        begin(Primitive.TRIANGLES, true);
+    }
+
+    private void begin(Primitive beginMode, boolean quads)
     {
         if (active)
             throw new IllegalStateException("Batcher Already Active!");
 
+        // Draw the queued draws first, so that they stay below whatever is drawn directly
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        if (queue != null && !queue.isFlushing())
+            queue.flush();
+
         active = true;
+        this.quads = quads;
 
         vertexCount = 0;
-        colorCount = 0;
-        texCoordCount = 0;
-        normalCount = 0;
+        pendingVertex = false;
+
+        clearTextureSlots();
 
         this.beginMode = beginMode;
 
-        mapBuffers();
+        beginRange();
     }
 
     public void begin()
@@ -192,8 +273,89 @@ public void end()
 
         active = false;
 
-        flush();
-        unmapBuffers();
+        writePendingVertex();
+        drawRange();
+
+        if (vertexCount > 0)
+            transform.reset();
+
+        quads = false;
+        clearTextureSlots();
+    }
+
+    /**
+     * Uses a texture for the vertices and quads added after this call. The texture is bound to a texture unit of its
+     * own, and the vertices sample from that unit, so the vertices of many textures are drawn in a single batch. The
+     * batch is only flushed when there are more textures than texture units. The textures are compared by their IDs,
+     * so all the sub textures of a texture share a unit.
+     *
+     * <p> The vertices only sample from the slot with the default program, and with a layout that has the
+     * TEXTURE_SLOT attribute, like {@link VertexLayout#MULTI_TEXTURE_2D}. </p>
+     *
+     * @param texture The texture to use.
+     *
+     * @return The slot of the texture, which is also the texture unit it is bound to.
+     */
+    public int useTexture(Texture texture)
+    {
+        if (!active)
+            throw new IllegalStateException("Batcher not Active!");
+
+        // The last vertex still uses the previous texture
+        writePendingVertex();
+
+        int slot = findTextureSlot(texture);
+
+        if (slot == -1)
+        {
+            if (numTextureSlots == maxTextureSlots)
+            {
+                flush();
+                clearTextureSlots();
+            }
+
+            slot = numTextureSlots++;
+            slotTextures[slot] = texture;
+
+            texture.bind(slot);
+        }
+
+        pending[16] = slot;
+        return slot;
+    }
+
+    private int findTextureSlot(Texture texture)
+    {
+        for (int i = 0; i < numTextureSlots; i++)
+        {
+            if (slotTextures[i].getId() == texture.getId())
+                return i;
+        }
+
+        return -1;
+    }
+
+    private void clearTextureSlots()
+    {
+        for (int i = 0; i < numTextureSlots; i++)
+            slotTextures[i] = null;
+
+        numTextureSlots = 0;
+        pending[16] = 0;
+    }
+
+    /**
+     * @return The texture unit the vertices in a slot sample from. When no textures are used with useTexture(), the
+     * slot 0 samples from the active texture unit, so that the texture bound to it is used.
+     */
+    public int getTextureUnit(int slot)
+    {
+        return numTextureSlots == 0 ? Texture.getActiveUnit() : slot;
+    }
+
+    public int getMaxTextureSlots()
+    {
+        return maxTextureSlots;
     }
 
     /**
@@ -219,116 +381,132 @@ public void flush()
         if (vertexCount == 0)
             return;
 
-        // Fill the buffers
-        fillBuffers();
-
-        // Buffer unmapping
-        unmapBuffers();
-
-        Program.CURRENT.prepareFrame();
-
-        // Flip the buffers
-        vBuffer.flip();
-        cBuffer.flip();
-        tBuffer.flip();
-        nBuffer.flip();
+        writePendingVertex();
+        drawRange();
 
-        // Bind the VAO
-        vao.bind();
-        vao.enableAttributeArray(vertexLocation);
-        vao.enableAttributeArray(colorLocation);
-        vao.enableAttributeArray(texCoordLocation);
-        vao.enableAttributeArray(normalLocation);
-
-        // Do a rendering
-        GL3Context.drawArrays(vao, beginMode, 0, vertexCount);
+        vertexCount = 0;
 
-        // Unbind the VAO
-        vao.disableAttributeArray(vertexLocation);
-        vao.disableAttributeArray(colorLocation);
-        vao.disableAttributeArray(texCoordLocation);
-        vao.disableAttributeArray(normalLocation);
+        // Continue the batch in the space after the drawn data
+        beginRange();
 
-        GL3Context.bindVertexArray(null);
+        transform.reset();
+    }
 
-        // Clear the buffers
-        vBuffer.clear();
-        cBuffer.clear();
-        tBuffer.clear();
-        nBuffer.clear();
+    /**
+     * Starts writing the vertices into the next free range of the ring.
+     */
+    private void beginRange()
+    {
+        int stride = layout.getStride();
 
-        // Clear the vertex count
-        vertexCount = 0;
-        colorCount = 0;
-        texCoordCount = 0;
-        normalCount = 0;
+        buffer = ring.begin(stride);
 
-        // Map the buffers again
-        mapBuffers();
+        // Keep whole primitives in a range, 12 is a multiple of the vertices in lines, triangles and quads
+        maxVertices = buffer.remaining() / stride / 12 * 12;
 
-        transform.reset();
+        if (quads)
+            maxVertices = Math.min(maxVertices, MAX_QUADS * 4);
     }
 
-    private void fillBuffers()
+    /**
+     * Commits the written range of the ring, and draws the vertices in it.
+     */
+    private void drawRange()
     {
-        // Determine the fill color
-        Color col = texCoordCount == vertexCount ? Color.TRANSPARENT : Color.WHITE;
+        int offset = ring.commit(buffer);
 
-        // Fill the color buffers
-        while (colorCount < vertexCount)
-        {
-            cBuffer.putFloat(col.getR()).putFloat(col.getG()).putFloat(col.getB()).putFloat(col.getA());
-            colorCount++;
-        }
+        if (vertexCount == 0)
+            return;
 
-        // Fill the texcoord buffers
-        while (texCoordCount < vertexCount)
-        {
-            tBuffer.putFloat(0).putFloat(0);
-            texCoordCount++;
-        }
+        Program.CURRENT.prepareFrame();
 
-        // Fill the normal buffers
-        while (normalCount < vertexCount)
+        if (!vao.isValid())
         {
-            // Junk normal
-            nBuffer.putFloat(0).putFloat(0).putFloat(0).putFloat(0);
-            normalCount++;
+            vao = new VertexArray();
+            pointedLayout = null;
         }
+
+        vao.bind();
+        pointAttributes();
+
+        for (VertexLayout.Attribute attribute : layout.getAttributes())
+            vao.enableAttributeArray(getLocation(attribute.usage));
+
+        // The attributes point to the start of the buffer, the first vertex selects the range
+        if (quads)
+            GL3Context.drawElementsBaseVertex(vao, Primitive.TRIANGLES, 0, vertexCount / 4 * 6, GL_UNSIGNED_SHORT,
+                    offset / layout.getStride());
+        else
+            GL3Context.drawArrays(vao, beginMode, offset / layout.getStride(), vertexCount);
+
+        for (VertexLayout.Attribute attribute : layout.getAttributes())
+            vao.disableAttributeArray(getLocation(attribute.usage));
+
+        GL3Context.bindVertexArray(null);
     }
 
     /**
-     * Unmaps the buffers and invalidates the pointer to their data store.
+     * Points the attributes of the VAO to the ring, only if the layout or the locations changed since they were last
+     * pointed. The attributes always point to the start of the ring, so they stay valid between the flushes.
      */
-    private void unmapBuffers()
+    private void pointAttributes()
     {
-        vboVert.unMap();
-        vboCol.unMap();
-        vboTex.unMap();
-        vboNorm.unMap();
+        long locations = vertexLocation | colorLocation << 8 | texCoordLocation << 16 | (long) normalLocation << 24
+                         | (long) textureSlotLocation << 32;
+
+        if (pointedLayout == layout && pointedLocations == locations)
+            return;
+
+        for (VertexLayout.Attribute attribute : layout.getAttributes())
+            vao.pointAttribute(getLocation(attribute.usage), attribute.format.count, attribute.format.glType,
+                    attribute.format.normalized, layout.getStride(), layout.getOffset(attribute.usage),
+                    ring.getBufferObject());
+
+        // A new VAO needs the quad indices too
+        quadIndices.bind(true);
+
+        pointedLayout = layout;
+        pointedLocations = locations;
     }
 
     /**
-     * Maps the buffers to get their data storage pointers.
+     * Writes the last vertex to the buffer, filling the attributes that were not specified. The missing color is white
+     * for plain vertices and transparent for textured ones, and the missing texcoords and normals are zero.
      */
-    private void mapBuffers()
+    private void writePendingVertex()
     {
-        if (!vao.isValid())
-            vao = new VertexArray();
-
-        vao.bind(true);
+        if (!pendingVertex)
+            return;
 
-        vBuffer = vboVert.map(BufferObject.MapAccess.WRITE_ONLY, vBuffer);
-        vao.pointAttribute(vertexLocation, NUM_VERTEX_COMPONENTS, GL_FLOAT, vboVert);
+        if (!pendingColor)
+        {
+            Color col = pendingTexCoord ? Color.TRANSPARENT : Color.WHITE;
 
-        cBuffer = vboCol.map(BufferObject.MapAccess.WRITE_ONLY, cBuffer);
-        vao.pointAttribute(colorLocation, NUM_COLOR_COMPONENTS, GL_FLOAT, vboCol);
+            pending[4] = col.getR();
+            pending[5] = col.getG();
+            pending[6] = col.getB();
+            pending[7] = col.getA();
+        }
 
-        tBuffer = vboTex.map(BufferObject.MapAccess.WRITE_ONLY, tBuffer);
-        vao.pointAttribute(texCoordLocation, NUM_TEXCOORD_COMPONENTS, GL_FLOAT, vboTex);
+        layout.put(buffer, pending);
+        pendingVertex = false;
+    }
 
-        nBuffer = vboNorm.map(BufferObject.MapAccess.WRITE_ONLY, nBuffer);
-        vao.pointAttribute(normalLocation, NUM_NORMAL_COMPONENTS, GL_FLOAT, vboNorm);
+    private int getLocation(VertexLayout.Usage usage)
+    {
+        switch (usage)
+        {
+            case POSITION:
+                return vertexLocation;
+            case COLOR:
+                return colorLocation;
+            case TEXCOORD:
+                return texCoordLocation;
+            case NORMAL:
+                return normalLocation;
+            default:
+                return textureSlotLocation;
+        }
     }
 
     public void applyTransform(Matrix4 m)
@@ -345,17 +523,105 @@ public void vertex(float x, float y)
 
     public void vertex(float x, float y, float z, float w)
     {
+        if (quads)
+            throw new IllegalStateException("Use quad() while the Batcher is drawing quads!");
+
         flushOnOverflow(1);
-        fillBuffers();
+        writePendingVertex();
+
+        pending[0] = x;
+        pending[1] = y;
+        pending[2] = z;
+        pending[3] = w;
+
+        // Default texcoord and normal, the color is decided when the vertex is written
+        pending[8] = pending[9] = 0;
+        pending[12] = pending[13] = pending[14] = pending[15] = 0;
 
-        vBuffer.putFloat(x).putFloat(y).putFloat(z).putFloat(w);
+        pendingVertex = true;
+        pendingColor = pendingTexCoord = false;
         vertexCount++;
     }
 
-    public void flushOnOverflow(int capacity)
+    /**
+     * Adds a textured quad, with its corners in order. The quad is drawn as the triangles 0-1-2 and 2-3-0. The batcher
+     * must have been started with beginQuads().
+     */
+    public void quad(float x0, float y0, float u0, float v0,
+                     float x1, float y1, float u1, float v1,
+                     float x2, float y2, float u2, float v2,
+                     float x3, float y3, float u3, float v3)
+    {
+        // Textured vertices, with the same fill color as the textured vertices added with vertex()
+        quad(x0, y0, u0, v0, x1, y1, u1, v1, x2, y2, u2, v2, x3, y3, u3, v3, Color.TRANSPARENT);
+    }
+
+    /**
+     * Adds a textured quad, with its corners in order, and the color of all its corners. The batcher must have been
+     * started with beginQuads().
+     */
+    public void quad(float x0, float y0, float u0, float v0,
+                     float x1, float y1, float u1, float v1,
+                     float x2, float y2, float u2, float v2,
+                     float x3, float y3, float u3, float v3, Color color)
+    {
+        if (!quads)
+            throw new IllegalStateException("Batcher is not drawing quads!");
+
+        flushOnOverflow(4);
+
+        pending[4] = color.getR();
+        pending[5] = color.getG();
+        pending[6] = color.getB();
+        pending[7] = color.getA();
+        pending[12] = pending[13] = pending[14] = pending[15] = 0;
+
+        quadVertex(x0, y0, u0, v0);
+        quadVertex(x1, y1, u1, v1);
+        quadVertex(x2, y2, u2, v2);
+        quadVertex(x3, y3, u3, v3);
+
+        vertexCount += 4;
+    }
+
+    /**
+     * Adds an axis aligned textured quad. The batcher must have been started with beginQuads().
+     */
+    public void quad(float x, float y, float width, float height, float minU, float minV, float maxU, float maxV)
+    {
+        quad(x, y, minU, minV,
+                x + width, y, maxU, minV,
+                x + width, y + height, maxU, maxV,
+                x, y + height, minU, maxV);
+    }
+
+    private void quadVertex(float x, float y, float u, float v)
     {
-        if (vertexCount + capacity >= BATCH_SIZE)
-            flush();
+        pending[0] = x;
+        pending[1] = y;
+        pending[2] = 0;
+        pending[3] = 1;
+        pending[8] = u;
+        pending[9] = v;
+
+        layout.put(buffer, pending);
+    }
+
+    /**
+     * Flushes the batch if the given no. of vertices do not fit in it. A flush resets the transform, so the callers
+     * that keep a transform over a batch should apply it again when this returns true.
+     *
+     * @param capacity The no. of vertices that are about to be added.
+     *
+     * @return True if the batch was flushed.
+     */
+    public boolean flushOnOverflow(int capacity)
+    {
+        if (vertexCount + capacity <= maxVertices)
+            return false;
+
+        flush();
+        return true;
     }
 
     public void vertex(float x, float y, float z)
@@ -390,9 +656,11 @@ public void color(Vector4 c)
 
     public void color(float r, float g, float b, float a)
     {
-        // Add the specified color
-        cBuffer.putFloat(r).putFloat(g).putFloat(b).putFloat(a);
-        colorCount++;
+        pending[4] = r;
+        pending[5] = g;
+        pending[6] = b;
+        pending[7] = a;
+        pendingColor = true;
     }
 
     public void texCoord(Vector2 v)
@@ -402,9 +670,9 @@ public void texCoord(Vector2 v)
 
     public void texCoord(float u, float v)
     {
-        // Add the specified texcoord
-        tBuffer.putFloat(u).putFloat(v);
-        texCoordCount++;
+        pending[8] = u;
+        pending[9] = v;
+        pendingTexCoord = true;
     }
 
     public void normal(float x, float y, float z)
@@ -414,8 +682,10 @@ public void normal(float x, float y, float z)
 
     public void normal(float x, float y, float z, float w)
     {
-        nBuffer.putFloat(x).putFloat(y).putFloat(z).putFloat(w);
-        normalCount++;
+        pending[12] = x;
+        pending[13] = y;
+        pending[14] = z;
+        pending[15] = w;
     }
 
     public void normal(Vector3 n)
@@ -479,9 +749,48 @@ public void dispose()
         GL3Context.bindVertexArray(null);
         vao.dispose();
         GL3Context.bindVertexBuffer(null);
-        vboVert.dispose();
-        vboCol.dispose();
-        vboTex.dispose();
+        ring.dispose();
+        quadIndices.dispose();
+    }
+
+    public VertexLayout getVertexLayout()
+    {
+        return layout;
+    }
+
+    public RingBuffer getRingBuffer()
+    {
+        return ring;
+    }
+
+    /**
+     * @return The static element buffer with the indices of MAX_QUADS quads, each four vertices drawn as two triangles.
+     * The vertices of other buffers can be drawn as quads with these indices too.
+     */
+    public BufferObject getQuadIndices()
+    {
+        return quadIndices;
+    }
+
+    /**
+     * Sets the layout of the vertices. The vertices are written interleaved into the buffer in the formats of the
+     * layout, and the attributes not in the layout are ignored. A null layout uses VertexLayout.FULL, which keeps all
+     * the attributes as floats. The layout cannot be changed while the batcher is active.
+     *
+     * @param layout The new vertex layout, or null.
+     *
+     * @throws IllegalArgumentException If the vertices of the layout are too large for the buffer of this batcher.
+     */
+    public void setVertexLayout(VertexLayout layout)
+    {
+        if (active)
+            throw new IllegalStateException("Cannot change the vertex layout while the Batcher is active!");
+
+        if (layout != null && ring.getCapacity() < getMinBufferSize(layout))
+            throw new IllegalArgumentException("The vertex layout needs a buffer of at least "
+                                               + getMinBufferSize(layout) + " bytes");
+
+        this.layout = layout == null ? VertexLayout.FULL : layout;
     }
 
     public int getVertexLocation()
@@ -524,6 +833,32 @@ public void setNormalLocation(int normalLocation)
         this.normalLocation = normalLocation;
     }
 
+    public int getTextureSlotLocation()
+    {
+        return textureSlotLocation;
+    }
+
+    public void setTextureSlotLocation(int textureSlotLocation)
+    {
+        this.textureSlotLocation = textureSlotLocation;
+    }
+
+    public int getInstanceTransformLocation()
+    {
+        return instanceTransformLocation;
+    }
+
+    /**
+     * Sets the first of the four locations of the per-instance transform. The static meshes are only drawn with
+     * instancing when this is set, a negative location (the default) makes them draw the instances one by one.
+     *
+     * @param instanceTransformLocation The first location of the instanceTransform attribute, or -1 if there is none.
+     */
+    public void setInstanceTransformLocation(int instanceTransformLocation)
+    {
+        this.instanceTransformLocation = instanceTransformLocation;
+    }
+
     public boolean isActive()
     {
         return active;
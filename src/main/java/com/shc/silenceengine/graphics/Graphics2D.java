@@ -29,6 +29,7 @@
 import com.shc.silenceengine.graphics.cameras.BaseCamera;
 import com.shc.silenceengine.graphics.cameras.OrthoCam;
 import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.math.Matrix4;
 import com.shc.silenceengine.math.Transform;
@@ -49,6 +50,7 @@
     private Paint        paint;
     private TrueTypeFont font;
     private Transform    transform;
+    private int          layer;
 
     /* Utility Methods */
     private BaseCamera originalCamera;
@@ -63,6 +65,7 @@ protected Graphics2D()
         paint = new Paint();
         transform = new Transform();
         font = TrueTypeFont.DEFAULT;
+        layer = RenderQueue.DEFAULT_LAYER;
     }
 
     public static Graphics2D getInstance()
@@ -85,34 +88,49 @@ public void drawRect(float x, float y, float w, float h)
 
     private void rect(float x, float y, float w, float h, Primitive primitive)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         startPainting();
         {
-            batcher.begin(primitive);
+            RenderQueue queue = beginDraw(primitive, Texture.CURRENT);
             {
-                batcher.vertex(x, y);
-                batcher.color(paint.getTopLeftColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x, y);
+                queue.color(paint.getTopLeftColor());
+                queue.normal(Vector3.AXIS_Z);
 
-                batcher.vertex(x + w, y);
-                batcher.color(paint.getTopRightColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x + w, y);
+                queue.color(paint.getTopRightColor());
+                queue.normal(Vector3.AXIS_Z);
 
-                batcher.vertex(x + w, y + h);
-                batcher.color(paint.getBottomRightColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x + w, y + h);
+                queue.color(paint.getBottomRightColor());
+                queue.normal(Vector3.AXIS_Z);
 
-                batcher.vertex(x, y + h);
-                batcher.color(paint.getBottomLeftColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x, y + h);
+                queue.color(paint.getBottomLeftColor());
+                queue.normal(Vector3.AXIS_Z);
             }
-            batcher.end();
+            queue.end();
         }
         endPainting();
     }
 
+    /**
+     * Begins recording a draw into the render queue. The draws take their depth from the order in which all the draws
+     * are recorded, so that they are drawn in the order they are made, also with the sprites. The consecutive draws
+     * with the same state are still drawn in a single batch.
+     */
+    private RenderQueue beginDraw(Primitive primitive, Texture texture)
+    {
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        long key = RenderQueue.makeKey(layer, true, Program.CURRENT.getId(),
+                SilenceEngine.graphics.getCurrentMaterial().getID(), texture.getId(), queue.getSubmissionDepth());
+
+        queue.applyTransform(transform);
+        queue.begin(key, primitive, texture);
+
+        return queue;
+    }
+
     protected void startPainting()
     {
         originalCamera = BaseCamera.CURRENT;
@@ -163,9 +181,6 @@ public void drawOval(float x, float y, float rx, float ry)
 
     private void oval(float x, float y, float rx, float ry, Primitive primitive)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         Vector2 vertex = Vector2.REUSABLE_STACK.pop();
         Color color = Color.REUSABLE_STACK.pop();
 
@@ -174,18 +189,18 @@ private void oval(float x, float y, float rx, float ry, Primitive primitive)
             float width = 2 * rx;
             float height = 2 * ry;
 
-            batcher.begin(primitive);
+            RenderQueue queue = beginDraw(primitive, Texture.CURRENT);
             {
                 for (int i = 0; i < 360; i++)
                 {
                     vertex.set(MathUtils.cos(i) * rx, MathUtils.sin(i) * ry);
-                    batcher.vertex(x + vertex.x, y + vertex.y);
+                    queue.vertex(x + vertex.x, y + vertex.y);
 
-                    batcher.color(paint.getColor((rx + vertex.x) / width, (ry + vertex.y) / height, color));
-                    batcher.normal(Vector3.AXIS_Z);
+                    queue.color(paint.getColor((rx + vertex.x) / width, (ry + vertex.y) / height, color));
+                    queue.normal(Vector3.AXIS_Z);
                 }
             }
-            batcher.end();
+            queue.end();
         }
         endPainting();
 
@@ -225,31 +240,25 @@ public void fillCircle(float x, float y, float r)
 
     public void drawLine(float x1, float y1, float x2, float y2)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         startPainting();
         {
-            batcher.begin(Primitive.LINES);
+            RenderQueue queue = beginDraw(Primitive.LINES, Texture.CURRENT);
             {
-                batcher.vertex(x1, y1);
-                batcher.color(paint.getTopLeftColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x1, y1);
+                queue.color(paint.getTopLeftColor());
+                queue.normal(Vector3.AXIS_Z);
 
-                batcher.vertex(x2, y2);
-                batcher.color(paint.getTopRightColor());
-                batcher.normal(Vector3.AXIS_Z);
+                queue.vertex(x2, y2);
+                queue.color(paint.getTopRightColor());
+                queue.normal(Vector3.AXIS_Z);
             }
-            batcher.end();
+            queue.end();
         }
         endPainting();
     }
 
     private void polygon(Polygon polygon, Primitive primitive)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         startPainting();
         {
             Vector2 tempVec2 = Vector2.REUSABLE_STACK.pop();
@@ -258,17 +267,17 @@ private void polygon(Polygon polygon, Primitive primitive)
             float width = polygon.getBounds().getWidth();
             float height = polygon.getBounds().getHeight();
 
-            batcher.begin(primitive);
+            RenderQueue queue = beginDraw(primitive, Texture.CURRENT);
             {
                 for (Vector2 vertex : polygon.getVertices())
                 {
-                    batcher.vertex(tempVec2.set(vertex).addSelf(polygon.getPosition()));
+                    queue.vertex(tempVec2.set(vertex).addSelf(polygon.getPosition()));
                     tempVec2.subtractSelf(polygon.getPosition());
-                    batcher.color(paint.getColor(tempVec2.x / width, tempVec2.y / height, color));
-                    batcher.normal(Vector3.AXIS_Z);
+                    queue.color(paint.getColor(tempVec2.x / width, tempVec2.y / height, color));
+                    queue.normal(Vector3.AXIS_Z);
                 }
             }
-            batcher.end();
+            queue.end();
 
             Vector2.REUSABLE_STACK.push(tempVec2);
             Color.REUSABLE_STACK.push(color);
@@ -288,17 +297,12 @@ public void fillPolygon(Polygon polygon)
 
     public void drawTexturedPolygon(Texture texture, Polygon polygon)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         startPainting();
         {
             Vector2 vertex = Vector2.REUSABLE_STACK.pop();
             Vector2 texCoord = Vector2.REUSABLE_STACK.pop();
 
-            texture.bind();
-
-            batcher.begin(Primitive.TRIANGLE_FAN);
+            RenderQueue queue = beginDraw(Primitive.TRIANGLE_FAN, texture);
             {
                 float polygonWidth = polygon.getMaxX() - polygon.getMinX();
                 float polygonHeight = polygon.getMaxY() - polygon.getMinY();
@@ -306,7 +310,7 @@ public void drawTexturedPolygon(Texture texture, Polygon polygon)
                 polygon.getVertices().forEach(v ->
                 {
                     vertex.set(v).addSelf(polygon.getPosition());
-                    batcher.vertex(vertex);
+                    queue.vertex(vertex);
 
                     // Unrotate the original vertex to calculate the correct texture coordinates
                     texCoord.set(v)
@@ -322,10 +326,10 @@ public void drawTexturedPolygon(Texture texture, Polygon polygon)
 
                     texCoord.scaleSelf(texture.getMaxU() / polygonWidth, texture.getMaxV() / polygonHeight);
 
-                    batcher.texCoord(texCoord);
+                    queue.texCoord(texCoord);
                 });
             }
-            batcher.end();
+            queue.end();
 
             Vector2.REUSABLE_STACK.push(vertex);
             Vector2.REUSABLE_STACK.push(texCoord);
@@ -345,41 +349,37 @@ public void drawTexture(Texture texture, float x, float y, float w, float h, boo
 
     public void drawTexture(Texture texture, float x, float y, float w, float h, boolean flipX, boolean flipY, Color tint)
     {
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
-        batcher.applyTransform(transform);
-
         startPainting();
         {
-            texture.bind();
 
             float minU = texture.getMinU();
             float minV = texture.getMinV();
             float maxU = texture.getMaxU();
             float maxV = texture.getMaxV();
 
-            batcher.begin(Primitive.TRIANGLE_FAN);
+            RenderQueue queue = beginDraw(Primitive.TRIANGLE_FAN, texture);
             {
-                batcher.vertex(x, y);
-                batcher.color(tint);
-                batcher.normal(Vector3.AXIS_Z);
-                batcher.texCoord(flipX ? maxU : minU, flipY ? maxV : minV);
-
-                batcher.vertex(x + w, y);
-                batcher.color(tint);
-                batcher.normal(Vector3.AXIS_Z);
-                batcher.texCoord(flipX ? minU : maxU, flipY ? maxV : minV);
-
-                batcher.vertex(x + w, y + h);
-                batcher.color(tint);
-                batcher.normal(Vector3.AXIS_Z);
-                batcher.texCoord(flipX ? minU : maxU, flipY ? minV : maxV);
-
-                batcher.vertex(x, y + h);
-                batcher.color(tint);
-                batcher.normal(Vector3.AXIS_Z);
-                batcher.texCoord(flipX ? maxU : minU, flipY ? minV : maxV);
+                queue.vertex(x, y);
+                queue.color(tint);
+                queue.normal(Vector3.AXIS_Z);
+                queue.texCoord(flipX ? maxU : minU, flipY ? maxV : minV);
+
+                queue.vertex(x + w, y);
+                queue.color(tint);
+                queue.normal(Vector3.AXIS_Z);
+                queue.texCoord(flipX ? minU : maxU, flipY ? maxV : minV);
+
+                queue.vertex(x + w, y + h);
+                queue.color(tint);
+                queue.normal(Vector3.AXIS_Z);
+                queue.texCoord(flipX ? minU : maxU, flipY ? minV : maxV);
+
+                queue.vertex(x, y + h);
+                queue.color(tint);
+                queue.normal(Vector3.AXIS_Z);
+                queue.texCoord(flipX ? maxU : minU, flipY ? minV : maxV);
             }
-            batcher.end();
+            queue.end();
         }
         endPainting();
     }
@@ -510,6 +510,23 @@ public void setTransform(Transform transform)
         this.transform = transform;
     }
 
+    public int getLayer()
+    {
+        return layer;
+    }
+
+    /**
+     * Sets the layer of the render queue in which the next draws are made. By default, Graphics2D draws in the default
+     * layer, in the order of the draws with the sprites and the scenes. Use RenderQueue.OVERLAY_LAYER to draw above
+     * the scenes whatever the order is.
+     *
+     * @param layer The layer, in the range 0 to RenderQueue.MAX_LAYER.
+     */
+    public void setLayer(int layer)
+    {
+        this.layer = layer;
+    }
+
     public OrthoCam getCamera()
     {
         return camera;
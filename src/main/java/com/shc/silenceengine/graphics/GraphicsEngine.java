@@ -59,6 +59,7 @@ public class GraphicsEngine implements IEngine
 
     private Material    currentMaterial;
     private Batcher     batcher;
+    private RenderQueue renderQueue;
     private ModelBatch  modelBatch;
     private SpriteBatch spriteBatch;
 
@@ -77,6 +78,7 @@ public void init()
 
         // Create the Batcher
         batcher = new Batcher();
+        renderQueue = new RenderQueue();
 
         // Load default programs here
         Program.DEFAULT = DefaultProgram.getInstance();
@@ -125,6 +127,9 @@ public void beginFrame()
     @Override
     public void endFrame()
     {
+        // Draw everything queued in this frame
+        renderQueue.flush();
+
         Display.update();
 
         totalRenderCalls += renderCalls;
@@ -142,6 +147,7 @@ public void dispose()
         TrueTypeFont.DEFAULT.dispose();
 
         // Dispose the batcher
+        renderQueue.clear();
         batcher.dispose();
 
         // Dispose the default Programs
@@ -204,6 +210,15 @@ public void setBatcher(Batcher batcher)
         this.batcher = batcher;
     }
 
+    /**
+     * @return The queue where the SpriteBatch, ModelBatch and Graphics2D record their draws. It is flushed at the end
+     * of every frame.
+     */
+    public RenderQueue getRenderQueue()
+    {
+        return renderQueue;
+    }
+
     public Graphics2D getGraphics2D()
     {
         return Graphics2D.getInstance();
@@ -0,0 +1,223 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs rectangles into a fixed size area using the MaxRects algorithm. The free space is kept as a list of the
+ * maximal free rectangles, which may overlap each other. Each rectangle is placed in the free rectangle that leaves the
+ * shortest side left over (the best short side fit heuristic), and all the free rectangles that it overlaps are split
+ * around it.
+ *
+ * <p>This only works with the sizes and positions, so it can be used without an OpenGL context.</p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class MaxRectsPacker
+{
+    private int width;
+    private int height;
+
+    private List<Rect> freeRects;
+    private List<Rect> newRects;
+
+    private int usedArea;
+
+    public MaxRectsPacker(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+
+        freeRects = new ArrayList<>();
+        newRects = new ArrayList<>();
+
+        freeRects.add(new Rect(0, 0, width, height));
+    }
+
+    /**
+     * Finds a place for a rectangle and marks it as used.
+     *
+     * @param width    The width of the rectangle.
+     * @param height   The height of the rectangle.
+     * @param position The array where the x and y coordinates of the placed rectangle are written.
+     *
+     * @return True if the rectangle is placed, false if there is no free space that can hold it.
+     */
+    public boolean insert(int width, int height, int[] position)
+    {
+        Rect best = null;
+        int bestShortSide = Integer.MAX_VALUE;
+        int bestLongSide = Integer.MAX_VALUE;
+
+        for (Rect free : freeRects)
+        {
+            if (free.width < width || free.height < height)
+                continue;
+
+            int leftOverX = free.width - width;
+            int leftOverY = free.height - height;
+
+            int shortSide = Math.min(leftOverX, leftOverY);
+            int longSide = Math.max(leftOverX, leftOverY);
+
+            if (shortSide < bestShortSide || (shortSide == bestShortSide && longSide < bestLongSide))
+            {
+                best = free;
+                bestShortSide = shortSide;
+                bestLongSide = longSide;
+            }
+        }
+
+        if (best == null)
+            return false;
+
+        Rect placed = new Rect(best.x, best.y, width, height);
+
+        // Split every free rectangle that overlaps the placed one into the parts around it
+        for (int i = freeRects.size() - 1; i >= 0; i--)
+        {
+            if (splitFreeRect(freeRects.get(i), placed))
+                freeRects.remove(i);
+        }
+
+        pruneFreeRects();
+
+        usedArea += width * height;
+
+        position[0] = placed.x;
+        position[1] = placed.y;
+
+        return true;
+    }
+
+    private boolean splitFreeRect(Rect free, Rect used)
+    {
+        if (used.x >= free.x + free.width || used.x + used.width <= free.x ||
+            used.y >= free.y + free.height || used.y + used.height <= free.y)
+            return false;
+
+        // The parts to the left and right of the used rectangle
+        if (used.x > free.x)
+            newRects.add(new Rect(free.x, free.y, used.x - free.x, free.height));
+
+        if (used.x + used.width < free.x + free.width)
+            newRects.add(new Rect(used.x + used.width, free.y, free.x + free.width - used.x - used.width,
+                    free.height));
+
+        // The parts above and below the used rectangle
+        if (used.y > free.y)
+            newRects.add(new Rect(free.x, free.y, free.width, used.y - free.y));
+
+        if (used.y + used.height < free.y + free.height)
+            newRects.add(new Rect(free.x, used.y + used.height, free.width,
+                    free.y + free.height - used.y - used.height));
+
+        return true;
+    }
+
+    /**
+     * Removes the free rectangles that are contained in other free rectangles. Only the new rectangles from the last
+     * split need to be checked, since they are parts of the old ones, no old rectangle can be inside them.
+     */
+    private void pruneFreeRects()
+    {
+        for (int i = newRects.size() - 1; i >= 0; i--)
+        {
+            Rect rect = newRects.get(i);
+            boolean contained = false;
+
+            for (Rect free : freeRects)
+            {
+                if (free.contains(rect))
+                {
+                    contained = true;
+                    break;
+                }
+            }
+
+            if (!contained)
+            {
+                for (int j = 0; j < newRects.size(); j++)
+                {
+                    Rect other = newRects.get(j);
+
+                    // Of two equal rectangles, keep only the first one
+                    if (j != i && other.contains(rect) && (!rect.contains(other) || j < i))
+                    {
+                        contained = true;
+                        break;
+                    }
+                }
+            }
+
+            if (contained)
+                newRects.remove(i);
+        }
+
+        freeRects.addAll(newRects);
+        newRects.clear();
+    }
+
+    /**
+     * @return The fraction of the area that is used, in the range of 0 to 1.
+     */
+    public float getOccupancy()
+    {
+        return (float) usedArea / (width * height);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    private static class Rect
+    {
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+
+        private Rect(int x, int y, int width, int height)
+        {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        private boolean contains(Rect r)
+        {
+            return r.x >= x && r.y >= y && r.x + r.width <= x + width && r.y + r.height <= y + height;
+        }
+    }
+}
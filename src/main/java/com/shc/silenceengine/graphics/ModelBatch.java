@@ -26,17 +26,20 @@
 
 import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.core.SilenceException;
-import com.shc.silenceengine.graphics.models.Face;
+import com.shc.silenceengine.graphics.cameras.BaseCamera;
 import com.shc.silenceengine.graphics.models.Mesh;
 import com.shc.silenceengine.graphics.models.Model;
 import com.shc.silenceengine.graphics.models.StaticMesh;
-import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.math.Matrix4;
 import com.shc.silenceengine.math.Transform;
 import com.shc.silenceengine.math.Vector3;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A ModelBatch is used to batch different models into batches, and reduce the draw calls.
@@ -45,13 +48,11 @@
  */
 public class ModelBatch
 {
-    private List<Mesh>      meshes;
-    private List<Transform> transforms;
-    private List<Integer>   indices;
+    // The distance from the camera that maps to the farthest depth in the sort keys
+    private static final float MAX_DEPTH_DISTANCE = 1000;
 
-    private List<StaticMesh> staticMeshes;
-    private List<Transform>  staticMeshTransforms;
-    private List<Integer>    staticMeshIndices;
+    // The transforms of every mesh added since the last flush, grouped to find the meshes that can be instanced
+    private Map<Mesh, List<Transform>> instances;
 
     private Transform transform;
 
@@ -59,13 +60,7 @@
 
     public ModelBatch()
     {
-        meshes = new ArrayList<>();
-        transforms = new ArrayList<>();
-        indices = new ArrayList<>();
-
-        staticMeshes = new ArrayList<>();
-        staticMeshTransforms = new ArrayList<>();
-        staticMeshIndices = new ArrayList<>();
+        instances = new LinkedHashMap<>();
     }
 
     public void begin()
@@ -78,119 +73,117 @@ public void begin(Transform transform)
         if (active)
             throw new SilenceException("ModelBatch already active");
 
-        meshes.clear();
-        transforms.clear();
-        indices.clear();
-
-        staticMeshes.clear();
-        staticMeshTransforms.clear();
-        staticMeshIndices.clear();
+        instances.clear();
 
         this.transform = transform;
 
         active = true;
     }
 
+    /**
+     * Draws the meshes added since the last flush. The meshes added more than once are drawn with a single instanced
+     * draw of their static mesh, and the large meshes are drawn with their static mesh. The other meshes are recorded
+     * into the {@link RenderQueue}, which draws them sorted on their material when it is flushed. The small translucent
+     * meshes are always recorded, since they need to be sorted back to front with everything else. The static meshes
+     * flush the queue before they draw, so a static mesh is always drawn after the meshes recorded before it.
+     */
     public void flush()
     {
-        sortMeshes();
+        if (instances.isEmpty())
+            return;
 
-        if (meshes.size() > 0)
-        {
-            Batcher batcher = SilenceEngine.graphics.getBatcher();
+        Transform temp = Transform.REUSABLE_STACK.pop();
 
-            Material originalMaterial = SilenceEngine.graphics.getCurrentMaterial();
-            Texture originalTexture = Texture.CURRENT;
+        for (Map.Entry<Mesh, List<Transform>> entry : instances.entrySet())
+        {
+            Mesh mesh = entry.getKey();
+            List<Transform> meshTransforms = entry.getValue();
 
-            Material material = meshes.get(indices.get(0)).getMaterial();
-            material.getDiffuseMap().bind();
-            SilenceEngine.graphics.useMaterial(material);
+            boolean large = mesh.getNumberOfVertices() > 900 || mesh.prefersStatic();
+            boolean translucent = mesh.getMaterial().getDissolve() < 1;
 
-            Vector3 temp = Vector3.REUSABLE_STACK.pop();
+            if (meshTransforms.size() > 1 && (large || !translucent))
+                SilenceEngine.graphics.getStaticMesh(mesh).renderInstanced(meshTransforms, this.transform);
 
-            if (transform != null) batcher.applyTransform(transform);
-            batcher.begin();
+            else if (large)
             {
-                for (int i : indices)
+                StaticMesh staticMesh = SilenceEngine.graphics.getStaticMesh(mesh);
+
+                for (Transform transform : meshTransforms)
                 {
-                    Mesh mesh = meshes.get(i);
-
-                    if (!mesh.getMaterial().equals(material))
-                    {
-                        batcher.end();
-
-                        material = mesh.getMaterial();
-                        material.getDiffuseMap().bind();
-                        SilenceEngine.graphics.useMaterial(material);
-
-                        if (transform != null) batcher.applyTransform(transform);
-                        batcher.begin();
-                    }
-
-                    Transform transform = transforms.get(i);
-                    Color color = mesh.getMaterial().getDiffuse();
-
-                    Matrix4 modelMatrix = transform.getMatrix();
-                    Matrix4 normalMatrix = Matrix4.REUSABLE_STACK.pop();
-                    normalMatrix.set(modelMatrix).invertSelf().transposeSelf();
-
-                    for (Face face : mesh.getFaces())
-                    {
-                        batcher.vertex(temp.set(mesh.getVertices().get((int) face.vertexIndex.x)).multiplySelf(modelMatrix));
-                        batcher.normal(temp.set(mesh.getNormals().get((int) face.normalIndex.x)).multiplySelf(normalMatrix).normalizeSelf());
-                        batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.x));
-                        batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
-
-                        batcher.vertex(temp.set(mesh.getVertices().get((int) face.vertexIndex.y)).multiplySelf(modelMatrix));
-                        batcher.normal(temp.set(mesh.getNormals().get((int) face.normalIndex.y)).multiplySelf(normalMatrix).normalizeSelf());
-                        batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.y));
-                        batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
-
-                        batcher.vertex(temp.set(mesh.getVertices().get((int) face.vertexIndex.z)).multiplySelf(modelMatrix));
-                        batcher.normal(temp.set(mesh.getNormals().get((int) face.normalIndex.z)).multiplySelf(normalMatrix).normalizeSelf());
-                        batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.z));
-                        batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
-                    }
-
-                    Matrix4.REUSABLE_STACK.push(normalMatrix);
+                    if (this.transform != null)
+                        transform = temp.set(transform).applySelf(this.transform);
+
+                    staticMesh.render(transform);
                 }
             }
-            batcher.end();
 
-            Vector3.REUSABLE_STACK.push(temp);
-
-            originalTexture.bind();
-            SilenceEngine.graphics.useMaterial(originalMaterial);
+            else
+            {
+                for (Transform transform : meshTransforms)
+                    record(mesh, transform);
+            }
         }
 
-        meshes.clear();
-        transforms.clear();
-        indices.clear();
+        Transform.REUSABLE_STACK.push(temp);
 
-        if (staticMeshes.size() > 0)
-        {
-            Transform temp = Transform.REUSABLE_STACK.pop();
+        instances.clear();
+    }
 
-            for (int i : staticMeshIndices)
-            {
-                StaticMesh mesh = staticMeshes.get(i);
-                Transform transform = staticMeshTransforms.get(i);
+    /**
+     * Records a mesh into the render queue, transforming its vertices and normals on the CPU.
+     */
+    private void record(Mesh mesh, Transform transform)
+    {
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+        Matrix4 view = BaseCamera.CURRENT.getView();
 
-                mesh.render(this.transform == null ? transform : temp.set(transform).applySelf(this.transform));
-            }
+        Vector3 temp = Vector3.REUSABLE_STACK.pop();
+        Matrix4 normalMatrix = Matrix4.REUSABLE_STACK.pop();
 
-            Transform.REUSABLE_STACK.push(temp);
-        }
+        Material material = mesh.getMaterial();
+        Color color = material.getDiffuse();
 
-        staticMeshes.clear();
-        staticMeshTransforms.clear();
-        staticMeshIndices.clear();
-    }
+        Matrix4 modelMatrix = transform.getMatrix();
+        normalMatrix.set(modelMatrix).invertSelf().transposeSelf();
 
-    private void sortMeshes()
-    {
-        // Only sort the indices
-        indices.sort((i, j) -> meshes.get(i).getMaterial().getID() - meshes.get(j).getMaterial().getID());
+        // The distance of the origin of the mesh from the camera, the camera looks along the negative Z axis
+        temp.set(modelMatrix.get(3, 0), modelMatrix.get(3, 1), modelMatrix.get(3, 2));
+
+        if (this.transform != null)
+            temp.multiplySelf(this.transform.getMatrix());
+
+        int depth = RenderQueue.quantizeDepth(-temp.multiplySelf(view).z, MAX_DEPTH_DISTANCE);
+
+        long key = RenderQueue.makeKey(RenderQueue.DEFAULT_LAYER, material.getDissolve() < 1,
+                Program.CURRENT.getId(), material.getID(), material.getDiffuseMap().getId(), depth);
+
+        if (this.transform != null)
+            queue.applyTransform(this.transform);
+
+        float[] positions = mesh.getPositionData();
+        float[] normals = mesh.getNormalData();
+        float[] texcoords = mesh.getTexcoordData();
+        int[] indices = mesh.getIndexData();
+
+        queue.begin(key, Primitive.TRIANGLES, material.getDiffuseMap(), material);
+        {
+            for (int i = 0; i < mesh.getIndexCount(); i++)
+            {
+                int v = indices[i];
+
+                queue.vertex(temp.set(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2])
+                        .multiplySelf(modelMatrix));
+                queue.normal(temp.set(normals[v * 3], normals[v * 3 + 1], normals[v * 3 + 2])
+                        .multiplySelf(normalMatrix).normalizeSelf());
+                queue.texCoord(texcoords[v * 2], texcoords[v * 2 + 1]);
+                queue.color(color.x, color.y, color.z, material.getDissolve());
+            }
+        }
+        queue.end();
+
+        Matrix4.REUSABLE_STACK.push(normalMatrix);
+        Vector3.REUSABLE_STACK.push(temp);
     }
 
     public void end()
@@ -209,17 +202,6 @@ public void addModel(Model model, Transform transform)
 
     public void addMesh(Mesh mesh, Transform transform)
     {
-        if (mesh.getNumberOfVertices() <= 900 && !mesh.prefersStatic())
-        {
-            meshes.add(mesh);
-            transforms.add(transform);
-            indices.add(meshes.size() - 1);
-        }
-        else
-        {
-            staticMeshes.add(SilenceEngine.graphics.getStaticMesh(mesh));
-            staticMeshTransforms.add(transform);
-            staticMeshIndices.add(staticMeshes.size() - 1);
-        }
+        instances.computeIfAbsent(mesh, m -> new ArrayList<>()).add(transform);
     }
 }
@@ -0,0 +1,938 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics;
+
+import com.shc.silenceengine.core.SilenceEngine;
+import com.shc.silenceengine.graphics.cameras.BaseCamera;
+import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Program;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.utils.SortUtils;
+
+import java.util.Arrays;
+
+/**
+ * A queue of the draws made in a frame. Instead of drawing immediately, the SpriteBatch, the ModelBatch and Graphics2D
+ * record their draws here, each with the state it needs (the camera, program, material and the texture) and a 64-bit
+ * sort key. When the queue is flushed, the draws are sorted on their keys and submitted to the Batcher, changing the
+ * state only when it differs from the previous draw, and merging the consecutive draws with the same state into a
+ * single batch. The quads of different textures are merged too when the program supports the texture slots, and the
+ * textures are bound to different texture units with {@link Batcher#useTexture(Texture)}.
+ *
+ * <p>The sort key is packed so that the draws are sorted first on the layer, then opaque before translucent. The
+ * opaque draws are then sorted on the program, material and texture, and front to back last. The translucent draws
+ * have to be drawn back to front, so they are sorted on the depth first, and on the state after that.</p>
+ *
+ * <pre>
+ *     Opaque:      | layer (8) | 0 | program (8) | material (16) | texture (16) | depth (15)          |
+ *     Translucent: | layer (8) | 1 | depth (15, far first) | program (8) | material (16) | texture (16) |
+ * </pre>
+ *
+ * <p>The queue is flushed at the end of every frame, and also before anything is drawn directly with the Batcher, so
+ * the queued draws still appear below whatever is drawn directly after them. The changes of the state that is not a
+ * part of the draws, like binding a framebuffer, clearing, or changing the blending, the depth state or the viewport
+ * through the {@link com.shc.silenceengine.graphics.opengl.GL3Context}, flush the queue first so that the queued draws
+ * are made with the state they were recorded in. The camera and the material of every draw are copied when it is
+ * recorded.</p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class RenderQueue
+{
+    public static final int MAX_LAYER = 0xFF;
+    public static final int MAX_DEPTH = 0x7FFF;
+
+    // The layers of the scenes, and of the things drawn over them
+    public static final int DEFAULT_LAYER = 128;
+    public static final int OVERLAY_LAYER = 192;
+
+    // The vertices are kept in the same format as the Batcher, position, color, texcoord and normal
+    private static final int VERTEX_SIZE = 16;
+
+    // The fill color of the textured vertices
+    private static final int TRANSPARENT_RGBA = packColor(Color.TRANSPARENT);
+
+    // The draws, and their state
+    private long[]       keys;
+    private int[]        order;
+    private long[]       tempKeys;
+    private int[]        tempOrder;
+    private Primitive[] primitives;
+    private boolean[]   quads;
+    private Texture[]   textures;
+    private int[]       materials;
+    private Program[]   programs;
+    private int[]       cameras;
+    private int[]       firstVertices;
+    private int[]       vertexCounts;
+    private int         numCommands;
+
+    // The cameras and materials are copied when the draws are recorded, so that moving a camera or editing a material
+    // after a draw doesn't change the draws that are already queued. The consecutive draws share their copies.
+    private BaseCamera[]   sourceCameras;
+    private QueuedCamera[] cameraCopies;
+    private int            numCameras;
+    private Material[]     sourceMaterials;
+    private Material[]     materialCopies;
+    private int            numMaterials;
+
+    private float[] vertices;
+    private int     numVertices;
+
+    // The state of the draw being recorded
+    private boolean   recording;
+    private boolean   flushing;
+    private Transform transform;
+    private Transform originalTransform;
+    private Matrix4   normalMatrix;
+    private boolean   normalMatrixDirty;
+    private Color     quadColor;
+    private boolean   pendingColor;
+    private boolean   pendingTexCoord;
+
+    public RenderQueue()
+    {
+        int capacity = 256;
+
+        keys = new long[capacity];
+        order = new int[capacity];
+        tempKeys = new long[capacity];
+        tempOrder = new int[capacity];
+        primitives = new Primitive[capacity];
+        quads = new boolean[capacity];
+        textures = new Texture[capacity];
+        materials = new int[capacity];
+        programs = new Program[capacity];
+        cameras = new int[capacity];
+        firstVertices = new int[capacity];
+        vertexCounts = new int[capacity];
+
+        sourceCameras = new BaseCamera[16];
+        cameraCopies = new QueuedCamera[16];
+        sourceMaterials = new Material[16];
+        materialCopies = new Material[16];
+
+        vertices = new float[4096 * VERTEX_SIZE];
+
+        transform = new Transform();
+        originalTransform = new Transform();
+        normalMatrix = new Matrix4();
+        quadColor = new Color();
+    }
+
+    /**
+     * Packs the sort key of a draw.
+     *
+     * @param layer       The layer, the lower layers are drawn first. In the range 0 to MAX_LAYER.
+     * @param translucent Whether the draw needs blending with what is behind it.
+     * @param program     The ID of the program.
+     * @param material    The ID of the material.
+     * @param texture     The ID of the texture.
+     * @param depth       The distance from the viewer, in the range 0 to MAX_DEPTH. The opaque draws are sorted front
+     *                    to back to reject the hidden fragments early, and the translucent ones back to front.
+     *
+     * @return The key of the draw.
+     */
+    public static long makeKey(int layer, boolean translucent, int program, int material, int texture, int depth)
+    {
+        long key = (long) (layer & MAX_LAYER) << 56;
+
+        program &= 0xFF;
+        material &= 0xFFFF;
+        texture &= 0xFFFF;
+        depth = Math.max(0, Math.min(depth, MAX_DEPTH));
+
+        if (translucent)
+            return key | 1L << 55 | (long) (MAX_DEPTH - depth) << 40 | (long) program << 32
+                         | (long) material << 16 | texture;
+
+        return key | (long) program << 47 | (long) material << 31 | (long) texture << 15 | depth;
+    }
+
+    /**
+     * Converts a distance from the viewer into the depth of the sort key.
+     *
+     * @param distance    The distance from the viewer.
+     * @param maxDistance The distance that maps to MAX_DEPTH, anything further is clamped to it.
+     *
+     * @return The depth in the range 0 to MAX_DEPTH.
+     */
+    public static int quantizeDepth(float distance, float maxDistance)
+    {
+        if (distance <= 0)
+            return 0;
+
+        if (distance >= maxDistance)
+            return MAX_DEPTH;
+
+        return (int) (distance / maxDistance * MAX_DEPTH);
+    }
+
+    /**
+     * Finds the depth that keeps a translucent draw in the order it is recorded in. Graphics2D and the SpriteBatch
+     * record their draws with this depth, so that their draws in the same layer are drawn in the order they are made,
+     * like they would be if they were drawn directly. The depth is taken from the no. of draws recorded so far, so
+     * after MAX_DEPTH draws in a frame, the rest share the last depth and are sorted on their state.
+     *
+     * @return The depth for the next draw, in the range 0 to MAX_DEPTH.
+     */
+    public int getSubmissionDepth()
+    {
+        return MAX_DEPTH - Math.min(numCommands, MAX_DEPTH);
+    }
+
+    /**
+     * Applies a transform to the positions of the next draw. The transform is reset when the draw ends.
+     */
+    public void applyTransform(Transform t)
+    {
+        transform.applySelf(t);
+        normalMatrixDirty = true;
+    }
+
+    public void applyTransform(Matrix4 m)
+    {
+        transform.applySelf(m);
+        normalMatrixDirty = true;
+    }
+
+    /**
+     * Begins recording a draw, with the current camera, program, material and texture.
+     *
+     * @param key       The sort key of the draw.
+     * @param primitive The primitive to draw.
+     */
+    public void begin(long key, Primitive primitive)
+    {
+        begin(key, primitive, Texture.CURRENT, SilenceEngine.graphics.getCurrentMaterial());
+    }
+
+    public void begin(long key, Primitive primitive, Texture texture)
+    {
+        begin(key, primitive, texture, SilenceEngine.graphics.getCurrentMaterial());
+    }
+
+    public void begin(long key, Primitive primitive, Texture texture, Material material)
+    {
+        begin(key, primitive, false, texture, material);
+    }
+
+    /**
+     * Begins recording textured quads, which are added using the quad() method. The quads are submitted with the
+     * compact 2D vertices, so they only keep the positions and the texcoords.
+     *
+     * @param key     The sort key of the draw.
+     * @param texture The texture of the quads.
+     */
+    public void beginQuads(long key, Texture texture)
+    {
+        begin(key, Primitive.TRIANGLES, true, texture, SilenceEngine.graphics.getCurrentMaterial());
+    }
+
+    private void begin(long key, Primitive primitive, boolean quads, Texture texture, Material material)
+    {
+        if (recording)
+            throw new IllegalStateException("RenderQueue is already recording!");
+
+        if (numCommands == keys.length)
+            growCommands();
+
+        int command = numCommands;
+
+        keys[command] = key;
+        order[command] = command;
+        primitives[command] = primitive;
+        this.quads[command] = quads;
+        textures[command] = texture;
+        materials[command] = snapshotMaterial(material);
+        programs[command] = Program.CURRENT;
+        cameras[command] = snapshotCamera(BaseCamera.CURRENT);
+        firstVertices[command] = numVertices;
+
+        recording = true;
+    }
+
+    /**
+     * @return The index of the copy of a camera, which is shared with the previous draw when the camera is the same.
+     */
+    private int snapshotCamera(BaseCamera camera)
+    {
+        int last = numCameras - 1;
+
+        if (last >= 0 && sourceCameras[last] == camera && cameraCopies[last].matches(camera))
+            return last;
+
+        if (numCameras == sourceCameras.length)
+        {
+            sourceCameras = Arrays.copyOf(sourceCameras, numCameras * 2);
+            cameraCopies = Arrays.copyOf(cameraCopies, numCameras * 2);
+        }
+
+        if (cameraCopies[numCameras] == null)
+            cameraCopies[numCameras] = new QueuedCamera();
+
+        sourceCameras[numCameras] = camera;
+        cameraCopies[numCameras].set(camera);
+
+        return numCameras++;
+    }
+
+    /**
+     * @return The index of the copy of a material, which is shared with the previous draw when the material is the
+     * same.
+     */
+    private int snapshotMaterial(Material material)
+    {
+        int last = numMaterials - 1;
+
+        if (last >= 0 && sourceMaterials[last] == material && sameMaterial(materialCopies[last], material))
+            return last;
+
+        if (numMaterials == sourceMaterials.length)
+        {
+            sourceMaterials = Arrays.copyOf(sourceMaterials, numMaterials * 2);
+            materialCopies = Arrays.copyOf(materialCopies, numMaterials * 2);
+        }
+
+        if (materialCopies[numMaterials] == null)
+            materialCopies[numMaterials] = new Material();
+
+        Material copy = materialCopies[numMaterials];
+
+        copy.getAmbient().set(material.getAmbient());
+        copy.getDiffuse().set(material.getDiffuse());
+        copy.getSpecular().set(material.getSpecular());
+        copy.setDiffuseMap(material.getDiffuseMap())
+                .setNormalMap(material.getNormalMap())
+                .setSpecularMap(material.getSpecularMap())
+                .setDissolve(material.getDissolve())
+                .setSpecularPower(material.getSpecularPower())
+                .setIllumination(material.getIllumination())
+                .setName(material.getName());
+
+        sourceMaterials[numMaterials] = material;
+
+        return numMaterials++;
+    }
+
+    private static boolean sameMaterial(Material a, Material b)
+    {
+        return sameColor(a.getAmbient(), b.getAmbient()) && sameColor(a.getDiffuse(), b.getDiffuse()) &&
+               sameColor(a.getSpecular(), b.getSpecular()) && a.getDiffuseMap() == b.getDiffuseMap() &&
+               a.getNormalMap() == b.getNormalMap() && a.getSpecularMap() == b.getSpecularMap() &&
+               a.getDissolve() == b.getDissolve() && a.getSpecularPower() == b.getSpecularPower() &&
+               a.getIllumination() == b.getIllumination();
+    }
+
+    private static boolean sameColor(Color a, Color b)
+    {
+        return a.getR() == b.getR() && a.getG() == b.getG() && a.getB() == b.getB() && a.getA() == b.getA();
+    }
+
+    /**
+     * Ends recording the draw. The strips, fans and loops are converted into separate primitives here, so that they
+     * can be merged with the other draws with the same state.
+     */
+    public void end()
+    {
+        if (!recording)
+            throw new IllegalStateException("RenderQueue is not recording!");
+
+        recording = false;
+
+        fillPendingColor();
+        transform.reset();
+        normalMatrixDirty = true;
+
+        int command = numCommands;
+        int first = firstVertices[command];
+        int count = numVertices - first;
+
+        if (count == 0)
+            return;
+
+        switch (primitives[command])
+        {
+            case TRIANGLE_FAN:
+                count = unpack(first, count, count - 2, 3, 0);
+                primitives[command] = Primitive.TRIANGLES;
+                break;
+
+            case TRIANGLE_STRIP:
+                count = unpack(first, count, count - 2, 3, 1);
+                primitives[command] = Primitive.TRIANGLES;
+                break;
+
+            case LINE_STRIP:
+                count = unpack(first, count, count - 1, 2, 2);
+                primitives[command] = Primitive.LINES;
+                break;
+
+            case LINE_LOOP:
+                count = unpack(first, count, count, 2, 2);
+                primitives[command] = Primitive.LINES;
+                break;
+        }
+
+        vertexCounts[command] = count;
+        numCommands++;
+    }
+
+    /**
+     * Rewrites the connected vertices of a draw as separate primitives, in place at the end of the vertex data.
+     *
+     * @param first      The first vertex of the draw.
+     * @param count      The number of vertices in the draw.
+     * @param primitives The number of primitives to write.
+     * @param size       The number of vertices in each primitive.
+     * @param type       0 for a fan, 1 for a strip of triangles, and 2 for a strip or loop of lines.
+     *
+     * @return The number of vertices after unpacking.
+     */
+    private int unpack(int first, int count, int primitives, int size, int type)
+    {
+        if (primitives <= 0)
+        {
+            numVertices = first;
+            return 0;
+        }
+
+        // Copy the connected vertices out of the way, and write the primitives in their place
+        int unpackedCount = primitives * size;
+        int source = first + Math.max(count, unpackedCount);
+
+        ensureVertexCapacity(source + count);
+        System.arraycopy(vertices, first * VERTEX_SIZE, vertices, source * VERTEX_SIZE, count * VERTEX_SIZE);
+
+        int vertex = first;
+
+        for (int i = 0; i < primitives; i++)
+        {
+            switch (type)
+            {
+                case 0:
+                    copyVertex(source, vertex++);
+                    copyVertex(source + i + 1, vertex++);
+                    copyVertex(source + i + 2, vertex++);
+                    break;
+
+                case 1:
+                    // Every other triangle of a strip is flipped, to keep the winding
+                    copyVertex(source + i, vertex++);
+                    copyVertex(source + i + 1 + (i & 1), vertex++);
+                    copyVertex(source + i + 2 - (i & 1), vertex++);
+                    break;
+
+                default:
+                    copyVertex(source + i, vertex++);
+                    copyVertex(source + (i + 1) % count, vertex++);
+                    break;
+            }
+        }
+
+        numVertices = first + unpackedCount;
+        return unpackedCount;
+    }
+
+    private void copyVertex(int from, int to)
+    {
+        System.arraycopy(vertices, from * VERTEX_SIZE, vertices, to * VERTEX_SIZE, VERTEX_SIZE);
+    }
+
+    public void vertex(float x, float y)
+    {
+        vertex(x, y, 0, 1);
+    }
+
+    public void vertex(float x, float y, float z)
+    {
+        vertex(x, y, z, 1);
+    }
+
+    public void vertex(Vector2 v)
+    {
+        vertex(v.x, v.y, 0, 1);
+    }
+
+    public void vertex(Vector3 v)
+    {
+        vertex(v.x, v.y, v.z, 1);
+    }
+
+    public void vertex(float x, float y, float z, float w)
+    {
+        if (!recording)
+            throw new IllegalStateException("RenderQueue is not recording!");
+
+        fillPendingColor();
+        ensureVertexCapacity(numVertices + 1);
+
+        int i = numVertices * VERTEX_SIZE;
+        Matrix4 m = transform.getMatrix();
+
+        // The transform is applied here, so that the draws with different transforms can still be merged
+        vertices[i] = x * m.get(0, 0) + y * m.get(1, 0) + z * m.get(2, 0) + w * m.get(3, 0);
+        vertices[i + 1] = x * m.get(0, 1) + y * m.get(1, 1) + z * m.get(2, 1) + w * m.get(3, 1);
+        vertices[i + 2] = x * m.get(0, 2) + y * m.get(1, 2) + z * m.get(2, 2) + w * m.get(3, 2);
+        vertices[i + 3] = x * m.get(0, 3) + y * m.get(1, 3) + z * m.get(2, 3) + w * m.get(3, 3);
+
+        Arrays.fill(vertices, i + 4, i + VERTEX_SIZE, 0);
+
+        pendingColor = true;
+        pendingTexCoord = false;
+
+        numVertices++;
+    }
+
+    public void color(Color c)
+    {
+        color(c.getR(), c.getG(), c.getB(), c.getA());
+    }
+
+    public void color(float r, float g, float b, float a)
+    {
+        int i = (numVertices - 1) * VERTEX_SIZE;
+
+        vertices[i + 4] = r;
+        vertices[i + 5] = g;
+        vertices[i + 6] = b;
+        vertices[i + 7] = a;
+
+        pendingColor = false;
+    }
+
+    public void texCoord(Vector2 v)
+    {
+        texCoord(v.x, v.y);
+    }
+
+    public void texCoord(float u, float v)
+    {
+        int i = (numVertices - 1) * VERTEX_SIZE;
+
+        vertices[i + 8] = u;
+        vertices[i + 9] = v;
+
+        pendingTexCoord = true;
+    }
+
+    public void normal(Vector3 n)
+    {
+        normal(n.x, n.y, n.z);
+    }
+
+    public void normal(float x, float y, float z)
+    {
+        int i = (numVertices - 1) * VERTEX_SIZE;
+
+        // The normals are transformed with the inverse transpose of the transform, which keeps them perpendicular to
+        // the surfaces when the transform scales unevenly
+        if (normalMatrixDirty)
+        {
+            normalMatrix.set(transform.getMatrix()).invertSelf();
+            normalMatrixDirty = false;
+        }
+
+        Matrix4 m = normalMatrix;
+
+        float nx = x * m.get(0, 0) + y * m.get(0, 1) + z * m.get(0, 2);
+        float ny = x * m.get(1, 0) + y * m.get(1, 1) + z * m.get(1, 2);
+        float nz = x * m.get(2, 0) + y * m.get(2, 1) + z * m.get(2, 2);
+
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+
+        if (length != 0)
+        {
+            nx /= length;
+            ny /= length;
+            nz /= length;
+        }
+
+        vertices[i + 12] = nx;
+        vertices[i + 13] = ny;
+        vertices[i + 14] = nz;
+    }
+
+    /**
+     * Adds a textured quad, with its corners in order. The queue must be recording with beginQuads().
+     */
+    public void quad(float x0, float y0, float u0, float v0,
+                     float x1, float y1, float u1, float v1,
+                     float x2, float y2, float u2, float v2,
+                     float x3, float y3, float u3, float v3)
+    {
+        quad(x0, y0, u0, v0, x1, y1, u1, v1, x2, y2, u2, v2, x3, y3, u3, v3, TRANSPARENT_RGBA);
+    }
+
+    /**
+     * Adds a textured quad, with its corners in order, and the color of all its corners. The queue must be recording
+     * with beginQuads().
+     *
+     * @param rgba The color, packed with 8 bits per component as 0xRRGGBBAA.
+     */
+    public void quad(float x0, float y0, float u0, float v0,
+                     float x1, float y1, float u1, float v1,
+                     float x2, float y2, float u2, float v2,
+                     float x3, float y3, float u3, float v3, int rgba)
+    {
+        if (!recording || !quads[numCommands])
+            throw new IllegalStateException("RenderQueue is not recording quads!");
+
+        ensureVertexCapacity(numVertices + 4);
+
+        float r = (rgba >>> 24) / 255f;
+        float g = (rgba >>> 16 & 0xFF) / 255f;
+        float b = (rgba >>> 8 & 0xFF) / 255f;
+        float a = (rgba & 0xFF) / 255f;
+
+        quadVertex(x0, y0, u0, v0, r, g, b, a);
+        quadVertex(x1, y1, u1, v1, r, g, b, a);
+        quadVertex(x2, y2, u2, v2, r, g, b, a);
+        quadVertex(x3, y3, u3, v3, r, g, b, a);
+    }
+
+    private void quadVertex(float x, float y, float u, float v, float r, float g, float b, float a)
+    {
+        int i = numVertices * VERTEX_SIZE;
+        Matrix4 m = transform.getMatrix();
+
+        // The quads are flat, so only the x and y of the transformed corners are kept
+        vertices[i] = x * m.get(0, 0) + y * m.get(1, 0) + m.get(3, 0);
+        vertices[i + 1] = x * m.get(0, 1) + y * m.get(1, 1) + m.get(3, 1);
+        vertices[i + 4] = r;
+        vertices[i + 5] = g;
+        vertices[i + 6] = b;
+        vertices[i + 7] = a;
+        vertices[i + 8] = u;
+        vertices[i + 9] = v;
+
+        numVertices++;
+    }
+
+    /**
+     * Packs a color into an int with 8 bits per component, as 0xRRGGBBAA.
+     */
+    public static int packColor(Color c)
+    {
+        return (int) (c.getR() * 255) << 24 | (int) (c.getG() * 255) << 16 | (int) (c.getB() * 255) << 8
+               | (int) (c.getA() * 255);
+    }
+
+    /**
+     * Sets the color of the last vertex, if it wasn't specified. Just like the Batcher, it is white for plain vertices
+     * and transparent for textured ones.
+     */
+    private void fillPendingColor()
+    {
+        if (!pendingColor)
+            return;
+
+        color(pendingTexCoord ? Color.TRANSPARENT : Color.WHITE);
+    }
+
+    /**
+     * Sorts the recorded draws and submits them to the Batcher. The state is changed only between the draws that need
+     * different state, and the consecutive draws with the same state are drawn in a single batch.
+     */
+    public void flush()
+    {
+        if (recording)
+            throw new IllegalStateException("Cannot flush the RenderQueue while recording!");
+
+        if (numCommands == 0 || flushing)
+            return;
+
+        flushing = true;
+
+        SortUtils.radixSort(keys, order, numCommands, tempKeys, tempOrder);
+
+        Batcher batcher = SilenceEngine.graphics.getBatcher();
+
+        BaseCamera originalCamera = BaseCamera.CURRENT;
+        boolean appliedCamera = false;
+        Program originalProgram = Program.CURRENT;
+        Material originalMaterial = SilenceEngine.graphics.getCurrentMaterial();
+        Texture originalTexture = Texture.CURRENT;
+        VertexLayout originalLayout = batcher.getVertexLayout();
+
+        // The transforms are already applied to the vertices, so keep the one applied to the Batcher for later
+        originalTransform.set(batcher.getTransform());
+        batcher.getTransform().reset();
+
+        int batch = -1;
+
+        for (int i = 0; i < numCommands; i++)
+        {
+            int command = order[i];
+
+            if (batch == -1 || !canMerge(batch, command))
+            {
+                if (batch != -1)
+                    batcher.end();
+
+                appliedCamera |= applyState(batcher, command, batch);
+
+                if (quads[command])
+                    batcher.beginQuads();
+                else
+                    batcher.begin(primitives[command]);
+
+                batch = command;
+            }
+
+            submit(batcher, command);
+        }
+
+        batcher.end();
+        batcher.setVertexLayout(originalLayout);
+        batcher.getTransform().set(originalTransform);
+
+        if (appliedCamera)
+            originalCamera.apply();
+
+        if (originalProgram != null)
+            originalProgram.use();
+
+        SilenceEngine.graphics.useMaterial(originalMaterial);
+
+        if (originalTexture != null)
+            originalTexture.bind();
+
+        clear();
+        flushing = false;
+    }
+
+    /**
+     * Clears the recorded draws without drawing them.
+     */
+    public void clear()
+    {
+        // Don't hold on to the objects of this frame
+        Arrays.fill(textures, 0, numCommands, null);
+        Arrays.fill(programs, 0, numCommands, null);
+        Arrays.fill(sourceCameras, 0, numCameras, null);
+        Arrays.fill(sourceMaterials, 0, numMaterials, null);
+
+        numCommands = 0;
+        numCameras = 0;
+        numMaterials = 0;
+        numVertices = 0;
+    }
+
+    private boolean canMerge(int batch, int command)
+    {
+        // Only the separate primitives can be merged, the others are unpacked into them when the draws end. The quads
+        // of different textures are merged when the program samples from the texture slots of the vertices.
+        boolean textures = sameTexture(this.textures[batch], this.textures[command]) ||
+                           usesTextureSlots(batch) && usesTextureSlots(command);
+
+        return textures && quads[batch] == quads[command] && primitives[batch] == primitives[command] &&
+               programs[batch] == programs[command] && sameCamera(cameras[batch], cameras[command]) &&
+               sameMaterial(materials[batch], materials[command]);
+    }
+
+    private boolean sameCamera(int a, int b)
+    {
+        return a == b || (sourceCameras[a] == sourceCameras[b] && cameraCopies[a].matches(cameraCopies[b]));
+    }
+
+    private boolean sameMaterial(int a, int b)
+    {
+        return a == b || (sourceMaterials[a] == sourceMaterials[b] && sameMaterial(materialCopies[a],
+                materialCopies[b]));
+    }
+
+    private static boolean sameTexture(Texture a, Texture b)
+    {
+        // The sub textures share the texture of their parent
+        return a == b || (a != null && b != null && a.getId() == b.getId());
+    }
+
+    private boolean usesTextureSlots(int command)
+    {
+        return quads[command] && textures[command] != null && programs[command] != null &&
+               programs[command].supportsTextureSlots();
+    }
+
+    /**
+     * Applies the state of a draw that starts a new batch.
+     *
+     * @return True if the camera is applied.
+     */
+    private boolean applyState(Batcher batcher, int command, int previous)
+    {
+        boolean cameraChanged = previous == -1 || !sameCamera(cameras[previous], cameras[command]);
+
+        if (cameraChanged)
+        {
+            // The recorded camera sets the rest of its state, like the depth test, and the copy is what the programs
+            // read the matrices from
+            sourceCameras[cameras[command]].apply();
+            cameraCopies[cameras[command]].apply();
+        }
+
+        if (programs[command] != null)
+            programs[command].use();
+
+        SilenceEngine.graphics.useMaterial(materialCopies[materials[command]]);
+
+        if (usesTextureSlots(command))
+            batcher.setVertexLayout(VertexLayout.MULTI_TEXTURE_2D);
+        else
+        {
+            if (textures[command] != null)
+                textures[command].bind();
+
+            batcher.setVertexLayout(quads[command] ? VertexLayout.COMPACT_2D : VertexLayout.FULL);
+        }
+
+        return cameraChanged;
+    }
+
+    private void submit(Batcher batcher, int command)
+    {
+        int first = firstVertices[command] * VERTEX_SIZE;
+        int end = first + vertexCounts[command] * VERTEX_SIZE;
+
+        if (quads[command])
+        {
+            if (usesTextureSlots(command))
+                batcher.useTexture(textures[command]);
+
+            for (int i = first; i < end; i += 4 * VERTEX_SIZE)
+            {
+                int i1 = i + VERTEX_SIZE;
+                int i2 = i1 + VERTEX_SIZE;
+                int i3 = i2 + VERTEX_SIZE;
+
+                quadColor.set(vertices[i + 4], vertices[i + 5], vertices[i + 6], vertices[i + 7]);
+
+                batcher.quad(vertices[i], vertices[i + 1], vertices[i + 8], vertices[i + 9],
+                        vertices[i1], vertices[i1 + 1], vertices[i1 + 8], vertices[i1 + 9],
+                        vertices[i2], vertices[i2 + 1], vertices[i2 + 8], vertices[i2 + 9],
+                        vertices[i3], vertices[i3 + 1], vertices[i3 + 8], vertices[i3 + 9], quadColor);
+            }
+
+            return;
+        }
+
+        for (int i = first; i < end; i += VERTEX_SIZE)
+        {
+            batcher.vertex(vertices[i], vertices[i + 1], vertices[i + 2], vertices[i + 3]);
+            batcher.color(vertices[i + 4], vertices[i + 5], vertices[i + 6], vertices[i + 7]);
+            batcher.texCoord(vertices[i + 8], vertices[i + 9]);
+            batcher.normal(vertices[i + 12], vertices[i + 13], vertices[i + 14]);
+        }
+    }
+
+    private void growCommands()
+    {
+        int capacity = keys.length * 2;
+
+        keys = Arrays.copyOf(keys, capacity);
+        order = Arrays.copyOf(order, capacity);
+        tempKeys = new long[capacity];
+        tempOrder = new int[capacity];
+        primitives = Arrays.copyOf(primitives, capacity);
+        quads = Arrays.copyOf(quads, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        materials = Arrays.copyOf(materials, capacity);
+        programs = Arrays.copyOf(programs, capacity);
+        cameras = Arrays.copyOf(cameras, capacity);
+        firstVertices = Arrays.copyOf(firstVertices, capacity);
+        vertexCounts = Arrays.copyOf(vertexCounts, capacity);
+    }
+
+    private void ensureVertexCapacity(int capacity)
+    {
+        if (capacity * VERTEX_SIZE > vertices.length)
+            vertices = Arrays.copyOf(vertices, Math.max(capacity * VERTEX_SIZE, vertices.length * 2));
+    }
+
+    public boolean isFlushing()
+    {
+        return flushing;
+    }
+
+    public boolean isRecording()
+    {
+        return recording;
+    }
+
+    public int getNumCommands()
+    {
+        return numCommands;
+    }
+
+    /**
+     * A copy of the matrices of a camera at the time a draw was recorded.
+     */
+    private static class QueuedCamera extends BaseCamera
+    {
+        private Matrix4 projection = new Matrix4();
+        private Matrix4 view       = new Matrix4();
+
+        void set(BaseCamera camera)
+        {
+            projection.set(camera.getProjection());
+            view.set(camera.getView());
+        }
+
+        boolean matches(BaseCamera camera)
+        {
+            return sameMatrix(projection, camera.getProjection()) && sameMatrix(view, camera.getView());
+        }
+
+        private static boolean sameMatrix(Matrix4 a, Matrix4 b)
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                for (int j = 0; j < 4; j++)
+                {
+                    if (a.get(i, j) != b.get(i, j))
+                        return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public Matrix4 getProjection()
+        {
+            return projection;
+        }
+
+        @Override
+        public Matrix4 getView()
+        {
+            return view;
+        }
+    }
+}
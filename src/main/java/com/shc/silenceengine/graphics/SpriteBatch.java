@@ -26,29 +26,80 @@
 
 import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.core.SilenceException;
-import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.utils.MathUtils;
+import com.shc.silenceengine.utils.SortUtils;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
+ * A SpriteBatch collects the sprites in parallel arrays of primitives, so adding a sprite doesn't allocate anything.
+ * The rotation of every sprite is converted to its sine and cosine once when it is added. When the batch ends, the
+ * sprites are sorted on their layer, depth and texture with a radix sort, and recorded into the {@link RenderQueue}
+ * with a single draw for every run of sprites with the same texture. The sprites are drawn when the queue is flushed,
+ * at the end of the frame or when {@link #flush()} is called. The runs are recorded in the order of the submissions,
+ * so within a layer, the sprites of a batch are drawn in the order they are ended, also with the Graphics2D draws.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class SpriteBatch
 {
-    private List<Sprite>  sprites;
-    private List<Integer> indices;
-    private List<Vector2> positions;
+    // The fill color of the sprites that are not tinted
+    private static final int DEFAULT_TINT = RenderQueue.packColor(Color.TRANSPARENT);
+
+    private Texture[] textures;
+    private float[]   x;
+    private float[]   y;
+    private float[]   sin;
+    private float[]   cos;
+    private float[]   scaleX;
+    private float[]   scaleY;
+    private float[]   halfWidths;
+    private float[]   halfHeights;
+    private float[]   minU;
+    private float[]   minV;
+    private float[]   maxU;
+    private float[]   maxV;
+    private int[]     colors;
+
+    // The sort keys, and the order of the sprites sorted on them
+    private long[] keys;
+    private int[]  order;
+    private long[] tempKeys;
+    private int[]  tempOrder;
+
+    private int numSprites;
+
+    private int layer;
+    private int depth;
 
     private boolean active;
 
     public SpriteBatch()
     {
-        sprites = new ArrayList<>();
-        indices = new ArrayList<>();
-        positions = new ArrayList<>();
+        int capacity = 256;
+
+        textures = new Texture[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        sin = new float[capacity];
+        cos = new float[capacity];
+        scaleX = new float[capacity];
+        scaleY = new float[capacity];
+        halfWidths = new float[capacity];
+        halfHeights = new float[capacity];
+        minU = new float[capacity];
+        minV = new float[capacity];
+        maxU = new float[capacity];
+        maxV = new float[capacity];
+        colors = new int[capacity];
+
+        keys = new long[capacity];
+        order = new int[capacity];
+        tempKeys = new long[capacity];
+        tempOrder = new int[capacity];
 
         active = false;
     }
@@ -58,113 +109,213 @@ public void begin()
         if (active)
             throw new SilenceException("SpriteBatch already active");
 
-        sprites.clear();
-        indices.clear();
-        positions.clear();
+        numSprites = 0;
+
+        layer = RenderQueue.DEFAULT_LAYER;
+        depth = 0;
 
         active = true;
     }
 
+    /**
+     * Draws the sprites added so far, along with everything else in the render queue.
+     */
     public void flush()
     {
-        if (sprites.size() == 0)
+        record();
+        SilenceEngine.graphics.getRenderQueue().flush();
+    }
+
+    public void end()
+    {
+        if (!active)
+            throw new SilenceException("SpriteBatch is not active");
+
+        record();
+        active = false;
+    }
+
+    /**
+     * Sorts the sprites and records them into the render queue, as one draw for every run of sprites with the same
+     * layer, depth and texture.
+     */
+    private void record()
+    {
+        if (numSprites == 0)
             return;
 
-        sortSprites();
+        for (int i = 0; i < numSprites; i++)
+            order[i] = i;
 
-        Batcher batcher = SilenceEngine.graphics.getBatcher();
+        // The keys only use their low bits for the texture when the layer and depth don't change, and the radix sort
+        // skips the passes over the bytes that are the same in all the keys
+        SortUtils.radixSort(keys, order, numSprites, tempKeys, tempOrder);
 
-        Texture originalTexture = Texture.CURRENT;
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
 
-        Texture texture = sprites.get(indices.get(0)).getTexture();
-        texture.bind();
+        int program = Program.CURRENT.getId();
+        int material = SilenceEngine.graphics.getCurrentMaterial().getID();
 
-        Vector2 temp = Vector2.REUSABLE_STACK.pop();
+        long runKey = 0;
 
-        batcher.begin(Primitive.TRIANGLES);
+        for (int i = 0; i < numSprites; i++)
         {
-            for (int i : indices)
+            int s = order[i];
+            Texture t = textures[s];
+
+            if (i == 0 || keys[i] != runKey)
             {
-                Sprite sprite = sprites.get(i);
-                Vector2 position = positions.get(i);
-
-                Texture t = sprite.getTexture();
-
-                if (t.getId() != texture.getId())
-                {
-                    batcher.end();
-
-                    texture = t;
-                    t.bind();
-
-                    batcher.begin(Primitive.TRIANGLES);
-                }
-
-                // Triangle 1
-                batcher.vertex(temp.set(-t.getWidth() / 2, -t.getHeight() / 2)  // Top-left
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMinU(), t.getMinV());
-                batcher.vertex(temp.set(t.getWidth() / 2, -t.getHeight() / 2)   // Top-right
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMaxU(), t.getMinV());
-                batcher.vertex(temp.set(-t.getWidth() / 2, t.getHeight() / 2)   // Bottom-left
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMinU(), t.getMaxV());
-
-                // Triangle 2
-                batcher.vertex(temp.set(t.getWidth() / 2, -t.getHeight() / 2)   // Top-right
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMaxU(), t.getMinV());
-                batcher.vertex(temp.set(t.getWidth() / 2, t.getHeight() / 2)   // Bottom-right
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMaxU(), t.getMaxV());
-                batcher.vertex(temp.set(-t.getWidth() / 2, t.getHeight() / 2)   // Bottom-left
-                        .rotateSelf(sprite.getRotation())
-                        .scaleSelf(sprite.getScaleX(), sprite.getScaleY())
-                        .addSelf(position).addSelf(t.getWidth() / 2, t.getHeight() / 2));
-                batcher.texCoord(t.getMinU(), t.getMaxV());
+                if (i != 0)
+                    queue.end();
+
+                runKey = keys[i];
+
+                // The runs are already in their order, which the queue keeps with the depth of the submissions
+                int spriteLayer = (int) (runKey >>> 48);
+                int spriteDepth = queue.getSubmissionDepth();
+
+                queue.beginQuads(RenderQueue.makeKey(spriteLayer, true, program, material, t.getId(), spriteDepth), t);
             }
+
+            float halfWidth = halfWidths[s];
+            float halfHeight = halfHeights[s];
+
+            float centerX = x[s] + halfWidth;
+            float centerY = y[s] + halfHeight;
+
+            // The rotated and scaled half extents along the two diagonals of the sprite
+            float ax = (halfWidth * cos[s] - halfHeight * sin[s]) * scaleX[s];
+            float ay = (halfWidth * sin[s] + halfHeight * cos[s]) * scaleY[s];
+            float bx = (halfWidth * cos[s] + halfHeight * sin[s]) * scaleX[s];
+            float by = (halfWidth * sin[s] - halfHeight * cos[s]) * scaleY[s];
+
+            queue.quad(centerX - ax, centerY - ay, minU[s], minV[s],     // Top-left
+                    centerX + bx, centerY + by, maxU[s], minV[s],        // Top-right
+                    centerX + ax, centerY + ay, maxU[s], maxV[s],        // Bottom-right
+                    centerX - bx, centerY - by, minU[s], maxV[s],        // Bottom-left
+                    colors[s]);
         }
-        batcher.end();
 
-        Vector2.REUSABLE_STACK.push(temp);
+        queue.end();
 
-        sprites.clear();
-        indices.clear();
-        positions.clear();
+        // Don't hold on to the textures
+        Arrays.fill(textures, 0, numSprites, null);
+        numSprites = 0;
+    }
 
-        originalTexture.bind();
+    /**
+     * Sets the layer of the sprites added after this call. The lower layers are drawn first.
+     *
+     * @param layer The layer, in the range 0 to RenderQueue.MAX_LAYER.
+     */
+    public void setLayer(int layer)
+    {
+        this.layer = layer;
     }
 
-    public void end()
+    /**
+     * Sets the depth of the sprites added after this call. Within a layer, the sprites of a batch with higher depths
+     * are drawn first, and the sprites with the same depth are sorted on their textures. The sprites of different
+     * batches are drawn in the order the batches are ended.
+     *
+     * @param depth The depth, in the range 0 to RenderQueue.MAX_DEPTH.
+     */
+    public void setDepth(int depth)
     {
-        if (!active)
-            throw new SilenceException("SpriteBatch is not active");
+        this.depth = depth;
+    }
 
-        flush();
-        active = false;
+    public int getLayer()
+    {
+        return layer;
     }
 
-    private void sortSprites()
+    public int getDepth()
     {
-        // Only sort the indices
-        indices.sort((i, j) -> sprites.get(i).getTexture().getId() < sprites.get(j).getTexture().getId() ? 1 : -1);
+        return depth;
     }
 
     public void addSprite(Sprite sprite, Vector2 position)
     {
-        sprites.add(sprite);
-        positions.add(position);
-        indices.add(sprites.size() - 1);
+        addSprite(sprite, position.x, position.y);
+    }
+
+    /**
+     * Adds a sprite at a position given as plain coordinates.
+     *
+     * @param sprite The sprite to render.
+     * @param x      The x-coordinate of the top-left corner of the sprite.
+     * @param y      The y-coordinate of the top-left corner of the sprite.
+     */
+    public void addSprite(Sprite sprite, float x, float y)
+    {
+        addSprite(sprite, x, y, DEFAULT_TINT);
+    }
+
+    /**
+     * Adds a sprite at a position, with a tint that is added to the colors of its texture.
+     *
+     * @param sprite The sprite to render.
+     * @param x      The x-coordinate of the top-left corner of the sprite.
+     * @param y      The y-coordinate of the top-left corner of the sprite.
+     * @param tint   The tint of the sprite.
+     */
+    public void addSprite(Sprite sprite, float x, float y, Color tint)
+    {
+        addSprite(sprite, x, y, RenderQueue.packColor(tint));
+    }
+
+    private void addSprite(Sprite sprite, float x, float y, int rgba)
+    {
+        if (numSprites == textures.length)
+            grow();
+
+        int i = numSprites++;
+        Texture texture = sprite.getTexture();
+
+        textures[i] = texture;
+        this.x[i] = x;
+        this.y[i] = y;
+        sin[i] = MathUtils.sin(sprite.getRotation());
+        cos[i] = MathUtils.cos(sprite.getRotation());
+        scaleX[i] = sprite.getScaleX();
+        scaleY[i] = sprite.getScaleY();
+        halfWidths[i] = texture.getWidth() / 2;
+        halfHeights[i] = texture.getHeight() / 2;
+        minU[i] = texture.getMinU();
+        minV[i] = texture.getMinV();
+        maxU[i] = texture.getMaxU();
+        maxV[i] = texture.getMaxV();
+        colors[i] = rgba;
+
+        // The layer, then the depth with the higher depths first, and then the texture
+        keys[i] = (long) (layer & RenderQueue.MAX_LAYER) << 48
+                  | (long) (RenderQueue.MAX_DEPTH - Math.max(0, Math.min(depth, RenderQueue.MAX_DEPTH))) << 32
+                  | texture.getId() & 0xFFFFFFFFL;
+    }
+
+    private void grow()
+    {
+        int capacity = textures.length * 2;
+
+        textures = Arrays.copyOf(textures, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        sin = Arrays.copyOf(sin, capacity);
+        cos = Arrays.copyOf(cos, capacity);
+        scaleX = Arrays.copyOf(scaleX, capacity);
+        scaleY = Arrays.copyOf(scaleY, capacity);
+        halfWidths = Arrays.copyOf(halfWidths, capacity);
+        halfHeights = Arrays.copyOf(halfHeights, capacity);
+        minU = Arrays.copyOf(minU, capacity);
+        minV = Arrays.copyOf(minV, capacity);
+        maxU = Arrays.copyOf(maxU, capacity);
+        maxV = Arrays.copyOf(maxV, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+
+        keys = Arrays.copyOf(keys, capacity);
+        order = new int[capacity];
+        tempKeys = new long[capacity];
+        tempOrder = new int[capacity];
     }
 }
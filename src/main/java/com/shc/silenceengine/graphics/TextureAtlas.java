@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics;
+
+import com.shc.silenceengine.core.IResource;
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.graphics.opengl.SubTexture;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.io.FilePath;
+import org.lwjgl.BufferUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A TextureAtlas holds the pages packed by an {@link AtlasPacker} as textures, and the images in them as sub textures.
+ * Since all the sub textures in a page share its texture, the sprites using them are batched together.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TextureAtlas implements IResource
+{
+    private List<Texture>           pages;
+    private Map<String, SubTexture> textures;
+
+    /**
+     * Creates the textures of the pages packed by a packer. The images are packed now if they are not packed yet.
+     *
+     * @param packer The packer with the images.
+     */
+    public TextureAtlas(AtlasPacker packer)
+    {
+        this();
+
+        List<AtlasPacker.Page> packedPages = packer.getPages();
+
+        if (packedPages.isEmpty())
+            packedPages = packer.pack();
+
+        for (AtlasPacker.Page page : packedPages)
+        {
+            ByteBuffer buffer = BufferUtils.createByteBuffer(page.getWidth() * page.getHeight() * 4);
+            Texture texture = Texture.fromByteBuffer(page.toByteBuffer(buffer), page.getWidth(), page.getHeight(), 4);
+
+            addPage(texture);
+
+            for (AtlasPacker.Region region : page.getRegions())
+                addRegion(texture, region.name, region.x, region.y, region.width, region.height);
+        }
+    }
+
+    private TextureAtlas()
+    {
+        pages = new ArrayList<>();
+        textures = new HashMap<>();
+    }
+
+    /**
+     * Loads an atlas written by {@link AtlasPacker#write(FilePath, String)}. The pages are loaded from the same
+     * directory as the descriptor.
+     *
+     * @param descriptor The descriptor of the atlas.
+     *
+     * @return The loaded atlas.
+     */
+    public static TextureAtlas fromFilePath(FilePath descriptor)
+    {
+        TextureAtlas atlas = new TextureAtlas();
+
+        try (BufferedReader reader = new BufferedReader(descriptor.getReader()))
+        {
+            Texture page = null;
+            String line;
+
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.trim().isEmpty())
+                    continue;
+
+                String[] parts = line.split("\t");
+
+                if (parts.length == 4 && parts[0].equals("page"))
+                {
+                    page = Texture.fromFilePath(descriptor.getParent().getChild(parts[1]));
+                    atlas.addPage(page);
+                }
+                else if (parts.length == 5 && page != null)
+                    atlas.addRegion(page, parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+                else
+                    throw new SilenceException("Invalid line in the atlas " + descriptor + ": " + line);
+            }
+        }
+        catch (IOException e)
+        {
+            SilenceException.reThrow(e);
+        }
+
+        return atlas;
+    }
+
+    private void addPage(Texture page)
+    {
+        pages.add(page);
+    }
+
+    private void addRegion(Texture page, String name, int x, int y, int width, int height)
+    {
+        float pageWidth = page.getWidth();
+        float pageHeight = page.getHeight();
+
+        textures.put(name, new SubTexture(page, x / pageWidth, y / pageHeight, (x + width) / pageWidth,
+                (y + height) / pageHeight, width, height));
+    }
+
+    /**
+     * @param name The name the image was added to the packer with.
+     *
+     * @return The sub texture of the image, or null if there is no image with that name.
+     */
+    public SubTexture getTexture(String name)
+    {
+        return textures.get(name);
+    }
+
+    public boolean hasTexture(String name)
+    {
+        return textures.containsKey(name);
+    }
+
+    public List<Texture> getPages()
+    {
+        return Collections.unmodifiableList(pages);
+    }
+
+    @Override
+    public void dispose()
+    {
+        for (Texture page : pages)
+            page.dispose();
+
+        pages.clear();
+        textures.clear();
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics;
+
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.utils.MathUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * <p> A VertexLayout describes how the attributes of a vertex are stored in a single interleaved buffer, that is their
+ * order, and the format each of them is stored in. When the Batcher uses a layout, it writes all the attributes of a
+ * vertex next to each other in one buffer, instead of four separate float buffers. </p>
+ *
+ * <pre>
+ *     VertexLayout layout = new VertexLayout(new Attribute(Usage.POSITION, Format.FLOAT2),
+ *                                            new Attribute(Usage.COLOR, Format.UBYTE4_NORM));
+ * </pre>
+ *
+ * <p> The attributes with fewer components than the shader inputs get the rest of the components filled by OpenGL
+ * (0 for Y and Z, and 1 for W), so the default shader works with all the layouts. The attributes not in the layout
+ * are not sent at all. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class VertexLayout
+{
+    /**
+     * All the attributes as floats, the interleaved version of the separate buffers (56 bytes per vertex).
+     */
+    public static final VertexLayout FULL = new VertexLayout(
+            new Attribute(Usage.POSITION, Format.FLOAT4),
+            new Attribute(Usage.COLOR, Format.FLOAT4),
+            new Attribute(Usage.TEXCOORD, Format.FLOAT2),
+            new Attribute(Usage.NORMAL, Format.FLOAT4));
+
+    /**
+     * A layout for 2D sprites and shapes, without the normals (16 bytes per vertex). The texture coordinates are 16-bit
+     * normalized, and hence must be in the range of 0 to 1.
+     */
+    public static final VertexLayout COMPACT_2D = new VertexLayout(
+            new Attribute(Usage.POSITION, Format.FLOAT2),
+            new Attribute(Usage.COLOR, Format.UBYTE4_NORM),
+            new Attribute(Usage.TEXCOORD, Format.USHORT2_NORM));
+
+    /**
+     * The COMPACT_2D layout with the texture slot of every vertex (20 bytes per vertex), for batching the sprites with
+     * different textures together. See {@link Batcher#useTexture(com.shc.silenceengine.graphics.opengl.Texture)}.
+     */
+    public static final VertexLayout MULTI_TEXTURE_2D = new VertexLayout(
+            new Attribute(Usage.POSITION, Format.FLOAT2),
+            new Attribute(Usage.COLOR, Format.UBYTE4_NORM),
+            new Attribute(Usage.TEXCOORD, Format.USHORT2_NORM),
+            new Attribute(Usage.TEXTURE_SLOT, Format.UBYTE4));
+
+    /**
+     * A layout for 3D geometry with the normals packed in 10:10:10:2 format (24 bytes per vertex). The texture
+     * coordinates are half floats, so they can repeat outside the range of 0 to 1.
+     */
+    public static final VertexLayout COMPACT_3D = new VertexLayout(
+            new Attribute(Usage.POSITION, Format.FLOAT3),
+            new Attribute(Usage.COLOR, Format.UBYTE4_NORM),
+            new Attribute(Usage.TEXCOORD, Format.HALF2),
+            new Attribute(Usage.NORMAL, Format.INT_2_10_10_10_NORM));
+
+    private List<Attribute> attributes;
+    private Attribute[]     byUsage;
+    private int[]           offsets;
+
+    private int stride;
+
+    /**
+     * Creates a layout with the attributes stored in the given order.
+     *
+     * @param attributes The attributes of the vertex. There must be a POSITION attribute, and no usage can repeat.
+     */
+    public VertexLayout(Attribute... attributes)
+    {
+        this.attributes = Collections.unmodifiableList(Arrays.asList(attributes.clone()));
+
+        byUsage = new Attribute[Usage.values().length];
+
+        for (Attribute attribute : attributes)
+        {
+            if (byUsage[attribute.usage.ordinal()] != null)
+                throw new SilenceException("The layout already has a " + attribute.usage + " attribute");
+
+            byUsage[attribute.usage.ordinal()] = attribute;
+        }
+
+        if (byUsage[Usage.POSITION.ordinal()] == null)
+            throw new SilenceException("A VertexLayout needs a POSITION attribute");
+
+        offsets = new int[byUsage.length];
+        Arrays.fill(offsets, -1);
+
+        for (Attribute attribute : attributes)
+        {
+            offsets[attribute.usage.ordinal()] = stride;
+            stride += attribute.format.size;
+        }
+    }
+
+    /**
+     * Writes a vertex into an interleaved buffer, in the order of the attributes of this layout.
+     */
+    void put(ByteBuffer buffer, float[] data)
+    {
+        for (Attribute attribute : attributes)
+            attribute.format.put(buffer, data, attribute.usage.ordinal() * 4);
+    }
+
+    /**
+     * @return The byte offset of an attribute from the start of the vertex, or -1 if the attribute is not used.
+     */
+    public int getOffset(Usage usage)
+    {
+        return offsets[usage.ordinal()];
+    }
+
+    public Attribute getAttribute(Usage usage)
+    {
+        return byUsage[usage.ordinal()];
+    }
+
+    public boolean has(Usage usage)
+    {
+        return byUsage[usage.ordinal()] != null;
+    }
+
+    public List<Attribute> getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * @return The size of a single vertex in bytes.
+     */
+    public int getStride()
+    {
+        return stride;
+    }
+
+    /**
+     * The attributes of a vertex that the Batcher knows about. Each of these is bound to its location in the shader.
+     * The TEXTURE_SLOT is the index of the texture unit the vertex samples from, and is 0 when not in the layout.
+     */
+    public enum Usage
+    {
+        POSITION, COLOR, TEXCOORD, NORMAL, TEXTURE_SLOT
+    }
+
+    /**
+     * The formats in which an attribute can be stored in the buffer.
+     */
+    public enum Format
+    {
+        FLOAT2(2, GL_FLOAT, false, 8),
+        FLOAT3(3, GL_FLOAT, false, 12),
+        FLOAT4(4, GL_FLOAT, false, 16),
+        HALF2(2, GL_HALF_FLOAT, false, 4),
+        USHORT2_NORM(2, GL_UNSIGNED_SHORT, true, 4),
+        UBYTE4_NORM(4, GL_UNSIGNED_BYTE, true, 4),
+        UBYTE4(4, GL_UNSIGNED_BYTE, false, 4),
+        INT_2_10_10_10_NORM(4, GL_INT_2_10_10_10_REV, true, 4);
+
+        public final int     count;
+        public final int     glType;
+        public final boolean normalized;
+        public final int     size;
+
+        Format(int count, int glType, boolean normalized, int size)
+        {
+            this.count = count;
+            this.glType = glType;
+            this.normalized = normalized;
+            this.size = size;
+        }
+
+        void put(ByteBuffer buffer, float[] data, int offset)
+        {
+            switch (this)
+            {
+                case FLOAT4:
+                    buffer.putFloat(data[offset]).putFloat(data[offset + 1])
+                            .putFloat(data[offset + 2]).putFloat(data[offset + 3]);
+                    break;
+
+                case FLOAT3:
+                    buffer.putFloat(data[offset]).putFloat(data[offset + 1]).putFloat(data[offset + 2]);
+                    break;
+
+                case FLOAT2:
+                    buffer.putFloat(data[offset]).putFloat(data[offset + 1]);
+                    break;
+
+                case HALF2:
+                    buffer.putShort(MathUtils.toHalfFloat(data[offset]))
+                            .putShort(MathUtils.toHalfFloat(data[offset + 1]));
+                    break;
+
+                case USHORT2_NORM:
+                    buffer.putShort((short) unorm(data[offset], 65535))
+                            .putShort((short) unorm(data[offset + 1], 65535));
+                    break;
+
+                case UBYTE4_NORM:
+                    buffer.put((byte) unorm(data[offset], 255)).put((byte) unorm(data[offset + 1], 255))
+                            .put((byte) unorm(data[offset + 2], 255)).put((byte) unorm(data[offset + 3], 255));
+                    break;
+
+                case UBYTE4:
+                    buffer.put((byte) ubyte(data[offset])).put((byte) ubyte(data[offset + 1]))
+                            .put((byte) ubyte(data[offset + 2])).put((byte) ubyte(data[offset + 3]));
+                    break;
+
+                case INT_2_10_10_10_NORM:
+                    buffer.putInt((snorm(data[offset], 511) & 0x3FF)
+                                  | (snorm(data[offset + 1], 511) & 0x3FF) << 10
+                                  | (snorm(data[offset + 2], 511) & 0x3FF) << 20
+                                  | (snorm(data[offset + 3], 1) & 0x3) << 30);
+                    break;
+            }
+        }
+
+        private static int unorm(float value, int max)
+        {
+            return (int) (MathUtils.clamp(value, 0, 1) * max + 0.5f);
+        }
+
+        private static int ubyte(float value)
+        {
+            return (int) (MathUtils.clamp(value, 0, 255) + 0.5f);
+        }
+
+        private static int snorm(float value, int max)
+        {
+            return Math.round(MathUtils.clamp(value, -1, 1) * max);
+        }
+    }
+
+    /**
+     * A single attribute in a VertexLayout, the usage of the attribute and the format to store it in.
+     */
+    public static class Attribute
+    {
+        public final Usage  usage;
+        public final Format format;
+
+        public Attribute(Usage usage, Format format)
+        {
+            this.usage = usage;
+            this.format = format;
+        }
+    }
+}
@@ -122,8 +122,8 @@ public void apply()
     {
         super.apply();
 
-        // Disable depth testing
-        GL3Context.disable(GL11.GL_DEPTH_TEST);
+        // Disable depth testing. This doesn't flush the render queue, which applies the camera of every draw again
+        GL3Context.getStateCache().disable(GL11.GL_DEPTH_TEST);
     }
 
     @Override
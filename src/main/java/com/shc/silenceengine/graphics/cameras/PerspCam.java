@@ -201,8 +201,8 @@ public void apply()
 
         Vector3.REUSABLE_STACK.push(tempVec3);
 
-        // Enable Depth Testing
-        GL3Context.enable(GL11.GL_DEPTH_TEST);
+        // Enable Depth Testing. This doesn't flush the render queue, which applies the camera of every draw again
+        GL3Context.getStateCache().enable(GL11.GL_DEPTH_TEST);
     }
 
     @Override
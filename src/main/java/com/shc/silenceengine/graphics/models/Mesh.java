@@ -29,11 +29,19 @@
 import com.shc.silenceengine.math.Vector3;
 import com.shc.silenceengine.utils.IDGenerator;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * A mesh is a part of a model, that takes a material and the geometry.
+ * A mesh is a part of a model, that takes a material and the geometry. The geometry is stored packed in primitive
+ * arrays, the positions, normals and texcoords of the vertices one after the other in their own arrays, and the
+ * triangles as three indices into them. A vertex has all the three attributes, so the corners that share a position
+ * but have different normals or texcoords are different vertices.
+ *
+ * <p> The lists of vertices, normals, texcoords and faces are read-only views of the packed data, kept for the code
+ * that used them before. They create new objects for every element that is read, so the packed data should be
+ * preferred when reading the whole mesh. </p>
  *
  * @author Sri Harsha Chilakapati
  */
@@ -41,10 +49,13 @@
 {
     private Material material;
 
-    private List<Face>    faces;
-    private List<Vector3> vertices;
-    private List<Vector3> normals;
-    private List<Vector2> texcoords;
+    private float[] positions;
+    private float[] normals;
+    private float[] texcoords;
+    private int     numVertices;
+
+    private int[] indices;
+    private int   numIndices;
 
     private int id;
 
@@ -54,16 +65,138 @@ public Mesh()
     {
         material = new Material("Default");
 
-        faces = new ArrayList<>();
-        vertices = new ArrayList<>();
-        normals = new ArrayList<>();
-        texcoords = new ArrayList<>();
+        positions = new float[3 * 64];
+        normals = new float[3 * 64];
+        texcoords = new float[2 * 64];
+        indices = new int[3 * 64];
 
         id = IDGenerator.generate();
 
         preferStatic = false;
     }
 
+    /**
+     * Adds a vertex to this mesh.
+     *
+     * @return The index of the vertex, to use it in the triangles.
+     */
+    public int addVertex(float x, float y, float z, float nx, float ny, float nz, float u, float v)
+    {
+        if (numVertices * 3 == positions.length)
+        {
+            // The arrays can be empty after a trim, so they grow to at least a few vertices
+            int capacity = Math.max(16, numVertices * 2);
+
+            positions = Arrays.copyOf(positions, capacity * 3);
+            normals = Arrays.copyOf(normals, capacity * 3);
+            texcoords = Arrays.copyOf(texcoords, capacity * 2);
+        }
+
+        int p = numVertices * 3;
+        int t = numVertices * 2;
+
+        positions[p] = x;
+        positions[p + 1] = y;
+        positions[p + 2] = z;
+
+        normals[p] = nx;
+        normals[p + 1] = ny;
+        normals[p + 2] = nz;
+
+        texcoords[t] = u;
+        texcoords[t + 1] = v;
+
+        return numVertices++;
+    }
+
+    /**
+     * Adds a triangle to this mesh, with the indices of its vertices.
+     */
+    public void addTriangle(int a, int b, int c)
+    {
+        if (numIndices + 3 > indices.length)
+            indices = Arrays.copyOf(indices, Math.max(3 * 16, indices.length * 2));
+
+        indices[numIndices++] = a;
+        indices[numIndices++] = b;
+        indices[numIndices++] = c;
+    }
+
+    /**
+     * Shrinks the arrays to the size of the data, to free the memory left for growing. Call this once the mesh is
+     * complete. The mesh can still be added to after this, the arrays just grow again.
+     */
+    public void trim()
+    {
+        positions = Arrays.copyOf(positions, numVertices * 3);
+        normals = Arrays.copyOf(normals, numVertices * 3);
+        texcoords = Arrays.copyOf(texcoords, numVertices * 2);
+        indices = Arrays.copyOf(indices, numIndices);
+    }
+
+    public Vector3 getPosition(int vertex, Vector3 dest)
+    {
+        return dest.set(positions[vertex * 3], positions[vertex * 3 + 1], positions[vertex * 3 + 2]);
+    }
+
+    public Vector3 getNormal(int vertex, Vector3 dest)
+    {
+        return dest.set(normals[vertex * 3], normals[vertex * 3 + 1], normals[vertex * 3 + 2]);
+    }
+
+    public Vector2 getTexcoord(int vertex, Vector2 dest)
+    {
+        return dest.set(texcoords[vertex * 2], texcoords[vertex * 2 + 1]);
+    }
+
+    /**
+     * @return The positions of the vertices, three floats for every vertex. The array may be longer than the data.
+     */
+    public float[] getPositionData()
+    {
+        return positions;
+    }
+
+    /**
+     * @return The normals of the vertices, three floats for every vertex. The array may be longer than the data.
+     */
+    public float[] getNormalData()
+    {
+        return normals;
+    }
+
+    /**
+     * @return The texcoords of the vertices, two floats for every vertex. The array may be longer than the data.
+     */
+    public float[] getTexcoordData()
+    {
+        return texcoords;
+    }
+
+    /**
+     * @return The indices of the vertices of the triangles, three for every triangle. The array may be longer than the
+     * data.
+     */
+    public int[] getIndexData()
+    {
+        return indices;
+    }
+
+    public int getVertexCount()
+    {
+        return numVertices;
+    }
+
+    public int getIndexCount()
+    {
+        return numIndices;
+    }
+
+    public int getTriangleCount()
+    {
+        return numIndices / 3;
+    }
+
     public Material getMaterial()
     {
         return material;
@@ -74,29 +207,102 @@ public void setMaterial(Material material)
         this.material = material;
     }
 
+    /**
+     * @return A read-only view of the triangles as faces. All the three indices of a face are the vertex indices.
+     */
     public List<Face> getFaces()
     {
-        return faces;
+        return new AbstractList<Face>()
+        {
+            @Override
+            public Face get(int index)
+            {
+                Face face = new Face();
+
+                face.vertexIndex.set(indices[index * 3], indices[index * 3 + 1], indices[index * 3 + 2]);
+                face.normalIndex.set(face.vertexIndex);
+                face.texcoordIndex.set(face.vertexIndex);
+
+                return face;
+            }
+
+            @Override
+            public int size()
+            {
+                return getTriangleCount();
+            }
+        };
     }
 
+    /**
+     * @return A read-only view of the positions of the vertices.
+     */
     public List<Vector3> getVertices()
     {
-        return vertices;
+        return new AbstractList<Vector3>()
+        {
+            @Override
+            public Vector3 get(int index)
+            {
+                return getPosition(index, new Vector3());
+            }
+
+            @Override
+            public int size()
+            {
+                return numVertices;
+            }
+        };
     }
 
+    /**
+     * @return A read-only view of the normals of the vertices.
+     */
     public List<Vector3> getNormals()
     {
-        return normals;
+        return new AbstractList<Vector3>()
+        {
+            @Override
+            public Vector3 get(int index)
+            {
+                return getNormal(index, new Vector3());
+            }
+
+            @Override
+            public int size()
+            {
+                return numVertices;
+            }
+        };
     }
 
+    /**
+     * @return A read-only view of the texcoords of the vertices.
+     */
     public List<Vector2> getTexcoords()
     {
-        return texcoords;
+        return new AbstractList<Vector2>()
+        {
+            @Override
+            public Vector2 get(int index)
+            {
+                return getTexcoord(index, new Vector2());
+            }
+
+            @Override
+            public int size()
+            {
+                return numVertices;
+            }
+        };
     }
 
+    /**
+     * @return The no. of vertices drawn for this mesh, three for every triangle.
+     */
     public int getNumberOfVertices()
     {
-        return getFaces().size() * 3;
+        return numIndices;
     }
 
     public int getID()
@@ -93,21 +93,18 @@ public void render(Batcher batcher, Transform transform)
 
                 Color color = mesh.getMaterial().getDiffuse();
 
-                for (Face face : mesh.getFaces())
-                {
-                    batcher.vertex(mesh.getVertices().get((int) face.vertexIndex.x));
-                    batcher.normal(mesh.getNormals().get((int) face.normalIndex.x));
-                    batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.x));
-                    batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
+                float[] positions = mesh.getPositionData();
+                float[] normals = mesh.getNormalData();
+                float[] texcoords = mesh.getTexcoordData();
+                int[] indices = mesh.getIndexData();
 
-                    batcher.vertex(mesh.getVertices().get((int) face.vertexIndex.y));
-                    batcher.normal(mesh.getNormals().get((int) face.normalIndex.y));
-                    batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.y));
-                    batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
+                for (int i = 0; i < mesh.getIndexCount(); i++)
+                {
+                    int v = indices[i];
 
-                    batcher.vertex(mesh.getVertices().get((int) face.vertexIndex.z));
-                    batcher.normal(mesh.getNormals().get((int) face.normalIndex.z));
-                    batcher.texCoord(mesh.getTexcoords().get((int) face.texcoordIndex.z));
+                    batcher.vertex(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2]);
+                    batcher.normal(normals[v * 3], normals[v * 3 + 1], normals[v * 3 + 2]);
+                    batcher.texCoord(texcoords[v * 2], texcoords[v * 2 + 1]);
                     batcher.color(color.x, color.y, color.z, mesh.getMaterial().getDissolve());
                 }
             }
@@ -139,32 +139,23 @@ public ModelBuilder emitVertex(Vector3 position, Vector3 normal, Vector2 texcoor
         if (mesh == null)
             createNewMesh();
 
-        mesh.getVertices().add(position.multiply(transform.getMatrix()));
-        mesh.getNormals().add(normal);
-        mesh.getTexcoords().add(texcoords);
+        Vector3 p = Vector3.REUSABLE_STACK.pop().set(position).multiplySelf(transform.getMatrix());
+        mesh.addVertex(p.x, p.y, p.z, normal.x, normal.y, normal.z, texcoords.x, texcoords.y);
+        Vector3.REUSABLE_STACK.push(p);
 
         return this;
     }
 
+    /**
+     * Emits a face with the last three vertices emitted.
+     */
     public ModelBuilder emitFace()
     {
         if (mesh == null)
             createNewMesh();
 
-        Face face = new Face();
-        face.vertexIndex.x = mesh.getVertices().size() - 3;
-        face.vertexIndex.y = mesh.getVertices().size() - 2;
-        face.vertexIndex.z = mesh.getVertices().size() - 1;
-
-        face.normalIndex.x = mesh.getNormals().size() - 3;
-        face.normalIndex.y = mesh.getNormals().size() - 2;
-        face.normalIndex.z = mesh.getNormals().size() - 1;
-
-        face.texcoordIndex.x = mesh.getTexcoords().size() - 3;
-        face.texcoordIndex.y = mesh.getTexcoords().size() - 2;
-        face.texcoordIndex.z = mesh.getTexcoords().size() - 1;
-
-        mesh.getFaces().add(face);
+        int last = mesh.getVertexCount() - 1;
+        mesh.addTriangle(last - 2, last - 1, last);
 
         return this;
     }
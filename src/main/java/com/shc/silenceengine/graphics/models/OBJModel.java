@@ -28,23 +28,33 @@
 import com.shc.silenceengine.graphics.Material;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.io.FilePath;
-import com.shc.silenceengine.math.Vector2;
-import com.shc.silenceengine.math.Vector3;
 import com.shc.silenceengine.utils.FileUtils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
+ * Loads a model from a Wavefront OBJ file. The positions, normals and texcoords are parsed into primitive arrays, and
+ * the corners of the faces with the same position, normal and texcoord share a single vertex in the meshes. Faces with
+ * more than three corners are split into a fan of triangles.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class OBJModel extends Model
 {
-    private List<Vector3> vertices;
-    private List<Vector3> normals;
-    private List<Vector2> texcoords;
+    // The attributes in the file, the first of each is a default one used when a face doesn't refer to any
+    private float[] positions;
+    private float[] normals;
+    private float[] texcoords;
+
+    private int numPositions;
+    private int numNormals;
+    private int numTexcoords;
+
+    // The vertices of the current mesh, for every unique combination of position, normal and texcoord indices
+    private CornerMap corners;
+    private int[]     faceVertices;
 
     private Map<String, Material> materials;
 
@@ -52,14 +62,17 @@ public OBJModel(FilePath path)
     {
         super();
 
-        vertices = new ArrayList<>();
-        normals = new ArrayList<>();
-        texcoords = new ArrayList<>();
-        materials = new HashMap<>();
+        positions = new float[3 * 1024];
+        normals = new float[3 * 1024];
+        texcoords = new float[2 * 1024];
 
-        vertices.add(new Vector3());
-        normals.add(new Vector3());
-        texcoords.add(new Vector2());
+        // The default attributes at index 0, the indices in the file start from 1
+        numPositions = numNormals = numTexcoords = 1;
+
+        corners = new CornerMap();
+        faceVertices = new int[4];
+
+        materials = new HashMap<>();
 
         parseOBJModel(path);
     }
@@ -90,12 +103,17 @@ else if (line.startsWith("vt "))
                     parseTextureCoords(line);
 
                 else if (line.startsWith("f "))
+                {
+                    if (mesh == null)
+                        mesh = new Mesh();
+
                     parseFace(line, mesh);
+                }
 
                 else if (line.startsWith("usemtl "))
                 {
                     material = materials.get(line.replaceAll("usemtl ", "").trim());
-                    if (mesh != null) getMeshes().add(mesh);
+                    if (mesh != null) addMesh(mesh);
                     mesh = new Mesh();
                     mesh.setMaterial(material);
                 }
@@ -105,104 +123,109 @@ else if (line.startsWith("mtllib "))
             }
         }
 
-        getMeshes().add(mesh);
+        if (mesh != null)
+            addMesh(mesh);
 
-        vertices = null;
+        positions = null;
         normals = null;
         texcoords = null;
+        corners = null;
         materials = null;
     }
 
+    private void addMesh(Mesh mesh)
+    {
+        mesh.trim();
+        getMeshes().add(mesh);
+
+        // The vertices are not shared between the meshes
+        corners.clear();
+    }
+
     private void parseVertex(String line)
     {
         String[] values = line.split(" ");
 
-        float x = Float.parseFloat(values[1]);
-        float y = Float.parseFloat(values[2]);
-        float z = Float.parseFloat(values[3]);
+        if (numPositions * 3 == positions.length)
+            positions = Arrays.copyOf(positions, positions.length * 2);
 
-        vertices.add(new Vector3(x, y, z));
+        positions[numPositions * 3] = Float.parseFloat(values[1]);
+        positions[numPositions * 3 + 1] = Float.parseFloat(values[2]);
+        positions[numPositions * 3 + 2] = Float.parseFloat(values[3]);
+
+        numPositions++;
     }
 
     private void parseNormal(String line)
     {
         String[] values = line.split(" ");
 
-        float x = Float.parseFloat(values[1]);
-        float y = Float.parseFloat(values[2]);
-        float z = Float.parseFloat(values[3]);
+        if (numNormals * 3 == normals.length)
+            normals = Arrays.copyOf(normals, normals.length * 2);
+
+        normals[numNormals * 3] = Float.parseFloat(values[1]);
+        normals[numNormals * 3 + 1] = Float.parseFloat(values[2]);
+        normals[numNormals * 3 + 2] = Float.parseFloat(values[3]);
 
-        normals.add(new Vector3(x, y, z));
+        numNormals++;
     }
 
     private void parseTextureCoords(String line)
     {
         String[] values = line.split(" ");
 
-        float x = Float.parseFloat(values[1]);
-        float y = Float.parseFloat(values[2]);
+        if (numTexcoords * 2 == texcoords.length)
+            texcoords = Arrays.copyOf(texcoords, texcoords.length * 2);
 
-        texcoords.add(new Vector2(x, y));
+        texcoords[numTexcoords * 2] = Float.parseFloat(values[1]);
+        texcoords[numTexcoords * 2 + 1] = Float.parseFloat(values[2]);
+
+        numTexcoords++;
     }
 
     private void parseFace(String line, Mesh mesh)
     {
-        String[] values = line.split(" ");
+        String[] values = line.trim().split("\\s+");
+        int numCorners = values.length - 1;
 
-        // Parse the vertex indices
-        float v1 = Float.parseFloat(values[1].split("/")[0]);
-        float v2 = Float.parseFloat(values[2].split("/")[0]);
-        float v3 = Float.parseFloat(values[3].split("/")[0]);
+        if (faceVertices.length < numCorners)
+            faceVertices = new int[numCorners];
 
-        // Parse the texture coord indices
-        float vt1, vt2, vt3;
-
-        Material material = mesh.getMaterial();
-
-        if (material.getDiffuseMap() != Texture.EMPTY)
-        {
-            vt1 = Float.parseFloat(values[1].split("/")[1]);
-            vt2 = Float.parseFloat(values[2].split("/")[1]);
-            vt3 = Float.parseFloat(values[3].split("/")[1]);
-        }
-        else
+        for (int i = 0; i < numCorners; i++)
         {
-            vt1 = vt2 = vt3 = 0;
-        }
-
-        // Parse the normal indices
-        float vn1 = Float.parseFloat(values[1].split("/")[2]);
-        float vn2 = Float.parseFloat(values[2].split("/")[2]);
-        float vn3 = Float.parseFloat(values[3].split("/")[2]);
+            // The corners are v, v/vt, v//vn or v/vt/vn
+            String[] parts = values[i + 1].split("/");
 
-        // Copy the vertices into the mesh
-        mesh.getVertices().add(vertices.get((int) v1));
-        mesh.getVertices().add(vertices.get((int) v2));
-        mesh.getVertices().add(vertices.get((int) v3));
+            int v = parseIndex(parts[0], numPositions);
+            int vt = parts.length > 1 && !parts[1].isEmpty() ? parseIndex(parts[1], numTexcoords) : 0;
+            int vn = parts.length > 2 ? parseIndex(parts[2], numNormals) : 0;
 
-        mesh.getNormals().add(normals.get((int) vn1));
-        mesh.getNormals().add(normals.get((int) vn2));
-        mesh.getNormals().add(normals.get((int) vn3));
+            int vertex = corners.get(v, vt, vn);
 
-        mesh.getTexcoords().add(texcoords.get((int) vt1));
-        mesh.getTexcoords().add(texcoords.get((int) vt2));
-        mesh.getTexcoords().add(texcoords.get((int) vt3));
+            if (vertex == -1)
+            {
+                vertex = mesh.addVertex(positions[v * 3], positions[v * 3 + 1], positions[v * 3 + 2],
+                        normals[vn * 3], normals[vn * 3 + 1], normals[vn * 3 + 2],
+                        texcoords[vt * 2], texcoords[vt * 2 + 1]);
 
-        // Create the face and compute the new indices
-        Face face = new Face();
-        face.vertexIndex.x = mesh.getVertices().size() - 3;
-        face.vertexIndex.y = mesh.getVertices().size() - 2;
-        face.vertexIndex.z = mesh.getVertices().size() - 1;
+                corners.put(v, vt, vn, vertex);
+            }
 
-        face.normalIndex.x = mesh.getNormals().size() - 3;
-        face.normalIndex.y = mesh.getNormals().size() - 2;
-        face.normalIndex.z = mesh.getNormals().size() - 1;
+            faceVertices[i] = vertex;
+        }
 
-        face.texcoordIndex.x = mesh.getTexcoords().size() - 3;
-        face.texcoordIndex.y = mesh.getTexcoords().size() - 2;
-        face.texcoordIndex.z = mesh.getTexcoords().size() - 1;
+        // Polygons are split into a fan of triangles around the first corner
+        for (int i = 2; i < numCorners; i++)
+            mesh.addTriangle(faceVertices[0], faceVertices[i - 1], faceVertices[i]);
+    }
 
-        mesh.getFaces().add(face);
+    /**
+     * Parses an index of a face, the negative indices are relative to the end of the attributes read so far.
+     */
+    private static int parseIndex(String value, int count)
+    {
+        int index = Integer.parseInt(value);
+        return index < 0 ? count + index : index;
     }
 
     private void parseMaterialLib(FilePath objFile, String mtlLine)
@@ -290,4 +313,86 @@ private void parseMaterialDiffuseMap(FilePath mtlLib, String line, Material mate
     {
         material.setDiffuseMap(Texture.fromFilePath(mtlLib.getParent().getChild(line.split(" ")[1].trim())));
     }
+
+    /**
+     * A hash table from the position, texcoord and normal indices of a corner to its vertex, stored in primitive arrays
+     * to avoid boxing millions of keys when loading large models.
+     */
+    private static class CornerMap
+    {
+        private int[] keys;
+        private int[] vertices;
+        private int   size;
+
+        private CornerMap()
+        {
+            allocate(1024);
+        }
+
+        private void allocate(int capacity)
+        {
+            keys = new int[capacity * 3];
+            vertices = new int[capacity];
+            Arrays.fill(vertices, -1);
+        }
+
+        private int slot(int v, int vt, int vn)
+        {
+            int hash = (v * 31 + vt) * 31 + vn;
+            int mask = vertices.length - 1;
+            int slot = (hash ^ hash >>> 16) & mask;
+
+            while (vertices[slot] != -1 &&
+                   (keys[slot * 3] != v || keys[slot * 3 + 1] != vt || keys[slot * 3 + 2] != vn))
+                slot = (slot + 1) & mask;
+
+            return slot;
+        }
+
+        private int get(int v, int vt, int vn)
+        {
+            return vertices[slot(v, vt, vn)];
+        }
+
+        private void put(int v, int vt, int vn, int vertex)
+        {
+            // Keep the table at most half full, so the probes stay short
+            if ((size + 1) * 2 > vertices.length)
+            {
+                int[] oldKeys = keys;
+                int[] oldVertices = vertices;
+
+                allocate(vertices.length * 2);
+
+                for (int i = 0; i < oldVertices.length; i++)
+                {
+                    if (oldVertices[i] != -1)
+                    {
+                        int s = slot(oldKeys[i * 3], oldKeys[i * 3 + 1], oldKeys[i * 3 + 2]);
+
+                        keys[s * 3] = oldKeys[i * 3];
+                        keys[s * 3 + 1] = oldKeys[i * 3 + 1];
+                        keys[s * 3 + 2] = oldKeys[i * 3 + 2];
+                        vertices[s] = oldVertices[i];
+                    }
+                }
+            }
+
+            int s = slot(v, vt, vn);
+
+            if (vertices[s] == -1)
+                size++;
+
+            keys[s * 3] = v;
+            keys[s * 3 + 1] = vt;
+            keys[s * 3 + 2] = vn;
+            vertices[s] = vertex;
+        }
+
+        private void clear()
+        {
+            Arrays.fill(vertices, -1);
+            size = 0;
+        }
+    }
 }
@@ -28,29 +28,37 @@
 import com.shc.silenceengine.graphics.Batcher;
 import com.shc.silenceengine.graphics.Color;
 import com.shc.silenceengine.graphics.Material;
+import com.shc.silenceengine.graphics.RenderQueue;
 import com.shc.silenceengine.graphics.opengl.BufferObject;
 import com.shc.silenceengine.graphics.opengl.GL3Context;
 import com.shc.silenceengine.graphics.opengl.Primitive;
 import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.graphics.opengl.VertexArray;
+import com.shc.silenceengine.math.Matrix4;
 import com.shc.silenceengine.math.Transform;
-import com.shc.silenceengine.math.Vector2;
-import com.shc.silenceengine.math.Vector3;
-import com.shc.silenceengine.math.Vector4;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 
-import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 /**
+ * A StaticMesh keeps the vertices of a mesh on the GPU, so they are uploaded only once. The vertices shared by the
+ * faces are stored once, and the faces refer to them with an index buffer. The triangles are ordered to make the best
+ * use of the post-transform vertex cache, and the vertices are stored in the order they are first used. The color of
+ * the material is the same for all the vertices, so it is set as a constant attribute instead of being stored.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class StaticMesh
 {
+    // The no. of floats in a vertex while building, the position, normal and texcoord
+    private static final int VERTEX_SIZE = 8;
+
     private Material material;
 
     private VertexArray vao;
@@ -58,153 +66,338 @@
     private BufferObject vbo;
     private BufferObject nbo;
     private BufferObject tbo;
-    private BufferObject cbo;
+    private BufferObject ibo;
 
     private int numVertices;
+    private int numIndices;
+    private int indexType;
+
+    // The per-instance transforms of the instanced draws, created on the first instanced draw
+    private BufferObject instanceBuffer;
+    private FloatBuffer  instanceData;
+
+    // The state replaced while rendering, restored after the draw
+    private VertexArray originalVAO;
+    private Material    originalMaterial;
+    private Texture     originalTexture;
 
     public StaticMesh(Mesh mesh)
     {
-        List<Float> vertices = new ArrayList<>();
-        List<Float> normals = new ArrayList<>();
-        List<Float> colors = new ArrayList<>();
-        List<Float> texcoords = new ArrayList<>();
-
         material = mesh.getMaterial();
-        numVertices = mesh.getNumberOfVertices();
 
-        for (Face face : mesh.getFaces())
-        {
-            Vector3 v1 = mesh.getVertices().get((int) face.vertexIndex.x);
-            Vector3 v2 = mesh.getVertices().get((int) face.vertexIndex.y);
-            Vector3 v3 = mesh.getVertices().get((int) face.vertexIndex.z);
+        int meshVertices = mesh.getVertexCount();
 
-            Vector3 n1 = mesh.getNormals().get((int) face.normalIndex.x);
-            Vector3 n2 = mesh.getNormals().get((int) face.normalIndex.y);
-            Vector3 n3 = mesh.getNormals().get((int) face.normalIndex.z);
+        // The attributes of the unique vertices, the position, normal and texcoord of each
+        float[] vertexData = new float[meshVertices * VERTEX_SIZE];
 
-            Vector2 t1 = mesh.getTexcoords().get((int) face.texcoordIndex.x);
-            Vector2 t2 = mesh.getTexcoords().get((int) face.texcoordIndex.y);
-            Vector2 t3 = mesh.getTexcoords().get((int) face.texcoordIndex.z);
+        // An open addressing hash table of the unique vertices, -1 marks the free entries
+        int[] table = new int[Integer.highestOneBit(Math.max(meshVertices, 1)) * 4];
+        Arrays.fill(table, -1);
 
-            Color color = material.getDiffuse();
+        // The meshes built without sharing the vertices, like the ones from the ModelBuilder, have duplicates
+        int[] unique = new int[meshVertices];
 
-            addVector(v1, vertices);
-            addVector(v2, vertices);
-            addVector(v3, vertices);
+        for (int i = 0; i < meshVertices; i++)
+            unique[i] = addVertex(mesh, vertexData, table, i);
 
-            addVector(n1, normals);
-            addVector(n2, normals);
-            addVector(n3, normals);
+        numIndices = mesh.getIndexCount();
+        int[] indices = new int[numIndices];
 
-            addVector(t1, texcoords);
-            addVector(t2, texcoords);
-            addVector(t3, texcoords);
+        for (int i = 0; i < numIndices; i++)
+            indices[i] = unique[mesh.getIndexData()[i]];
+
+        VertexCacheOptimizer.optimize(indices, numVertices);
+
+        // Store the vertices in the order they are used, so the fetches from the buffers are sequential too
+        int[] remap = new int[numVertices];
+        Arrays.fill(remap, -1);
+
+        FloatBuffer positions = BufferUtils.createFloatBuffer(numVertices * 3);
+        FloatBuffer normals = BufferUtils.createFloatBuffer(numVertices * 3);
+        FloatBuffer texcoords = BufferUtils.createFloatBuffer(numVertices * 2);
+
+        int next = 0;
+
+        for (int i = 0; i < numIndices; i++)
+        {
+            int vertex = indices[i];
 
-            for (int i = 0; i < 3; i++)
-                addVector(color, colors);
+            if (remap[vertex] == -1)
+            {
+                remap[vertex] = next++;
+
+                int offset = vertex * VERTEX_SIZE;
+
+                positions.put(vertexData, offset, 3);
+                normals.put(vertexData, offset + 3, 3);
+                texcoords.put(vertexData, offset + 6, 2);
+            }
+
+            indices[i] = remap[vertex];
         }
 
+        positions.flip();
+        normals.flip();
+        texcoords.flip();
+
         vao = new VertexArray();
         vao.bind(true);
 
         vbo = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        vbo.uploadData(wrapBuffer(vertices), BufferObject.Usage.STATIC_DRAW);
+        vbo.uploadData(positions, BufferObject.Usage.STATIC_DRAW);
 
         nbo = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        nbo.uploadData(wrapBuffer(normals), BufferObject.Usage.STATIC_DRAW);
+        nbo.uploadData(normals, BufferObject.Usage.STATIC_DRAW);
 
         tbo = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        tbo.uploadData(wrapBuffer(texcoords), BufferObject.Usage.STATIC_DRAW);
+        tbo.uploadData(texcoords, BufferObject.Usage.STATIC_DRAW);
+
+        // The element array buffer binding is stored in the VAO
+        ibo = new BufferObject(BufferObject.Target.ELEMENT_ARRAY_BUFFER);
+
+        if (numVertices <= 0xFFFF)
+        {
+            ShortBuffer shortIndices = BufferUtils.createShortBuffer(numIndices);
+
+            for (int index : indices)
+                shortIndices.put((short) index);
+
+            shortIndices.flip();
+
+            ibo.uploadData(shortIndices, BufferObject.Usage.STATIC_DRAW);
+            indexType = GL11.GL_UNSIGNED_SHORT;
+        }
+        else
+        {
+            IntBuffer intIndices = BufferUtils.createIntBuffer(numIndices);
+            intIndices.put(indices).flip();
+
+            ibo.uploadData(intIndices, BufferObject.Usage.STATIC_DRAW);
+            indexType = GL11.GL_UNSIGNED_INT;
+        }
 
-        cbo = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
-        cbo.uploadData(wrapBuffer(colors), BufferObject.Usage.STATIC_DRAW);
+        GL3Context.bindVertexArray(null);
     }
 
-    private void addVector(Vector3 v, List<Float> list)
+    /**
+     * Finds the vertex with the same position, normal and texcoord as a vertex of the mesh, adding it if there is none.
+     * The vertices are compared by their values.
+     *
+     * @return The index of the unique vertex.
+     */
+    private int addVertex(Mesh mesh, float[] vertexData, int[] table, int vertex)
     {
-        list.add(v.x);
-        list.add(v.y);
-        list.add(v.z);
+        // Write the vertex as a new one, it is only kept if it is not found
+        int offset = numVertices * VERTEX_SIZE;
+
+        System.arraycopy(mesh.getPositionData(), vertex * 3, vertexData, offset, 3);
+        System.arraycopy(mesh.getNormalData(), vertex * 3, vertexData, offset + 3, 3);
+        System.arraycopy(mesh.getTexcoordData(), vertex * 2, vertexData, offset + 6, 2);
+
+        int hash = 0;
+
+        for (int i = 0; i < VERTEX_SIZE; i++)
+        {
+            // Adding zero turns -0 into 0, so they are the same vertex
+            hash = hash * 31 + Float.floatToIntBits(vertexData[offset + i] + 0.0f);
+        }
+
+        int mask = table.length - 1;
+        int slot = (hash ^ hash >>> 16) & mask;
+
+        while (table[slot] != -1)
+        {
+            int found = table[slot];
+
+            if (sameVertex(vertexData, found * VERTEX_SIZE, offset))
+                return found;
+
+            slot = (slot + 1) & mask;
+        }
+
+        table[slot] = numVertices;
+        return numVertices++;
     }
 
-    private void addVector(Vector2 v, List<Float> list)
+    private static boolean sameVertex(float[] vertexData, int a, int b)
     {
-        list.add(v.x);
-        list.add(v.y);
+        for (int i = 0; i < VERTEX_SIZE; i++)
+        {
+            if (vertexData[a + i] + 0.0f != vertexData[b + i] + 0.0f)
+                return false;
+        }
+
+        return true;
     }
 
-    private void addVector(Vector4 v, List<Float> list)
+    public void render(Transform transform)
     {
-        list.add(v.x);
-        list.add(v.y);
-        list.add(v.z);
-        list.add(v.w);
+        beginRender();
+
+        Program.CURRENT.setUniform("mTransform", transform.getMatrix());
+
+        // Make a draw call
+        GL3Context.drawElements(vao, Primitive.TRIANGLES, 0, numIndices, indexType);
+
+        endRender();
     }
 
-    private Buffer wrapBuffer(List<Float> floats)
+    /**
+     * Renders this mesh once for every transform, in a single instanced draw call. The transforms are uploaded into
+     * a per-instance buffer, and the shader applies them to the vertices, so the vertices are never transformed on the
+     * CPU. The program should support the instanceTransform attribute, like the default and the light programs do.
+     * When the program does not set the location of that attribute in the batcher, the instances are rendered one at
+     * a time instead.
+     *
+     * @param transforms The transforms of the instances.
+     * @param transform  The transform applied after the transform of every instance, or null.
+     */
+    public void renderInstanced(List<Transform> transforms, Transform transform)
     {
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(floats.size());
-        floats.forEach(buffer::put);
-        return buffer.flip();
+        int count = transforms.size();
+
+        if (count == 0)
+            return;
+
+        Batcher batcher = SilenceEngine.graphics.getBatcher();
+
+        // A mat4 attribute takes four locations, one for every row
+        int location = batcher.getInstanceTransformLocation();
+
+        if (location < 0)
+        {
+            Transform temp = Transform.REUSABLE_STACK.pop();
+
+            for (Transform instance : transforms)
+                render(transform == null ? instance : temp.set(instance).applySelf(transform));
+
+            Transform.REUSABLE_STACK.push(temp);
+            return;
+        }
+
+        if (instanceData == null || instanceData.capacity() < count * 16)
+            instanceData = BufferUtils.createFloatBuffer(count * 2 * 16);
+
+        instanceData.clear();
+
+        // The rows of the matrices, in the same order the uniforms are uploaded in
+        for (Transform instance : transforms)
+        {
+            Matrix4 m = instance.getMatrix();
+
+            for (int i = 0; i < 4; i++)
+                instanceData.put(m.get(i, 0)).put(m.get(i, 1)).put(m.get(i, 2)).put(m.get(i, 3));
+        }
+
+        instanceData.flip();
+
+        if (instanceBuffer == null)
+            instanceBuffer = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
+
+        // Re-specifying the store every draw lets the driver orphan the one used by the previous draw
+        instanceBuffer.uploadData(instanceData, BufferObject.Usage.STREAM_DRAW);
+
+        beginRender();
+
+        Program program = Program.CURRENT;
+
+        Matrix4 identity = Matrix4.REUSABLE_STACK.pop().initIdentity();
+        program.setUniform("mTransform", transform == null ? identity : transform.getMatrix());
+        program.setUniform("instanced", 1);
+        Matrix4.REUSABLE_STACK.push(identity);
+
+        for (int i = 0; i < 4; i++)
+        {
+            vao.enableAttributeArray(location + i);
+            vao.pointAttribute(location + i, 4, GL11.GL_FLOAT, false, 16 * Float.BYTES, i * 4 * Float.BYTES,
+                    instanceBuffer);
+            vao.setAttributeDivisor(location + i, 1);
+        }
+
+        GL3Context.drawElementsInstanced(vao, Primitive.TRIANGLES, 0, numIndices, indexType, count);
+
+        // The divisor is a state of the VAO, so it is reset for the other draws of this mesh using these locations
+        for (int i = 0; i < 4; i++)
+        {
+            vao.setAttributeDivisor(location + i, 0);
+            vao.disableAttributeArray(location + i);
+        }
+
+        program.setUniform("instanced", 0);
+
+        endRender();
     }
 
-    public void render(Transform transform)
+    private void beginRender()
     {
+        // Draw the queued draws first, so that they stay below this mesh like they do for the direct Batcher draws
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        if (queue != null && !queue.isFlushing())
+            queue.flush();
+
         // Get the batcher to know the program locations
         Batcher batcher = SilenceEngine.graphics.getBatcher();
 
-        // Validate the VAO
+        // Validate the VAO, a new one needs the index buffer bound to it
         if (!vao.isValid())
         {
             vao = new VertexArray();
             vao.bind(true);
+            ibo.bind(true);
         }
 
         // Backup the original VAO
-        VertexArray originalVAO = VertexArray.CURRENT;
+        originalVAO = VertexArray.CURRENT;
 
         // Bind our VAO
         vao.bind();
 
         // Material of this mesh
-        Material originalMaterial = SilenceEngine.graphics.getCurrentMaterial();
-        Texture originalTexture = Texture.CURRENT;
+        originalMaterial = SilenceEngine.graphics.getCurrentMaterial();
+        originalTexture = Texture.CURRENT;
         SilenceEngine.graphics.useMaterial(material);
         material.getDiffuseMap().bind();
 
         // Uniforms
-        Program program = Program.CURRENT;
-        program.prepareFrame();
-
-        program.setUniform("mTransform", transform.getMatrix());
+        Program.CURRENT.prepareFrame();
 
         // Enable the attribute locations
         vao.enableAttributeArray(batcher.getVertexLocation());
         vao.enableAttributeArray(batcher.getNormalLocation());
-        vao.enableAttributeArray(batcher.getColorLocation());
         vao.enableAttributeArray(batcher.getTexCoordLocation());
 
         // Point the attributes to buffer objects
         vao.pointAttribute(batcher.getVertexLocation(), 3, GL11.GL_FLOAT, vbo);
         vao.pointAttribute(batcher.getNormalLocation(), 3, GL11.GL_FLOAT, nbo);
-        vao.pointAttribute(batcher.getColorLocation(), 4, GL11.GL_FLOAT, cbo);
         vao.pointAttribute(batcher.getTexCoordLocation(), 2, GL11.GL_FLOAT, tbo);
 
-        // Make a draw call
-        GL3Context.drawArrays(vao, Primitive.TRIANGLES, 0, numVertices);
+        // The color is the same for all the vertices
+        Color color = material.getDiffuse();
+
+        vao.disableAttributeArray(batcher.getColorLocation());
+        GL3Context.vertexAttribute(batcher.getColorLocation(), color.getR(), color.getG(), color.getB(), color.getA());
+    }
+
+    private void endRender()
+    {
+        Batcher batcher = SilenceEngine.graphics.getBatcher();
 
         // Disable the attribute locations
         vao.disableAttributeArray(batcher.getVertexLocation());
         vao.disableAttributeArray(batcher.getNormalLocation());
-        vao.disableAttributeArray(batcher.getColorLocation());
         vao.disableAttributeArray(batcher.getTexCoordLocation());
 
         SilenceEngine.graphics.useMaterial(originalMaterial);
         originalTexture.bind();
 
         // Bind the original VAO if it is valid
-        if (originalVAO.isValid())
+        if (originalVAO != null && originalVAO.isValid())
             originalVAO.bind();
+
+        originalVAO = null;
+        originalMaterial = null;
+        originalTexture = null;
     }
 
     public void dispose()
@@ -213,6 +406,9 @@ public void dispose()
         vbo.dispose();
         nbo.dispose();
         tbo.dispose();
-        cbo.dispose();
+        ibo.dispose();
+
+        if (instanceBuffer != null)
+            instanceBuffer.dispose();
     }
 }
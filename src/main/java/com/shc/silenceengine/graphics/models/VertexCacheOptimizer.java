@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics.models;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of an indexed mesh so that the GPU finds most of their vertices in its post-transform vertex
+ * cache, and doesn't have to run the vertex shader on them again. This is the linear-speed algorithm by Tom Forsyth,
+ * which emits the triangles greedily, always picking the one whose vertices score best. A vertex scores high when it
+ * is recently used, and when only a few triangles still use it, so the meshes are drawn in compact strips that leave
+ * no vertex behind.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public final class VertexCacheOptimizer
+{
+    // The size of the simulated cache, and the constants of the scoring function
+    private static final int   CACHE_SIZE          = 32;
+    private static final float CACHE_DECAY_POWER   = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private VertexCacheOptimizer()
+    {
+    }
+
+    /**
+     * Reorders the triangles of a triangle list in place. The vertices themselves are not moved.
+     *
+     * @param indices     The indices of the triangles, three for every triangle.
+     * @param numVertices The no. of vertices the indices refer to.
+     */
+    public static void optimize(int[] indices, int numVertices)
+    {
+        int numTriangles = indices.length / 3;
+
+        if (numTriangles < 2)
+            return;
+
+        // The triangles using every vertex, the first remaining[v] of them are the ones not emitted yet
+        int[] remaining = new int[numVertices];
+
+        for (int index : indices)
+            remaining[index]++;
+
+        int[] offsets = new int[numVertices + 1];
+
+        for (int v = 0; v < numVertices; v++)
+            offsets[v + 1] = offsets[v] + remaining[v];
+
+        int[] triangles = new int[indices.length];
+        int[] filled = new int[numVertices];
+
+        for (int i = 0; i < indices.length; i++)
+        {
+            int v = indices[i];
+            triangles[offsets[v] + filled[v]++] = i / 3;
+        }
+
+        int[] cachePositions = new int[numVertices];
+        Arrays.fill(cachePositions, -1);
+
+        float[] vertexScores = new float[numVertices];
+
+        for (int v = 0; v < numVertices; v++)
+            vertexScores[v] = score(cachePositions[v], remaining[v]);
+
+        float[] triangleScores = new float[numTriangles];
+        boolean[] emitted = new boolean[numTriangles];
+
+        int best = 0;
+
+        for (int t = 0; t < numTriangles; t++)
+        {
+            triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                                + vertexScores[indices[t * 3 + 2]];
+
+            if (triangleScores[t] > triangleScores[best])
+                best = t;
+        }
+
+        // The vertices in the cache, with room for the three added by every triangle before the oldest are evicted
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+
+        int[] output = new int[indices.length];
+        int scanPosition = 0;
+
+        for (int n = 0; n < numTriangles; n++)
+        {
+            // Nothing in the cache has triangles left, so continue from the next triangle in the original order
+            if (best == -1)
+            {
+                while (emitted[scanPosition])
+                    scanPosition++;
+
+                best = scanPosition;
+            }
+
+            emitted[best] = true;
+
+            int newCount = 0;
+
+            for (int k = 0; k < 3; k++)
+            {
+                int v = indices[best * 3 + k];
+                output[n * 3 + k] = v;
+
+                removeTriangle(triangles, offsets[v], remaining[v]--, best);
+                newCache[newCount++] = v;
+            }
+
+            // The vertices of the triangle move to the front of the cache, pushing the others back
+            for (int i = 0; i < cacheCount; i++)
+            {
+                int v = cache[i];
+
+                if (v != newCache[0] && v != newCache[1] && v != newCache[2])
+                    newCache[newCount++] = v;
+            }
+
+            for (int i = 0; i < newCount; i++)
+            {
+                int v = newCache[i];
+
+                cachePositions[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = score(cachePositions[v], remaining[v]);
+            }
+
+            // Only the triangles of the vertices that moved in the cache have changed their score
+            best = -1;
+            float bestScore = -1;
+
+            for (int i = 0; i < newCount; i++)
+            {
+                int v = newCache[i];
+
+                for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++)
+                {
+                    int t = triangles[j];
+
+                    triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                                        + vertexScores[indices[t * 3 + 2]];
+
+                    if (triangleScores[t] > bestScore)
+                    {
+                        best = t;
+                        bestScore = triangleScores[t];
+                    }
+                }
+            }
+
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+        }
+
+        System.arraycopy(output, 0, indices, 0, indices.length);
+    }
+
+    /**
+     * Removes a triangle from the remaining triangles of a vertex, by swapping it with the last remaining one.
+     */
+    private static void removeTriangle(int[] triangles, int offset, int count, int triangle)
+    {
+        for (int i = offset; i < offset + count; i++)
+        {
+            if (triangles[i] == triangle)
+            {
+                triangles[i] = triangles[offset + count - 1];
+                triangles[offset + count - 1] = triangle;
+                return;
+            }
+        }
+    }
+
+    private static float score(int cachePosition, int remainingTriangles)
+    {
+        // The vertices with no triangles left are never needed again
+        if (remainingTriangles == 0)
+            return -1;
+
+        float score = 0;
+
+        if (cachePosition >= 0)
+        {
+            // The vertices of the last triangle get a fixed score, so the next triangle doesn't prefer any of them
+            if (cachePosition < 3)
+                score = LAST_TRIANGLE_SCORE;
+            else
+                score = (float) Math.pow(1 - (cachePosition - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+
+        return score + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Counts the vertices a cache of the given size would have to transform, divided by the no. of triangles. This is
+     * the average cache miss ratio (ACMR), which is 3 for an unindexed mesh, and close to 0.5 for a well ordered grid.
+     *
+     * @param indices   The indices of the triangles.
+     * @param cacheSize The size of the simulated FIFO cache.
+     *
+     * @return The average no. of vertices transformed per triangle.
+     */
+    public static float getCacheMissRatio(int[] indices, int cacheSize)
+    {
+        int[] fifo = new int[cacheSize];
+        Arrays.fill(fifo, -1);
+
+        int head = 0;
+        int misses = 0;
+
+        for (int index : indices)
+        {
+            boolean hit = false;
+
+            for (int cached : fifo)
+            {
+                if (cached == index)
+                {
+                    hit = true;
+                    break;
+                }
+            }
+
+            if (!hit)
+            {
+                fifo[head] = index;
+                head = (head + 1) % cacheSize;
+                misses++;
+            }
+        }
+
+        return misses / (float) Math.max(1, indices.length / 3);
+    }
+}
@@ -25,6 +25,10 @@
 package com.shc.silenceengine.graphics.opengl;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL44;
 
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
@@ -33,13 +37,12 @@
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.util.EnumSet;
-import java.util.HashMap;
-import java.util.Map;
 
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL21.*;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL44.*;
 
 /**
  * This class encapsulates OpenGL Buffer Objects nicely and cleanly allowing you to use OpenGL in an Object Oriented
@@ -52,7 +55,6 @@
  */
 public class BufferObject
 {
-    private static Map<Integer, BufferObject> current = new HashMap<>();
     private int     id;
     private int     capacity;
     private Target  target;
@@ -118,18 +120,24 @@ else if (data instanceof ShortBuffer)
      * constructor.
      */
     public void bind()
+    {
+        bind(false);
+    }
+
+    /**
+     * Binds this VertexBufferObject to the OpenGL binding point specified by the target you specified in the
+     * constructor.
+     *
+     * @param force Force binding the object. The element array buffer binding is a part of the vertex array state, so
+     *              it has to be forced when the vertex array has changed since the last binding.
+     */
+    public void bind(boolean force)
     {
         if (disposed)
             throw new GLException("VertexBufferObject is already disposed!");
 
         // Prevent un-necessary bindings, they are costly
-        if (current.containsKey(target.getValue()) && current.get(target.getValue()) == this)
-            return;
-
-        glBindBuffer(target.getValue(), id);
-        current.put(target.getValue(), this);
-
-        GLError.check();
+        GL3Context.getStateCache().bindBuffer(target.getValue(), id, force);
     }
 
     /**
@@ -149,6 +157,41 @@ public void uploadData(int capacity, Usage usage)
         GLError.check();
     }
 
+    /**
+     * Creates an immutable data store for this buffer object by calling the <code>glBufferStorage()</code> function.
+     * This needs OpenGL 4.4 or the ARB_buffer_storage extension, check with isStorageSupported() first. Immutable
+     * stores can be mapped persistently, and stay mapped while they are used for drawing.
+     *
+     * @param capacity The capacity of the data store to be created
+     * @param flags    The access flags the store is going to be mapped with, including MAP_PERSISTENT_BIT and
+     *                 MAP_COHERENT_BIT for persistent mappings.
+     */
+    public void storage(int capacity, EnumSet<MapAccessFlag> flags)
+    {
+        int value = 0;
+        for (MapAccessFlag flag : flags)
+            value |= flag.getValue();
+
+        bind();
+        this.capacity = capacity;
+
+        if (GL.getCapabilities().OpenGL44)
+            GL44.glBufferStorage(target.getValue(), capacity, value);
+        else
+            ARBBufferStorage.glBufferStorage(target.getValue(), capacity, value);
+
+        GLError.check();
+    }
+
+    /**
+     * @return True if the current context supports immutable buffer storage, and hence persistent mapping.
+     */
+    public static boolean isStorageSupported()
+    {
+        ContextCapabilities capabilities = GL.getCapabilities();
+        return capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage;
+    }
+
     /**
      * Updates a subset of data starting from the offset in the VertexBufferObject's data store with the data from a NIO
      * Buffer
@@ -278,7 +321,32 @@ public ByteBuffer map(MapAccess access, ByteBuffer pointer)
      */
     public ByteBuffer mapRange(long offset, int length, EnumSet<MapAccessFlag> access)
     {
-        return mapRange(offset, access, BufferUtils.createByteBuffer(length));
+        return mapRange(offset, length, access, null);
+    }
+
+    /**
+     * Maps a section of a buffer object's data store, reusing an existing ByteBuffer object for the pointer if
+     * possible, so that mapping every frame doesn't create garbage.
+     *
+     * @param offset  The starting offset within the buffer of the range to be mapped.
+     * @param length  The length of the range to be mapped.
+     * @param access  Combination of access flags indicating the desired access to the range.
+     * @param pointer A previously mapped ByteBuffer to reuse, or null.
+     *
+     * @return A pointer to the mapped range as a NIO ByteBuffer.
+     */
+    public ByteBuffer mapRange(long offset, int length, EnumSet<MapAccessFlag> access, ByteBuffer pointer)
+    {
+        int value = 0;
+        for (MapAccessFlag flag : access)
+            value |= flag.getValue();
+
+        bind();
+        pointer = glMapBufferRange(target.getValue(), offset, length, value, pointer);
+
+        GLError.check();
+
+        return pointer;
     }
 
     /**
@@ -328,10 +396,9 @@ public boolean unMap()
      */
     public void dispose()
     {
-        glBindBuffer(target.getValue(), 0);
-        GLError.check();
         glDeleteBuffers(id);
         GLError.check();
+        GL3Context.getStateCache().onBufferDeleted(id);
         disposed = true;
     }
 
@@ -449,7 +516,9 @@ public int getValue()
         MAP_INVALIDATE_RANGE_BIT(GL_MAP_INVALIDATE_RANGE_BIT),
         MAP_INVALIDATE_BUFFER_BIT(GL_MAP_INVALIDATE_BUFFER_BIT),
         MAP_FLUSH_EXPLICIT_BIT(GL_MAP_FLUSH_EXPLICIT_BIT),
-        MAP_UNSYNCHRONIZED_BIT(GL_MAP_UNSYNCHRONIZED_BIT);
+        MAP_UNSYNCHRONIZED_BIT(GL_MAP_UNSYNCHRONIZED_BIT),
+        MAP_PERSISTENT_BIT(GL_MAP_PERSISTENT_BIT),
+        MAP_COHERENT_BIT(GL_MAP_COHERENT_BIT);
 
         int value;
 
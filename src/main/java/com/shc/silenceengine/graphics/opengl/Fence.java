@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics.opengl;
+
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * A Fence is an OpenGL sync object that is signaled when the GPU completes all the commands issued before it. It is
+ * used to know when the GPU is done reading from a buffer, so that the buffer can be safely overwritten.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class Fence
+{
+    // Wait in steps of a millisecond (the timeout is in nanoseconds)
+    private static final long WAIT_TIMEOUT = 1000000;
+
+    private long    sync;
+    private boolean disposed;
+
+    /**
+     * Creates a fence after all the commands issued till now.
+     */
+    public Fence()
+    {
+        sync = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLError.check();
+    }
+
+    /**
+     * @return True if the GPU has completed all the commands before this fence.
+     */
+    public boolean isSignaled()
+    {
+        int status = glClientWaitSync(sync, 0, 0);
+        GLError.check();
+
+        return status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED;
+    }
+
+    /**
+     * Blocks the calling thread until the GPU completes all the commands before this fence.
+     */
+    public void waitFor()
+    {
+        if (disposed)
+            throw new GLException("Fence is already disposed!");
+
+        while (true)
+        {
+            int status = glClientWaitSync(sync, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+
+            if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED)
+                return;
+
+            if (status == GL_WAIT_FAILED)
+            {
+                GLError.check(true);
+                throw new GLException("Waiting for the fence failed");
+            }
+        }
+    }
+
+    public void dispose()
+    {
+        if (disposed)
+            return;
+
+        glDeleteSync(sync);
+        GLError.check();
+
+        disposed = true;
+    }
+
+    public boolean isDisposed()
+    {
+        return disposed;
+    }
+}
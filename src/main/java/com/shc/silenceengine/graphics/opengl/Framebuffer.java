@@ -116,11 +116,13 @@ public void bind(boolean force)
         if (!force && CURRENT == this)
             return;
 
+        // The queued draws belong to the framebuffer that was bound when they were recorded
+        GL3Context.flushRenderQueue();
+
         glBindFramebuffer(target.getValue(), id);
         GLError.check();
 
-        glViewport(0, 0, Display.getWidth(), Display.getHeight());
-        GLError.check();
+        GL3Context.viewport(0, 0, Display.getWidth(), Display.getHeight());
 
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
         GLError.check();
@@ -26,37 +26,72 @@
 
 import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.graphics.Color;
+import com.shc.silenceengine.graphics.RenderQueue;
 import com.shc.silenceengine.math.geom2d.Rectangle;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /**
  * @author Sri Harsha Chilakapati
  */
 public final class GL3Context
 {
+    private static GLStateCache stateCache = new GLStateCache();
+
     private GL3Context()
     {
     }
 
+    /**
+     * @return The cache of the OpenGL state, through which the state changes are made to skip the redundant calls.
+     */
+    public static GLStateCache getStateCache()
+    {
+        return stateCache;
+    }
+
+    public static void setStateCache(GLStateCache stateCache)
+    {
+        GL3Context.stateCache = stateCache;
+    }
+
+    /**
+     * Draws the draws queued in the render queue, before a change in the state that they were not recorded with. This
+     * does nothing while the queue itself is being flushed, as the queue changes the state for its own draws, and
+     * while the Batcher is drawing, as the queue was flushed when the Batcher began.
+     */
+    static void flushRenderQueue()
+    {
+        if (SilenceEngine.graphics == null || SilenceEngine.graphics.getBatcher() == null)
+            return;
+
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        if (queue != null && queue.getNumCommands() > 0 && !queue.isFlushing()
+            && !SilenceEngine.graphics.getBatcher().isActive())
+            queue.flush();
+    }
+
     public static void enable(int capability)
     {
-        glEnable(capability);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.enable(capability);
     }
 
     public static void blendFunc(int src, int dst)
     {
-        glBlendFunc(src, dst);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.blendFunc(src, dst);
     }
 
     public static void disable(int capability)
     {
-        glDisable(capability);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.disable(capability);
     }
 
     /**
@@ -92,6 +127,8 @@ public static void clearColor(float r, float g, float b, float a)
      */
     public static void clear(int buffers)
     {
+        flushRenderQueue();
+
         glClear(buffers);
         GLError.check();
     }
@@ -122,6 +159,81 @@ public static void drawElements(VertexArray vao, Primitive mode, int offset, int
         SilenceEngine.graphics.renderCalls++;
     }
 
+    /**
+     * Sets the value of a vertex attribute that is the same for all the vertices. This value is used while the array
+     * of the attribute is disabled, so the constant attributes don't have to be stored for every vertex.
+     *
+     * @param index The location of the attribute
+     */
+    public static void vertexAttribute(int index, float x, float y, float z, float w)
+    {
+        glVertexAttrib4f(index, x, y, z, w);
+        GLError.check();
+    }
+
+    /**
+     * Binds a {@link VertexArray} and draws its vertices a number of times in a single draw call. The attributes with a
+     * divisor (see {@link VertexArray#setAttributeDivisor(int, int)}) advance once per instance instead of per vertex.
+     *
+     * @param vao           The <code>VertexArray</code> to be drawn
+     * @param mode          The GL Primitive to be used for drawing
+     * @param offset        The first vertex to draw
+     * @param vertexCount   The amount of vertices in an instance
+     * @param instanceCount The amount of instances to draw
+     */
+    public static void drawArraysInstanced(VertexArray vao, Primitive mode, int offset, int vertexCount,
+                                           int instanceCount)
+    {
+        vao.bind();
+        glDrawArraysInstanced(mode.getGlPrimitive(), offset, vertexCount, instanceCount);
+        GLError.check();
+
+        SilenceEngine.graphics.renderCalls++;
+    }
+
+    /**
+     * Binds a {@link VertexArray} and draws the vertices selected by the indices in its element array buffer a number
+     * of times in a single draw call.
+     *
+     * @param vao           The <code>VertexArray</code> to be drawn
+     * @param mode          The GL Primitive to be used for drawing
+     * @param offset        The byte offset of the first index in the element array buffer
+     * @param indexCount    The amount of indices in an instance
+     * @param type          The type of the indices, GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     * @param instanceCount The amount of instances to draw
+     */
+    public static void drawElementsInstanced(VertexArray vao, Primitive mode, int offset, int indexCount, int type,
+                                             int instanceCount)
+    {
+        vao.bind();
+        glDrawElementsInstanced(mode.getGlPrimitive(), indexCount, type, offset, instanceCount);
+        GLError.check();
+
+        SilenceEngine.graphics.renderCalls++;
+    }
+
+    /**
+     * Binds a {@link VertexArray} and draws it to the screen using the indices in the element array buffer bound to
+     * it, adding a base vertex to every index. This lets a single index buffer be used with vertices anywhere in the
+     * vertex buffer.
+     *
+     * @param vao         The <code>VertexArray</code> to be drawn
+     * @param mode        The GL Primitive to be used for drawing
+     * @param offset      The byte offset of the first index in the element array buffer
+     * @param indexCount  The amount of indices to draw
+     * @param type        The type of the indices, GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+     * @param baseVertex  The constant added to every index before fetching the vertex
+     */
+    public static void drawElementsBaseVertex(VertexArray vao, Primitive mode, int offset, int indexCount, int type,
+                                              int baseVertex)
+    {
+        vao.bind();
+        glDrawElementsBaseVertex(mode.getGlPrimitive(), indexCount, type, offset, baseVertex);
+        GLError.check();
+
+        SilenceEngine.graphics.renderCalls++;
+    }
+
     /**
      * Bind the VertexArray for use in OpenGL.
      *
@@ -131,8 +243,8 @@ public static void bindVertexArray(VertexArray vao)
     {
         if (vao == null)
         {
-            glBindVertexArray(0);
-            GLError.check();
+            stateCache.bindVertexArray(0);
+            VertexArray.CURRENT = null;
             return;
         }
 
@@ -148,8 +260,7 @@ public static void bindVertexBuffer(BufferObject vbo)
     {
         if (vbo == null)
         {
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            GLError.check();
+            stateCache.bindBuffer(GL_ARRAY_BUFFER, 0);
             return;
         }
 
@@ -176,8 +287,8 @@ public static void viewport(Rectangle rect)
      */
     public static void viewport(float x, float y, float width, float height)
     {
-        glViewport((int) x, (int) y, (int) width, (int) height);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.viewport((int) x, (int) y, (int) width, (int) height);
     }
 
     /**
@@ -187,19 +298,19 @@ public static void viewport(float x, float y, float width, float height)
      */
     public static void depthMask(boolean value)
     {
-        glDepthMask(value);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.depthMask(value);
     }
 
     public static void depthFunc(int func)
     {
-        glDepthFunc(func);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.depthFunc(func);
     }
 
     public static void cullFace(int mode)
     {
-        glCullFace(mode);
-        GLError.check();
+        flushRenderQueue();
+        stateCache.cullFace(mode);
     }
 }
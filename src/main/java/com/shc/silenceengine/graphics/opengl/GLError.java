@@ -25,9 +25,15 @@
 package com.shc.silenceengine.graphics.opengl;
 
 import com.shc.silenceengine.core.Game;
+import com.shc.silenceengine.utils.Logger;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLDebugMessageCallback;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.KHRDebug.*;
+import static org.lwjgl.system.MemoryUtil.*;
 
 /**
  * Static Utility class to check for OpenGL errors. If you want to check for errors anytime, just make a call to
@@ -37,6 +43,11 @@
  */
 public final class GLError
 {
+    private static Mode mode = Mode.GET_ERROR;
+
+    // Keep a strong reference to the callback, the native side only has a pointer to it
+    private static GLDebugMessageCallback debugCallback;
+
     /**
      * Prevent instantiation, this is just a utility class
      */
@@ -64,7 +75,7 @@ public static void check()
     public static void check(boolean force)
     {
         // We don't want to run GL checks
-        if (!force && !Game.development)
+        if (!force && (!Game.development || mode != Mode.GET_ERROR))
             return;
 
         switch (glGetError())
@@ -111,6 +122,96 @@ public static Value get()
         return Value.NO_ERROR;
     }
 
+    public static Mode getMode()
+    {
+        return mode;
+    }
+
+    /**
+     * Sets the way OpenGL errors are reported. Calling glGetError after every call makes the driver wait for the
+     * commands to finish, so in a release build it is better to not check at all, or to let the driver report the
+     * errors through a debug callback. This has to be called with the context current, and again whenever the context
+     * is recreated, since the debug callback is a part of the context.
+     *
+     * @param mode The way to report the OpenGL errors.
+     */
+    public static void setMode(Mode mode)
+    {
+        ContextCapabilities capabilities = GL.getCapabilities();
+        boolean debugSupported = capabilities.OpenGL43 || capabilities.GL_KHR_debug;
+
+        if (mode == Mode.DEBUG_CALLBACK && !debugSupported)
+        {
+            Logger.warn("KHR_debug is not supported, OpenGL errors will not be reported");
+            mode = Mode.NONE;
+        }
+
+        if (debugSupported)
+        {
+            if (mode == Mode.DEBUG_CALLBACK)
+            {
+                if (debugCallback == null)
+                    debugCallback = GLDebugMessageCallback(GLError::debugMessage);
+
+                glEnable(GL_DEBUG_OUTPUT);
+
+                // Synchronous output reports the errors in the call that caused them, but is slower
+                if (Game.development)
+                    glEnable(GL_DEBUG_OUTPUT_SYNCHRONOUS);
+                else
+                    glDisable(GL_DEBUG_OUTPUT_SYNCHRONOUS);
+
+                glDebugMessageCallback(debugCallback, NULL);
+            }
+            else if (debugCallback != null)
+            {
+                glDebugMessageCallback(null, NULL);
+                glDisable(GL_DEBUG_OUTPUT);
+
+                debugCallback.release();
+                debugCallback = null;
+            }
+        }
+
+        GLError.mode = mode;
+    }
+
+    private static void debugMessage(int source, int type, int id, int severity, int length, long message,
+                                     long userParam)
+    {
+        if (severity == GL_DEBUG_SEVERITY_NOTIFICATION)
+            return;
+
+        String text = memDecodeUTF8(memByteBuffer(message, length));
+
+        if (type == GL_DEBUG_TYPE_ERROR || severity == GL_DEBUG_SEVERITY_HIGH)
+            Logger.error("OpenGL: " + text);
+        else
+            Logger.warn("OpenGL: " + text);
+    }
+
+    /**
+     * The ways in which the OpenGL errors can be reported.
+     */
+    public enum Mode
+    {
+        /**
+         * Calls glGetError after every call, and throws a GLException on error. This is only done in development mode.
+         */
+        GET_ERROR,
+
+        /**
+         * Lets the driver report the errors and warnings to the logger through the KHR_debug callback, without ever
+         * calling glGetError.
+         */
+        DEBUG_CALLBACK,
+
+        /**
+         * Doesn't check for the errors at all.
+         */
+        NONE
+    }
+
     /**
      * Encapsulates the Glenum error.
      */
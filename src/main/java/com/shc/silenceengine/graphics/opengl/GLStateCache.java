@@ -0,0 +1,631 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics.opengl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * A shadow copy of the OpenGL state, that skips the calls which would set the state to what it already is. Every call
+ * into the driver costs, and a few of them (like changing the blend function or re-binding the same texture) are done
+ * many times per frame with the same values, so the cache remembers the last value set and only forwards the calls
+ * that change something.
+ *
+ * <p>The calls that do change the state are forwarded to a {@link Backend}. The default backend calls OpenGL, but any
+ * other backend can be passed in, for example one that just records the calls, to check the caching logic without a
+ * context.</p>
+ *
+ * <p>The cache assumes that it is the only one changing the state it tracks. If the state is changed directly, or the
+ * context is recreated, call {@link #invalidate()} so that the next calls are forwarded again.</p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class GLStateCache
+{
+    public static final int MAX_TEXTURE_UNITS = 32;
+
+    // The value of any state that is not known yet
+    private static final int UNKNOWN = -1;
+
+    private Backend backend;
+
+    // The capabilities are a handful, so they are kept in parallel arrays and searched linearly
+    private int[]     capabilities;
+    private boolean[] capabilityStates;
+    private int       numCapabilities;
+
+    private int blendSrc;
+    private int blendDst;
+    private int depthMask;
+    private int depthFunc;
+    private int cullMode;
+
+    private int[] viewport;
+
+    // The buffer bindings, searched linearly like the capabilities. The element array buffer is not kept here, it
+    // is a part of the vertex array state.
+    private int[] bufferTargets;
+    private int[] buffers;
+    private int   numBufferTargets;
+
+    private int              vertexArray;
+    private VertexArrayState vertexArrayState;
+
+    private Map<Integer, VertexArrayState> vertexArrayStates;
+
+    private int   activeUnit;
+    private int[] textures;
+
+    private int program;
+
+    /**
+     * Constructs a GLStateCache that calls OpenGL to change the state.
+     */
+    public GLStateCache()
+    {
+        this(new OpenGLBackend());
+    }
+
+    /**
+     * Constructs a GLStateCache that forwards the state changes to a backend.
+     *
+     * @param backend The backend that performs the state changes.
+     */
+    public GLStateCache(Backend backend)
+    {
+        this.backend = backend;
+
+        capabilities = new int[8];
+        capabilityStates = new boolean[8];
+
+        viewport = new int[4];
+
+        bufferTargets = new int[8];
+        buffers = new int[8];
+
+        vertexArrayStates = new HashMap<>();
+
+        textures = new int[MAX_TEXTURE_UNITS];
+
+        invalidate();
+    }
+
+    /**
+     * Forgets all the state known to this cache, so that every next call is forwarded to the backend. This has to be
+     * called whenever the state is changed without going through this cache.
+     */
+    public void invalidate()
+    {
+        numCapabilities = 0;
+
+        blendSrc = blendDst = UNKNOWN;
+        depthMask = depthFunc = cullMode = UNKNOWN;
+
+        viewport[0] = viewport[1] = viewport[2] = viewport[3] = UNKNOWN;
+
+        numBufferTargets = 0;
+
+        vertexArray = UNKNOWN;
+        vertexArrayState = null;
+        vertexArrayStates.clear();
+
+        activeUnit = UNKNOWN;
+
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+            textures[i] = UNKNOWN;
+
+        program = UNKNOWN;
+    }
+
+    public void enable(int capability)
+    {
+        setCapability(capability, true);
+    }
+
+    public void disable(int capability)
+    {
+        setCapability(capability, false);
+    }
+
+    private void setCapability(int capability, boolean state)
+    {
+        int index = indexOf(capabilities, numCapabilities, capability);
+
+        if (index != -1 && capabilityStates[index] == state)
+            return;
+
+        if (state)
+            backend.enable(capability);
+        else
+            backend.disable(capability);
+
+        if (index == -1)
+        {
+            if (numCapabilities == capabilities.length)
+            {
+                capabilities = Arrays.copyOf(capabilities, numCapabilities * 2);
+                capabilityStates = Arrays.copyOf(capabilityStates, numCapabilities * 2);
+            }
+
+            index = numCapabilities++;
+            capabilities[index] = capability;
+        }
+
+        capabilityStates[index] = state;
+    }
+
+    public void blendFunc(int src, int dst)
+    {
+        if (blendSrc == src && blendDst == dst)
+            return;
+
+        backend.blendFunc(src, dst);
+
+        blendSrc = src;
+        blendDst = dst;
+    }
+
+    public void depthMask(boolean value)
+    {
+        int mask = value ? 1 : 0;
+
+        if (depthMask == mask)
+            return;
+
+        backend.depthMask(value);
+        depthMask = mask;
+    }
+
+    public void depthFunc(int func)
+    {
+        if (depthFunc == func)
+            return;
+
+        backend.depthFunc(func);
+        depthFunc = func;
+    }
+
+    public void cullFace(int mode)
+    {
+        if (cullMode == mode)
+            return;
+
+        backend.cullFace(mode);
+        cullMode = mode;
+    }
+
+    public void viewport(int x, int y, int width, int height)
+    {
+        if (viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height)
+            return;
+
+        backend.viewport(x, y, width, height);
+
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+    }
+
+    public void bindVertexArray(int id)
+    {
+        bindVertexArray(id, false);
+    }
+
+    /**
+     * Binds a vertex array object. Along with the binding, the cache switches to the attribute arrays enabled and the
+     * element array buffer bound to that vertex array, since they are a part of its state.
+     *
+     * @param id    The name of the vertex array, or 0 to unbind.
+     * @param force Whether to bind even if the vertex array is known to be bound.
+     */
+    public void bindVertexArray(int id, boolean force)
+    {
+        if (!force && vertexArray == id)
+            return;
+
+        backend.bindVertexArray(id);
+
+        if (vertexArray != id)
+            setCurrentVertexArray(id);
+    }
+
+    private void setCurrentVertexArray(int id)
+    {
+        vertexArray = id;
+        vertexArrayState = vertexArrayStates.get(id);
+
+        if (vertexArrayState == null)
+        {
+            vertexArrayState = new VertexArrayState();
+            vertexArrayStates.put(id, vertexArrayState);
+        }
+    }
+
+    public void bindBuffer(int target, int id)
+    {
+        bindBuffer(target, id, false);
+    }
+
+    /**
+     * Binds a buffer object to a target. Binding to the element array buffer target is recorded in the state of the
+     * vertex array that is currently bound.
+     *
+     * @param target The target to bind the buffer to.
+     * @param id     The name of the buffer object, or 0 to unbind.
+     * @param force  Whether to bind even if the buffer is known to be bound.
+     */
+    public void bindBuffer(int target, int id, boolean force)
+    {
+        if (target == GL_ELEMENT_ARRAY_BUFFER)
+        {
+            if (!force && vertexArrayState != null && vertexArrayState.elementBuffer == id)
+                return;
+
+            backend.bindBuffer(target, id);
+
+            if (vertexArrayState != null)
+                vertexArrayState.elementBuffer = id;
+
+            return;
+        }
+
+        int index = indexOf(bufferTargets, numBufferTargets, target);
+
+        if (!force && index != -1 && buffers[index] == id)
+            return;
+
+        backend.bindBuffer(target, id);
+
+        if (index == -1)
+        {
+            if (numBufferTargets == bufferTargets.length)
+            {
+                bufferTargets = Arrays.copyOf(bufferTargets, numBufferTargets * 2);
+                buffers = Arrays.copyOf(buffers, numBufferTargets * 2);
+            }
+
+            index = numBufferTargets++;
+            bufferTargets[index] = target;
+        }
+
+        buffers[index] = id;
+    }
+
+    public void activeTexture(int unit)
+    {
+        if (activeUnit == unit)
+            return;
+
+        backend.activeTexture(unit);
+        activeUnit = unit;
+    }
+
+    /**
+     * Binds a texture to the active texture unit. Only the GL_TEXTURE_2D bindings are tracked, the bindings to the
+     * other targets are always forwarded.
+     *
+     * @param target The target to bind the texture to.
+     * @param id     The name of the texture, or 0 to unbind.
+     */
+    public void bindTexture(int target, int id)
+    {
+        boolean tracked = target == GL_TEXTURE_2D && activeUnit >= 0 && activeUnit < MAX_TEXTURE_UNITS;
+
+        if (tracked && textures[activeUnit] == id)
+            return;
+
+        backend.bindTexture(target, id);
+
+        if (tracked)
+            textures[activeUnit] = id;
+    }
+
+    public void useProgram(int id)
+    {
+        if (program == id)
+            return;
+
+        backend.useProgram(id);
+        program = id;
+    }
+
+    /**
+     * Enables a vertex attribute array in the vertex array that is currently bound.
+     *
+     * @param index The index of the generic vertex attribute.
+     */
+    public void enableVertexAttribArray(int index)
+    {
+        setVertexAttribArray(index, true);
+    }
+
+    /**
+     * Disables a vertex attribute array in the vertex array that is currently bound.
+     *
+     * @param index The index of the generic vertex attribute.
+     */
+    public void disableVertexAttribArray(int index)
+    {
+        setVertexAttribArray(index, false);
+    }
+
+    private void setVertexAttribArray(int index, boolean state)
+    {
+        // Only the first 64 attributes are tracked, which is more than any implementation supports
+        boolean tracked = vertexArrayState != null && index >= 0 && index < 64;
+        long bit = 1L << index;
+
+        if (tracked && (vertexArrayState.knownAttributes & bit) != 0
+            && ((vertexArrayState.enabledAttributes & bit) != 0) == state)
+            return;
+
+        if (state)
+            backend.enableVertexAttribArray(index);
+        else
+            backend.disableVertexAttribArray(index);
+
+        if (tracked)
+        {
+            vertexArrayState.knownAttributes |= bit;
+
+            if (state)
+                vertexArrayState.enabledAttributes |= bit;
+            else
+                vertexArrayState.enabledAttributes &= ~bit;
+        }
+    }
+
+    /**
+     * Updates the cache after a texture is deleted. OpenGL unbinds a deleted texture from all the texture units, so
+     * they are known to be bound to zero.
+     *
+     * @param id The name of the deleted texture.
+     */
+    public void onTextureDeleted(int id)
+    {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+            if (textures[i] == id)
+                textures[i] = 0;
+    }
+
+    /**
+     * Updates the cache after a buffer object is deleted. OpenGL unbinds a deleted buffer from all the targets it is
+     * bound to, including the element array buffer of the vertex array that is bound.
+     *
+     * @param id The name of the deleted buffer object.
+     */
+    public void onBufferDeleted(int id)
+    {
+        for (int i = 0; i < numBufferTargets; i++)
+            if (buffers[i] == id)
+                buffers[i] = 0;
+
+        if (vertexArrayState != null && vertexArrayState.elementBuffer == id)
+            vertexArrayState.elementBuffer = 0;
+
+        // The other vertex arrays may still refer to the name, which can be reused by a new buffer
+        for (VertexArrayState state : vertexArrayStates.values())
+            if (state.elementBuffer == id)
+                state.elementBuffer = UNKNOWN;
+    }
+
+    /**
+     * Updates the cache after a vertex array object is deleted. If it was bound, the binding reverts to zero.
+     *
+     * @param id The name of the deleted vertex array object.
+     */
+    public void onVertexArrayDeleted(int id)
+    {
+        vertexArrayStates.remove(id);
+
+        if (vertexArray == id)
+            setCurrentVertexArray(0);
+    }
+
+    /**
+     * Updates the cache after a program is deleted. A program that is in use is only flagged for deletion, so it is
+     * still in use, but the name can be reused by a new program.
+     *
+     * @param id The name of the deleted program.
+     */
+    public void onProgramDeleted(int id)
+    {
+        if (program == id)
+            program = UNKNOWN;
+    }
+
+    public Backend getBackend()
+    {
+        return backend;
+    }
+
+    private static int indexOf(int[] keys, int count, int key)
+    {
+        for (int i = 0; i < count; i++)
+            if (keys[i] == key)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * The calls that actually change the state, which the cache forwards to when the state changes. The engine makes
+     * all the state changes tracked by the cache through it (only GLError toggles the untracked debug output directly),
+     * so the calls a backend receives are exactly the calls the OpenGL backend would make for the same frame. A
+     * recording backend, or one that records and then delegates to the OpenGL backend, sees the same state changes.
+     */
+    public interface Backend
+    {
+        void enable(int capability);
+
+        void disable(int capability);
+
+        void blendFunc(int src, int dst);
+
+        void depthMask(boolean value);
+
+        void depthFunc(int func);
+
+        void cullFace(int mode);
+
+        void viewport(int x, int y, int width, int height);
+
+        void bindVertexArray(int id);
+
+        void bindBuffer(int target, int id);
+
+        void activeTexture(int unit);
+
+        void bindTexture(int target, int id);
+
+        void useProgram(int id);
+
+        void enableVertexAttribArray(int index);
+
+        void disableVertexAttribArray(int index);
+    }
+
+    /**
+     * The attribute arrays and the element array buffer, which are a part of the state of a vertex array object.
+     */
+    private static class VertexArrayState
+    {
+        private long knownAttributes;
+        private long enabledAttributes;
+        private int  elementBuffer = UNKNOWN;
+    }
+
+    /**
+     * The backend that calls OpenGL, checking for errors after every call.
+     */
+    private static class OpenGLBackend implements Backend
+    {
+        @Override
+        public void enable(int capability)
+        {
+            glEnable(capability);
+            GLError.check();
+        }
+
+        @Override
+        public void disable(int capability)
+        {
+            glDisable(capability);
+            GLError.check();
+        }
+
+        @Override
+        public void blendFunc(int src, int dst)
+        {
+            glBlendFunc(src, dst);
+            GLError.check();
+        }
+
+        @Override
+        public void depthMask(boolean value)
+        {
+            glDepthMask(value);
+            GLError.check();
+        }
+
+        @Override
+        public void depthFunc(int func)
+        {
+            glDepthFunc(func);
+            GLError.check();
+        }
+
+        @Override
+        public void cullFace(int mode)
+        {
+            glCullFace(mode);
+            GLError.check();
+        }
+
+        @Override
+        public void viewport(int x, int y, int width, int height)
+        {
+            glViewport(x, y, width, height);
+            GLError.check();
+        }
+
+        @Override
+        public void bindVertexArray(int id)
+        {
+            glBindVertexArray(id);
+            GLError.check();
+        }
+
+        @Override
+        public void bindBuffer(int target, int id)
+        {
+            glBindBuffer(target, id);
+            GLError.check();
+        }
+
+        @Override
+        public void activeTexture(int unit)
+        {
+            glActiveTexture(GL_TEXTURE0 + unit);
+            GLError.check();
+        }
+
+        @Override
+        public void bindTexture(int target, int id)
+        {
+            glBindTexture(target, id);
+            GLError.check();
+        }
+
+        @Override
+        public void useProgram(int id)
+        {
+            glUseProgram(id);
+            GLError.check();
+        }
+
+        @Override
+        public void enableVertexAttribArray(int index)
+        {
+            glEnableVertexAttribArray(index);
+            GLError.check();
+        }
+
+        @Override
+        public void disableVertexAttribArray(int index)
+        {
+            glDisableVertexAttribArray(index);
+            GLError.check();
+        }
+    }
+}
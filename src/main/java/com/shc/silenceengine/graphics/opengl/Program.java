@@ -103,9 +103,7 @@ public void use()
         if (disposed)
             throw new GLException("Cannot use disposed Program");
 
-        glUseProgram(id);
-        GLError.check();
-
+        GL3Context.getStateCache().useProgram(id);
         CURRENT = this;
 
         prepareFrame();
@@ -115,6 +113,15 @@ public void prepareFrame()
     {
     }
 
+    /**
+     * @return Whether this program samples the textures from the texture slots of the vertices. The RenderQueue only
+     * batches the sprites with different textures together for the programs that do.
+     */
+    public boolean supportsTextureSlots()
+    {
+        return false;
+    }
+
     public int getUniform(String name)
     {
         use();
@@ -288,6 +295,7 @@ public void dispose()
     {
         glDeleteProgram(id);
         GLError.check();
+        GL3Context.getStateCache().onProgramDeleted(id);
         disposed = true;
     }
 
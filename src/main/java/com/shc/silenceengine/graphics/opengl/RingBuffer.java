@@ -0,0 +1,248 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.graphics.opengl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.EnumSet;
+
+import static com.shc.silenceengine.graphics.opengl.BufferObject.MapAccessFlag.*;
+
+/**
+ * <p> A RingBuffer streams data to the GPU without stalling on buffers the GPU is still reading from. The buffer is
+ * split into a number of segments, and the data is written one after the other into the current segment. When a
+ * segment is full, a fence is placed, and the writing moves on to the next segment, waiting only if the GPU has not yet
+ * finished with that segment from the previous round. </p>
+ *
+ * <pre>
+ *     ByteBuffer data = ring.begin(stride);
+ *     // Write at most data.remaining() bytes
+ *     int offset = ring.commit(data);
+ *     // Draw using the data at offset
+ * </pre>
+ *
+ * <p> If the context supports immutable buffer storage, the buffer is mapped once persistently and stays mapped.
+ * Otherwise, every begin() maps the free range of the segment with MAP_UNSYNCHRONIZED_BIT and MAP_INVALIDATE_RANGE_BIT,
+ * which tells the driver not to wait for the GPU, since the fences already made sure that the range is not in use.
+ * </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class RingBuffer
+{
+    public static final int NUM_SEGMENTS = 3;
+
+    // When less than this fraction of a segment is left, it is skipped instead of starting a tiny batch at its end
+    public static final int MIN_FREE_DIVISOR = 8;
+
+    private BufferObject buffer;
+    private Fence[]      fences;
+
+    private int capacity;
+    private int segmentSize;
+
+    private int segment;
+    private int head;
+
+    // The start of the range being written, and the pointer to it
+    private int        start;
+    private ByteBuffer pointer;
+    private boolean    writing;
+
+    private boolean persistent;
+
+    /**
+     * Creates a RingBuffer which is persistently mapped if the context supports it.
+     *
+     * @param capacity The size of the buffer in bytes.
+     * @param target   The target the buffer object is bound to.
+     */
+    public RingBuffer(int capacity, BufferObject.Target target)
+    {
+        this(capacity, target, BufferObject.isStorageSupported());
+    }
+
+    /**
+     * Creates a RingBuffer.
+     *
+     * @param capacity   The size of the buffer in bytes.
+     * @param target     The target the buffer object is bound to.
+     * @param persistent Whether to map the buffer persistently, requires immutable buffer storage support.
+     */
+    public RingBuffer(int capacity, BufferObject.Target target, boolean persistent)
+    {
+        this.capacity = capacity;
+        this.persistent = persistent;
+
+        segmentSize = capacity / NUM_SEGMENTS;
+        fences = new Fence[NUM_SEGMENTS];
+
+        buffer = new BufferObject(target);
+
+        if (persistent)
+        {
+            EnumSet<BufferObject.MapAccessFlag> flags = EnumSet.of(MAP_WRITE_BIT, MAP_PERSISTENT_BIT, MAP_COHERENT_BIT);
+
+            buffer.storage(capacity, flags);
+            pointer = buffer.mapRange(0, capacity, flags).order(ByteOrder.nativeOrder());
+        }
+        else
+            buffer.uploadData(capacity, BufferObject.Usage.STREAM_DRAW);
+    }
+
+    /**
+     * Starts writing into the free space of the current segment. The returned buffer is positioned at the start of
+     * the range, and its remaining bytes are all the space that can be written until commit() is called.
+     *
+     * @param alignment The alignment of the start of the range in bytes, usually the size of a vertex. The offset
+     *                  returned by commit() is a multiple of this.
+     *
+     * @return The buffer to write the data into.
+     */
+    public ByteBuffer begin(int alignment)
+    {
+        if (writing)
+            throw new GLException("RingBuffer is already being written");
+
+        start = align(head, alignment);
+
+        int segmentEnd = (segment + 1) * segmentSize;
+
+        if (segmentEnd - start < Math.max(segmentSize / MIN_FREE_DIVISOR, alignment))
+        {
+            nextSegment();
+
+            start = align(head, alignment);
+            segmentEnd = (segment + 1) * segmentSize;
+        }
+
+        writing = true;
+
+        if (persistent)
+        {
+            pointer.limit(segmentEnd).position(start);
+            return pointer;
+        }
+
+        pointer = buffer.mapRange(start, segmentEnd - start,
+                EnumSet.of(MAP_WRITE_BIT, MAP_UNSYNCHRONIZED_BIT, MAP_INVALIDATE_RANGE_BIT), pointer);
+        pointer.order(ByteOrder.nativeOrder()).clear();
+
+        return pointer;
+    }
+
+    /**
+     * Finishes writing the data into the range returned by begin(). The data is from the start of the range till the
+     * current position of the buffer.
+     *
+     * @param data The buffer that begin() returned.
+     *
+     * @return The offset of the data in the buffer object in bytes.
+     */
+    public int commit(ByteBuffer data)
+    {
+        if (!writing)
+            throw new GLException("RingBuffer is not being written");
+
+        writing = false;
+
+        if (persistent)
+            head = data.position();
+        else
+        {
+            head = start + data.position();
+            buffer.unMap();
+        }
+
+        return start;
+    }
+
+    private void nextSegment()
+    {
+        // The GPU reads the current segment in the draw calls issued till now
+        if (fences[segment] != null)
+            fences[segment].dispose();
+
+        fences[segment] = new Fence();
+
+        segment = (segment + 1) % NUM_SEGMENTS;
+        head = segment * segmentSize;
+
+        // Make sure the GPU is done with the next segment before overwriting it
+        if (fences[segment] != null)
+        {
+            fences[segment].waitFor();
+            fences[segment].dispose();
+            fences[segment] = null;
+        }
+    }
+
+    private static int align(int offset, int alignment)
+    {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    public void dispose()
+    {
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+        {
+            if (fences[i] != null)
+                fences[i].dispose();
+
+            fences[i] = null;
+        }
+
+        if (persistent)
+            buffer.unMap();
+
+        buffer.dispose();
+    }
+
+    public BufferObject getBufferObject()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return The size of the buffer in bytes.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return The largest amount of data in bytes that can be written between a begin() and commit().
+     */
+    public int getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+    public boolean isPersistent()
+    {
+        return persistent;
+    }
+}
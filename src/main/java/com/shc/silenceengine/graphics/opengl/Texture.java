@@ -77,13 +77,7 @@ public static int getActiveUnit()
 
     public static void setActiveUnit(int unit)
     {
-        if (unit == activeUnit)
-            return;
-
-        GLError.check();
-        glActiveTexture(GL_TEXTURE0 + unit);
-        GLError.check();
-
+        GL3Context.getStateCache().activeTexture(unit);
         activeUnit = unit;
     }
 
@@ -185,18 +179,39 @@ public static Texture fromBufferedImage(BufferedImage img)
 
     public void bind()
     {
-        if (CURRENT == this)
-            return;
-
         if (disposed)
             throw new GLException("Cannot bind a disposed texture!");
 
-        glBindTexture(GL_TEXTURE_2D, id);
-        GLError.check();
-
+        // The state cache knows the texture bound to each unit, so it skips binding if this is already bound
+        GL3Context.getStateCache().bindTexture(GL_TEXTURE_2D, id);
         CURRENT = this;
     }
 
+    /**
+     * Binds this texture to a texture unit, leaving the active unit as it is. The CURRENT texture only changes when the
+     * unit is the active unit.
+     *
+     * @param unit The texture unit to bind this texture to.
+     */
+    public void bind(int unit)
+    {
+        int active = activeUnit;
+
+        if (unit == active)
+        {
+            bind();
+            return;
+        }
+
+        Texture current = CURRENT;
+
+        setActiveUnit(unit);
+        bind();
+        setActiveUnit(active);
+
+        CURRENT = current;
+    }
+
     public void setFilter(int min, int mag)
     {
         bind();
@@ -306,10 +321,12 @@ public void dispose()
         if (isDisposed())
             throw new SilenceException("This texture is already disposed.");
 
-        EMPTY.bind();
-        GLError.check();
+        if (CURRENT == this)
+            EMPTY.bind();
+
         glDeleteTextures(id);
         GLError.check();
+        GL3Context.getStateCache().onTextureDeleted(id);
         disposed = true;
     }
 
@@ -26,6 +26,7 @@
 
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
 
 /**
  * This class encapsulates OpenGL Vertex Array Objects nicely and cleanly allowing you to use OpenGL in an object
@@ -63,8 +64,7 @@ public static boolean isValid(int id)
     public void enableAttributeArray(int index)
     {
         bind();
-        glEnableVertexAttribArray(index);
-        GLError.check();
+        GL3Context.getStateCache().enableVertexAttribArray(index);
     }
 
     /**
@@ -87,9 +87,7 @@ public void bind(boolean force)
 
         if (force || CURRENT != this)
         {
-            glBindVertexArray(id);
-            GLError.check();
-
+            GL3Context.getStateCache().bindVertexArray(id, force);
             CURRENT = this;
         }
     }
@@ -102,8 +100,7 @@ public void bind(boolean force)
     public void disableAttributeArray(int index)
     {
         bind();
-        glDisableVertexAttribArray(index);
-        GLError.check();
+        GL3Context.getStateCache().disableVertexAttribArray(index);
     }
 
     /**
@@ -156,16 +153,32 @@ public void pointAttribute(int index, int count, int type, boolean normalized, i
         GLError.check();
     }
 
+    /**
+     * Sets the rate at which an attribute advances during instanced draws. An attribute with a divisor of 0 advances
+     * once per vertex, and with a divisor of N once every N instances.
+     *
+     * @param index   The location of the attribute
+     * @param divisor The no. of instances that use the same value of the attribute
+     */
+    public void setAttributeDivisor(int index, int divisor)
+    {
+        bind();
+        glVertexAttribDivisor(index, divisor);
+        GLError.check();
+    }
+
     /**
      * Disposes this VertexArrayObject. This method should be called once you no longer need to use this
      * VertexArrayObject. Disposed vertex array objects throw GLException if used again.
      */
     public void dispose()
     {
-        glBindVertexArray(0);
-        GLError.check();
+        if (CURRENT == this)
+            CURRENT = null;
+
         glDeleteVertexArrays(id);
         GLError.check();
+        GL3Context.getStateCache().onVertexArrayDeleted(id);
         disposed = true;
     }
 
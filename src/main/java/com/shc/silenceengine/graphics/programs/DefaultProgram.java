@@ -30,7 +30,6 @@
 import com.shc.silenceengine.graphics.opengl.GL3Context;
 import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Shader;
-import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.utils.FileUtils;
 import org.lwjgl.opengl.GL11;
 
@@ -63,6 +62,11 @@ private DefaultProgram()
 
         Program.DEFAULT = this;
         use();
+
+        // Every texture slot samples from the texture unit of the same index, except the slot 0 which is set every
+        // frame to sample from the active unit when the slots are not used
+        for (int i = 1; i < Batcher.MAX_TEXTURE_SLOTS; i++)
+            setUniform("textures[" + i + "]", i);
     }
 
     public static Program getInstance()
@@ -73,6 +77,12 @@ public static Program getInstance()
         return instance;
     }
 
+    @Override
+    public boolean supportsTextureSlots()
+    {
+        return true;
+    }
+
     public void prepareFrame()
     {
         Batcher batcher = SilenceEngine.graphics.getBatcher();
@@ -81,7 +91,7 @@ public void prepareFrame()
         GL3Context.blendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
 
         // Uniforms
-        setUniform("textureID", Texture.getActiveUnit());
+        setUniform("textures[0]", batcher.getTextureUnit(0));
         setUniform("mTransform", batcher.getTransform().getMatrix());
         setUniform("camProj", BaseCamera.CURRENT.getProjection());
         setUniform("camView", BaseCamera.CURRENT.getView());
@@ -92,5 +102,7 @@ public void prepareFrame()
         batcher.setColorLocation(1);
         batcher.setTexCoordLocation(2);
         batcher.setNormalLocation(3);
+        batcher.setTextureSlotLocation(4);
+        batcher.setInstanceTransformLocation(5);
     }
 }
@@ -94,5 +94,6 @@ public void prepareFrame()
         batcher.setColorLocation(1);
         batcher.setTexCoordLocation(2);
         batcher.setNormalLocation(3);
+        batcher.setInstanceTransformLocation(5);
     }
 }
@@ -42,6 +42,7 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -429,7 +430,7 @@ public void moveTo(FilePath path) throws IOException
         if (getType() == Type.RESOURCE || path.getType() == Type.RESOURCE)
             throw new SilenceException("Cannot move resource files!");
 
-        Files.move(Paths.get(this.path), Paths.get(path.getPath()));
+        Files.move(Paths.get(this.path), Paths.get(path.getPath()), StandardCopyOption.REPLACE_EXISTING);
 
         // Change this path
         this.path = path.path;
@@ -606,6 +607,35 @@ public long sizeInBytes()
         return -1;
     }
 
+    /**
+     * Returns the time at which the file represented by this FilePath was last modified. The time of a resource is the
+     * time of its entry in the JAR file, when running from an executable JAR.
+     *
+     * @return The time of the last modification in milliseconds since the epoch, or {@code 0} if it is not known.
+     */
+    public long lastModified()
+    {
+        if (!exists())
+            return 0;
+
+        try
+        {
+            if (getType() == Type.EXTERNAL)
+                return Files.getLastModifiedTime(Paths.get(path)).toMillis();
+
+            URL url = FilePath.class.getClassLoader().getResource(path);
+
+            if (url != null)
+                return url.openConnection().getLastModified();
+        }
+        catch (IOException e)
+        {
+            SilenceException.reThrow(e);
+        }
+
+        return 0;
+    }
+
     /**
      * This method calculates the size of the resource file or the directory. If this path is a directory, then the size
      * is the sum of all the files in this directory. Otherwise the size is calculated either by retrieving the JarEntry
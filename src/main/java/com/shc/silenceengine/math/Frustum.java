@@ -302,6 +302,47 @@ public boolean intersects(Vector3 position, float width, float height, float thi
         return true;
     }
 
+    /**
+     * Tests an axis aligned box against this frustum, and tells whether the box is completely outside, completely
+     * inside or is intersecting the frustum. This test is conservative, a box that is reported as intersecting might be
+     * just outside the frustum near the corners, but a box that is reported as outside is never visible.
+     *
+     * @param minX The minimum x-coordinate of the box
+     * @param minY The minimum y-coordinate of the box
+     * @param minZ The minimum z-coordinate of the box
+     * @param maxX The maximum x-coordinate of the box
+     * @param maxY The maximum y-coordinate of the box
+     * @param maxZ The maximum z-coordinate of the box
+     *
+     * @return The containment of the box in this frustum.
+     */
+    public Containment testAABB(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        Containment result = Containment.INSIDE;
+
+        for (Plane plane : planes)
+        {
+            Vector3 n = plane.normal;
+
+            // The corner farthest along the plane normal (p-vertex) and the nearest one (n-vertex)
+            float px = n.x >= 0 ? maxX : minX;
+            float py = n.y >= 0 ? maxY : minY;
+            float pz = n.z >= 0 ? maxZ : minZ;
+
+            if (n.x * px + n.y * py + n.z * pz + plane.d < 0)
+                return Containment.OUTSIDE;
+
+            float nx = n.x >= 0 ? minX : maxX;
+            float ny = n.y >= 0 ? minY : maxY;
+            float nz = n.z >= 0 ? minZ : maxZ;
+
+            if (n.x * nx + n.y * ny + n.z * nz + plane.d < 0)
+                result = Containment.INTERSECTING;
+        }
+
+        return result;
+    }
+
     public boolean isInside(Polyhedron polyhedron)
     {
         // Definitely not inside if the center is not in frustum
@@ -417,4 +458,9 @@ public String toString()
                ", planeFar=" + getPlane(FAR) +
                '}';
     }
+
+    public enum Containment
+    {
+        OUTSIDE, INTERSECTING, INSIDE
+    }
 }
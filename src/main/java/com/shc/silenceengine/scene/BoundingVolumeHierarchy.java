@@ -0,0 +1,524 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene;
+
+import com.shc.silenceengine.math.Frustum;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.math.geom3d.Cuboid;
+import com.shc.silenceengine.scene.entity.Entity3D;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p> A bounding volume hierarchy over the bounds of a set of Entity3Ds, used by the Scene3D to cull whole groups of
+ * entities against the camera frustum at once and to find the entities hit by a ray. </p>
+ *
+ * <p> The tree is stored in flat arrays in depth first order, so the left child of a node is always the next node, and
+ * all the entities of a subtree are stored contiguously. Building the tree is done with a median split on the longest
+ * axis, and moving entities are handled by refitting the bounds bottom-up. The tree is rebuilt automatically when the
+ * refitted tree becomes too loose compared to the freshly built one. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class BoundingVolumeHierarchy
+{
+    // The maximum number of entities stored in a leaf
+    private static final int MAX_LEAF_SIZE = 4;
+
+    // Rebuild when the refitted tree costs this much times the built tree
+    private static final float REBUILD_THRESHOLD = 2f;
+
+    // The entities, ordered so that every node refers to a contiguous range
+    private Entity3D[] items;
+    private float[]    itemBounds;
+
+    // The nodes, bounds are stored as minX, minY, minZ, maxX, maxY, maxZ
+    private float[] nodeBounds;
+    private int[]   nodeRight;
+    private int[]   nodeStart;
+    private int[]   nodeEnd;
+
+    private int size;
+    private int numNodes;
+
+    private float builtCost;
+
+    public BoundingVolumeHierarchy()
+    {
+        items = new Entity3D[0];
+        itemBounds = new float[0];
+
+        nodeBounds = new float[0];
+        nodeRight = new int[0];
+        nodeStart = new int[0];
+        nodeEnd = new int[0];
+    }
+
+    /**
+     * Rebuilds the hierarchy from scratch over a list of entities. This should be done whenever entities are added or
+     * removed.
+     *
+     * @param entities The entities to be contained in the hierarchy.
+     */
+    public void build(List<Entity3D> entities)
+    {
+        size = entities.size();
+        ensureCapacity(size);
+
+        for (int i = 0; i < size; i++)
+        {
+            items[i] = entities.get(i);
+            computeItemBounds(i);
+        }
+
+        // Clear the stale references so that removed entities can be collected
+        for (int i = size; i < items.length && items[i] != null; i++)
+            items[i] = null;
+
+        numNodes = 0;
+
+        if (size > 0)
+            buildNode(0, size);
+
+        builtCost = computeCost();
+    }
+
+    /**
+     * Updates the bounds of all the nodes to fit the current bounds of the entities, without changing the structure of
+     * the tree. If the tree degrades too much because of the movement of the entities, it is rebuilt.
+     */
+    public void refit()
+    {
+        if (size == 0)
+            return;
+
+        for (int i = 0; i < size; i++)
+            computeItemBounds(i);
+
+        // Children always come after their parents, so walking backwards refits bottom-up
+        for (int node = numNodes - 1; node >= 0; node--)
+        {
+            if (isLeaf(node))
+                computeNodeBounds(node, nodeStart[node], nodeEnd[node]);
+            else
+                unionNodeBounds(node, node + 1, nodeRight[node]);
+        }
+
+        if (computeCost() > builtCost * REBUILD_THRESHOLD)
+            rebuild();
+    }
+
+    /**
+     * Collects all the entities that are visible in a frustum. Subtrees that are completely inside the frustum are
+     * accepted without testing their entities, and subtrees completely outside are rejected at once. The entities on
+     * the boundary are tested precisely using their polyhedrons.
+     *
+     * @param frustum The frustum to cull against.
+     * @param result  The list to add the visible entities to.
+     */
+    public void cull(Frustum frustum, List<Entity3D> result)
+    {
+        if (numNodes > 0)
+            cullNode(0, frustum, result);
+    }
+
+    /**
+     * Finds the nearest entity whose bounds are hit by a ray.
+     *
+     * @param origin      The origin of the ray.
+     * @param direction   The direction of the ray. Need not be normalized, the distance is measured in the units of
+     *                    this vector.
+     * @param maxDistance The maximum distance along the ray to search.
+     *
+     * @return The nearest entity hit by the ray, or null if the ray hits nothing.
+     */
+    public Entity3D raycast(Vector3 origin, Vector3 direction, float maxDistance)
+    {
+        if (numNodes == 0)
+            return null;
+
+        float invX = 1f / direction.x;
+        float invY = 1f / direction.y;
+        float invZ = 1f / direction.z;
+
+        Entity3D nearest = null;
+        float nearestDistance = maxDistance;
+
+        // Manual stack to avoid recursion, the tree depth is bounded by the median split
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0)
+        {
+            int node = stack[--top];
+
+            if (intersectRay(nodeBounds, node * 6, origin, invX, invY, invZ, nearestDistance) < 0)
+                continue;
+
+            if (isLeaf(node))
+            {
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++)
+                {
+                    float t = intersectRay(itemBounds, i * 6, origin, invX, invY, invZ, nearestDistance);
+
+                    if (t >= 0)
+                    {
+                        nearest = items[i];
+                        nearestDistance = t;
+                    }
+                }
+
+                continue;
+            }
+
+            int left = node + 1;
+            int right = nodeRight[node];
+
+            float tLeft = intersectRay(nodeBounds, left * 6, origin, invX, invY, invZ, nearestDistance);
+            float tRight = intersectRay(nodeBounds, right * 6, origin, invX, invY, invZ, nearestDistance);
+
+            if (top + 2 > stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+
+            // Push the farther child first, so that the nearer one is visited first and shrinks the distance
+            if (tLeft >= 0 && tRight >= 0)
+            {
+                if (tLeft < tRight)
+                {
+                    stack[top++] = right;
+                    stack[top++] = left;
+                }
+                else
+                {
+                    stack[top++] = left;
+                    stack[top++] = right;
+                }
+            }
+            else if (tLeft >= 0)
+                stack[top++] = left;
+            else if (tRight >= 0)
+                stack[top++] = right;
+        }
+
+        return nearest;
+    }
+
+    /**
+     * @return The number of entities in this hierarchy.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < size; i++)
+            items[i] = null;
+
+        size = 0;
+        numNodes = 0;
+        builtCost = 0;
+    }
+
+    private void rebuild()
+    {
+        numNodes = 0;
+        buildNode(0, size);
+        builtCost = computeCost();
+    }
+
+    private int buildNode(int start, int end)
+    {
+        int node = numNodes++;
+
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        computeNodeBounds(node, start, end);
+
+        if (end - start <= MAX_LEAF_SIZE)
+        {
+            nodeRight[node] = -1;
+            return node;
+        }
+
+        // Split on the longest axis of the node bounds
+        int o = node * 6;
+        float ex = nodeBounds[o + 3] - nodeBounds[o];
+        float ey = nodeBounds[o + 4] - nodeBounds[o + 1];
+        float ez = nodeBounds[o + 5] - nodeBounds[o + 2];
+
+        int axis = (ex >= ey && ex >= ez) ? 0 : (ey >= ez ? 1 : 2);
+
+        int mid = (start + end) >>> 1;
+        select(start, end - 1, mid, axis);
+
+        // The left child is always the next node
+        buildNode(start, mid);
+        nodeRight[node] = buildNode(mid, end);
+
+        return node;
+    }
+
+    /**
+     * Partially orders the items so that the item at k is the one that would be there if the items were sorted on the
+     * centroid along the axis, smaller ones before it and larger ones after.
+     */
+    private void select(int left, int right, int k, int axis)
+    {
+        while (right > left)
+        {
+            float pivot = centroid(k, axis);
+
+            swap(k, right);
+            int store = left;
+
+            for (int i = left; i < right; i++)
+            {
+                if (centroid(i, axis) < pivot)
+                    swap(i, store++);
+            }
+
+            swap(store, right);
+
+            if (store == k)
+                return;
+
+            if (store < k)
+                left = store + 1;
+            else
+                right = store - 1;
+        }
+    }
+
+    private float centroid(int item, int axis)
+    {
+        // No need to halve, only the ordering matters
+        return itemBounds[item * 6 + axis] + itemBounds[item * 6 + axis + 3];
+    }
+
+    private void swap(int i, int j)
+    {
+        if (i == j)
+            return;
+
+        Entity3D e = items[i];
+        items[i] = items[j];
+        items[j] = e;
+
+        int oi = i * 6;
+        int oj = j * 6;
+
+        for (int c = 0; c < 6; c++)
+        {
+            float f = itemBounds[oi + c];
+            itemBounds[oi + c] = itemBounds[oj + c];
+            itemBounds[oj + c] = f;
+        }
+    }
+
+    private void cullNode(int node, Frustum frustum, List<Entity3D> result)
+    {
+        int o = node * 6;
+
+        switch (frustum.testAABB(nodeBounds[o], nodeBounds[o + 1], nodeBounds[o + 2],
+                nodeBounds[o + 3], nodeBounds[o + 4], nodeBounds[o + 5]))
+        {
+            case OUTSIDE:
+                return;
+
+            case INSIDE:
+                // The entities of the subtree are contiguous, accept them all
+                for (int i = nodeStart[node]; i < nodeEnd[node]; i++)
+                    result.add(items[i]);
+                return;
+        }
+
+        if (!isLeaf(node))
+        {
+            cullNode(node + 1, frustum, result);
+            cullNode(nodeRight[node], frustum, result);
+            return;
+        }
+
+        for (int i = nodeStart[node]; i < nodeEnd[node]; i++)
+        {
+            int io = i * 6;
+
+            switch (frustum.testAABB(itemBounds[io], itemBounds[io + 1], itemBounds[io + 2],
+                    itemBounds[io + 3], itemBounds[io + 4], itemBounds[io + 5]))
+            {
+                case INSIDE:
+                    result.add(items[i]);
+                    break;
+
+                case INTERSECTING:
+                    if (frustum.intersects(items[i].getPolyhedron()))
+                        result.add(items[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Intersects a ray with a box using the slab method.
+     *
+     * @return The distance to the entry point (zero if the origin is inside), or -1 if the box is missed or farther
+     * than the maximum distance.
+     */
+    private static float intersectRay(float[] bounds, int o, Vector3 origin, float invX, float invY, float invZ,
+                                      float maxDistance)
+    {
+        float t1 = (bounds[o] - origin.x) * invX;
+        float t2 = (bounds[o + 3] - origin.x) * invX;
+
+        float tMin = Math.min(t1, t2);
+        float tMax = Math.max(t1, t2);
+
+        t1 = (bounds[o + 1] - origin.y) * invY;
+        t2 = (bounds[o + 4] - origin.y) * invY;
+
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        t1 = (bounds[o + 2] - origin.z) * invZ;
+        t2 = (bounds[o + 5] - origin.z) * invZ;
+
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        // NaNs (ray parallel to and on a slab plane) make the comparisons fail, which counts as a miss
+        if (!(tMax >= Math.max(tMin, 0)) || tMin > maxDistance)
+            return -1;
+
+        return Math.max(tMin, 0);
+    }
+
+    private void computeItemBounds(int item)
+    {
+        Entity3D entity = items[item];
+
+        Vector3 position = entity.getPosition();
+        Cuboid bounds = entity.getBounds();
+
+        float hw = bounds.getWidth() / 2;
+        float hh = bounds.getHeight() / 2;
+        float ht = bounds.getThickness() / 2;
+
+        int o = item * 6;
+        itemBounds[o] = position.x - hw;
+        itemBounds[o + 1] = position.y - hh;
+        itemBounds[o + 2] = position.z - ht;
+        itemBounds[o + 3] = position.x + hw;
+        itemBounds[o + 4] = position.y + hh;
+        itemBounds[o + 5] = position.z + ht;
+    }
+
+    private void computeNodeBounds(int node, int start, int end)
+    {
+        float minX, minY, minZ, maxX, maxY, maxZ;
+
+        minX = minY = minZ = Float.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = start; i < end; i++)
+        {
+            int o = i * 6;
+
+            minX = Math.min(minX, itemBounds[o]);
+            minY = Math.min(minY, itemBounds[o + 1]);
+            minZ = Math.min(minZ, itemBounds[o + 2]);
+            maxX = Math.max(maxX, itemBounds[o + 3]);
+            maxY = Math.max(maxY, itemBounds[o + 4]);
+            maxZ = Math.max(maxZ, itemBounds[o + 5]);
+        }
+
+        int o = node * 6;
+        nodeBounds[o] = minX;
+        nodeBounds[o + 1] = minY;
+        nodeBounds[o + 2] = minZ;
+        nodeBounds[o + 3] = maxX;
+        nodeBounds[o + 4] = maxY;
+        nodeBounds[o + 5] = maxZ;
+    }
+
+    private void unionNodeBounds(int node, int left, int right)
+    {
+        int o = node * 6;
+        int l = left * 6;
+        int r = right * 6;
+
+        for (int c = 0; c < 3; c++)
+        {
+            nodeBounds[o + c] = Math.min(nodeBounds[l + c], nodeBounds[r + c]);
+            nodeBounds[o + c + 3] = Math.max(nodeBounds[l + c + 3], nodeBounds[r + c + 3]);
+        }
+    }
+
+    /**
+     * @return The sum of the surface areas of all the nodes, which is proportional to the expected cost of a query.
+     */
+    private float computeCost()
+    {
+        float cost = 0;
+
+        for (int node = 0; node < numNodes; node++)
+        {
+            int o = node * 6;
+
+            float ex = nodeBounds[o + 3] - nodeBounds[o];
+            float ey = nodeBounds[o + 4] - nodeBounds[o + 1];
+            float ez = nodeBounds[o + 5] - nodeBounds[o + 2];
+
+            cost += ex * ey + ey * ez + ez * ex;
+        }
+
+        return cost;
+    }
+
+    private boolean isLeaf(int node)
+    {
+        return nodeRight[node] < 0;
+    }
+
+    private void ensureCapacity(int count)
+    {
+        if (items.length < count)
+        {
+            int capacity = Math.max(count, items.length * 2);
+
+            items = Arrays.copyOf(items, capacity);
+            itemBounds = new float[capacity * 6];
+
+            // A binary tree with at most one item per leaf has less than twice as many nodes as items
+            nodeBounds = new float[capacity * 2 * 6];
+            nodeRight = new int[capacity * 2];
+            nodeStart = new int[capacity * 2];
+            nodeEnd = new int[capacity * 2];
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene;
+
+import com.shc.silenceengine.graphics.cameras.BaseCamera;
+import com.shc.silenceengine.graphics.models.Mesh;
+import com.shc.silenceengine.graphics.models.Model;
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.math.geom3d.Cuboid;
+import com.shc.silenceengine.scene.entity.Entity3D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * <p> A software occlusion culler that runs completely on the CPU. A small set of occluder meshes (usually big things
+ * like buildings and terrain) are rasterized into a low resolution depth buffer, from which a hierarchical depth
+ * pyramid is built. The bounds of the entities are then tested against the pyramid, and the entities that are
+ * completely hidden behind the occluders are culled before they reach the ModelBatch. </p>
+ *
+ * <p> The depth buffer is split into horizontal bands which are rasterized in parallel, each band only ever writes to
+ * its own rows so there is no need for any synchronization. Triangles that cross the near plane are skipped, as that
+ * only makes the culling less aggressive, never wrong. </p>
+ *
+ * <pre>
+ *     OcclusionCuller culler = new OcclusionCuller(256, 128);
+ *     culler.addOccluder(buildingEntity);
+ *
+ *     scene.setOcclusionCuller(culler);
+ * </pre>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class OcclusionCuller
+{
+    // The number of rows rasterized by a single task
+    private static final int BAND_HEIGHT = 8;
+
+    // Vertices with a smaller clip space w are considered to be behind the near plane
+    private static final float NEAR_W = 1e-4f;
+
+    private int width;
+    private int height;
+
+    // The depth pyramid, level zero is the depth buffer itself
+    private float[][] levels;
+    private int[]     levelWidths;
+    private int[]     levelHeights;
+
+    // The screen space triangles of this frame, stored as x, y, z for three vertices
+    private float[] triangles;
+    private int     numTriangles;
+
+    private List<Occluder> occluders;
+
+    private boolean multiThreaded;
+
+    private Matrix4 viewProjection;
+
+    public OcclusionCuller(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+
+        int numLevels = 1;
+        while ((width >> numLevels) > 0 || (height >> numLevels) > 0)
+            numLevels++;
+
+        levels = new float[numLevels][];
+        levelWidths = new int[numLevels];
+        levelHeights = new int[numLevels];
+
+        for (int i = 0; i < numLevels; i++)
+        {
+            levelWidths[i] = Math.max(1, (width + (1 << i) - 1) >> i);
+            levelHeights[i] = Math.max(1, (height + (1 << i) - 1) >> i);
+            levels[i] = new float[levelWidths[i] * levelHeights[i]];
+        }
+
+        triangles = new float[9 * 256];
+        occluders = new ArrayList<>();
+        viewProjection = new Matrix4();
+
+        multiThreaded = true;
+    }
+
+    /**
+     * Adds an entity as an occluder. The model of the entity is rasterized with the current transform of the entity
+     * every frame, so it can move freely.
+     *
+     * @param entity The entity to use as an occluder.
+     */
+    public void addOccluder(Entity3D entity)
+    {
+        addOccluder(entity.getModel(), entity.getTransform());
+    }
+
+    /**
+     * Adds a model as an occluder. The triangles are copied once, so later changes to the meshes are not seen, but the
+     * transform is used by reference.
+     *
+     * @param model     The model to use as an occluder. Keep these low in polygon count.
+     * @param transform The transform of the model.
+     */
+    public void addOccluder(Model model, Transform transform)
+    {
+        int numFloats = 0;
+
+        for (Mesh mesh : model.getMeshes())
+            numFloats += mesh.getIndexCount() * 3;
+
+        float[] vertices = new float[numFloats];
+        int i = 0;
+
+        for (Mesh mesh : model.getMeshes())
+        {
+            float[] positions = mesh.getPositionData();
+            int[] indices = mesh.getIndexData();
+
+            for (int j = 0; j < mesh.getIndexCount(); j++)
+            {
+                System.arraycopy(positions, indices[j] * 3, vertices, i, 3);
+                i += 3;
+            }
+        }
+
+        occluders.add(new Occluder(vertices, transform));
+    }
+
+    public void clearOccluders()
+    {
+        occluders.clear();
+    }
+
+    /**
+     * Rasterizes all the occluders as seen through a camera, and builds the depth pyramid. This has to be done once in
+     * a frame before testing anything for occlusion.
+     *
+     * @param camera The camera the scene is viewed with.
+     */
+    public void render(BaseCamera camera)
+    {
+        viewProjection.set(camera.getView()).multiplySelf(camera.getProjection());
+
+        numTriangles = 0;
+
+        Matrix4 mvp = Matrix4.REUSABLE_STACK.pop();
+
+        for (Occluder occluder : occluders)
+        {
+            mvp.set(occluder.transform.getMatrix()).multiplySelf(viewProjection);
+            setupTriangles(occluder.vertices, mvp);
+        }
+
+        Matrix4.REUSABLE_STACK.push(mvp);
+
+        // Clear to the far plane
+        Arrays.fill(levels[0], 1);
+
+        int numBands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+
+        if (multiThreaded)
+            IntStream.range(0, numBands).parallel().forEach(this::rasterizeBand);
+        else
+            for (int band = 0; band < numBands; band++)
+                rasterizeBand(band);
+
+        buildPyramid();
+    }
+
+    /**
+     * Removes all the entities that are hidden behind the occluders from a list, keeping the order of the rest.
+     *
+     * @param entities The list of entities to cull.
+     */
+    public void cull(List<Entity3D> entities)
+    {
+        int size = entities.size();
+        int kept = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            Entity3D entity = entities.get(i);
+
+            if (isVisible(entity))
+                entities.set(kept++, entity);
+        }
+
+        // Drop the tail in one go instead of removing one by one
+        entities.subList(kept, size).clear();
+    }
+
+    public boolean isVisible(Entity3D entity)
+    {
+        Vector3 position = entity.getPosition();
+        Cuboid bounds = entity.getBounds();
+
+        float hw = bounds.getWidth() / 2;
+        float hh = bounds.getHeight() / 2;
+        float ht = bounds.getThickness() / 2;
+
+        return isVisible(position.x - hw, position.y - hh, position.z - ht,
+                position.x + hw, position.y + hh, position.z + ht);
+    }
+
+    /**
+     * Tests whether an axis aligned box in the world could be visible, that is, whether it is not completely behind the
+     * occluders rendered in this frame.
+     *
+     * @return False if the box is surely hidden, true otherwise.
+     */
+    public boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ)
+    {
+        Matrix4 m = viewProjection;
+
+        float sx0 = Float.POSITIVE_INFINITY, sy0 = Float.POSITIVE_INFINITY;
+        float sx1 = Float.NEGATIVE_INFINITY, sy1 = Float.NEGATIVE_INFINITY;
+        float nearestZ = Float.POSITIVE_INFINITY;
+
+        for (int corner = 0; corner < 8; corner++)
+        {
+            float x = (corner & 1) == 0 ? minX : maxX;
+            float y = (corner & 2) == 0 ? minY : maxY;
+            float z = (corner & 4) == 0 ? minZ : maxZ;
+
+            float w = x * m.get(0, 3) + y * m.get(1, 3) + z * m.get(2, 3) + m.get(3, 3);
+
+            // Crossing the near plane, the box surrounds the camera
+            if (w < NEAR_W)
+                return true;
+
+            float invW = 1 / w;
+
+            float px = (x * m.get(0, 0) + y * m.get(1, 0) + z * m.get(2, 0) + m.get(3, 0)) * invW;
+            float py = (x * m.get(0, 1) + y * m.get(1, 1) + z * m.get(2, 1) + m.get(3, 1)) * invW;
+            float pz = (x * m.get(0, 2) + y * m.get(1, 2) + z * m.get(2, 2) + m.get(3, 2)) * invW;
+
+            sx0 = Math.min(sx0, px);
+            sy0 = Math.min(sy0, py);
+            sx1 = Math.max(sx1, px);
+            sy1 = Math.max(sy1, py);
+            nearestZ = Math.min(nearestZ, pz);
+        }
+
+        // Into pixels and depth buffer range
+        int x0 = Math.max(0, (int) Math.floor((sx0 * 0.5f + 0.5f) * width));
+        int y0 = Math.max(0, (int) Math.floor((sy0 * 0.5f + 0.5f) * height));
+        int x1 = Math.min(width - 1, (int) Math.ceil((sx1 * 0.5f + 0.5f) * width));
+        int y1 = Math.min(height - 1, (int) Math.ceil((sy1 * 0.5f + 0.5f) * height));
+        nearestZ = nearestZ * 0.5f + 0.5f;
+
+        // Off the screen, frustum culling is not our job
+        if (x0 > x1 || y0 > y1)
+            return true;
+
+        // Choose the level where the box covers at most a couple of texels on each side
+        int size = Math.max(x1 - x0, y1 - y0);
+        int level = 0;
+        while (level < levels.length - 1 && (size >> level) > 1)
+            level++;
+
+        float[] depth = levels[level];
+        int levelWidth = levelWidths[level];
+
+        for (int y = y0 >> level; y <= y1 >> level; y++)
+        {
+            for (int x = x0 >> level; x <= x1 >> level; x++)
+            {
+                // The farthest occluder depth here is in front of the box? Else the box peeks through.
+                if (depth[y * levelWidth + x] >= nearestZ)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void setupTriangles(float[] vertices, Matrix4 m)
+    {
+        int count = vertices.length / 9;
+
+        if ((numTriangles + count) * 9 > triangles.length)
+            triangles = Arrays.copyOf(triangles, Math.max(triangles.length * 2, (numTriangles + count) * 9));
+
+        float m00 = m.get(0, 0), m01 = m.get(0, 1), m02 = m.get(0, 2), m03 = m.get(0, 3);
+        float m10 = m.get(1, 0), m11 = m.get(1, 1), m12 = m.get(1, 2), m13 = m.get(1, 3);
+        float m20 = m.get(2, 0), m21 = m.get(2, 1), m22 = m.get(2, 2), m23 = m.get(2, 3);
+        float m30 = m.get(3, 0), m31 = m.get(3, 1), m32 = m.get(3, 2), m33 = m.get(3, 3);
+
+        float halfWidth = width * 0.5f;
+        float halfHeight = height * 0.5f;
+
+        outer:
+        for (int t = 0; t < count; t++)
+        {
+            int dst = numTriangles * 9;
+
+            for (int v = 0; v < 3; v++)
+            {
+                int src = t * 9 + v * 3;
+
+                float x = vertices[src];
+                float y = vertices[src + 1];
+                float z = vertices[src + 2];
+
+                float w = x * m03 + y * m13 + z * m23 + m33;
+
+                if (w < NEAR_W)
+                    continue outer;
+
+                float invW = 1 / w;
+
+                triangles[dst + v * 3] = ((x * m00 + y * m10 + z * m20 + m30) * invW + 1) * halfWidth;
+                triangles[dst + v * 3 + 1] = ((x * m01 + y * m11 + z * m21 + m31) * invW + 1) * halfHeight;
+                triangles[dst + v * 3 + 2] = (x * m02 + y * m12 + z * m22 + m32) * invW * 0.5f + 0.5f;
+            }
+
+            numTriangles++;
+        }
+    }
+
+    private void rasterizeBand(int band)
+    {
+        int bandStart = band * BAND_HEIGHT;
+        int bandEnd = Math.min(height, bandStart + BAND_HEIGHT);
+
+        float[] depth = levels[0];
+
+        for (int t = 0; t < numTriangles; t++)
+        {
+            int o = t * 9;
+
+            float x0 = triangles[o], y0 = triangles[o + 1], z0 = triangles[o + 2];
+            float x1 = triangles[o + 3], y1 = triangles[o + 4], z1 = triangles[o + 5];
+            float x2 = triangles[o + 6], y2 = triangles[o + 7], z2 = triangles[o + 8];
+
+            // Skip the triangles that don't touch this band
+            int minY = Math.max(bandStart, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+            int maxY = Math.min(bandEnd - 1, (int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+
+            if (minY > maxY)
+                continue;
+
+            int minX = Math.max(0, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+            int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+
+            if (minX > maxX)
+                continue;
+
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+
+            if (Math.abs(area) < 1e-6f)
+                continue;
+
+            // Make the winding counter clockwise, both faces of the occluders are rasterized
+            if (area < 0)
+            {
+                float tx = x1, ty = y1, tz = z1;
+                x1 = x2; y1 = y2; z1 = z2;
+                x2 = tx; y2 = ty; z2 = tz;
+                area = -area;
+            }
+
+            // Depth is planar in screen space
+            float invArea = 1 / area;
+            float dzdx = ((z1 - z0) * (y2 - y0) - (z2 - z0) * (y1 - y0)) * invArea;
+            float dzdy = ((z2 - z0) * (x1 - x0) - (z1 - z0) * (x2 - x0)) * invArea;
+
+            // Edge function steps along x
+            float e0dx = -(y2 - y1), e1dx = -(y0 - y2), e2dx = -(y1 - y0);
+
+            for (int y = minY; y <= maxY; y++)
+            {
+                float py = y + 0.5f;
+                float px = minX + 0.5f;
+
+                float e0 = (x2 - x1) * (py - y1) - (y2 - y1) * (px - x1);
+                float e1 = (x0 - x2) * (py - y2) - (y0 - y2) * (px - x2);
+                float e2 = (x1 - x0) * (py - y0) - (y1 - y0) * (px - x0);
+                float z = z0 + dzdx * (px - x0) + dzdy * (py - y0);
+
+                int row = y * width;
+
+                for (int x = minX; x <= maxX; x++)
+                {
+                    if (e0 >= 0 && e1 >= 0 && e2 >= 0 && z < depth[row + x])
+                        depth[row + x] = z;
+
+                    e0 += e0dx;
+                    e1 += e1dx;
+                    e2 += e2dx;
+                    z += dzdx;
+                }
+            }
+        }
+    }
+
+    private void buildPyramid()
+    {
+        for (int level = 1; level < levels.length; level++)
+        {
+            float[] src = levels[level - 1];
+            float[] dst = levels[level];
+
+            int srcWidth = levelWidths[level - 1];
+            int srcHeight = levelHeights[level - 1];
+            int dstWidth = levelWidths[level];
+            int dstHeight = levelHeights[level];
+
+            for (int y = 0; y < dstHeight; y++)
+            {
+                int sy0 = (y * 2) * srcWidth;
+                int sy1 = Math.min(y * 2 + 1, srcHeight - 1) * srcWidth;
+
+                for (int x = 0; x < dstWidth; x++)
+                {
+                    int sx0 = x * 2;
+                    int sx1 = Math.min(x * 2 + 1, srcWidth - 1);
+
+                    // Keep the farthest depth, so a test against a coarse texel stays conservative
+                    dst[y * dstWidth + x] = Math.max(Math.max(src[sy0 + sx0], src[sy0 + sx1]),
+                            Math.max(src[sy1 + sx0], src[sy1 + sx1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The depth buffer rasterized in the last frame, in row major order with depths from 0 (near) to 1 (far).
+     */
+    public float[] getDepthBuffer()
+    {
+        return levels[0];
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public boolean isMultiThreaded()
+    {
+        return multiThreaded;
+    }
+
+    public void setMultiThreaded(boolean multiThreaded)
+    {
+        this.multiThreaded = multiThreaded;
+    }
+
+    private static class Occluder
+    {
+        private float[]   vertices;
+        private Transform transform;
+
+        private Occluder(float[] vertices, Transform transform)
+        {
+            this.vertices = vertices;
+            this.transform = transform;
+        }
+    }
+}
@@ -26,26 +26,43 @@
 
 import com.shc.silenceengine.core.IUpdatable;
 import com.shc.silenceengine.core.SilenceEngine;
+import com.shc.silenceengine.graphics.RenderQueue;
 import com.shc.silenceengine.graphics.SpriteBatch;
 import com.shc.silenceengine.graphics.cameras.BaseCamera;
 import com.shc.silenceengine.math.Frustum;
 import com.shc.silenceengine.scene.entity.Entity2D;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Sri Harsha Chilakapati
  */
 public class Scene2D implements IUpdatable
 {
+    // Higher depths are rendered first
+    private static final Comparator<Entity2D> DEPTH_ORDER = (e1, e2) -> Integer.compare(e2.getDepth(), e1.getDepth());
+
     private List<Entity2D> entities;
 
+    // The entities removed while the scene is updating, they are removed after the update
+    private Set<Entity2D> pendingRemovals;
+
+    // The hierarchy of nodes the entities can be attached to
+    private SceneGraph sceneGraph;
+
     private boolean frustumCulling;
+    private boolean updating;
 
     public Scene2D()
     {
         entities = new ArrayList<>();
+        pendingRemovals = Collections.newSetFromMap(new IdentityHashMap<>());
+        sceneGraph = new SceneGraph();
         setFrustumCulling(true);
     }
 
@@ -56,20 +73,72 @@ public void addChild(Entity2D e)
 
     public void removeChild(Entity2D e)
     {
-        entities.remove(e);
+        // Removing from the list while updating would shift the entities under the update loop
+        if (updating)
+            pendingRemovals.add(e);
+        else
+            entities.remove(e);
     }
 
     public void update(float delta)
     {
+        updating = true;
+
+        // Entities spawned in the loop are appended, and get updated in the same frame
         for (int i = 0; i < entities.size(); i++)
+            entities.get(i).preUpdate(delta);
+
+        updating = false;
+
+        removeDestroyed();
+
+        // The attached entities follow their nodes, after they updated themselves
+        sceneGraph.update();
+    }
+
+    /**
+     * Removes all the destroyed entities in a single pass, moving the rest down over their slots. This keeps the
+     * relative order of the entities, and so their depth order too.
+     */
+    private void removeDestroyed()
+    {
+        int size = entities.size();
+        int kept = 0;
+
+        boolean checkPending = !pendingRemovals.isEmpty();
+
+        for (int i = 0; i < size; i++)
         {
             Entity2D entity = entities.get(i);
-            entity.preUpdate(delta);
 
-            if (entity.isDestroyed())
+            if (entity.isDestroyed() || (checkPending && pendingRemovals.contains(entity)))
+                continue;
+
+            if (kept != i)
+                entities.set(kept, entity);
+
+            kept++;
+        }
+
+        if (kept != size)
+            entities.subList(kept, size).clear();
+
+        pendingRemovals.clear();
+    }
+
+    /**
+     * Sorts the entities based on depth, only if they are out of order. The entities keep their relative order once
+     * sorted, so in the common case where no depths changed this is a single pass over the list.
+     */
+    private void sortEntities()
+    {
+        for (int i = 1; i < entities.size(); i++)
+        {
+            if (entities.get(i - 1).getDepth() < entities.get(i).getDepth())
             {
-                removeChild(entity);
-                i--;
+                // The sort is stable, and fast on nearly sorted lists
+                entities.sort(DEPTH_ORDER);
+                return;
             }
         }
     }
@@ -80,11 +149,11 @@ public void render(float delta)
         if (entities.size() == 0)
             return;
 
-        // Sort the entities based on depth
-        entities.sort((e1, e2) -> Integer.compare(e2.getDepth(), e1.getDepth()));
+        sortEntities();
 
-        // Render the entities in batches of depths
+        // The entities are sorted on depth, so the rank of the depth is used as the depth in the render queue
         int depth = entities.get(0).getDepth();
+        int rank = 0;
 
         // Get the Frustum once to prevent unnecessary calculations
         Frustum frustum = BaseCamera.CURRENT.getFrustum();
@@ -92,6 +161,8 @@ public void render(float delta)
         SpriteBatch batch = SilenceEngine.graphics.getSpriteBatch();
         batch.begin();
         {
+            batch.setDepth(RenderQueue.MAX_DEPTH);
+
             for (Entity2D entity : entities)
             {
                 if (frustumCulling && !frustum.intersects(entity.getPolygon()))
@@ -99,9 +170,8 @@ public void render(float delta)
 
                 if (entity.getDepth() != depth)
                 {
-                    batch.end();
                     depth = entity.getDepth();
-                    batch.begin();
+                    batch.setDepth(RenderQueue.MAX_DEPTH - Math.min(++rank, RenderQueue.MAX_DEPTH));
                 }
 
                 entity.render(delta, batch);
@@ -114,6 +184,13 @@ public void destroy()
     {
         entities.forEach(Entity2D::destroy);
         entities.clear();
+        pendingRemovals.clear();
+        sceneGraph.clear();
+    }
+
+    public SceneGraph getSceneGraph()
+    {
+        return sceneGraph;
     }
 
     public List<Entity2D> getEntities()
@@ -27,15 +27,20 @@
 import com.shc.silenceengine.core.IUpdatable;
 import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.graphics.ModelBatch;
+import com.shc.silenceengine.graphics.RenderQueue;
 import com.shc.silenceengine.graphics.cameras.BaseCamera;
 import com.shc.silenceengine.graphics.opengl.GL3Context;
-import com.shc.silenceengine.math.Frustum;
+import com.shc.silenceengine.math.Matrix4;
 import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector3;
 import com.shc.silenceengine.scene.entity.Entity3D;
 import org.lwjgl.opengl.GL11;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Sri Harsha Chilakapati
@@ -44,38 +49,90 @@ public class Scene3D implements IUpdatable
 {
     private List<SceneComponent> components;
     private List<Entity3D>       entities;
+    private List<Entity3D>       visibleEntities;
+
+    // The entities removed while the scene is updating, they are removed after the update
+    private Set<Entity3D> pendingRemovals;
+
+    private BoundingVolumeHierarchy bvh;
+    private OcclusionCuller         occlusionCuller;
 
     private Transform transform;
 
+    // The hierarchy of nodes the entities can be attached to
+    private SceneGraph sceneGraph;
+
     private boolean frustumCulling;
+    private boolean updating;
+
+    // Whether the BVH needs a rebuild (entities added or removed) or a refit (entities moved)
+    private boolean bvhRebuild;
+    private boolean bvhRefit;
 
     public Scene3D()
     {
         components = new ArrayList<>();
         entities = new ArrayList<>();
+        visibleEntities = new ArrayList<>();
+        pendingRemovals = Collections.newSetFromMap(new IdentityHashMap<>());
+        sceneGraph = new SceneGraph();
         transform = new Transform();
 
+        bvh = new BoundingVolumeHierarchy();
+
         setFrustumCulling(true);
     }
 
     public void update(float delta)
     {
+        updating = true;
+
+        // Entities spawned in the loop are appended, and get updated in the same frame
         for (int i = 0; i < entities.size(); i++)
+            entities.get(i).preUpdate(delta);
+
+        updating = false;
+
+        removeDestroyed();
+
+        // The attached entities follow their nodes, after they updated themselves
+        sceneGraph.update();
+        bvhRefit = true;
+
+        for (SceneComponent component : components)
+            component.update(delta);
+    }
+
+    /**
+     * Removes all the destroyed entities in a single pass, moving the rest down over their slots.
+     */
+    private void removeDestroyed()
+    {
+        int size = entities.size();
+        int kept = 0;
+
+        boolean checkPending = !pendingRemovals.isEmpty();
+
+        for (int i = 0; i < size; i++)
         {
             Entity3D entity = entities.get(i);
 
-            if (entity.isDestroyed())
-            {
-                entities.remove(entity);
-                i--;
+            if (entity.isDestroyed() || (checkPending && pendingRemovals.contains(entity)))
                 continue;
-            }
 
-            entity.preUpdate(delta);
+            if (kept != i)
+                entities.set(kept, entity);
+
+            kept++;
         }
 
-        for (SceneComponent component : components)
-            component.update(delta);
+        if (kept != size)
+        {
+            entities.subList(kept, size).clear();
+            bvhRebuild = true;
+        }
+
+        pendingRemovals.clear();
     }
 
     public void render(float delta)
@@ -84,10 +141,29 @@ public void render(float delta)
         if (entities.size() == 0)
             return;
 
-        // Get the Frustum once to save unnecessary calculations
-        Frustum frustum = BaseCamera.CURRENT.getFrustum();
+        // Find the visible entities once, and reuse them for all the passes
+        visibleEntities.clear();
 
-        doRender(delta, frustum);
+        if (frustumCulling)
+        {
+            updateBVH();
+            bvh.cull(BaseCamera.CURRENT.getFrustum(), visibleEntities);
+        }
+        else
+            visibleEntities.addAll(entities);
+
+        // Remove the entities hidden behind the occluders, before they reach the ModelBatch
+        if (occlusionCuller != null)
+        {
+            occlusionCuller.render(BaseCamera.CURRENT);
+            occlusionCuller.cull(visibleEntities);
+        }
+
+        // The passes change the state that is not a part of the sort keys, so each pass is flushed on its own
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        doRender(delta);
+        queue.flush();
 
         for (SceneComponent component : components)
         {
@@ -96,7 +172,8 @@ public void render(float delta)
             GL3Context.depthFunc(GL11.GL_EQUAL);
 
             component.use();
-            doRender(delta, frustum);
+            doRender(delta);
+            queue.flush();
             component.release();
 
             GL3Context.depthFunc(GL11.GL_LESS);
@@ -105,26 +182,102 @@ public void render(float delta)
         }
     }
 
-    private void doRender(float delta, Frustum frustum)
+    private void doRender(float delta)
     {
         ModelBatch batch = SilenceEngine.graphics.getModelBatch();
 
         batch.begin(transform);
         {
-            for (Entity3D e : entities)
-            {
-                if (frustumCulling && !frustum.intersects(e.getPolyhedron()))
-                    continue;
-
+            for (Entity3D e : visibleEntities)
                 e.render(delta, batch);
-            }
         }
         batch.end();
     }
 
+    private void updateBVH()
+    {
+        // Catch the entities added or removed directly through the list too
+        if (bvhRebuild || bvh.size() != entities.size())
+            bvh.build(entities);
+
+        else if (bvhRefit)
+            bvh.refit();
+
+        bvhRebuild = bvhRefit = false;
+    }
+
+    /**
+     * Finds the nearest entity in this scene whose bounds are hit by a ray. The bounds are the ones at the end of the
+     * last update, so entities moved after that are found at their old positions until the next update.
+     *
+     * @param origin    The origin of the ray in world space.
+     * @param direction The direction of the ray in world space.
+     *
+     * @return The nearest entity hit by the ray, or null if there is none.
+     */
+    public Entity3D raycast(Vector3 origin, Vector3 direction)
+    {
+        return raycast(origin, direction, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds the nearest entity in this scene whose bounds are hit by a ray, within a maximum distance.
+     *
+     * @param origin      The origin of the ray in world space.
+     * @param direction   The direction of the ray in world space.
+     * @param maxDistance The maximum distance, measured in the length of the direction vector.
+     *
+     * @return The nearest entity hit by the ray, or null if there is none.
+     */
+    public Entity3D raycast(Vector3 origin, Vector3 direction, float maxDistance)
+    {
+        updateBVH();
+        return bvh.raycast(origin, direction, maxDistance);
+    }
+
+    /**
+     * Picks the nearest entity under a point on the screen, as seen through a camera.
+     *
+     * @param camera The camera the scene is viewed with.
+     * @param ndcX   The x-coordinate of the point in normalized device coordinates (-1 to 1, left to right).
+     * @param ndcY   The y-coordinate of the point in normalized device coordinates (-1 to 1, bottom to top).
+     *
+     * @return The nearest entity under the point, or null if there is none.
+     */
+    public Entity3D pick(BaseCamera camera, float ndcX, float ndcY)
+    {
+        Matrix4 inverse = Matrix4.REUSABLE_STACK.pop();
+        Vector3 near = Vector3.REUSABLE_STACK.pop();
+        Vector3 far = Vector3.REUSABLE_STACK.pop();
+
+        inverse.set(camera.getView()).multiplySelf(camera.getProjection()).invertSelf();
+
+        unProject(inverse, ndcX, ndcY, -1, near);
+        unProject(inverse, ndcX, ndcY, 1, far);
+
+        // Search only until the far plane
+        Entity3D entity = raycast(near, far.subtractSelf(near), 1);
+
+        Vector3.REUSABLE_STACK.push(far);
+        Vector3.REUSABLE_STACK.push(near);
+        Matrix4.REUSABLE_STACK.push(inverse);
+
+        return entity;
+    }
+
+    private static void unProject(Matrix4 m, float x, float y, float z, Vector3 dest)
+    {
+        float w = x * m.get(0, 3) + y * m.get(1, 3) + z * m.get(2, 3) + m.get(3, 3);
+
+        dest.set((x * m.get(0, 0) + y * m.get(1, 0) + z * m.get(2, 0) + m.get(3, 0)) / w,
+                (x * m.get(0, 1) + y * m.get(1, 1) + z * m.get(2, 1) + m.get(3, 1)) / w,
+                (x * m.get(0, 2) + y * m.get(1, 2) + z * m.get(2, 2) + m.get(3, 2)) / w);
+    }
+
     public void addChild(Entity3D e)
     {
         entities.add(e);
+        bvhRebuild = true;
     }
 
     public void addComponent(SceneComponent c)
@@ -134,7 +287,14 @@ public void addComponent(SceneComponent c)
 
     public void removeChild(Entity3D e)
     {
-        entities.remove(e);
+        // Removing from the list while updating would shift the entities under the update loop
+        if (updating)
+            pendingRemovals.add(e);
+        else
+        {
+            entities.remove(e);
+            bvhRebuild = true;
+        }
     }
 
     public void removeComponent(SceneComponent component)
@@ -149,6 +309,11 @@ public void destroy()
 
         entities.clear();
         components.clear();
+
+        visibleEntities.clear();
+        pendingRemovals.clear();
+        bvh.clear();
+        sceneGraph.clear();
     }
 
     public Transform getTransform()
@@ -156,16 +321,45 @@ public Transform getTransform()
         return transform;
     }
 
+    public SceneGraph getSceneGraph()
+    {
+        return sceneGraph;
+    }
+
     public List<Entity3D> getEntities()
     {
         return entities;
     }
 
+    /**
+     * @return The entities that passed the culling in the last render of this scene.
+     */
+    public List<Entity3D> getVisibleEntities()
+    {
+        return visibleEntities;
+    }
+
     public List<SceneComponent> getComponents()
     {
         return components;
     }
 
+    public OcclusionCuller getOcclusionCuller()
+    {
+        return occlusionCuller;
+    }
+
+    /**
+     * Sets the occlusion culler used by this scene. Occlusion culling is disabled by default, and can be disabled again
+     * by passing null.
+     *
+     * @param occlusionCuller The OcclusionCuller to use, or null.
+     */
+    public void setOcclusionCuller(OcclusionCuller occlusionCuller)
+    {
+        this.occlusionCuller = occlusionCuller;
+    }
+
     public boolean isFrustumCullingEnabled()
     {
         return frustumCulling;
@@ -0,0 +1,371 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene;
+
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Vector3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p> A SceneGraph is a hierarchy of SceneNodes, where every node has a local translation, rotation and scale relative
+ * to its parent. The world transforms are only recomputed for the nodes whose local transform changed and the subtrees
+ * under them, so a node that doesn't move costs nothing. </p>
+ *
+ * <pre>
+ *     SceneNode tank = scene.getSceneGraph().createNode();
+ *     SceneNode turret = scene.getSceneGraph().createNode();
+ *
+ *     tank.addChild(turret);
+ *     turret.setPosition(0, 2, 0);
+ *     turret.attach(turretEntity);
+ * </pre>
+ *
+ * <p> The data of the nodes is stored in flat arrays, in breadth first order, so the children of every node are next to
+ * each other and every parent comes before its children. This lets the update be a single forward pass over the
+ * arrays. The entities attached to the nodes have their transforms overwritten with the world transforms of the nodes
+ * on every update. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SceneGraph
+{
+    // Floats per node in the arrays: translation, rotation quaternion and scale for the locals, and the affine 4x3
+    // part of the world matrix (the last column is always 0, 0, 0, 1) for the worlds.
+    static final int LOCAL_SIZE = 10;
+    static final int WORLD_SIZE = 12;
+
+    private float[]     locals;
+    private float[]     worlds;
+    private int[]       parents;
+    private boolean[]   dirty;
+    private boolean[]   changed;
+    private SceneNode[] nodes;
+
+    private int count;
+
+    // The nodes with no parent, the hierarchy is rebuilt from these when it changes
+    private List<SceneNode> roots;
+
+    private boolean layoutDirty;
+    private boolean transformsDirty;
+
+    public SceneGraph()
+    {
+        roots = new ArrayList<>();
+        allocate(64);
+    }
+
+    private void allocate(int capacity)
+    {
+        locals = new float[capacity * LOCAL_SIZE];
+        worlds = new float[capacity * WORLD_SIZE];
+        parents = new int[capacity];
+        dirty = new boolean[capacity];
+        changed = new boolean[capacity];
+        nodes = new SceneNode[capacity];
+    }
+
+    /**
+     * Creates a new root node with an identity transform.
+     *
+     * @return The new node.
+     */
+    public SceneNode createNode()
+    {
+        if (count == nodes.length)
+        {
+            int capacity = nodes.length * 2;
+
+            locals = Arrays.copyOf(locals, capacity * LOCAL_SIZE);
+            worlds = Arrays.copyOf(worlds, capacity * WORLD_SIZE);
+            parents = Arrays.copyOf(parents, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+            changed = Arrays.copyOf(changed, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+        }
+
+        SceneNode node = new SceneNode(this, count);
+
+        // New nodes are appended, and are moved to their place in the breadth first order on the next update
+        int l = count * LOCAL_SIZE;
+        Arrays.fill(locals, l, l + LOCAL_SIZE, 0);
+        locals[l + 6] = 1;
+        locals[l + 7] = locals[l + 8] = locals[l + 9] = 1;
+
+        parents[count] = -1;
+        dirty[count] = true;
+        nodes[count] = node;
+        count++;
+
+        roots.add(node);
+
+        layoutDirty = transformsDirty = true;
+
+        return node;
+    }
+
+    /**
+     * Removes a node and all its descendants from this graph. The removed nodes can no longer be used.
+     *
+     * @param node The node to remove.
+     */
+    public void removeNode(SceneNode node)
+    {
+        if (node.getGraph() != this)
+            return;
+
+        if (node.getParent() == null)
+            roots.remove(node);
+        else
+            node.getParent().getChildren().remove(node);
+
+        invalidate(node);
+        layoutDirty = transformsDirty = true;
+    }
+
+    private void invalidate(SceneNode node)
+    {
+        nodes[node.index] = null;
+        node.release();
+
+        for (SceneNode child : node.getChildren())
+            invalidate(child);
+    }
+
+    void reparent(SceneNode node, SceneNode newParent)
+    {
+        SceneNode oldParent = node.getParent();
+
+        if (oldParent == null)
+            roots.remove(node);
+        else
+            oldParent.getChildren().remove(node);
+
+        if (newParent == null)
+            roots.add(node);
+        else
+            newParent.getChildren().add(node);
+
+        dirty[node.index] = true;
+        layoutDirty = transformsDirty = true;
+    }
+
+    void markDirty(int index)
+    {
+        dirty[index] = true;
+        transformsDirty = true;
+    }
+
+    float[] getLocals()
+    {
+        return locals;
+    }
+
+    float[] getWorlds()
+    {
+        return worlds;
+    }
+
+    /**
+     * Brings the world transforms of all the nodes up to date, and copies them to the attached entities. This is called
+     * by the scene after the entities are updated, and lazily when a world transform is queried.
+     */
+    public void update()
+    {
+        if (layoutDirty)
+            relayout();
+
+        boolean recompute = transformsDirty;
+        transformsDirty = false;
+
+        for (int i = 0; i < count; i++)
+        {
+            int parent = parents[i];
+
+            if (recompute && (dirty[i] || (parent != -1 && changed[parent])))
+            {
+                computeWorld(i, parent);
+
+                dirty[i] = false;
+                changed[i] = true;
+            }
+            else
+                changed[i] = false;
+
+            // The entities update their own transforms, so they are always overwritten
+            nodes[i].syncEntity();
+        }
+    }
+
+    void ensureUpdated()
+    {
+        if (layoutDirty || transformsDirty)
+            update();
+    }
+
+    /**
+     * Rebuilds the arrays in breadth first order, dropping the removed nodes.
+     */
+    private void relayout()
+    {
+        float[] oldLocals = locals;
+        float[] oldWorlds = worlds;
+        boolean[] oldDirty = dirty;
+
+        int capacity = nodes.length;
+        allocate(capacity);
+
+        count = 0;
+
+        for (SceneNode root : roots)
+            place(root, -1, oldLocals, oldWorlds, oldDirty);
+
+        // Visit the nodes in the order they are placed, placing their children after them
+        for (int i = 0; i < count; i++)
+            for (SceneNode child : nodes[i].getChildren())
+                place(child, i, oldLocals, oldWorlds, oldDirty);
+
+        layoutDirty = false;
+    }
+
+    private void place(SceneNode node, int parent, float[] oldLocals, float[] oldWorlds, boolean[] oldDirty)
+    {
+        int old = node.index;
+
+        System.arraycopy(oldLocals, old * LOCAL_SIZE, locals, count * LOCAL_SIZE, LOCAL_SIZE);
+        System.arraycopy(oldWorlds, old * WORLD_SIZE, worlds, count * WORLD_SIZE, WORLD_SIZE);
+
+        dirty[count] = oldDirty[old];
+        parents[count] = parent;
+        nodes[count] = node;
+
+        node.index = count++;
+    }
+
+    /**
+     * Composes the local matrix directly from the translation, rotation and scale, and multiplies it with the world
+     * matrix of the parent. Both are affine, so only the 4x3 part is computed.
+     */
+    private void computeWorld(int i, int parent)
+    {
+        int l = i * LOCAL_SIZE;
+
+        float tx = locals[l], ty = locals[l + 1], tz = locals[l + 2];
+        float qx = locals[l + 3], qy = locals[l + 4], qz = locals[l + 5], qw = locals[l + 6];
+        float sx = locals[l + 7], sy = locals[l + 8], sz = locals[l + 9];
+
+        float len = qx * qx + qy * qy + qz * qz + qw * qw;
+        float n = len == 0 ? 0 : 2 / len;
+
+        float xx = qx * qx * n, yy = qy * qy * n, zz = qz * qz * n;
+        float xy = qx * qy * n, xz = qx * qz * n, yz = qy * qz * n;
+        float wx = qw * qx * n, wy = qw * qy * n, wz = qw * qz * n;
+
+        // Rows are the scaled basis vectors, the translation is in the last row, like the TransformUtils matrices
+        float a00 = (1 - yy - zz) * sx, a01 = (xy + wz) * sx, a02 = (xz - wy) * sx;
+        float a10 = (xy - wz) * sy, a11 = (1 - xx - zz) * sy, a12 = (yz + wx) * sy;
+        float a20 = (xz + wy) * sz, a21 = (yz - wx) * sz, a22 = (1 - xx - yy) * sz;
+
+        int w = i * WORLD_SIZE;
+
+        if (parent == -1)
+        {
+            worlds[w] = a00;
+            worlds[w + 1] = a01;
+            worlds[w + 2] = a02;
+            worlds[w + 3] = a10;
+            worlds[w + 4] = a11;
+            worlds[w + 5] = a12;
+            worlds[w + 6] = a20;
+            worlds[w + 7] = a21;
+            worlds[w + 8] = a22;
+            worlds[w + 9] = tx;
+            worlds[w + 10] = ty;
+            worlds[w + 11] = tz;
+            return;
+        }
+
+        int p = parent * WORLD_SIZE;
+
+        for (int j = 0; j < 3; j++)
+        {
+            float p0 = worlds[p + j], p1 = worlds[p + 3 + j], p2 = worlds[p + 6 + j], p3 = worlds[p + 9 + j];
+
+            worlds[w + j] = a00 * p0 + a01 * p1 + a02 * p2;
+            worlds[w + 3 + j] = a10 * p0 + a11 * p1 + a12 * p2;
+            worlds[w + 6 + j] = a20 * p0 + a21 * p1 + a22 * p2;
+            worlds[w + 9 + j] = tx * p0 + ty * p1 + tz * p2 + p3;
+        }
+    }
+
+    void getWorldMatrix(int index, Matrix4 dest)
+    {
+        int w = index * WORLD_SIZE;
+
+        for (int r = 0; r < 4; r++)
+        {
+            dest.set(r, 0, worlds[w + r * 3])
+                    .set(r, 1, worlds[w + r * 3 + 1])
+                    .set(r, 2, worlds[w + r * 3 + 2])
+                    .set(r, 3, r == 3 ? 1 : 0);
+        }
+    }
+
+    void getWorldPosition(int index, Vector3 dest)
+    {
+        int w = index * WORLD_SIZE + 9;
+        dest.set(worlds[w], worlds[w + 1], worlds[w + 2]);
+    }
+
+    /**
+     * @return The number of nodes in this graph.
+     */
+    public int size()
+    {
+        if (layoutDirty)
+            relayout();
+
+        return count;
+    }
+
+    public List<SceneNode> getRoots()
+    {
+        return roots;
+    }
+
+    /**
+     * Removes all the nodes from this graph.
+     */
+    public void clear()
+    {
+        for (SceneNode root : new ArrayList<>(roots))
+            removeNode(root);
+
+        relayout();
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene;
+
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.math.Matrix4;
+import com.shc.silenceengine.math.Quaternion;
+import com.shc.silenceengine.math.Vector2;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.scene.entity.Entity2D;
+import com.shc.silenceengine.scene.entity.Entity3D;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SceneNode is a handle to a node in a SceneGraph. It holds the local translation, rotation and scale of the node
+ * relative to its parent, and optionally an entity that follows the world transform of the node. The transform data
+ * itself lives in the arrays of the graph. Nodes are created using the createNode() method of the SceneGraph.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class SceneNode
+{
+    int index;
+
+    private SceneGraph      graph;
+    private SceneNode       parent;
+    private List<SceneNode> children;
+
+    private Entity2D entity2D;
+    private Entity3D entity3D;
+
+    SceneNode(SceneGraph graph, int index)
+    {
+        this.graph = graph;
+        this.index = index;
+
+        children = new ArrayList<>();
+    }
+
+    /**
+     * Adds a child to this node. The child is removed from its previous parent, and keeps its local transform, which
+     * is now relative to this node.
+     *
+     * @param child The node to add as a child.
+     */
+    public void addChild(SceneNode child)
+    {
+        checkValid();
+
+        if (child.graph != graph)
+            throw new SilenceException("Cannot add a node from a different SceneGraph");
+
+        for (SceneNode n = this; n != null; n = n.parent)
+            if (n == child)
+                throw new SilenceException("Cannot add a node as a child of its own descendant");
+
+        graph.reparent(child, this);
+        child.parent = this;
+    }
+
+    /**
+     * Detaches a child from this node, making it a root node of the graph.
+     *
+     * @param child The child to detach.
+     */
+    public void removeChild(SceneNode child)
+    {
+        checkValid();
+
+        if (child.parent != this)
+            return;
+
+        graph.reparent(child, null);
+        child.parent = null;
+    }
+
+    public SceneNode setPosition(float x, float y)
+    {
+        return setPosition(x, y, 0);
+    }
+
+    public SceneNode setPosition(Vector3 position)
+    {
+        return setPosition(position.x, position.y, position.z);
+    }
+
+    public SceneNode setPosition(float x, float y, float z)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        locals[l] = x;
+        locals[l + 1] = y;
+        locals[l + 2] = z;
+
+        graph.markDirty(index);
+        return this;
+    }
+
+    public SceneNode translate(float x, float y, float z)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        return setPosition(locals[l] + x, locals[l + 1] + y, locals[l + 2] + z);
+    }
+
+    /**
+     * Sets the rotation of this node, in 2D. This is a rotation around the Z-axis.
+     *
+     * @param angle The angle of rotation (in degrees)
+     *
+     * @return This node.
+     */
+    public SceneNode setRotation(float angle)
+    {
+        return setRotation(Vector3.AXIS_Z, angle);
+    }
+
+    public SceneNode setRotation(Vector3 axis, float angle)
+    {
+        Quaternion temp = Quaternion.REUSABLE_STACK.pop();
+        setRotation(temp.set(axis, angle));
+        Quaternion.REUSABLE_STACK.push(temp);
+
+        return this;
+    }
+
+    public SceneNode setRotation(Quaternion rotation)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        locals[l + 3] = rotation.x;
+        locals[l + 4] = rotation.y;
+        locals[l + 5] = rotation.z;
+        locals[l + 6] = rotation.w;
+
+        graph.markDirty(index);
+        return this;
+    }
+
+    public SceneNode setScale(float sx, float sy)
+    {
+        return setScale(sx, sy, 1);
+    }
+
+    public SceneNode setScale(float sx, float sy, float sz)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        locals[l + 7] = sx;
+        locals[l + 8] = sy;
+        locals[l + 9] = sz;
+
+        graph.markDirty(index);
+        return this;
+    }
+
+    public Vector3 getPosition(Vector3 dest)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        return dest.set(locals[l], locals[l + 1], locals[l + 2]);
+    }
+
+    public Quaternion getRotation(Quaternion dest)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        return dest.set(locals[l + 3], locals[l + 4], locals[l + 5], locals[l + 6]);
+    }
+
+    public Vector3 getScale(Vector3 dest)
+    {
+        checkValid();
+
+        float[] locals = graph.getLocals();
+        int l = index * SceneGraph.LOCAL_SIZE;
+
+        return dest.set(locals[l + 7], locals[l + 8], locals[l + 9]);
+    }
+
+    /**
+     * Gets the world matrix of this node, updating the graph first if anything changed.
+     *
+     * @param dest The matrix to store the result in.
+     *
+     * @return The dest matrix.
+     */
+    public Matrix4 getWorldMatrix(Matrix4 dest)
+    {
+        checkValid();
+        graph.ensureUpdated();
+        graph.getWorldMatrix(index, dest);
+
+        return dest;
+    }
+
+    /**
+     * Gets the position of this node in the world, updating the graph first if anything changed.
+     *
+     * @param dest The vector to store the result in.
+     *
+     * @return The dest vector.
+     */
+    public Vector3 getWorldPosition(Vector3 dest)
+    {
+        checkValid();
+        graph.ensureUpdated();
+        graph.getWorldPosition(index, dest);
+
+        return dest;
+    }
+
+    /**
+     * Attaches a 2D entity to this node. The position and the rotation of the entity are set from the world transform
+     * of this node on every update of the graph, replacing any movement of the entity itself.
+     *
+     * @param entity The entity to attach, or null to detach.
+     */
+    public void attach(Entity2D entity)
+    {
+        entity2D = entity;
+        entity3D = null;
+    }
+
+    /**
+     * Attaches a 3D entity to this node. The position and the transform of the entity are set from the world transform
+     * of this node on every update of the graph, replacing any movement of the entity itself.
+     *
+     * @param entity The entity to attach, or null to detach.
+     */
+    public void attach(Entity3D entity)
+    {
+        entity3D = entity;
+        entity2D = null;
+    }
+
+    void syncEntity()
+    {
+        if (entity3D != null && !entity3D.isDestroyed())
+        {
+            Vector3 temp = Vector3.REUSABLE_STACK.pop();
+            graph.getWorldPosition(index, temp);
+
+            entity3D.getPosition().set(temp);
+            entity3D.getPolyhedron().setPosition(temp);
+            graph.getWorldMatrix(index, entity3D.getTransform().getMatrix());
+
+            Vector3.REUSABLE_STACK.push(temp);
+        }
+        else if (entity2D != null && !entity2D.isDestroyed())
+        {
+            float[] worlds = graph.getWorlds();
+            int w = index * SceneGraph.WORLD_SIZE;
+
+            Vector2 temp = Vector2.REUSABLE_STACK.pop();
+            entity2D.setPosition(temp.set(worlds[w + 9], worlds[w + 10]));
+            Vector2.REUSABLE_STACK.push(temp);
+
+            float rotation = (float) Math.toDegrees(Math.atan2(worlds[w + 1], worlds[w]));
+
+            // Rotating the polygon recomputes its vertices, so only do it when needed
+            if (entity2D.getRotation() != rotation)
+                entity2D.setRotation(rotation);
+        }
+    }
+
+    void release()
+    {
+        graph = null;
+        index = -1;
+    }
+
+    private void checkValid()
+    {
+        if (graph == null)
+            throw new SilenceException("The SceneNode is removed from its SceneGraph");
+    }
+
+    public SceneGraph getGraph()
+    {
+        return graph;
+    }
+
+    public SceneNode getParent()
+    {
+        return parent;
+    }
+
+    public List<SceneNode> getChildren()
+    {
+        return children;
+    }
+
+    public Entity2D getEntity2D()
+    {
+        return entity2D;
+    }
+
+    public Entity3D getEntity3D()
+    {
+        return entity3D;
+    }
+}
@@ -29,6 +29,10 @@
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * @author Sri Harsha Chilakapati
  */
@@ -70,6 +74,29 @@ public void parse(Node node, FilePath tmxPath)
         }
     }
 
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeByte(format == null ? -1 : format.ordinal());
+
+        TmxMapCache.writeFilePath(out, source);
+        TmxMapCache.writeColor(out, trans);
+
+        out.writeInt(width);
+        out.writeInt(height);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        int formatIndex = buffer.get();
+        format = formatIndex == -1 ? null : Format.values()[formatIndex];
+
+        source = TmxMapCache.readFilePath(buffer);
+        trans = TmxMapCache.readColor(buffer);
+
+        width = buffer.getInt();
+        height = buffer.getInt();
+    }
+
     public Format getFormat()
     {
         return format;
@@ -31,13 +31,19 @@
 import com.shc.silenceengine.scene.tiled.layers.TmxMapLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxObjectLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
+import com.shc.silenceengine.utils.XMLUtils;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -76,7 +82,47 @@
 
     private TmxProperties properties;
 
+    // The index of the tileset of every GID
+    private int[] tileSetTable;
+
     public TmxMap(FilePath filePath)
+    {
+        initialize(filePath);
+
+        try (InputStream inputStream = filePath.getInputStream())
+        {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+
+            // Move to the root element
+            while (reader.next() != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            if (!reader.getLocalName().equals("map"))
+                throw new SilenceException("Invalid TMX map file. The first child must be a <map> element.");
+
+            parse(reader);
+            reader.close();
+        }
+        catch (Exception e)
+        {
+            if (!(e instanceof SilenceException))
+                SilenceException.reThrow(e);
+        }
+    }
+
+    /**
+     * Reads a map compiled by the {@link TmxMapCache}.
+     *
+     * @param filePath The path of the TMX file of the map.
+     * @param buffer   The buffer of the compiled map, positioned after the header.
+     */
+    TmxMap(FilePath filePath, ByteBuffer buffer)
+    {
+        initialize(filePath);
+        read(buffer);
+    }
+
+    private void initialize(FilePath filePath)
     {
         version = 1.0;
 
@@ -96,26 +142,6 @@ public TmxMap(FilePath filePath)
         backgroundColor = Color.TRANSPARENT;
 
         this.filePath = filePath;
-
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        try
-        {
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document document = dBuilder.parse(filePath.getInputStream());
-            document.getDocumentElement().normalize();
-
-            Node mapNode = document.getDocumentElement();
-
-            if (!mapNode.getNodeName().equals("map"))
-                throw new SilenceException("Invalid TMX map file. The first child must be a <map> element.");
-
-            parse(mapNode);
-        }
-        catch (Exception e)
-        {
-            if (!(e instanceof SilenceException))
-                SilenceException.reThrow(e);
-        }
     }
 
     public Orientation getOrientation()
@@ -243,28 +269,48 @@ public List<TmxImageLayer> getImageLayers()
         return imageLayers;
     }
 
+    /**
+     * Finds the index of the tileset of a tile, with a table of the tilesets of all the GIDs in the tilesets. The
+     * table is built the first time it is needed after a tileset is added.
+     *
+     * @param gid The GID of the tile, the flip flags are ignored.
+     *
+     * @return The index of the tileset, or -1 if the GID is not in any tileset.
+     */
     public int findTileSetIndex(int gid)
     {
         gid &= ~(FLIPPED_HORIZONTALLY_FLAG | FLIPPED_VERTICALLY_FLAG | FLIPPED_DIAGONALLY_FLAG);
 
-        for (int i = getNumTileSets() - 1; i >= 0; i--)
-        {
-            if (gid >= getTileset(i).getFirstGID())
-                return i;
-        }
+        if (tileSetTable == null)
+            buildTileSetTable();
+
+        if (gid < tileSetTable.length)
+            return tileSetTable[gid];
 
-        return -1;
+        // The GIDs after the last tileset are in the last tileset, like they were before the table
+        return tileSets.isEmpty() ? -1 : tileSets.size() - 1;
     }
 
-    public TmxTileSet findTileset(int gid)
+    private void buildTileSetTable()
     {
-        for (int i = getNumTileSets() - 1; i >= 0; i--)
-        {
-            if (gid >= getTileset(i).getFirstGID())
-                return getTileset(i);
-        }
+        int maxGID = 0;
+
+        for (TmxTileSet tileSet : tileSets)
+            maxGID = Math.max(maxGID, tileSet.getFirstGID() + tileSet.getTiles().size());
+
+        tileSetTable = new int[maxGID];
+
+        // The tilesets are in the order of their first GIDs, so the later ones overwrite the range after them
+        Arrays.fill(tileSetTable, -1);
+
+        for (int i = 0; i < tileSets.size(); i++)
+            Arrays.fill(tileSetTable, Math.min(tileSets.get(i).getFirstGID(), maxGID), maxGID, i);
+    }
 
-        return null;
+    public TmxTileSet findTileset(int gid)
+    {
+        int index = findTileSetIndex(gid);
+        return index == -1 ? null : getTileset(index);
     }
 
     public TmxTileSet getTileset(int index)
@@ -287,31 +333,33 @@ public TmxProperties getProperties()
         return properties;
     }
 
-    private void parse(Node node)
+    private void parse(XMLStreamReader reader) throws Exception
     {
-        Element element = (Element) node;
+        version = XMLUtils.getDoubleAttribute(reader, "version", 1.0);
+        width = XMLUtils.getIntAttribute(reader, "width", 0);
+        height = XMLUtils.getIntAttribute(reader, "height", 0);
+        tileWidth = XMLUtils.getIntAttribute(reader, "tilewidth", 0);
+        tileHeight = XMLUtils.getIntAttribute(reader, "tileheight", 0);
+        nextObjectID = XMLUtils.getIntAttribute(reader, "nextobjectid", 0);
 
-        version = Double.parseDouble(element.getAttribute("version"));
-        width = Integer.parseInt(element.getAttribute("width"));
-        height = Integer.parseInt(element.getAttribute("height"));
-        tileWidth = Integer.parseInt(element.getAttribute("tilewidth"));
-        tileHeight = Integer.parseInt(element.getAttribute("tileheight"));
-        nextObjectID = Integer.parseInt(element.getAttribute("nextobjectid"));
+        String background = reader.getAttributeValue(null, "background");
 
-        if (element.hasAttribute("background"))
+        if (background != null)
         {
-            String hexColor = element.getAttribute("background").trim();
+            String hexColor = background.trim();
             if (hexColor.startsWith("#"))
                 hexColor = hexColor.substring(1);
 
             backgroundColor = new Color(Integer.parseInt(hexColor, 16));
         }
 
-        orientation = Orientation.valueOf(element.getAttribute("orientation").trim().toUpperCase());
+        orientation = Orientation.valueOf(reader.getAttributeValue(null, "orientation").trim().toUpperCase());
+
+        String attribute = reader.getAttributeValue(null, "renderorder");
 
-        if (element.hasAttribute("renderorder"))
+        if (attribute != null)
         {
-            switch (element.getAttribute("renderorder").trim().toLowerCase())
+            switch (attribute.trim().toLowerCase())
             {
                 case "right-down":
                     renderOrder = RenderOrder.RIGHT_DOWN;
@@ -328,9 +376,11 @@ private void parse(Node node)
             }
         }
 
-        if (element.hasAttribute("staggeraxis"))
+        attribute = reader.getAttributeValue(null, "staggeraxis");
+
+        if (attribute != null)
         {
-            switch (element.getAttribute("staggeraxis").trim().toLowerCase())
+            switch (attribute.trim().toLowerCase())
             {
                 case "x":
                     staggerAxis = StaggerAxis.AXIS_X;
@@ -341,9 +391,11 @@ private void parse(Node node)
             }
         }
 
-        if (element.hasAttribute("staggerindex"))
+        attribute = reader.getAttributeValue(null, "staggerindex");
+
+        if (attribute != null)
         {
-            switch (element.getAttribute("staggerindex").trim().toLowerCase())
+            switch (attribute.trim().toLowerCase())
             {
                 case "even":
                     staggerIndex = StaggerIndex.EVEN;
@@ -354,46 +406,147 @@ private void parse(Node node)
             }
         }
 
-        if (element.hasAttribute("hexsidelength"))
-            hexSideLength = Integer.parseInt(element.getAttribute("hexsidelength"));
+        hexSideLength = XMLUtils.getIntAttribute(reader, "hexsidelength", hexSideLength);
 
-        // Read all other elements
-        Node child = node.getFirstChild();
+        // The small elements are read into DOM trees, but the tile layers are streamed into the layers
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
 
-        while (child != null)
+        // Read all other elements
+        while (reader.next() != XMLStreamConstants.END_ELEMENT)
         {
-            switch (child.getNodeName().trim().toLowerCase())
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            switch (reader.getLocalName().trim().toLowerCase())
             {
                 case "properties":
-                    properties.parse(child);
+                    properties.parse(reader);
                     break;
 
                 case "tileset":
                     TmxTileSet tileSet = new TmxTileSet();
-                    tileSet.parse(child, filePath);
+                    tileSet.parse(XMLUtils.readElement(reader, document), filePath);
                     tileSets.add(tileSet);
+                    tileSetTable = null;
                     break;
 
                 case "layer":
                     TmxTileLayer tileLayer = new TmxTileLayer(this);
-                    tileLayer.parse(child);
+                    tileLayer.parse(reader);
                     tileLayers.add(tileLayer);
                     break;
 
                 case "imagelayer":
                     TmxImageLayer imageLayer = new TmxImageLayer(this);
-                    imageLayer.parse(child);
+                    imageLayer.parse(XMLUtils.readElement(reader, document));
                     imageLayers.add(imageLayer);
                     break;
 
                 case "objectgroup":
                     TmxObjectLayer objectLayer = new TmxObjectLayer(this);
-                    objectLayer.parse(child);
+                    objectLayer.parse(XMLUtils.readElement(reader, document));
                     objectLayers.add(objectLayer);
                     break;
+
+                default:
+                    XMLUtils.skipElement(reader);
             }
+        }
+
+        layers.addAll(tileLayers);
+        layers.addAll(imageLayers);
+        layers.addAll(objectLayers);
+    }
+
+    /**
+     * Writes this map into the format of the {@link TmxMapCache}.
+     */
+    void write(DataOutputStream out) throws IOException
+    {
+        out.writeDouble(version);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+        out.writeInt(nextObjectID);
+        out.writeInt(hexSideLength);
+
+        TmxMapCache.writeColor(out, backgroundColor);
+
+        out.writeByte(orientation.ordinal());
+        out.writeByte(renderOrder.ordinal());
+        out.writeByte(staggerAxis.ordinal());
+        out.writeByte(staggerIndex.ordinal());
+
+        properties.write(out);
+
+        out.writeInt(tileSets.size());
 
-            child = child.getNextSibling();
+        for (TmxTileSet tileSet : tileSets)
+            tileSet.write(out);
+
+        out.writeInt(tileLayers.size());
+
+        for (TmxTileLayer tileLayer : tileLayers)
+            tileLayer.write(out);
+
+        out.writeInt(imageLayers.size());
+
+        for (TmxImageLayer imageLayer : imageLayers)
+            imageLayer.write(out);
+
+        out.writeInt(objectLayers.size());
+
+        for (TmxObjectLayer objectLayer : objectLayers)
+            objectLayer.write(out);
+    }
+
+    private void read(ByteBuffer buffer)
+    {
+        version = buffer.getDouble();
+        width = buffer.getInt();
+        height = buffer.getInt();
+        tileWidth = buffer.getInt();
+        tileHeight = buffer.getInt();
+        nextObjectID = buffer.getInt();
+        hexSideLength = buffer.getInt();
+
+        backgroundColor = TmxMapCache.readColor(buffer);
+
+        orientation = Orientation.values()[buffer.get()];
+        renderOrder = RenderOrder.values()[buffer.get()];
+        staggerAxis = StaggerAxis.values()[buffer.get()];
+        staggerIndex = StaggerIndex.values()[buffer.get()];
+
+        properties.read(buffer);
+
+        // The tilesets are read first, as the tile layers find the tilesets of their tiles
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxTileSet tileSet = new TmxTileSet();
+            tileSet.read(buffer);
+            tileSets.add(tileSet);
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxTileLayer tileLayer = new TmxTileLayer(this);
+            tileLayer.read(buffer);
+            tileLayers.add(tileLayer);
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxImageLayer imageLayer = new TmxImageLayer(this);
+            imageLayer.read(buffer);
+            imageLayers.add(imageLayer);
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxObjectLayer objectLayer = new TmxObjectLayer(this);
+            objectLayer.read(buffer);
+            objectLayers.add(objectLayer);
         }
 
         layers.addAll(tileLayers);
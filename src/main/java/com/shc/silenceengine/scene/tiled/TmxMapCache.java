@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled;
+
+import com.shc.silenceengine.graphics.Color;
+import com.shc.silenceengine.io.FilePath;
+import com.shc.silenceengine.utils.FileUtils;
+import com.shc.silenceengine.utils.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p> A cache of the TMX maps compiled into a binary format, that is loaded much faster than parsing the XML of the map
+ * and its external tilesets. The compiled map is written next to the TMX file, or into a cache directory, the first
+ * time the map is loaded, and is memory mapped when the map is loaded again. </p>
+ *
+ * <p> The compiled file starts with a header that lists the TMX file and its external TSX tilesets, with their sizes,
+ * times of modification and CRC32 checksums. The cache is used only if all of them are unchanged. The checksums are
+ * only computed when the size or the time of a file differ, so a fresh checkout of unchanged files still uses the
+ * cache. After the header come the map, its tilesets, and the tile, image and object layers, with the GIDs of the tile
+ * layers stored as raw arrays of integers. </p>
+ *
+ * <pre>
+ *     TmxMap map = TmxMapCache.load(FilePath.getExternalFile("maps/level1.tmx"));
+ * </pre>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public final class TmxMapCache
+{
+    /**
+     * The extension of the compiled map files.
+     */
+    public static final String EXTENSION = "tmxc";
+
+    private static final int MAGIC = 0x544D5843;
+
+    // Change this whenever the layout of the compiled maps changes
+    private static final int FORMAT_VERSION = 2;
+
+    private TmxMapCache()
+    {
+    }
+
+    /**
+     * Loads a map from the compiled file next to it, compiling the map if the file is missing or out of date. If the
+     * map is a resource, a compiled file packed next to it is used, but it is never written.
+     *
+     * @param source The path of the TMX file.
+     *
+     * @return The loaded map.
+     */
+    public static TmxMap load(FilePath source)
+    {
+        return load(source, source.getParent().getChild(source.getName() + "." + EXTENSION));
+    }
+
+    /**
+     * Loads a map from a compiled file in a cache directory, compiling the map if the file is missing or out of date.
+     * The name of the compiled file includes the hash of the path of the map, so maps with the same names don't clash.
+     *
+     * @param source         The path of the TMX file.
+     * @param cacheDirectory The directory to keep the compiled map in.
+     *
+     * @return The loaded map.
+     */
+    public static TmxMap loadFromDirectory(FilePath source, FilePath cacheDirectory)
+    {
+        String name = source.getNameWithoutExtension() + "-"
+                      + Integer.toHexString(source.getAbsolutePath().hashCode()) + "." + EXTENSION;
+
+        try
+        {
+            if (!cacheDirectory.exists())
+                cacheDirectory.mkdirs();
+        }
+        catch (IOException e)
+        {
+            Logger.warn("Unable to create the map cache directory " + cacheDirectory + ": " + e.getMessage());
+        }
+
+        return load(source, FilePath.getExternalFile(cacheDirectory.getPath() + FilePath.SEPARATOR + name));
+    }
+
+    private static TmxMap load(FilePath source, FilePath compiled)
+    {
+        if (compiled.exists())
+        {
+            try
+            {
+                TmxMap map = read(source, compiled);
+
+                if (map != null)
+                    return map;
+            }
+            catch (Exception e)
+            {
+                Logger.warn("Unable to read the compiled map " + compiled + ", compiling it again: " + e.getMessage());
+            }
+        }
+
+        TmxMap map = new TmxMap(source);
+
+        if (compiled.getType() == FilePath.Type.EXTERNAL)
+        {
+            try
+            {
+                write(map, compiled);
+            }
+            catch (Exception e)
+            {
+                Logger.warn("Unable to write the compiled map " + compiled + ": " + e.getMessage());
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Reads a map from a compiled file, if the compiled file is up to date with the map.
+     *
+     * @return The map, or null if the compiled file is out of date.
+     */
+    private static TmxMap read(FilePath source, FilePath compiled) throws IOException
+    {
+        ByteBuffer buffer;
+
+        if (compiled.getType() == FilePath.Type.EXTERNAL)
+        {
+            try (FileChannel channel = FileChannel.open(Paths.get(compiled.getPath()), StandardOpenOption.READ))
+            {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        else
+            buffer = FileUtils.readToByteBuffer(compiled);
+
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+            return null;
+
+        int numSources = buffer.getInt();
+
+        for (int i = 0; i < numSources; i++)
+        {
+            FilePath path = readFilePath(buffer);
+
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            long checksum = buffer.getLong();
+
+            // The compiled map is only valid for the map at the same path
+            if (i == 0 && !path.equals(source))
+                return null;
+
+            if (!path.exists())
+                return null;
+
+            if (path.sizeInBytes() == size && path.lastModified() == lastModified)
+                continue;
+
+            if (path.sizeInBytes() != size || computeChecksum(path) != checksum)
+                return null;
+        }
+
+        return new TmxMap(source, buffer);
+    }
+
+    /**
+     * Compiles a map into a file. The map is first written to a temporary file, which then replaces the compiled file,
+     * so a map that is loaded at the same time never sees a partially written file.
+     *
+     * @param map      The map to compile.
+     * @param compiled The path of the compiled file.
+     */
+    public static void write(TmxMap map, FilePath compiled) throws IOException
+    {
+        List<FilePath> sources = new ArrayList<>();
+        sources.add(map.getFilePath());
+
+        for (TmxTileSet tileSet : map.getTileSets())
+        {
+            if (tileSet.getSource() != null && !sources.contains(tileSet.getSource()))
+                sources.add(tileSet.getSource());
+        }
+
+        FilePath temp = FilePath.getExternalFile(compiled.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(temp.getOutputStream())))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(sources.size());
+
+            for (FilePath path : sources)
+            {
+                writeFilePath(out, path);
+
+                out.writeLong(path.sizeInBytes());
+                out.writeLong(path.lastModified());
+                out.writeLong(computeChecksum(path));
+            }
+
+            map.write(out);
+        }
+
+        temp.moveTo(compiled);
+    }
+
+    private static long computeChecksum(FilePath path) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[8192];
+
+        try (InputStream inputStream = path.getInputStream())
+        {
+            int read;
+
+            while ((read = inputStream.read(bytes)) > 0)
+                crc.update(bytes, 0, read);
+        }
+
+        return crc.getValue();
+    }
+
+    public static void writeString(DataOutputStream out, String string) throws IOException
+    {
+        if (string == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+
+        if (length == -1)
+            return null;
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeFilePath(DataOutputStream out, FilePath path) throws IOException
+    {
+        out.writeByte(path == null ? -1 : path.getType().ordinal());
+
+        if (path != null)
+            writeString(out, path.getPath());
+    }
+
+    public static FilePath readFilePath(ByteBuffer buffer)
+    {
+        int type = buffer.get();
+
+        if (type == -1)
+            return null;
+
+        String path = readString(buffer);
+
+        return FilePath.Type.values()[type] == FilePath.Type.EXTERNAL ? FilePath.getExternalFile(path)
+                                                                      : FilePath.getResourceFile(path);
+    }
+
+    public static void writeColor(DataOutputStream out, Color color) throws IOException
+    {
+        out.writeFloat(color.getRed());
+        out.writeFloat(color.getGreen());
+        out.writeFloat(color.getBlue());
+        out.writeFloat(color.getAlpha());
+    }
+
+    public static Color readColor(ByteBuffer buffer)
+    {
+        return new Color(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+}
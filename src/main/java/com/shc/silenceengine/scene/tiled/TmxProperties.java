@@ -25,9 +25,17 @@
 package com.shc.silenceengine.scene.tiled;
 
 import com.shc.silenceengine.utils.MathUtils;
+import com.shc.silenceengine.utils.XMLUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,6 +47,15 @@
  */
 public class TmxProperties
 {
+    // The types of the values in the compiled maps
+    private static final int TYPE_BOOLEAN = 0;
+    private static final int TYPE_SHORT   = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG    = 3;
+    private static final int TYPE_FLOAT   = 4;
+    private static final int TYPE_DOUBLE  = 5;
+    private static final int TYPE_STRING  = 6;
+
     private Map<String, Object> properties;
 
     public TmxProperties()
@@ -106,37 +123,143 @@ public void parse(Node node)
     {
         Element element = (Element) node;
 
-        Node property = element.getElementsByTagName("property").item(0);
+        NodeList properties = element.getElementsByTagName("property");
+
+        for (int i = 0; i < properties.getLength(); i++)
+        {
+            Element propertyElement = (Element) properties.item(i);
+
+            putParsed(propertyElement.getAttribute("name"), propertyElement.getAttribute("value"));
+        }
+    }
 
-        while (property != null)
+    /**
+     * Reads the properties from a streaming reader, which is at the start of the properties element.
+     *
+     * @param reader The reader at the start of the properties element. It is left at the end of the element.
+     */
+    public void parse(XMLStreamReader reader) throws XMLStreamException
+    {
+        while (true)
         {
-            Element propertyElement = (Element) property;
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                if (reader.getLocalName().equals("property"))
+                    putParsed(reader.getAttributeValue(null, "name"), XMLUtils.getAttribute(reader, "value", ""));
 
-            String name = propertyElement.getAttribute("name");
-            String value = propertyElement.getAttribute("value");
+                XMLUtils.skipElement(reader);
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                return;
+        }
+    }
 
-            if (MathUtils.isBoolean(value))
-                put(name, Boolean.parseBoolean(value));
+    private void putParsed(String name, String value)
+    {
+        if (MathUtils.isBoolean(value))
+            put(name, Boolean.parseBoolean(value));
 
-            else if (MathUtils.isShort(value))
-                put(name, Short.parseShort(value));
+        else if (MathUtils.isShort(value))
+            put(name, Short.parseShort(value));
 
-            else if (MathUtils.isInteger(value))
-                put(name, Integer.parseInt(value));
+        else if (MathUtils.isInteger(value))
+            put(name, Integer.parseInt(value));
 
-            else if (MathUtils.isLong(value))
-                put(name, Long.parseLong(value));
+        else if (MathUtils.isLong(value))
+            put(name, Long.parseLong(value));
 
-            else if (MathUtils.isFloat(value))
-                put(name, Float.parseFloat(value));
+        else if (MathUtils.isFloat(value))
+            put(name, Float.parseFloat(value));
 
-            else if (MathUtils.isDouble(value))
-                put(name, Double.parseDouble(value));
+        else if (MathUtils.isDouble(value))
+            put(name, Double.parseDouble(value));
 
+        else
+            put(name, value);
+    }
+
+    /**
+     * Writes these properties into the format of the {@link TmxMapCache}, with the type of every value.
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(properties.size());
+
+        for (Map.Entry<String, Object> entry : properties.entrySet())
+        {
+            TmxMapCache.writeString(out, entry.getKey());
+
+            Object value = entry.getValue();
+
+            if (value instanceof Boolean)
+            {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof Short)
+            {
+                out.writeByte(TYPE_SHORT);
+                out.writeShort((Short) value);
+            }
+            else if (value instanceof Integer)
+            {
+                out.writeByte(TYPE_INTEGER);
+                out.writeInt((Integer) value);
+            }
+            else if (value instanceof Long)
+            {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            }
+            else if (value instanceof Float)
+            {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            }
+            else if (value instanceof Double)
+            {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble((Double) value);
+            }
             else
-                put(name, value);
+            {
+                out.writeByte(TYPE_STRING);
+                TmxMapCache.writeString(out, String.valueOf(value));
+            }
+        }
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            String key = TmxMapCache.readString(buffer);
 
-            property = property.getNextSibling();
+            switch (buffer.get())
+            {
+                case TYPE_BOOLEAN:
+                    put(key, buffer.get() != 0);
+                    break;
+                case TYPE_SHORT:
+                    put(key, buffer.getShort());
+                    break;
+                case TYPE_INTEGER:
+                    put(key, buffer.getInt());
+                    break;
+                case TYPE_LONG:
+                    put(key, buffer.getLong());
+                    break;
+                case TYPE_FLOAT:
+                    put(key, buffer.getFloat());
+                    break;
+                case TYPE_DOUBLE:
+                    put(key, buffer.getDouble());
+                    break;
+                default:
+                    put(key, TmxMapCache.readString(buffer));
+            }
         }
     }
 }
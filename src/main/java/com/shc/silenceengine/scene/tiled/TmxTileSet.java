@@ -35,6 +35,9 @@
 import org.w3c.dom.NodeList;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,6 +50,9 @@
 
     private String name;
 
+    // The path of the external TSX file of this tileset, null if it is in the map
+    private FilePath source;
+
     private int tileWidth;
     private int tileHeight;
     private int spacing;
@@ -81,6 +87,7 @@ public void parse(Node node, FilePath path)
             if (element.hasAttribute("source"))
             {
                 path = path.getParent().getChild(element.getAttribute("source"));
+                source = path;
 
                 Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(path.getInputStream());
 
@@ -109,19 +116,12 @@ public void parse(Node node, FilePath path)
             tileOffset.y = Float.parseFloat(childElement.getAttribute("y"));
         }
 
-        nodes = element.getElementsByTagName("terraintypes");
-        if (nodes.getLength() > 0)
+        nodes = element.getElementsByTagName("terrain");
+        for (int i = 0; i < nodes.getLength(); i++)
         {
-            Node terrain = nodes.item(0);
-
-            while (terrain != null)
-            {
-                TmxTerrain terrainType = new TmxTerrain();
-                terrainType.parse(terrain);
-                terrainTypes.add(terrainType);
-
-                terrain = terrain.getNextSibling();
-            }
+            TmxTerrain terrainType = new TmxTerrain();
+            terrainType.parse(nodes.item(i));
+            terrainTypes.add(terrainType);
         }
 
         nodes = element.getElementsByTagName("image");
@@ -140,19 +140,12 @@ public void parse(Node node, FilePath path)
         }
 
         nodes = element.getElementsByTagName("tile");
-        if (nodes.getLength() > 0)
+        for (int i = 0; i < nodes.getLength(); i++)
         {
-            Node tileNode = nodes.item(0);
-
-            while (tileNode != null)
-            {
-                TmxTile tile = new TmxTile();
-                tile.parse(tileNode);
+            Node tileNode = nodes.item(i);
 
-                tiles.get(tile.getID()).parse(tileNode);
-
-                tileNode = tileNode.getNextSibling();
-            }
+            int tileID = Integer.parseInt(((Element) tileNode).getAttribute("id"));
+            tiles.get(tileID).parse(tileNode);
         }
 
         nodes = element.getElementsByTagName("properties");
@@ -162,6 +155,81 @@ public void parse(Node node, FilePath path)
         }
     }
 
+    /**
+     * Writes this tileset into the format of the {@link TmxMapCache}. The tilesets in external TSX files are written
+     * along with the map, so the TSX files are not read when the compiled map is loaded.
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(firstGID);
+
+        TmxMapCache.writeString(out, name);
+        TmxMapCache.writeFilePath(out, source);
+
+        out.writeInt(tileWidth);
+        out.writeInt(tileHeight);
+        out.writeInt(spacing);
+        out.writeInt(margin);
+
+        out.writeFloat(tileOffset.x);
+        out.writeFloat(tileOffset.y);
+
+        out.writeBoolean(image != null);
+
+        if (image != null)
+            image.write(out);
+
+        out.writeInt(terrainTypes.size());
+
+        for (TmxTerrain terrainType : terrainTypes)
+            terrainType.write(out);
+
+        out.writeInt(tiles.size());
+
+        for (TmxTile tile : tiles)
+            tile.write(out);
+
+        properties.write(out);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        firstGID = buffer.getInt();
+
+        name = TmxMapCache.readString(buffer);
+        source = TmxMapCache.readFilePath(buffer);
+
+        tileWidth = buffer.getInt();
+        tileHeight = buffer.getInt();
+        spacing = buffer.getInt();
+        margin = buffer.getInt();
+
+        tileOffset.x = buffer.getFloat();
+        tileOffset.y = buffer.getFloat();
+
+        if (buffer.get() != 0)
+        {
+            image = new TmxImage();
+            image.read(buffer);
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxTerrain terrainType = new TmxTerrain();
+            terrainType.read(buffer);
+            terrainTypes.add(terrainType);
+        }
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxTile tile = new TmxTile();
+            tile.read(buffer);
+            tiles.add(tile);
+        }
+
+        properties.read(buffer);
+    }
+
     public int getFirstGID()
     {
         return firstGID;
@@ -172,6 +240,14 @@ public String getName()
         return name;
     }
 
+    /**
+     * @return The path of the external TSX file of this tileset, or null if the tileset is in the map.
+     */
+    public FilePath getSource()
+    {
+        return source;
+    }
+
     public int getTileWidth()
     {
         return tileWidth;
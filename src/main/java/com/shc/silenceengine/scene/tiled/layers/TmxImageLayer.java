@@ -30,6 +30,10 @@
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * @author Sri Harsha Chilakapati
  */
@@ -66,6 +70,29 @@ public void parse(Node node)
             properties.parse(nodes.item(0));
     }
 
+    @Override
+    public void write(DataOutputStream out) throws IOException
+    {
+        super.write(out);
+
+        out.writeBoolean(image != null);
+
+        if (image != null)
+            image.write(out);
+    }
+
+    @Override
+    public void read(ByteBuffer buffer)
+    {
+        super.read(buffer);
+
+        if (buffer.get() != 0)
+        {
+            image = new TmxImage();
+            image.read(buffer);
+        }
+    }
+
     public TmxImage getImage()
     {
         return image;
@@ -25,8 +25,13 @@
 package com.shc.silenceengine.scene.tiled.layers;
 
 import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.TmxMapCache;
 import com.shc.silenceengine.scene.tiled.TmxProperties;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * @author Sri Harsha Chilakapati
  */
@@ -69,6 +74,39 @@ public TmxMapLayer(TmxMap map, String name,
         ++nextParseOrder;
     }
 
+    /**
+     * Writes the attributes that all the layers have into the format of the {@link TmxMapCache}.
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        TmxMapCache.writeString(out, name);
+
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(zOrder);
+        out.writeFloat(opacity);
+        out.writeBoolean(visible);
+
+        properties.write(out);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        name = TmxMapCache.readString(buffer);
+
+        x = buffer.getInt();
+        y = buffer.getInt();
+        width = buffer.getInt();
+        height = buffer.getInt();
+        zOrder = buffer.getInt();
+        opacity = buffer.getFloat();
+        visible = buffer.get() != 0;
+
+        properties.read(buffer);
+    }
+
     public TmxMap getMap()
     {
         return map;
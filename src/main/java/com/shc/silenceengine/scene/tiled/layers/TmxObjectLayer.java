@@ -26,11 +26,16 @@
 
 import com.shc.silenceengine.graphics.Color;
 import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.TmxMapCache;
 import com.shc.silenceengine.scene.tiled.objects.TmxObject;
+import com.shc.silenceengine.scene.tiled.objects.TmxObjectIndex;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -43,6 +48,9 @@ public class TmxObjectLayer extends TmxMapLayer
 
     private List<TmxObject> objects;
 
+    private TmxObjectIndex index;
+    private int            indexedObjects;
+
     public TmxObjectLayer(TmxMap map)
     {
         super(map, "", 0, 0, map.getWidth(), map.getHeight(), 1.0f, true, TmxLayerType.OBJECT);
@@ -71,6 +79,59 @@ public List<TmxObject> getObjects()
         return objects;
     }
 
+    /**
+     * Returns the spatial index over the objects of this layer, which is built when it is first needed. The index is
+     * built again when the number of objects is changed, but it has to be invalidated when the objects are moved or
+     * replaced.
+     *
+     * @return The spatial index over the objects of this layer.
+     */
+    public TmxObjectIndex getIndex()
+    {
+        if (index == null)
+            index = new TmxObjectIndex(objects);
+        else if (indexedObjects != objects.size())
+            index.build(objects);
+
+        indexedObjects = objects.size();
+        return index;
+    }
+
+    /**
+     * Invalidates the spatial index over the objects of this layer, so that it is built again when it is needed next.
+     */
+    public void invalidateIndex()
+    {
+        index = null;
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException
+    {
+        super.write(out);
+
+        TmxMapCache.writeColor(out, color);
+        out.writeInt(objects.size());
+
+        for (TmxObject object : objects)
+            object.write(out);
+    }
+
+    @Override
+    public void read(ByteBuffer buffer)
+    {
+        super.read(buffer);
+
+        color = TmxMapCache.readColor(buffer);
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxObject object = new TmxObject();
+            object.read(buffer);
+            objects.add(object);
+        }
+    }
+
     public void parse(Node node)
     {
         Element element = (Element) node;
@@ -24,26 +24,47 @@
 
 package com.shc.silenceengine.scene.tiled.layers;
 
-import com.shc.silenceengine.core.SilenceException;
 import com.shc.silenceengine.scene.tiled.TmxMap;
-import com.shc.silenceengine.scene.tiled.TmxTileSet;
+import com.shc.silenceengine.scene.tiled.TmxMapCache;
 import com.shc.silenceengine.scene.tiled.tiles.TmxMapTile;
-import com.shc.silenceengine.utils.CompressionUtils;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
+import com.shc.silenceengine.utils.XMLUtils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
+ * A layer of tiles in a TmxMap. The tiles are stored as a flat array of their GIDs, with the flip flags in the high
+ * bits like in the TMX format, and the indices of their tilesets are kept in a byte array next to them. None of the
+ * accessors of the tiles create any objects, except {@link #getTile(int, int)}.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class TmxTileLayer extends TmxMapLayer
 {
-    private TmxMapTile[] tileMap;
+    // The no. of tilesets whose indices fit in the byte array, the last value marks the empty tiles
+    private static final int MAX_INDEXED_TILESETS = 255;
+
+    private static final int FLIP_FLAGS = TmxMap.FLIPPED_HORIZONTALLY_FLAG | TmxMap.FLIPPED_VERTICALLY_FLAG
+                                          | TmxMap.FLIPPED_DIAGONALLY_FLAG;
+
+    // The GIDs of the tiles, with the flip flags, row by row
+    private int[] gids;
+
+    // The index of the tileset of every tile, 0xFF for the empty tiles. It is null when there are too many tilesets,
+    // and then the tilesets are found from the map.
+    private byte[] tileSetIndices;
+
+    private List<ITileChangeListener> tileChangeListeners;
 
     private Encoding    encoding;
     private Compression compression;
@@ -54,193 +75,379 @@ public TmxTileLayer(TmxMap map)
 
         encoding = Encoding.XML;
         compression = Compression.NONE;
+
+        tileChangeListeners = new ArrayList<>();
     }
 
-    public void parse(Node node)
+    /**
+     * Reads this layer from a streaming reader. The tile data is decoded as it is read, straight into an array of the
+     * GIDs, so neither the text of the data nor the decoded bytes are ever held in memory as a whole.
+     *
+     * @param reader The reader at the start of the layer element. It is left at the end of the element.
+     */
+    public void parse(XMLStreamReader reader) throws XMLStreamException, IOException
     {
-        Element element = (Element) node;
+        name = XMLUtils.getAttribute(reader, "name", "");
 
-        name = element.getAttribute("name");
+        x = XMLUtils.getIntAttribute(reader, "x", 0);
+        y = XMLUtils.getIntAttribute(reader, "y", 0);
 
-        x = element.hasAttribute("x") ? Integer.parseInt(element.getAttribute("x")) : 0;
-        y = element.hasAttribute("y") ? Integer.parseInt(element.getAttribute("y")) : 0;
+        opacity = XMLUtils.getFloatAttribute(reader, "opacity", 1.0f);
 
-        opacity = element.hasAttribute("opacity") ? Float.parseFloat(element.getAttribute("opacity")) : 1.0f;
-        visible = !element.hasAttribute("visible") || Boolean.parseBoolean(element.getAttribute("visible"));
+        String visibility = XMLUtils.getAttribute(reader, "visible", "true").trim();
+        visible = visibility.equals("1") || Boolean.parseBoolean(visibility);
 
-        NodeList nodes = element.getElementsByTagName("properties");
-        if (nodes.getLength() > 0)
-            properties.parse(nodes.item(0));
+        gids = new int[width * height];
 
-        tileMap = new TmxMapTile[width * height];
-
-        Element dataElement = (Element) element.getElementsByTagName("data").item(0);
-
-        if (dataElement.hasAttribute("encoding"))
+        while (reader.next() != XMLStreamConstants.END_ELEMENT)
         {
-            switch (dataElement.getAttribute("encoding").trim().toLowerCase())
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+                continue;
+
+            switch (reader.getLocalName())
             {
-                case "base64":
-                    encoding = Encoding.BASE64;
+                case "properties":
+                    properties.parse(reader);
                     break;
-                case "csv":
-                    encoding = Encoding.CSV;
+
+                case "data":
+                    parseData(reader, gids);
                     break;
 
                 default:
-                    encoding = Encoding.XML;
+                    XMLUtils.skipElement(reader);
             }
         }
 
-        if (dataElement.hasAttribute("compression"))
+        indexTileSets();
+    }
+
+    /**
+     * Writes this layer into the format of the {@link TmxMapCache}, with the GIDs as a plain array of integers.
+     */
+    @Override
+    public void write(DataOutputStream out) throws IOException
+    {
+        super.write(out);
+
+        out.writeByte(encoding.ordinal());
+        out.writeByte(compression.ordinal());
+
+        out.writeInt(gids.length);
+
+        for (int gid : gids)
+            out.writeInt(gid);
+    }
+
+    @Override
+    public void read(ByteBuffer buffer)
+    {
+        super.read(buffer);
+
+        encoding = Encoding.values()[buffer.get()];
+        compression = Compression.values()[buffer.get()];
+
+        gids = new int[buffer.getInt()];
+
+        // Copy the GIDs in bulk, and move the buffer past them
+        buffer.asIntBuffer().get(gids);
+        buffer.position(buffer.position() + gids.length * Integer.BYTES);
+
+        indexTileSets();
+    }
+
+    private void indexTileSets()
+    {
+        if (map.getNumTileSets() <= MAX_INDEXED_TILESETS)
         {
-            switch (dataElement.getAttribute("compression").trim().toLowerCase())
-            {
-                case "gzip":
-                    compression = Compression.GZIP;
-                    break;
-                case "zlib":
-                    compression = Compression.ZLIB;
-                    break;
+            tileSetIndices = new byte[gids.length];
 
-                default:
-                    compression = Compression.NONE;
-            }
+            for (int i = 0; i < gids.length; i++)
+                tileSetIndices[i] = (byte) map.findTileSetIndex(gids[i]);
+        }
+    }
+
+    private void parseData(XMLStreamReader reader, int[] gids) throws XMLStreamException, IOException
+    {
+        switch (XMLUtils.getAttribute(reader, "encoding", "").trim().toLowerCase())
+        {
+            case "base64":
+                encoding = Encoding.BASE64;
+                break;
+            case "csv":
+                encoding = Encoding.CSV;
+                break;
+
+            default:
+                encoding = Encoding.XML;
+        }
+
+        switch (XMLUtils.getAttribute(reader, "compression", "").trim().toLowerCase())
+        {
+            case "gzip":
+                compression = Compression.GZIP;
+                break;
+            case "zlib":
+                compression = Compression.ZLIB;
+                break;
+
+            default:
+                compression = Compression.NONE;
         }
 
         switch (encoding)
         {
             case XML:
-                parseXML(dataElement);
+                parseXML(reader, gids);
                 break;
 
             case BASE64:
-                parseBase64(dataElement.getTextContent());
+                parseBase64(reader, gids);
                 break;
 
             case CSV:
-                parseCSV(dataElement.getTextContent());
+                parseCSV(reader, gids);
                 break;
         }
     }
 
-    private void parseXML(Node node)
+    private void parseXML(XMLStreamReader reader, int[] gids) throws XMLStreamException
     {
-        NodeList nodes = ((Element) node).getElementsByTagName("tile");
+        int tileCount = 0;
 
-        for (int tileCount = 0; tileCount < nodes.getLength(); tileCount++)
+        while (reader.next() != XMLStreamConstants.END_ELEMENT)
         {
-            Element tileElement = (Element) nodes.item(tileCount);
+            if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+                continue;
 
-            int gid = Integer.parseUnsignedInt(tileElement.getAttribute("gid"));
-            int tileSetIndex = map.findTileSetIndex(gid);
-
-            if (tileSetIndex != -1)
+            if (reader.getLocalName().equals("tile") && tileCount < gids.length)
             {
-                TmxTileSet tileSet = map.getTileset(tileSetIndex);
-                tileMap[tileCount] = new TmxMapTile(gid, tileSet.getFirstGID(), tileSetIndex);
+                // The empty tiles may not have a GID
+                String gid = reader.getAttributeValue(null, "gid");
+                gids[tileCount++] = gid == null ? 0 : Integer.parseUnsignedInt(gid.trim());
             }
-            else
-                tileMap[tileCount] = new TmxMapTile(gid, 0, -1);
+
+            XMLUtils.skipElement(reader);
         }
     }
 
-    private void parseBase64(String base64)
+    private void parseBase64(XMLStreamReader reader, int[] gids) throws IOException
     {
-        byte[] decodedData = Base64.getDecoder().decode(base64.trim());
+        // The characters are decoded and decompressed as they are read from the document
+        InputStream textStream = XMLUtils.getTextInputStream(reader);
+        InputStream inputStream = Base64.getMimeDecoder().wrap(textStream);
 
-        try
-        {
-            if (compression == Compression.GZIP)
-                decodedData = CompressionUtils.decompressGZIP(decodedData);
+        if (compression == Compression.GZIP)
+            inputStream = new GZIPInputStream(inputStream);
 
-            if (compression == Compression.ZLIB)
-                decodedData = CompressionUtils.decompressZLIB(decodedData);
-        }
-        catch (Exception e)
-        {
-            SilenceException.reThrow(e);
-        }
+        if (compression == Compression.ZLIB)
+            inputStream = new InflaterInputStream(inputStream);
 
-        IntBuffer intBuffer = ByteBuffer.wrap(decodedData).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-        int[] out = new int[intBuffer.remaining()];
-        intBuffer.get(out);
+        byte[] buffer = new byte[4096];
 
-        for (int x = 0; x < width; x++)
+        int tileCount = 0;
+        int gid = 0;
+        int numBytes = 0;
+
+        int count;
+
+        while ((count = inputStream.read(buffer)) != -1)
         {
-            for (int y = 0; y < height; y++)
+            for (int i = 0; i < count; i++)
             {
-                int gid = out[y * width + x];
-
-                int tileSetIndex = map.findTileSetIndex(gid);
+                // The GIDs are unsigned 32-bit integers in little endian order
+                gid |= (buffer[i] & 0xFF) << (numBytes * 8);
 
-                if (tileSetIndex != -1)
+                if (++numBytes == 4)
                 {
-                    TmxTileSet tileSet = map.getTileset(tileSetIndex);
-                    tileMap[y * width + x] = new TmxMapTile(gid, tileSet.getFirstGID(), tileSetIndex);
+                    if (tileCount < gids.length)
+                        gids[tileCount++] = gid;
+
+                    gid = 0;
+                    numBytes = 0;
                 }
-                else
-                    tileMap[y * width + x] = new TmxMapTile(gid, 0, -1);
             }
         }
+
+        // Read the rest of the data element, if the compressed stream ended before it
+        while (textStream.read(buffer) != -1)
+            continue;
     }
 
-    private void parseCSV(String csv)
+    private void parseCSV(XMLStreamReader reader, int[] gids) throws XMLStreamException
     {
-        String[] tokens = csv.split(",");
         int tileCount = 0;
 
-        for (String token : tokens)
+        // The GID being read, and whether any digits of it have been read. The digits of a GID can be split between
+        // two text events, so they are carried over to the next event.
+        int gid = 0;
+        boolean inNumber = false;
+
+        while (reader.next() != XMLStreamConstants.END_ELEMENT)
         {
-            int gid = Integer.parseUnsignedInt(token.trim());
+            int event = reader.getEventType();
 
-            int tileSetIndex = map.findTileSetIndex(gid);
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA)
+                continue;
 
-            if (tileSetIndex != -1)
+            char[] text = reader.getTextCharacters();
+            int end = reader.getTextStart() + reader.getTextLength();
+
+            for (int i = reader.getTextStart(); i < end; i++)
             {
-                TmxTileSet tileSet = map.getTileset(tileSetIndex);
-                tileMap[tileCount] = new TmxMapTile(gid, tileSet.getFirstGID(), tileSetIndex);
-            }
-            else
-                tileMap[tileCount] = new TmxMapTile(gid, 0, -1);
+                char c = text[i];
+
+                if (c >= '0' && c <= '9')
+                {
+                    // The GIDs are unsigned, and the overflow of the int keeps their bits
+                    gid = gid * 10 + (c - '0');
+                    inNumber = true;
+                }
+                else if (c == ',')
+                {
+                    if (tileCount < gids.length)
+                        gids[tileCount++] = gid;
 
-            tileCount++;
+                    gid = 0;
+                    inNumber = false;
+                }
+            }
         }
+
+        if (inNumber && tileCount < gids.length)
+            gids[tileCount] = gid;
     }
 
+    /**
+     * @return The ID of a tile in its tileset, or its GID if it is empty.
+     */
     public int getTileID(int x, int y)
     {
-        return tileMap[y * width + x].getID();
+        int index = getTileTileSetIndex(x, y);
+        int gid = getTileGID(x, y);
+
+        return index == -1 ? gid : gid - map.getTileset(index).getFirstGID();
     }
 
     public int getTileGID(int x, int y)
     {
-        return tileMap[y * width + x].getGID();
+        return gids[y * width + x] & ~FLIP_FLAGS;
+    }
+
+    /**
+     * @return The GID of a tile along with its flip flags, as it is stored in the TMX format.
+     */
+    public int getTileRawGID(int x, int y)
+    {
+        return gids[y * width + x];
     }
 
     public int getTileTileSetIndex(int x, int y)
     {
-        return tileMap[y * width + x].getTileSetID();
+        if (tileSetIndices == null)
+            return map.findTileSetIndex(gids[y * width + x]);
+
+        // The byte of the empty tiles is 0xFF, which is -1 as a signed byte
+        int index = tileSetIndices[y * width + x];
+        return index == -1 ? -1 : index & 0xFF;
+    }
+
+    public boolean isTileEmpty(int x, int y)
+    {
+        return getTileTileSetIndex(x, y) == -1;
     }
 
     public boolean isTileFlippedHorizontally(int x, int y)
     {
-        return tileMap[y * width + x].isFlippedHorizontally();
+        return (gids[y * width + x] & TmxMap.FLIPPED_HORIZONTALLY_FLAG) != 0;
     }
 
     public boolean isTileFlippedVertically(int x, int y)
     {
-        return tileMap[y * width + x].isFlippedVertically();
+        return (gids[y * width + x] & TmxMap.FLIPPED_VERTICALLY_FLAG) != 0;
     }
 
     public boolean isTileFlippedDiagonally(int x, int y)
     {
-        return tileMap[y * width + x].isFlippedDiagonally();
+        return (gids[y * width + x] & TmxMap.FLIPPED_DIAGONALLY_FLAG) != 0;
     }
 
+    /**
+     * Creates an object with the information of a tile. Prefer the other accessors of the tiles, as this creates a
+     * new object in every call.
+     */
     public TmxMapTile getTile(int x, int y)
     {
-        return tileMap[y * width + x];
+        int index = getTileTileSetIndex(x, y);
+
+        if (index == -1)
+            return new TmxMapTile(gids[y * width + x], 0, -1);
+
+        return new TmxMapTile(gids[y * width + x], map.getTileset(index).getFirstGID(), index);
+    }
+
+    /**
+     * @return The GIDs of all the tiles with their flip flags, row by row. The array is not a copy, and the tiles
+     * should only be changed with the setTile methods.
+     */
+    public int[] getRawGIDs()
+    {
+        return gids;
+    }
+
+    /**
+     * Replaces a tile of this layer, and notifies the tile change listeners about it.
+     *
+     * @param x   The x-coordinate of the tile, in tiles.
+     * @param y   The y-coordinate of the tile, in tiles.
+     * @param gid The global ID of the new tile with the flip flags, or 0 to clear the tile.
+     */
+    public void setTile(int x, int y, int gid)
+    {
+        storeTile(y * width + x, gid);
+
+        for (ITileChangeListener listener : tileChangeListeners)
+            listener.invoke(this, x, y, 1, 1);
+    }
+
+    /**
+     * Replaces a rectangle of the tiles of this layer, and notifies the tile change listeners about the whole
+     * rectangle at once.
+     *
+     * @param x      The x-coordinate of the rectangle, in tiles.
+     * @param y      The y-coordinate of the rectangle, in tiles.
+     * @param width  The width of the rectangle, in tiles.
+     * @param height The height of the rectangle, in tiles.
+     * @param gids   The GIDs of the new tiles with their flip flags, row by row.
+     */
+    public void setTiles(int x, int y, int width, int height, int[] gids)
+    {
+        for (int row = 0; row < height; row++)
+        {
+            for (int col = 0; col < width; col++)
+                storeTile((y + row) * this.width + x + col, gids[row * width + col]);
+        }
+
+        for (ITileChangeListener listener : tileChangeListeners)
+            listener.invoke(this, x, y, width, height);
+    }
+
+    private void storeTile(int index, int gid)
+    {
+        gids[index] = gid;
+
+        if (tileSetIndices != null)
+            tileSetIndices[index] = (byte) map.findTileSetIndex(gid);
+    }
+
+    public void registerTileChangeListener(ITileChangeListener listener)
+    {
+        tileChangeListeners.add(listener);
+    }
+
+    public void unregisterTileChangeListener(ITileChangeListener listener)
+    {
+        tileChangeListeners.remove(listener);
     }
 
     public Encoding getEncoding()
@@ -253,6 +460,21 @@ public Compression getCompression()
         return compression;
     }
 
+    @FunctionalInterface
+    public interface ITileChangeListener
+    {
+        /**
+         * Called when the tiles in a region of a layer are changed.
+         *
+         * @param layer  The layer whose tiles are changed.
+         * @param x      The x-coordinate of the changed region, in tiles.
+         * @param y      The y-coordinate of the changed region, in tiles.
+         * @param width  The width of the changed region, in tiles.
+         * @param height The height of the changed region, in tiles.
+         */
+        void invoke(TmxTileLayer layer, int x, int y, int width, int height);
+    }
+
     public enum Encoding
     {
         XML, BASE64, CSV
@@ -24,11 +24,16 @@
 
 package com.shc.silenceengine.scene.tiled.objects;
 
+import com.shc.silenceengine.scene.tiled.TmxMapCache;
 import com.shc.silenceengine.scene.tiled.TmxProperties;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * @author Sri Harsha Chilakapati
  */
@@ -46,6 +51,7 @@
 
     private double  rotation;
     private boolean visible;
+    private boolean point;
 
     private TmxEllipse  ellipse;
     private TmxPolygon  polygon;
@@ -68,13 +74,15 @@ public void parse(Node node)
         id = Integer.parseInt(element.getAttribute("id"));
         x = Integer.parseInt(element.getAttribute("x"));
         y = Integer.parseInt(element.getAttribute("y"));
-        width = Integer.parseInt(element.getAttribute("width"));
-        height = Integer.parseInt(element.getAttribute("height"));
+        width = element.hasAttribute("width") ? Integer.parseInt(element.getAttribute("width")) : 0;
+        height = element.hasAttribute("height") ? Integer.parseInt(element.getAttribute("height")) : 0;
         gid = element.hasAttribute("gid") ? Integer.parseInt(element.getAttribute("gid")) : -1;
-        rotation = element.hasAttribute("rotation") ? Integer.parseInt(element.getAttribute("rotation")) : 0;
+        rotation = element.hasAttribute("rotation") ? Double.parseDouble(element.getAttribute("rotation")) : 0;
 
         visible = !element.hasAttribute("visible") || Boolean.parseBoolean(element.getAttribute("visible"));
 
+        point = element.getElementsByTagName("point").getLength() > 0;
+
         NodeList nodes = element.getElementsByTagName("ellipse");
         if (nodes.getLength() > 0)
         {
@@ -101,6 +109,74 @@ public void parse(Node node)
             properties.parse(nodes.item(0));
     }
 
+    public void write(DataOutputStream out) throws IOException
+    {
+        TmxMapCache.writeString(out, name);
+        TmxMapCache.writeString(out, type);
+
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(id);
+        out.writeInt(gid);
+        out.writeDouble(rotation);
+        out.writeBoolean(visible);
+
+        out.writeBoolean(ellipse != null);
+        out.writeBoolean(polygon != null);
+        out.writeBoolean(polyLine != null);
+        out.writeBoolean(point);
+
+        if (polygon != null)
+            polygon.write(out);
+
+        if (polyLine != null)
+            polyLine.write(out);
+
+        properties.write(out);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        name = TmxMapCache.readString(buffer);
+        type = TmxMapCache.readString(buffer);
+
+        x = buffer.getInt();
+        y = buffer.getInt();
+        width = buffer.getInt();
+        height = buffer.getInt();
+        id = buffer.getInt();
+        gid = buffer.getInt();
+        rotation = buffer.getDouble();
+        visible = buffer.get() != 0;
+
+        boolean hasEllipse = buffer.get() != 0;
+        boolean hasPolygon = buffer.get() != 0;
+        boolean hasPolyLine = buffer.get() != 0;
+        point = buffer.get() != 0;
+
+        if (hasEllipse)
+        {
+            ellipse = new TmxEllipse();
+            ellipse.set(x, y, width, height);
+        }
+
+        if (hasPolygon)
+        {
+            polygon = new TmxPolygon();
+            polygon.read(buffer);
+        }
+
+        if (hasPolyLine)
+        {
+            polyLine = new TmxPolyLine();
+            polyLine.read(buffer);
+        }
+
+        properties.read(buffer);
+    }
+
     public String getName()
     {
         return name;
@@ -151,6 +227,14 @@ public boolean isVisible()
         return visible;
     }
 
+    /**
+     * @return True if this object is a point, which has only a position.
+     */
+    public boolean isPoint()
+    {
+        return point;
+    }
+
     public TmxEllipse getEllipse()
     {
         return ellipse;
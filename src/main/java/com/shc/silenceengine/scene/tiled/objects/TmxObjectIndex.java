@@ -0,0 +1,805 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.objects;
+
+import com.shc.silenceengine.utils.MathUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * <p> A spatial index over the shapes of the objects of an object layer, to find the objects at a point, in a
+ * rectangle, or nearest to a point without scanning all of them. The index is a packed R-tree, built once over the
+ * objects sorted along a Hilbert curve through their centers, so that every node holds up to {@link #NODE_SIZE}
+ * neighbouring children. The nodes are stored level by level in flat arrays, with the leaves first and the root last,
+ * and the children of a node are found from its position in its level. </p>
+ *
+ * <p> The shapes of the objects are flattened into vertices in the world when the index is built, with the rotation of
+ * the objects applied. The rectangles, ellipses and polygons are areas, the ellipses being approximated with
+ * {@link #ELLIPSE_SEGMENTS} sides. The polylines are only their segments and the points are only their positions, so
+ * they never contain a point, but they are found by the rectangle and nearest queries. </p>
+ *
+ * <p> The queries don't allocate, but they share a stack, so an index should only be queried from a single thread at
+ * a time. The index has to be built again when the objects are changed. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxObjectIndex
+{
+    /**
+     * The maximum number of children of a node.
+     */
+    public static final int NODE_SIZE = 8;
+
+    /**
+     * The number of sides of the polygons that approximate the ellipses.
+     */
+    public static final int ELLIPSE_SEGMENTS = 32;
+
+    private static final byte SHAPE_AREA  = 0;
+    private static final byte SHAPE_LINE  = 1;
+    private static final byte SHAPE_POINT = 2;
+
+    // The objects in the order of the leaves, and their bounds as minX, minY, maxX, maxY
+    private TmxObject[] objects;
+    private float[]     objectBounds;
+
+    // The vertices of the shapes of the objects, in the world
+    private float[] vertices;
+    private int[]   vertexStart;
+    private int[]   vertexCount;
+    private byte[]  shapes;
+
+    // The bounds of the nodes, and the index of the first node of every level, the leaves being the level zero
+    private float[] nodeBounds;
+    private int[]   levelStart;
+    private int     numLevels;
+    private int     numNodes;
+
+    private int size;
+
+    private int[] stack;
+
+    public TmxObjectIndex(List<TmxObject> objects)
+    {
+        build(objects);
+    }
+
+    /**
+     * Builds the index from scratch over a list of objects.
+     *
+     * @param objectList The objects to be contained in the index.
+     */
+    public void build(List<TmxObject> objectList)
+    {
+        size = objectList.size();
+
+        TmxObject[] unsorted = objectList.toArray(new TmxObject[size]);
+
+        // Sort the objects on the Hilbert curve through the centers of their bounds
+        float[] bounds = new float[4];
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+
+        float[] centers = new float[size * 2];
+
+        for (int i = 0; i < size; i++)
+        {
+            computeBounds(unsorted[i], bounds);
+
+            centers[i * 2] = (bounds[0] + bounds[2]) / 2;
+            centers[i * 2 + 1] = (bounds[1] + bounds[3]) / 2;
+
+            minX = Math.min(minX, centers[i * 2]);
+            minY = Math.min(minY, centers[i * 2 + 1]);
+            maxX = Math.max(maxX, centers[i * 2]);
+            maxY = Math.max(maxY, centers[i * 2 + 1]);
+        }
+
+        float scaleX = maxX > minX ? 0xFFFF / (maxX - minX) : 0;
+        float scaleY = maxY > minY ? 0xFFFF / (maxY - minY) : 0;
+
+        // The 32-bit Hilbert index in the high bits and the 31-bit index of the object in the low bits, which keeps the
+        // keys positive, so that they sort in the order of the curve
+        long[] keys = new long[size];
+
+        for (int i = 0; i < size; i++)
+        {
+            int hx = (int) ((centers[i * 2] - minX) * scaleX);
+            int hy = (int) ((centers[i * 2 + 1] - minY) * scaleY);
+
+            keys[i] = hilbertIndex(hx, hy) << 31 | i;
+        }
+
+        Arrays.sort(keys);
+
+        objects = new TmxObject[size];
+
+        for (int i = 0; i < size; i++)
+            objects[i] = unsorted[(int) (keys[i] & Integer.MAX_VALUE)];
+
+        buildShapes();
+        buildNodes();
+    }
+
+    /**
+     * Flattens the shapes of the objects into vertices in the world, and finds their bounds.
+     */
+    private void buildShapes()
+    {
+        objectBounds = new float[size * 4];
+        vertexStart = new int[size];
+        vertexCount = new int[size];
+        shapes = new byte[size];
+
+        int total = 0;
+
+        for (TmxObject object : objects)
+            total += countVertices(object);
+
+        vertices = new float[total * 2];
+
+        int next = 0;
+
+        for (int i = 0; i < size; i++)
+        {
+            TmxObject object = objects[i];
+
+            vertexStart[i] = next;
+            vertexCount[i] = countVertices(object);
+            shapes[i] = object.getPolyLine() != null ? SHAPE_LINE : object.isPoint() ? SHAPE_POINT : SHAPE_AREA;
+
+            float sin = MathUtils.sin((float) object.getRotation());
+            float cos = MathUtils.cos((float) object.getRotation());
+
+            float minX = Float.POSITIVE_INFINITY;
+            float minY = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY;
+            float maxY = Float.NEGATIVE_INFINITY;
+
+            for (int v = 0; v < vertexCount[i]; v++)
+            {
+                float lx = getLocalX(object, v);
+                float ly = getLocalY(object, v);
+
+                // Tiled rotates the objects clockwise around their positions, which is counter-clockwise with y up
+                float x = object.getX() + lx * cos - ly * sin;
+                float y = object.getY() + lx * sin + ly * cos;
+
+                vertices[next * 2] = x;
+                vertices[next * 2 + 1] = y;
+                next++;
+
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+
+            objectBounds[i * 4] = minX;
+            objectBounds[i * 4 + 1] = minY;
+            objectBounds[i * 4 + 2] = maxX;
+            objectBounds[i * 4 + 3] = maxY;
+        }
+    }
+
+    /**
+     * Builds the levels of the tree bottom-up, by grouping the consecutive nodes of a level into the nodes above.
+     */
+    private void buildNodes()
+    {
+        int count = Math.max(1, (size + NODE_SIZE - 1) / NODE_SIZE);
+        int total = 0;
+
+        levelStart = new int[16];
+        numLevels = 0;
+
+        while (true)
+        {
+            if (numLevels == levelStart.length)
+                levelStart = Arrays.copyOf(levelStart, numLevels * 2);
+
+            levelStart[numLevels++] = total;
+            total += count;
+
+            if (count == 1)
+                break;
+
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+        }
+
+        numNodes = total;
+        nodeBounds = new float[numNodes * 4];
+
+        for (int level = 0; level < numLevels; level++)
+        {
+            for (int node = levelStart[level]; node < getLevelEnd(level); node++)
+            {
+                float minX = Float.POSITIVE_INFINITY;
+                float minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+
+                float[] childBounds = level == 0 ? objectBounds : nodeBounds;
+
+                for (int child = getFirstChild(level, node); child < getLastChild(level, node); child++)
+                {
+                    minX = Math.min(minX, childBounds[child * 4]);
+                    minY = Math.min(minY, childBounds[child * 4 + 1]);
+                    maxX = Math.max(maxX, childBounds[child * 4 + 2]);
+                    maxY = Math.max(maxY, childBounds[child * 4 + 3]);
+                }
+
+                nodeBounds[node * 4] = minX;
+                nodeBounds[node * 4 + 1] = minY;
+                nodeBounds[node * 4 + 2] = maxX;
+                nodeBounds[node * 4 + 3] = maxY;
+            }
+        }
+
+        // Every level pushes at most a node's worth of children over the ones still on the stack
+        stack = new int[numLevels * NODE_SIZE * 2 + 2];
+    }
+
+    private int getLevelEnd(int level)
+    {
+        return level + 1 < numLevels ? levelStart[level + 1] : numNodes;
+    }
+
+    /**
+     * @return The index of the first child of a node, which is an object for the leaves and a node otherwise.
+     */
+    private int getFirstChild(int level, int node)
+    {
+        int first = (node - levelStart[level]) * NODE_SIZE;
+        return level == 0 ? first : levelStart[level - 1] + first;
+    }
+
+    private int getLastChild(int level, int node)
+    {
+        int last = (node - levelStart[level] + 1) * NODE_SIZE;
+        return level == 0 ? Math.min(last, size) : Math.min(levelStart[level - 1] + last, getLevelEnd(level - 1));
+    }
+
+    /**
+     * Collects the objects whose shapes contain a point. Only the areas contain points, the polylines and the points
+     * are never found.
+     *
+     * @param x      The x-coordinate of the point.
+     * @param y      The y-coordinate of the point.
+     * @param result The list to add the objects to.
+     */
+    public void queryPoint(float x, float y, List<TmxObject> result)
+    {
+        if (size == 0)
+            return;
+
+        int top = 0;
+        stack[top++] = numNodes - 1;
+        stack[top++] = numLevels - 1;
+
+        while (top > 0)
+        {
+            int level = stack[--top];
+            int node = stack[--top];
+
+            for (int child = getFirstChild(level, node); child < getLastChild(level, node); child++)
+            {
+                if (level == 0)
+                {
+                    if (boundsContain(objectBounds, child, x, y) && shapeContains(child, x, y))
+                        result.add(objects[child]);
+                }
+                else if (boundsContain(nodeBounds, child, x, y))
+                {
+                    stack[top++] = child;
+                    stack[top++] = level - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the objects whose shapes overlap a rectangle.
+     *
+     * @param minX   The x-coordinate of the top-left corner of the rectangle.
+     * @param minY   The y-coordinate of the top-left corner of the rectangle.
+     * @param maxX   The x-coordinate of the bottom-right corner of the rectangle.
+     * @param maxY   The y-coordinate of the bottom-right corner of the rectangle.
+     * @param result The list to add the objects to.
+     */
+    public void queryRectangle(float minX, float minY, float maxX, float maxY, List<TmxObject> result)
+    {
+        if (size == 0)
+            return;
+
+        int top = 0;
+        stack[top++] = numNodes - 1;
+        stack[top++] = numLevels - 1;
+
+        while (top > 0)
+        {
+            int level = stack[--top];
+            int node = stack[--top];
+
+            for (int child = getFirstChild(level, node); child < getLastChild(level, node); child++)
+            {
+                if (level == 0)
+                {
+                    if (boundsOverlap(objectBounds, child, minX, minY, maxX, maxY)
+                        && shapeOverlaps(child, minX, minY, maxX, maxY))
+                        result.add(objects[child]);
+                }
+                else if (boundsOverlap(nodeBounds, child, minX, minY, maxX, maxY))
+                {
+                    stack[top++] = child;
+                    stack[top++] = level - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the objects whose shapes are within a distance of a point.
+     *
+     * @param x      The x-coordinate of the point.
+     * @param y      The y-coordinate of the point.
+     * @param radius The maximum distance of the shapes from the point.
+     * @param result The list to add the objects to.
+     */
+    public void queryRadius(float x, float y, float radius, List<TmxObject> result)
+    {
+        if (size == 0)
+            return;
+
+        float radiusSquared = radius * radius;
+
+        int top = 0;
+        stack[top++] = numNodes - 1;
+        stack[top++] = numLevels - 1;
+
+        while (top > 0)
+        {
+            int level = stack[--top];
+            int node = stack[--top];
+
+            for (int child = getFirstChild(level, node); child < getLastChild(level, node); child++)
+            {
+                if (level == 0)
+                {
+                    if (boundsDistanceSquared(objectBounds, child, x, y) <= radiusSquared
+                        && shapeDistanceSquared(child, x, y) <= radiusSquared)
+                        result.add(objects[child]);
+                }
+                else if (boundsDistanceSquared(nodeBounds, child, x, y) <= radiusSquared)
+                {
+                    stack[top++] = child;
+                    stack[top++] = level - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the object whose shape is nearest to a point. The point is at a distance of zero from the areas that
+     * contain it.
+     *
+     * @param x The x-coordinate of the point.
+     * @param y The y-coordinate of the point.
+     *
+     * @return The nearest object, or null if the index is empty.
+     */
+    public TmxObject findNearest(float x, float y)
+    {
+        return findNearest(x, y, null);
+    }
+
+    /**
+     * Finds the object whose shape is nearest to a point, out of the objects accepted by a filter. The point is at a
+     * distance of zero from the areas that contain it.
+     *
+     * @param x      The x-coordinate of the point.
+     * @param y      The y-coordinate of the point.
+     * @param filter The filter that accepts the objects to consider, or null to consider all of them.
+     *
+     * @return The nearest accepted object, or null if there is none.
+     */
+    public TmxObject findNearest(float x, float y, Predicate<TmxObject> filter)
+    {
+        if (size == 0)
+            return null;
+
+        int nearest = -1;
+        float nearestDistance = Float.POSITIVE_INFINITY;
+
+        int top = 0;
+        stack[top++] = numNodes - 1;
+        stack[top++] = numLevels - 1;
+
+        while (top > 0)
+        {
+            int level = stack[--top];
+            int node = stack[--top];
+
+            // The node may have been pushed before a nearer object was found
+            if (boundsDistanceSquared(nodeBounds, node, x, y) > nearestDistance)
+                continue;
+
+            int first = getFirstChild(level, node);
+            int last = getLastChild(level, node);
+
+            if (level == 0)
+            {
+                for (int child = first; child < last; child++)
+                {
+                    if (boundsDistanceSquared(objectBounds, child, x, y) > nearestDistance)
+                        continue;
+
+                    if (filter != null && !filter.test(objects[child]))
+                        continue;
+
+                    float distance = shapeDistanceSquared(child, x, y);
+
+                    if (distance < nearestDistance)
+                    {
+                        nearest = child;
+                        nearestDistance = distance;
+                    }
+                }
+
+                continue;
+            }
+
+            // Push the children farthest first, so that the nearest one is visited first and shrinks the distance
+            int pushed = top;
+
+            for (int child = first; child < last; child++)
+            {
+                float distance = boundsDistanceSquared(nodeBounds, child, x, y);
+
+                if (distance > nearestDistance)
+                    continue;
+
+                int slot = top;
+
+                while (slot > pushed && boundsDistanceSquared(nodeBounds, stack[slot - 2], x, y) < distance)
+                {
+                    stack[slot] = stack[slot - 2];
+                    stack[slot + 1] = stack[slot - 1];
+                    slot -= 2;
+                }
+
+                stack[slot] = child;
+                stack[slot + 1] = level - 1;
+                top += 2;
+            }
+        }
+
+        return nearest == -1 ? null : objects[nearest];
+    }
+
+    private static boolean boundsContain(float[] bounds, int i, float x, float y)
+    {
+        return x >= bounds[i * 4] && y >= bounds[i * 4 + 1] && x <= bounds[i * 4 + 2] && y <= bounds[i * 4 + 3];
+    }
+
+    private static boolean boundsOverlap(float[] bounds, int i, float minX, float minY, float maxX, float maxY)
+    {
+        return maxX >= bounds[i * 4] && maxY >= bounds[i * 4 + 1] && minX <= bounds[i * 4 + 2]
+               && minY <= bounds[i * 4 + 3];
+    }
+
+    private static float boundsDistanceSquared(float[] bounds, int i, float x, float y)
+    {
+        float dx = Math.max(0, Math.max(bounds[i * 4] - x, x - bounds[i * 4 + 2]));
+        float dy = Math.max(0, Math.max(bounds[i * 4 + 1] - y, y - bounds[i * 4 + 3]));
+
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Tests whether a point is in the area of an object, by counting the crossings of its edges.
+     */
+    private boolean shapeContains(int object, float x, float y)
+    {
+        if (shapes[object] != SHAPE_AREA)
+            return false;
+
+        int start = vertexStart[object];
+        int count = vertexCount[object];
+
+        boolean inside = false;
+
+        for (int i = 0, j = count - 1; i < count; j = i++)
+        {
+            float xi = vertices[(start + i) * 2];
+            float yi = vertices[(start + i) * 2 + 1];
+            float xj = vertices[(start + j) * 2];
+            float yj = vertices[(start + j) * 2 + 1];
+
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi)
+                inside = !inside;
+        }
+
+        return inside;
+    }
+
+    private boolean shapeOverlaps(int object, float minX, float minY, float maxX, float maxY)
+    {
+        int start = vertexStart[object];
+        int count = vertexCount[object];
+
+        // Any vertex in the rectangle
+        for (int i = 0; i < count; i++)
+        {
+            float x = vertices[(start + i) * 2];
+            float y = vertices[(start + i) * 2 + 1];
+
+            if (x >= minX && y >= minY && x <= maxX && y <= maxY)
+                return true;
+        }
+
+        if (shapes[object] == SHAPE_POINT)
+            return false;
+
+        // The rectangle inside the area
+        if (shapeContains(object, minX, minY))
+            return true;
+
+        // Any edge crossing the rectangle
+        int numEdges = shapes[object] == SHAPE_AREA ? count : count - 1;
+
+        for (int i = 0; i < numEdges; i++)
+        {
+            int j = (i + 1) % count;
+
+            if (segmentOverlaps(vertices[(start + i) * 2], vertices[(start + i) * 2 + 1],
+                    vertices[(start + j) * 2], vertices[(start + j) * 2 + 1], minX, minY, maxX, maxY))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Tests whether a segment crosses a rectangle, by clipping it against the slabs of the rectangle.
+     */
+    private static boolean segmentOverlaps(float x1, float y1, float x2, float y2,
+                                           float minX, float minY, float maxX, float maxY)
+    {
+        float tMin = 0;
+        float tMax = 1;
+
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+
+        if (dx == 0)
+        {
+            if (x1 < minX || x1 > maxX)
+                return false;
+        }
+        else
+        {
+            float t1 = (minX - x1) / dx;
+            float t2 = (maxX - x1) / dx;
+
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        if (dy == 0)
+        {
+            if (y1 < minY || y1 > maxY)
+                return false;
+        }
+        else
+        {
+            float t1 = (minY - y1) / dy;
+            float t2 = (maxY - y1) / dy;
+
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+
+        return tMin <= tMax;
+    }
+
+    /**
+     * Finds the squared distance of a point from the shape of an object, which is zero inside the areas.
+     */
+    private float shapeDistanceSquared(int object, float x, float y)
+    {
+        if (shapeContains(object, x, y))
+            return 0;
+
+        int start = vertexStart[object];
+        int count = vertexCount[object];
+
+        if (shapes[object] == SHAPE_POINT)
+        {
+            float dx = vertices[start * 2] - x;
+            float dy = vertices[start * 2 + 1] - y;
+
+            return dx * dx + dy * dy;
+        }
+
+        float distance = Float.POSITIVE_INFINITY;
+        int numEdges = shapes[object] == SHAPE_AREA ? count : count - 1;
+
+        for (int i = 0; i < numEdges; i++)
+        {
+            int j = (i + 1) % count;
+
+            float x1 = vertices[(start + i) * 2];
+            float y1 = vertices[(start + i) * 2 + 1];
+            float dx = vertices[(start + j) * 2] - x1;
+            float dy = vertices[(start + j) * 2 + 1] - y1;
+
+            // The nearest point on the edge, clamped to its ends
+            float lengthSquared = dx * dx + dy * dy;
+            float t = lengthSquared == 0 ? 0 : ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+
+            float nx = x1 + t * dx - x;
+            float ny = y1 + t * dy - y;
+
+            distance = Math.min(distance, nx * nx + ny * ny);
+        }
+
+        return distance;
+    }
+
+    private static int countVertices(TmxObject object)
+    {
+        if (object.getPolygon() != null)
+            return Math.max(1, object.getPolygon().getNumPoints());
+
+        if (object.getPolyLine() != null)
+            return Math.max(1, object.getPolyLine().getNumPoints());
+
+        if (object.isPoint())
+            return 1;
+
+        if (object.getEllipse() != null)
+            return ELLIPSE_SEGMENTS;
+
+        return 4;
+    }
+
+    /**
+     * Finds a vertex of the shape of an object, relative to the position of the object and before it is rotated.
+     */
+    private static float getLocalX(TmxObject object, int vertex)
+    {
+        if (object.getPolygon() != null)
+            return object.getPolygon().getNumPoints() == 0 ? 0 : object.getPolygon().getPoint(vertex).x;
+
+        if (object.getPolyLine() != null)
+            return object.getPolyLine().getNumPoints() == 0 ? 0 : object.getPolyLine().getPoint(vertex).x;
+
+        if (object.isPoint())
+            return 0;
+
+        if (object.getEllipse() != null)
+        {
+            float angle = 360f * vertex / ELLIPSE_SEGMENTS;
+            return object.getWidth() / 2f * (1 + MathUtils.cos(angle));
+        }
+
+        return vertex == 1 || vertex == 2 ? object.getWidth() : 0;
+    }
+
+    private static float getLocalY(TmxObject object, int vertex)
+    {
+        if (object.getPolygon() != null)
+            return object.getPolygon().getNumPoints() == 0 ? 0 : object.getPolygon().getPoint(vertex).y;
+
+        if (object.getPolyLine() != null)
+            return object.getPolyLine().getNumPoints() == 0 ? 0 : object.getPolyLine().getPoint(vertex).y;
+
+        if (object.isPoint())
+            return 0;
+
+        if (object.getEllipse() != null)
+        {
+            float angle = 360f * vertex / ELLIPSE_SEGMENTS;
+            return object.getHeight() / 2f * (1 + MathUtils.sin(angle));
+        }
+
+        // The tile objects are aligned to the bottom-left corner of the tile
+        float top = object.getGID() > 0 ? -object.getHeight() : 0;
+        return vertex >= 2 ? top + object.getHeight() : top;
+    }
+
+    /**
+     * Finds the bounds of an object before its shape is flattened, to sort the objects.
+     */
+    private static void computeBounds(TmxObject object, float[] bounds)
+    {
+        float sin = MathUtils.sin((float) object.getRotation());
+        float cos = MathUtils.cos((float) object.getRotation());
+
+        bounds[0] = bounds[1] = Float.POSITIVE_INFINITY;
+        bounds[2] = bounds[3] = Float.NEGATIVE_INFINITY;
+
+        for (int v = 0, count = countVertices(object); v < count; v++)
+        {
+            float lx = getLocalX(object, v);
+            float ly = getLocalY(object, v);
+
+            float x = object.getX() + lx * cos - ly * sin;
+            float y = object.getY() + lx * sin + ly * cos;
+
+            bounds[0] = Math.min(bounds[0], x);
+            bounds[1] = Math.min(bounds[1], y);
+            bounds[2] = Math.max(bounds[2], x);
+            bounds[3] = Math.max(bounds[3], y);
+        }
+    }
+
+    /**
+     * Finds the distance along a Hilbert curve of order 16 to a cell, so that the cells near on the curve are also
+     * near in space.
+     */
+    private static long hilbertIndex(int x, int y)
+    {
+        long index = 0;
+
+        for (int s = 1 << 15; s > 0; s >>= 1)
+        {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+
+            index += (long) s * s * ((3 * rx) ^ ry);
+
+            // Rotate the quadrant
+            if (ry == 0)
+            {
+                if (rx == 1)
+                {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * @return The number of objects in this index.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
@@ -27,6 +27,9 @@
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -57,6 +60,29 @@ public int getNumPoints()
         return points.size();
     }
 
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(points.size());
+
+        for (TmxPoint point : points)
+        {
+            out.writeInt(point.x);
+            out.writeInt(point.y);
+        }
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxPoint point = new TmxPoint();
+            point.x = buffer.getInt();
+            point.y = buffer.getInt();
+
+            points.add(point);
+        }
+    }
+
     public void parse(Node node)
     {
         String pointsLine = ((Element) node).getAttribute("points").trim();
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the nodes of a graph, on primitive arrays. Every node is in the heap at most once, and the heap
+ * remembers where the nodes are, so that the priority of a node in the heap can be lowered in place.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+final class NodeHeap
+{
+    private int[]   heap;
+    private int[]   positions;
+    private float[] priorities;
+
+    private int size;
+
+    NodeHeap(int numNodes)
+    {
+        heap = new int[Math.max(16, numNodes)];
+        positions = new int[numNodes];
+        priorities = new float[numNodes];
+    }
+
+    void clear()
+    {
+        size = 0;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    float peekPriority()
+    {
+        return priorities[heap[0]];
+    }
+
+    void push(int node, float priority)
+    {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size * 2);
+
+        priorities[node] = priority;
+        heap[size] = node;
+        positions[node] = size;
+
+        siftUp(size++);
+    }
+
+    /**
+     * Lowers the priority of a node that is in the heap.
+     */
+    void decrease(int node, float priority)
+    {
+        priorities[node] = priority;
+        siftUp(positions[node]);
+    }
+
+    int pop()
+    {
+        int node = heap[0];
+
+        if (--size > 0)
+        {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+
+        return node;
+    }
+
+    private void siftUp(int index)
+    {
+        int node = heap[index];
+        float priority = priorities[node];
+
+        while (index > 0)
+        {
+            int parent = (index - 1) >> 1;
+
+            if (priorities[heap[parent]] <= priority)
+                break;
+
+            heap[index] = heap[parent];
+            positions[heap[index]] = index;
+            index = parent;
+        }
+
+        heap[index] = node;
+        positions[node] = index;
+    }
+
+    private void siftDown(int index)
+    {
+        int node = heap[index];
+        float priority = priorities[node];
+
+        while (true)
+        {
+            int child = index * 2 + 1;
+
+            if (child >= size)
+                break;
+
+            if (child + 1 < size && priorities[heap[child + 1]] < priorities[heap[child]])
+                child++;
+
+            if (priorities[heap[child]] >= priority)
+                break;
+
+            heap[index] = heap[child];
+            positions[heap[index]] = index;
+            index = child;
+        }
+
+        heap[index] = node;
+        positions[node] = index;
+    }
+}
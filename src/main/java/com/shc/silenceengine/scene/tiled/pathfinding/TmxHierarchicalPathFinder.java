@@ -0,0 +1,659 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * <p> Finds paths on large grids with hierarchical path finding (HPA*). The grid is divided into square clusters, and
+ * the walkable runs of cells across the borders of the clusters are the entrances between them, with a transition in
+ * the middle of the short entrances and at both ends of the long ones. The transitions are the nodes of an abstract
+ * graph, which links the transitions across every entrance with a step, and the transitions of every cluster with the
+ * costs of the shortest paths between them inside the cluster. </p>
+ *
+ * <p> A path is found by linking the start and the goal to the transitions of their clusters, searching the abstract
+ * graph with A*, and refining the abstract path into cells with A* searches that stay inside one cluster. The
+ * searches only expand a few nodes for every cluster on the way, so the cost of a path grows with the number of
+ * clusters it passes and not with the area of the grid. The paths are near the shortest, as they have to pass the
+ * borders of the clusters at the transitions. </p>
+ *
+ * <p> The abstract graph is cached, and repaired when the walkability of the grid changes. Only the clusters with the
+ * changed cells and their neighbours are built again, and not until the next path is found, so that many changes in a
+ * frame are repaired at once. Like the {@link TmxPathFinder} it uses, a hierarchical path finder should only be used
+ * from a single thread at a time. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxHierarchicalPathFinder
+{
+    /**
+     * The default width and height of the clusters, in cells.
+     */
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    // The entrances that are at least this long get two transitions instead of one
+    private static final int LONG_ENTRANCE = 6;
+
+    // The sides of the clusters, which hold their transitions in this order
+    private static final int SIDE_TOP    = 0;
+    private static final int SIDE_RIGHT  = 1;
+    private static final int SIDE_BOTTOM = 2;
+    private static final int SIDE_LEFT   = 3;
+
+    private TmxWalkableGrid grid;
+    private TmxPathFinder   finder;
+
+    private int clusterSize;
+    private int clustersX;
+    private int clustersY;
+
+    // Every side of a cluster has clusterSize slots for its transitions, so that a node is identified by its cluster,
+    // side and slot, and keeps its ID while the other sides of its cluster are built again. The transition in a slot
+    // of a side is linked to the transition in the same slot of the opposite side of the neighbouring cluster.
+    private int   nodesPerCluster;
+    private int[] nodeCells;
+    private int[] sideCounts;
+
+    // The costs between the transitions of every cluster, in the order of their sides and slots
+    private float[][] clusterCosts;
+
+    private boolean[] dirtyClusters;
+    private int[]     dirtyList;
+    private int       numDirty;
+
+    private TmxWalkableGrid.IGridChangeListener gridChangeListener;
+
+    // The abstract search, with the start and the goal linked to the transitions of their clusters
+    private float[]  costs;
+    private int[]    parents;
+    private int[]    openStamps;
+    private int[]    closedStamps;
+    private int      stamp;
+    private NodeHeap heap;
+    private float[]  startCosts;
+    private float[]  goalCosts;
+    private int[]    abstractPath;
+
+    public TmxHierarchicalPathFinder(TmxWalkableGrid grid)
+    {
+        this(grid, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * Creates a path finder that splits the grid into square clusters.
+     *
+     * @param grid        The walkable grid to find the paths in.
+     * @param clusterSize The width and height of the clusters in cells.
+     *
+     * @throws IllegalArgumentException If the cluster size is not positive.
+     */
+    public TmxHierarchicalPathFinder(TmxWalkableGrid grid, int clusterSize)
+    {
+        if (clusterSize <= 0)
+            throw new IllegalArgumentException("The cluster size should be positive, was " + clusterSize);
+
+        this.grid = grid;
+        this.clusterSize = clusterSize;
+
+        finder = new TmxPathFinder(grid);
+
+        clustersX = (grid.getWidth() + clusterSize - 1) / clusterSize;
+        clustersY = (grid.getHeight() + clusterSize - 1) / clusterSize;
+
+        int numClusters = clustersX * clustersY;
+        nodesPerCluster = clusterSize * 4;
+
+        nodeCells = new int[numClusters * nodesPerCluster];
+        sideCounts = new int[numClusters * 4];
+        clusterCosts = new float[numClusters][];
+
+        dirtyClusters = new boolean[numClusters];
+        dirtyList = new int[numClusters];
+
+        int numNodes = numClusters * nodesPerCluster;
+
+        costs = new float[numNodes];
+        parents = new int[numNodes];
+        openStamps = new int[numNodes];
+        closedStamps = new int[numNodes];
+        heap = new NodeHeap(numNodes);
+        startCosts = new float[nodesPerCluster];
+        goalCosts = new float[nodesPerCluster];
+        abstractPath = new int[64];
+
+        invalidate(0, 0, grid.getWidth(), grid.getHeight());
+
+        gridChangeListener = (g, x, y, w, h) -> invalidate(x, y, w, h);
+        grid.registerGridChangeListener(gridChangeListener);
+    }
+
+    /**
+     * Marks the clusters over a region of the grid to be built again before the next path is found.
+     *
+     * @param x      The x-coordinate of the region, in cells.
+     * @param y      The y-coordinate of the region, in cells.
+     * @param width  The width of the region, in cells.
+     * @param height The height of the region, in cells.
+     */
+    public void invalidate(int x, int y, int width, int height)
+    {
+        int minCX = Math.max(0, x / clusterSize);
+        int minCY = Math.max(0, y / clusterSize);
+        int maxCX = Math.min(clustersX - 1, (x + width - 1) / clusterSize);
+        int maxCY = Math.min(clustersY - 1, (y + height - 1) / clusterSize);
+
+        for (int cy = minCY; cy <= maxCY; cy++)
+        {
+            for (int cx = minCX; cx <= maxCX; cx++)
+                markDirty(cy * clustersX + cx);
+        }
+    }
+
+    private void markDirty(int cluster)
+    {
+        if (dirtyClusters[cluster])
+            return;
+
+        dirtyClusters[cluster] = true;
+        dirtyList[numDirty++] = cluster;
+    }
+
+    /**
+     * Builds the clusters that were changed and their neighbours again. This is done before finding a path, but can be
+     * called earlier to do it at a better time.
+     */
+    public void repair()
+    {
+        if (numDirty == 0)
+            return;
+
+        // The neighbours share the borders of the changed clusters, so their transitions and costs change too
+        int numChanged = numDirty;
+
+        for (int i = 0; i < numChanged; i++)
+        {
+            int cluster = dirtyList[i];
+            int cx = cluster % clustersX;
+            int cy = cluster / clustersX;
+
+            if (cy > 0)
+                markDirty(cluster - clustersX);
+
+            if (cx < clustersX - 1)
+                markDirty(cluster + 1);
+
+            if (cy < clustersY - 1)
+                markDirty(cluster + clustersX);
+
+            if (cx > 0)
+                markDirty(cluster - 1);
+        }
+
+        for (int i = 0; i < numDirty; i++)
+            buildTransitions(dirtyList[i]);
+
+        for (int i = 0; i < numDirty; i++)
+        {
+            buildCosts(dirtyList[i]);
+            dirtyClusters[dirtyList[i]] = false;
+        }
+
+        numDirty = 0;
+    }
+
+    /**
+     * Finds the transitions on the four sides of a cluster, by walking along the borders with its neighbours. Both the
+     * clusters of a border walk it in the same order, so that the transitions across it are in the same slots.
+     */
+    private void buildTransitions(int cluster)
+    {
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+
+        int minX = cx * clusterSize;
+        int minY = cy * clusterSize;
+        int maxX = Math.min(grid.getWidth(), minX + clusterSize) - 1;
+        int maxY = Math.min(grid.getHeight(), minY + clusterSize) - 1;
+
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+
+        // The sides on the edges of the grid have no neighbours to cross to
+        Arrays.fill(sideCounts, cluster * 4, cluster * 4 + 4, 0);
+
+        if (cy > 0)
+            sideCounts[cluster * 4 + SIDE_TOP] = buildSide(cluster, SIDE_TOP, minX, minY, 1, 0, 0, -1, width);
+
+        if (cx < clustersX - 1)
+            sideCounts[cluster * 4 + SIDE_RIGHT] = buildSide(cluster, SIDE_RIGHT, maxX, minY, 0, 1, 1, 0, height);
+
+        if (cy < clustersY - 1)
+            sideCounts[cluster * 4 + SIDE_BOTTOM] = buildSide(cluster, SIDE_BOTTOM, minX, maxY, 1, 0, 0, 1, width);
+
+        if (cx > 0)
+            sideCounts[cluster * 4 + SIDE_LEFT] = buildSide(cluster, SIDE_LEFT, minX, minY, 0, 1, -1, 0, height);
+    }
+
+    /**
+     * Finds the transitions on a side of a cluster.
+     *
+     * @param x      The x-coordinate of the first cell of the side.
+     * @param y      The y-coordinate of the first cell of the side.
+     * @param stepX  The step along the side.
+     * @param stepY  The step along the side.
+     * @param outX   The step from a cell of the side to the neighbouring cluster.
+     * @param outY   The step from a cell of the side to the neighbouring cluster.
+     * @param length The number of cells along the side.
+     *
+     * @return The number of transitions on the side.
+     */
+    private int buildSide(int cluster, int side, int x, int y, int stepX, int stepY, int outX, int outY, int length)
+    {
+        int first = cluster * nodesPerCluster + side * clusterSize;
+        int count = 0;
+        int runStart = -1;
+
+        for (int i = 0; i <= length; i++)
+        {
+            int cellX = x + i * stepX;
+            int cellY = y + i * stepY;
+
+            boolean open = i < length && grid.isWalkable(cellX, cellY) && grid.isWalkable(cellX + outX, cellY + outY);
+
+            if (open && runStart == -1)
+                runStart = i;
+
+            if (open || runStart == -1)
+                continue;
+
+            int runEnd = i - 1;
+
+            if (runEnd - runStart + 1 >= LONG_ENTRANCE)
+            {
+                nodeCells[first + count++] = cellIndex(x + runStart * stepX, y + runStart * stepY);
+                nodeCells[first + count++] = cellIndex(x + runEnd * stepX, y + runEnd * stepY);
+            }
+            else
+            {
+                int middle = (runStart + runEnd) / 2;
+                nodeCells[first + count++] = cellIndex(x + middle * stepX, y + middle * stepY);
+            }
+
+            runStart = -1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds the costs of the shortest paths inside a cluster between all its transitions.
+     */
+    private void buildCosts(int cluster)
+    {
+        int numNodes = getNumNodes(cluster);
+
+        if (clusterCosts[cluster] == null || clusterCosts[cluster].length != numNodes * numNodes)
+            clusterCosts[cluster] = new float[numNodes * numNodes];
+
+        float[] matrix = clusterCosts[cluster];
+
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+
+        int minX = cx * clusterSize;
+        int minY = cy * clusterSize;
+        int maxX = minX + clusterSize - 1;
+        int maxY = minY + clusterSize - 1;
+
+        int from = 0;
+
+        for (int side = 0; side < 4; side++)
+        {
+            for (int slot = 0; slot < sideCounts[cluster * 4 + side]; slot++, from++)
+            {
+                int cell = nodeCells[cluster * nodesPerCluster + side * clusterSize + slot];
+                finder.computeCosts(cell % grid.getWidth(), cell / grid.getWidth(), minX, minY, maxX, maxY);
+
+                int to = 0;
+
+                for (int toSide = 0; toSide < 4; toSide++)
+                {
+                    for (int toSlot = 0; toSlot < sideCounts[cluster * 4 + toSide]; toSlot++, to++)
+                    {
+                        int toCell = nodeCells[cluster * nodesPerCluster + toSide * clusterSize + toSlot];
+                        matrix[from * numNodes + to] = finder.getCost(toCell % grid.getWidth(),
+                                toCell / grid.getWidth());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a path between two cells.
+     *
+     * @param startX The x-coordinate of the start cell.
+     * @param startY The y-coordinate of the start cell.
+     * @param goalX  The x-coordinate of the goal cell.
+     * @param goalY  The y-coordinate of the goal cell.
+     * @param path   The path to store the cells of the path in, which is cleared first.
+     *
+     * @return True if there is a path, false otherwise.
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, TmxPath path)
+    {
+        path.clear();
+        repair();
+
+        if (!grid.isWalkable(startX, startY) || !grid.isWalkable(goalX, goalY))
+            return false;
+
+        int startCluster = (startY / clusterSize) * clustersX + startX / clusterSize;
+        int goalCluster = (goalY / clusterSize) * clustersX + goalX / clusterSize;
+
+        // A path that stays in a cluster doesn't need the abstract graph
+        if (startCluster == goalCluster && findInCluster(startX, startY, goalX, goalY, startCluster, path))
+            return true;
+
+        linkToCluster(startX, startY, startCluster, startCosts);
+        linkToCluster(goalX, goalY, goalCluster, goalCosts);
+
+        int last = searchAbstract(startCluster, goalCluster, goalX, goalY);
+
+        if (last == -1)
+            return false;
+
+        // Collect the transitions of the abstract path, from the last one back to the first
+        int numNodes = 0;
+
+        for (int node = last; node != -1; node = parents[node])
+        {
+            if (numNodes == abstractPath.length)
+                abstractPath = Arrays.copyOf(abstractPath, numNodes * 2);
+
+            abstractPath[numNodes++] = node;
+        }
+
+        // Refine the abstract path into cells, one cluster at a time
+        int x = startX;
+        int y = startY;
+
+        path.add(startX, startY);
+
+        for (int i = numNodes - 1; i >= 0; i--)
+        {
+            int cell = nodeCells[abstractPath[i]];
+            int cluster = abstractPath[i] / nodesPerCluster;
+
+            int nextX = cell % grid.getWidth();
+            int nextY = cell / grid.getWidth();
+
+            // The step across an entrance is the only one that leaves a cluster
+            if (i < numNodes - 1 && cluster != abstractPath[i + 1] / nodesPerCluster)
+            {
+                path.add(nextX, nextY);
+                path.addCost(1);
+            }
+            else if (!appendInCluster(x, y, nextX, nextY, cluster, path))
+                return false;
+
+            x = nextX;
+            y = nextY;
+        }
+
+        return appendInCluster(x, y, goalX, goalY, goalCluster, path);
+    }
+
+    private boolean findInCluster(int startX, int startY, int goalX, int goalY, int cluster, TmxPath path)
+    {
+        path.clear();
+        return appendInCluster(startX, startY, goalX, goalY, cluster, path);
+    }
+
+    private boolean appendInCluster(int startX, int startY, int goalX, int goalY, int cluster, TmxPath path)
+    {
+        int minX = (cluster % clustersX) * clusterSize;
+        int minY = (cluster / clustersX) * clusterSize;
+
+        return finder.appendPath(startX, startY, goalX, goalY, minX, minY, minX + clusterSize - 1,
+                minY + clusterSize - 1, path);
+    }
+
+    /**
+     * Finds the costs from a cell to the transitions of its cluster, in the order of their sides and slots.
+     */
+    private void linkToCluster(int x, int y, int cluster, float[] linkCosts)
+    {
+        int minX = (cluster % clustersX) * clusterSize;
+        int minY = (cluster / clustersX) * clusterSize;
+
+        finder.computeCosts(x, y, minX, minY, minX + clusterSize - 1, minY + clusterSize - 1);
+
+        int index = 0;
+
+        for (int side = 0; side < 4; side++)
+        {
+            for (int slot = 0; slot < sideCounts[cluster * 4 + side]; slot++)
+            {
+                int cell = nodeCells[cluster * nodesPerCluster + side * clusterSize + slot];
+                linkCosts[index++] = finder.getCost(cell % grid.getWidth(), cell / grid.getWidth());
+            }
+        }
+    }
+
+    /**
+     * Searches the abstract graph with A*, from the transitions of the start cluster to the transitions of the goal
+     * cluster, which are linked to the goal by their goal costs.
+     *
+     * @return The transition of the goal cluster that the shortest path leaves from, or -1 if there is no path.
+     */
+    private int searchAbstract(int startCluster, int goalCluster, int goalX, int goalY)
+    {
+        if (++stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(openStamps, 0);
+            Arrays.fill(closedStamps, 0);
+            stamp = 1;
+        }
+
+        heap.clear();
+
+        int index = 0;
+
+        for (int side = 0; side < 4; side++)
+        {
+            for (int slot = 0; slot < sideCounts[startCluster * 4 + side]; slot++, index++)
+            {
+                if (startCosts[index] != Float.POSITIVE_INFINITY)
+                    open(startCluster * nodesPerCluster + side * clusterSize + slot, -1, startCosts[index], goalX,
+                            goalY);
+            }
+        }
+
+        int best = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+
+        while (!heap.isEmpty() && heap.peekPriority() < bestCost)
+        {
+            int node = heap.pop();
+            closedStamps[node] = stamp;
+
+            int cluster = node / nodesPerCluster;
+            int side = (node % nodesPerCluster) / clusterSize;
+            int slot = node % clusterSize;
+
+            int compact = getCompactIndex(cluster, side, slot);
+
+            if (cluster == goalCluster && goalCosts[compact] != Float.POSITIVE_INFINITY)
+            {
+                float cost = costs[node] + goalCosts[compact];
+
+                if (cost < bestCost)
+                {
+                    best = node;
+                    bestCost = cost;
+                }
+            }
+
+            // The step across the entrance, to the same slot of the opposite side of the neighbour
+            int neighbour;
+
+            switch (side)
+            {
+                case SIDE_TOP:
+                    neighbour = cluster - clustersX;
+                    break;
+                case SIDE_RIGHT:
+                    neighbour = cluster + 1;
+                    break;
+                case SIDE_BOTTOM:
+                    neighbour = cluster + clustersX;
+                    break;
+                default:
+                    neighbour = cluster - 1;
+            }
+
+            open(neighbour * nodesPerCluster + ((side + 2) % 4) * clusterSize + slot, node, costs[node] + 1, goalX,
+                    goalY);
+
+            // The paths inside the cluster to its other transitions
+            float[] matrix = clusterCosts[cluster];
+            int numNodes = getNumNodes(cluster);
+            int to = 0;
+
+            for (int toSide = 0; toSide < 4; toSide++)
+            {
+                for (int toSlot = 0; toSlot < sideCounts[cluster * 4 + toSide]; toSlot++, to++)
+                {
+                    float cost = matrix[compact * numNodes + to];
+
+                    if (to != compact && cost != Float.POSITIVE_INFINITY)
+                        open(cluster * nodesPerCluster + toSide * clusterSize + toSlot, node, costs[node] + cost,
+                                goalX, goalY);
+                }
+            }
+        }
+
+        return best;
+    }
+
+    private void open(int node, int parent, float cost, int goalX, int goalY)
+    {
+        if (closedStamps[node] == stamp)
+            return;
+
+        if (openStamps[node] != stamp)
+        {
+            openStamps[node] = stamp;
+            costs[node] = cost;
+            parents[node] = parent;
+            heap.push(node, cost + heuristic(node, goalX, goalY));
+        }
+        else if (cost < costs[node])
+        {
+            costs[node] = cost;
+            parents[node] = parent;
+            heap.decrease(node, cost + heuristic(node, goalX, goalY));
+        }
+    }
+
+    private float heuristic(int node, int goalX, int goalY)
+    {
+        int cell = nodeCells[node];
+
+        int dx = Math.abs(cell % grid.getWidth() - goalX);
+        int dy = Math.abs(cell / grid.getWidth() - goalY);
+
+        if (!finder.isAllowDiagonal())
+            return dx + dy;
+
+        return Math.abs(dx - dy) + Math.min(dx, dy) * TmxPathFinder.DIAGONAL_COST;
+    }
+
+    private int getNumNodes(int cluster)
+    {
+        return sideCounts[cluster * 4] + sideCounts[cluster * 4 + 1] + sideCounts[cluster * 4 + 2]
+               + sideCounts[cluster * 4 + 3];
+    }
+
+    /**
+     * @return The index of a transition among all the transitions of its cluster, in the order of their sides.
+     */
+    private int getCompactIndex(int cluster, int side, int slot)
+    {
+        int index = slot;
+
+        for (int i = 0; i < side; i++)
+            index += sideCounts[cluster * 4 + i];
+
+        return index;
+    }
+
+    private int cellIndex(int x, int y)
+    {
+        return y * grid.getWidth() + x;
+    }
+
+    /**
+     * @return The number of transitions in the abstract graph, after the pending repairs.
+     */
+    public int getNumTransitions()
+    {
+        repair();
+
+        int count = 0;
+
+        for (int sideCount : sideCounts)
+            count += sideCount;
+
+        return count;
+    }
+
+    public int getClusterSize()
+    {
+        return clusterSize;
+    }
+
+    /**
+     * @return The path finder that refines the paths. Its diagonal moves should be set before the first path is
+     * found, as the cached costs between the transitions depend on them.
+     */
+    public TmxPathFinder getPathFinder()
+    {
+        return finder;
+    }
+
+    public TmxWalkableGrid getGrid()
+    {
+        return grid;
+    }
+
+    /**
+     * Stops listening to the changes of the grid.
+     */
+    public void dispose()
+    {
+        grid.unregisterGridChangeListener(gridChangeListener);
+    }
+}
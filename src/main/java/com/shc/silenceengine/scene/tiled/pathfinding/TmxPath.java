@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * A path on a grid, as the cells from the start to the goal, both included. A path is meant to be reused for many
+ * searches, so that finding a path doesn't allocate once the path has grown to its size.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxPath
+{
+    private int[] xs;
+    private int[] ys;
+
+    private int   length;
+    private float cost;
+
+    public TmxPath()
+    {
+        xs = new int[64];
+        ys = new int[64];
+    }
+
+    public void clear()
+    {
+        length = 0;
+        cost = 0;
+    }
+
+    void add(int x, int y)
+    {
+        if (length == xs.length)
+        {
+            xs = Arrays.copyOf(xs, length * 2);
+            ys = Arrays.copyOf(ys, length * 2);
+        }
+
+        xs[length] = x;
+        ys[length] = y;
+        length++;
+    }
+
+    void addCost(float cost)
+    {
+        this.cost += cost;
+    }
+
+    /**
+     * Reverses the cells from an index to the end of this path, for the searches that find the cells backwards.
+     */
+    void reverse(int from)
+    {
+        for (int i = from, j = length - 1; i < j; i++, j--)
+        {
+            int x = xs[i];
+            xs[i] = xs[j];
+            xs[j] = x;
+
+            int y = ys[i];
+            ys[i] = ys[j];
+            ys[j] = y;
+        }
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public boolean isEmpty()
+    {
+        return length == 0;
+    }
+
+    public int getX(int index)
+    {
+        return xs[index];
+    }
+
+    public int getY(int index)
+    {
+        return ys[index];
+    }
+
+    /**
+     * @return The cost of this path, which is one for every straight step and the square root of two for every
+     * diagonal step.
+     */
+    public float getCost()
+    {
+        return cost;
+    }
+}
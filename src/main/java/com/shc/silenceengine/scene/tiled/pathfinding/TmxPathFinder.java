@@ -0,0 +1,547 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * <p> Finds the shortest paths between the cells of a {@link TmxWalkableGrid}, with A* or with Jump Point Search. The
+ * paths move in the eight directions, but never diagonally past a blocked cell, unless the diagonal moves are turned
+ * off for the A* searches. Jump Point Search always moves diagonally, and expands far fewer cells than A* on open
+ * maps. </p>
+ *
+ * <p> The state of the searches is kept in arrays over the cells of the grid, which are stamped with the search that
+ * last touched them instead of being cleared, so a search doesn't allocate and only costs the cells it expands. A path
+ * finder should only be used from a single thread at a time, so every thread needs its own. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxPathFinder
+{
+    /**
+     * The cost of a diagonal step, when a straight step costs one.
+     */
+    public static final float DIAGONAL_COST = 1.4142135f;
+
+    // The heuristic is made larger by this factor, so that of the cells with the same cost, the ones nearer to the
+    // goal are expanded first. The paths are never longer than the shortest by more than the same factor.
+    private static final float TIE_BREAK = 1.001f;
+
+    private TmxWalkableGrid grid;
+    private boolean[]       cells;
+
+    private int width;
+    private int height;
+
+    private float[]  costs;
+    private int[]    parents;
+    private int[]    openStamps;
+    private int[]    closedStamps;
+    private int      stamp;
+    private NodeHeap heap;
+
+    private boolean allowDiagonal;
+    private boolean diagonal;
+
+    // The region of the current search, inclusive
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+
+    private int goalX;
+    private int goalY;
+    private int numExpanded;
+
+    public TmxPathFinder(TmxWalkableGrid grid)
+    {
+        this.grid = grid;
+        cells = grid.getCells();
+
+        width = grid.getWidth();
+        height = grid.getHeight();
+
+        int numCells = width * height;
+
+        costs = new float[numCells];
+        parents = new int[numCells];
+        openStamps = new int[numCells];
+        closedStamps = new int[numCells];
+        heap = new NodeHeap(numCells);
+
+        allowDiagonal = true;
+    }
+
+    /**
+     * Finds the shortest path between two cells with A*.
+     *
+     * @param startX The x-coordinate of the start cell.
+     * @param startY The y-coordinate of the start cell.
+     * @param goalX  The x-coordinate of the goal cell.
+     * @param goalY  The y-coordinate of the goal cell.
+     * @param path   The path to store the cells of the path in, which is cleared first.
+     *
+     * @return True if there is a path, false otherwise.
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, TmxPath path)
+    {
+        return findPath(startX, startY, goalX, goalY, 0, 0, width - 1, height - 1, path);
+    }
+
+    /**
+     * Finds the shortest path between two cells with A*, staying within a region of the grid.
+     *
+     * @param startX The x-coordinate of the start cell.
+     * @param startY The y-coordinate of the start cell.
+     * @param goalX  The x-coordinate of the goal cell.
+     * @param goalY  The y-coordinate of the goal cell.
+     * @param minX   The x-coordinate of the top-left cell of the region.
+     * @param minY   The y-coordinate of the top-left cell of the region.
+     * @param maxX   The x-coordinate of the bottom-right cell of the region.
+     * @param maxY   The y-coordinate of the bottom-right cell of the region.
+     * @param path   The path to store the cells of the path in, which is cleared first.
+     *
+     * @return True if there is a path, false otherwise.
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, int minX, int minY, int maxX, int maxY,
+                            TmxPath path)
+    {
+        path.clear();
+        return appendPath(startX, startY, goalX, goalY, minX, minY, maxX, maxY, path);
+    }
+
+    /**
+     * Finds the shortest path between two cells with Jump Point Search. The path is the same as the one found by A*
+     * with the diagonal moves allowed, but only the cells where the path can turn are expanded.
+     *
+     * @param startX The x-coordinate of the start cell.
+     * @param startY The y-coordinate of the start cell.
+     * @param goalX  The x-coordinate of the goal cell.
+     * @param goalY  The y-coordinate of the goal cell.
+     * @param path   The path to store the cells of the path in, which is cleared first.
+     *
+     * @return True if there is a path, false otherwise.
+     */
+    public boolean findJumpPointPath(int startX, int startY, int goalX, int goalY, TmxPath path)
+    {
+        path.clear();
+
+        if (!begin(startX, startY, goalX, goalY, 0, 0, width - 1, height - 1, true))
+            return false;
+
+        int goal = goalY * width + goalX;
+
+        while (!heap.isEmpty())
+        {
+            int cell = heap.pop();
+            closedStamps[cell] = stamp;
+            numExpanded++;
+
+            if (cell == goal)
+            {
+                buildPath(goal, path);
+                return true;
+            }
+
+            expandJumpPoints(cell);
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds a path with A* like {@link #findPath(int, int, int, int, int, int, int, int, TmxPath)}, but adds the cells
+     * to the end of the path instead of clearing it. The start cell is not added again if the path already ends with
+     * it.
+     */
+    boolean appendPath(int startX, int startY, int goalX, int goalY, int minX, int minY, int maxX, int maxY,
+                       TmxPath path)
+    {
+        if (!begin(startX, startY, goalX, goalY, minX, minY, maxX, maxY, allowDiagonal))
+            return false;
+
+        int goal = goalY * width + goalX;
+
+        while (!heap.isEmpty())
+        {
+            int cell = heap.pop();
+            closedStamps[cell] = stamp;
+            numExpanded++;
+
+            if (cell == goal)
+            {
+                buildPath(goal, path);
+                return true;
+            }
+
+            expandNeighbours(cell);
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the costs of the shortest paths from a cell to all the cells of a region, which can be read with {@link
+     * #getCost(int, int)} until the next search.
+     */
+    void computeCosts(int startX, int startY, int minX, int minY, int maxX, int maxY)
+    {
+        if (!begin(startX, startY, -1, -1, minX, minY, maxX, maxY, allowDiagonal))
+            return;
+
+        while (!heap.isEmpty())
+        {
+            int cell = heap.pop();
+            closedStamps[cell] = stamp;
+            numExpanded++;
+
+            expandNeighbours(cell);
+        }
+    }
+
+    /**
+     * @return The cost of the shortest path to a cell found by the last call to {@link #computeCosts(int, int, int,
+     * int, int, int)}, or infinity if the cell can't be reached.
+     */
+    float getCost(int x, int y)
+    {
+        int cell = y * width + x;
+        return closedStamps[cell] == stamp ? costs[cell] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Starts a search by opening the start cell.
+     *
+     * @return False if the start or the goal can't be walked, and there is no path.
+     */
+    private boolean begin(int startX, int startY, int goalX, int goalY, int minX, int minY, int maxX, int maxY,
+                          boolean diagonal)
+    {
+        this.diagonal = diagonal;
+        this.minX = Math.max(0, minX);
+        this.minY = Math.max(0, minY);
+        this.maxX = Math.min(width - 1, maxX);
+        this.maxY = Math.min(height - 1, maxY);
+        this.goalX = goalX;
+        this.goalY = goalY;
+
+        if (++stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(openStamps, 0);
+            Arrays.fill(closedStamps, 0);
+            stamp = 1;
+        }
+
+        heap.clear();
+        numExpanded = 0;
+
+        if (!isWalkable(startX, startY) || (goalX != -1 && !isWalkable(goalX, goalY)))
+            return false;
+
+        int start = startY * width + startX;
+
+        openStamps[start] = stamp;
+        costs[start] = 0;
+        parents[start] = -1;
+        heap.push(start, heuristic(startX, startY));
+
+        return true;
+    }
+
+    private void expandNeighbours(int cell)
+    {
+        int x = cell % width;
+        int y = cell / width;
+
+        boolean left = isWalkable(x - 1, y);
+        boolean right = isWalkable(x + 1, y);
+        boolean up = isWalkable(x, y - 1);
+        boolean down = isWalkable(x, y + 1);
+
+        if (left)
+            open(cell, x - 1, y, 1);
+
+        if (right)
+            open(cell, x + 1, y, 1);
+
+        if (up)
+            open(cell, x, y - 1, 1);
+
+        if (down)
+            open(cell, x, y + 1, 1);
+
+        if (!diagonal)
+            return;
+
+        if (left && up && isWalkable(x - 1, y - 1))
+            open(cell, x - 1, y - 1, DIAGONAL_COST);
+
+        if (right && up && isWalkable(x + 1, y - 1))
+            open(cell, x + 1, y - 1, DIAGONAL_COST);
+
+        if (left && down && isWalkable(x - 1, y + 1))
+            open(cell, x - 1, y + 1, DIAGONAL_COST);
+
+        if (right && down && isWalkable(x + 1, y + 1))
+            open(cell, x + 1, y + 1, DIAGONAL_COST);
+    }
+
+    /**
+     * Jumps from a cell in the directions that are not pruned, and opens the jump points that are found.
+     */
+    private void expandJumpPoints(int cell)
+    {
+        int x = cell % width;
+        int y = cell / width;
+
+        int parent = parents[cell];
+
+        if (parent == -1)
+        {
+            // The start cell jumps in all the directions
+            for (int dy = -1; dy <= 1; dy++)
+            {
+                for (int dx = -1; dx <= 1; dx++)
+                {
+                    if (dx != 0 || dy != 0)
+                        jumpFrom(cell, x, y, dx, dy);
+                }
+            }
+
+            return;
+        }
+
+        int dx = Integer.signum(x - parent % width);
+        int dy = Integer.signum(y - parent / width);
+
+        if (dx != 0 && dy != 0)
+        {
+            jumpFrom(cell, x, y, dx, 0);
+            jumpFrom(cell, x, y, 0, dy);
+            jumpFrom(cell, x, y, dx, dy);
+        }
+        else if (dx != 0)
+        {
+            // The forced neighbours around the blocked cells behind
+            jumpFrom(cell, x, y, dx, 0);
+            jumpFrom(cell, x, y, 0, -1);
+            jumpFrom(cell, x, y, 0, 1);
+            jumpFrom(cell, x, y, dx, -1);
+            jumpFrom(cell, x, y, dx, 1);
+        }
+        else
+        {
+            jumpFrom(cell, x, y, 0, dy);
+            jumpFrom(cell, x, y, -1, 0);
+            jumpFrom(cell, x, y, 1, 0);
+            jumpFrom(cell, x, y, -1, dy);
+            jumpFrom(cell, x, y, 1, dy);
+        }
+    }
+
+    private void jumpFrom(int cell, int x, int y, int dx, int dy)
+    {
+        // The diagonal steps are only taken when both the straight steps around them are walkable
+        if (dx != 0 && dy != 0 && !(isWalkable(x + dx, y) && isWalkable(x, y + dy)))
+            return;
+
+        int jumpPoint = jump(x + dx, y + dy, dx, dy);
+
+        if (jumpPoint == -1)
+            return;
+
+        int jx = jumpPoint % width;
+        int jy = jumpPoint / width;
+
+        int straight = Math.abs(Math.abs(jx - x) - Math.abs(jy - y));
+        int diagonal = Math.min(Math.abs(jx - x), Math.abs(jy - y));
+
+        open(cell, jx, jy, straight + diagonal * DIAGONAL_COST);
+    }
+
+    /**
+     * Walks from a cell in a direction until it finds the goal or a cell where the path could turn, which is a jump
+     * point. The diagonal walks also stop where a straight walk from them finds a jump point.
+     *
+     * @return The jump point, or -1 if the walk runs into a blocked cell first.
+     */
+    private int jump(int x, int y, int dx, int dy)
+    {
+        while (true)
+        {
+            if (!isWalkable(x, y))
+                return -1;
+
+            if (x == goalX && y == goalY)
+                return y * width + x;
+
+            if (dx != 0 && dy != 0)
+            {
+                if (jump(x + dx, y, dx, 0) != -1 || jump(x, y + dy, 0, dy) != -1)
+                    return y * width + x;
+            }
+            else if (dx != 0)
+            {
+                if ((isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1))
+                    || (isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1)))
+                    return y * width + x;
+            }
+            else
+            {
+                if ((isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy))
+                    || (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy)))
+                    return y * width + x;
+            }
+
+            if (!isWalkable(x + dx, y) || !isWalkable(x, y + dy))
+                return -1;
+
+            x += dx;
+            y += dy;
+        }
+    }
+
+    private void open(int parent, int x, int y, float stepCost)
+    {
+        int cell = y * width + x;
+
+        if (closedStamps[cell] == stamp)
+            return;
+
+        float cost = costs[parent] + stepCost;
+
+        if (openStamps[cell] != stamp)
+        {
+            openStamps[cell] = stamp;
+            costs[cell] = cost;
+            parents[cell] = parent;
+            heap.push(cell, cost + heuristic(x, y));
+        }
+        else if (cost < costs[cell])
+        {
+            costs[cell] = cost;
+            parents[cell] = parent;
+            heap.decrease(cell, cost + heuristic(x, y));
+        }
+    }
+
+    private float heuristic(int x, int y)
+    {
+        if (goalX == -1)
+            return 0;
+
+        int dx = Math.abs(x - goalX);
+        int dy = Math.abs(y - goalY);
+
+        if (!diagonal)
+            return (dx + dy) * TIE_BREAK;
+
+        return (Math.abs(dx - dy) + Math.min(dx, dy) * DIAGONAL_COST) * TIE_BREAK;
+    }
+
+    /**
+     * Adds the cells from the start to the goal to a path, walking the straight and diagonal lines between the
+     * parents, which are more than a step apart after jumping.
+     */
+    private void buildPath(int goal, TmxPath path)
+    {
+        int first = path.getLength();
+
+        // The start cell is already at the end of the path when it is a part of a longer path
+        boolean skipStart = false;
+
+        if (first > 0)
+        {
+            int start = goal;
+
+            while (parents[start] != -1)
+                start = parents[start];
+
+            skipStart = path.getX(first - 1) == start % width && path.getY(first - 1) == start / width;
+        }
+
+        for (int cell = goal; cell != -1; cell = parents[cell])
+        {
+            int x = cell % width;
+            int y = cell / width;
+
+            int parent = parents[cell];
+
+            if (parent == -1)
+            {
+                if (!skipStart)
+                    path.add(x, y);
+
+                break;
+            }
+
+            int dx = Integer.signum(parent % width - x);
+            int dy = Integer.signum(parent / width - y);
+
+            while (y * width + x != parent)
+            {
+                path.add(x, y);
+                x += dx;
+                y += dy;
+            }
+        }
+
+        path.reverse(first);
+        path.addCost(costs[goal]);
+    }
+
+    private boolean isWalkable(int x, int y)
+    {
+        // The region of a search is always inside the grid
+        return x >= minX && y >= minY && x <= maxX && y <= maxY && cells[y * width + x];
+    }
+
+    /**
+     * @return The number of cells expanded by the last search, to compare the costs of the searches.
+     */
+    public int getNumExpanded()
+    {
+        return numExpanded;
+    }
+
+    public boolean isAllowDiagonal()
+    {
+        return allowDiagonal;
+    }
+
+    /**
+     * Sets whether the A* searches can move diagonally. Jump Point Search always moves diagonally.
+     *
+     * @param allowDiagonal True to allow the diagonal moves.
+     */
+    public void setAllowDiagonal(boolean allowDiagonal)
+    {
+        this.allowDiagonal = allowDiagonal;
+    }
+
+    public TmxWalkableGrid getGrid()
+    {
+        return grid;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.pathfinding;
+
+import com.shc.silenceengine.core.SilenceException;
+import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.TmxTileSet;
+import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
+import com.shc.silenceengine.scene.tiled.tiles.TmxTile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p> The walkable cells of a map, built from the tiles of some of its tile layers. A cell is walkable when the
+ * walkability rule accepts the tiles of all the layers at that cell. By default, a tile blocks its cell when its
+ * properties in its tileset have {@link #SOLID_PROPERTY} set to true. </p>
+ *
+ * <p> The grid listens to the tile changes of its layers, and updates the changed cells. The grid change listeners are
+ * only notified when the walkability of some cells is changed, with the region of those cells. </p>
+ *
+ * <p> The path finders move between the eight cells around a cell, as on a square grid. That is the adjacency of the
+ * tiles in the orthogonal and isometric maps, so the staggered and hexagonal maps are not supported. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxWalkableGrid
+{
+    /**
+     * The property of the tiles that blocks their cells with the default walkability rule.
+     */
+    public static final String SOLID_PROPERTY = "solid";
+
+    // The solidity of the tiles for the default rule, by their GID
+    private static final byte GID_UNKNOWN  = 0;
+    private static final byte GID_WALKABLE = 1;
+    private static final byte GID_SOLID    = 2;
+
+    private TmxMap             map;
+    private List<TmxTileLayer> layers;
+    private IWalkabilityRule   rule;
+
+    private int       width;
+    private int       height;
+    private boolean[] walkable;
+
+    private byte[] gidSolidity;
+
+    private List<IGridChangeListener>        gridChangeListeners;
+    private TmxTileLayer.ITileChangeListener tileChangeListener;
+
+    public TmxWalkableGrid(TmxMap map)
+    {
+        this(map, map.getTileLayers(), null);
+    }
+
+    /**
+     * Creates a grid from some tile layers of a map.
+     *
+     * @param map    The map of the layers.
+     * @param layers The tile layers whose tiles block the cells.
+     * @param rule   The rule that decides whether a tile of a layer is walkable, or null to use the {@link
+     *               #SOLID_PROPERTY} of the tiles.
+     *
+     * @throws SilenceException If the map is staggered or hexagonal.
+     */
+    public TmxWalkableGrid(TmxMap map, List<TmxTileLayer> layers, IWalkabilityRule rule)
+    {
+        // The rows of the staggered and hexagonal maps are shifted, so their neighbours are not the square ones
+        if (map.getOrientation() != TmxMap.Orientation.ORTHOGONAL
+            && map.getOrientation() != TmxMap.Orientation.ISOMETRIC)
+            throw new SilenceException("A TmxWalkableGrid cannot be built for " + map.getOrientation() + " maps");
+
+        this.map = map;
+        this.layers = new ArrayList<>(layers);
+        this.rule = rule == null ? this::isTileWalkable : rule;
+
+        width = map.getWidth();
+        height = map.getHeight();
+        walkable = new boolean[width * height];
+
+        gidSolidity = new byte[64];
+        gridChangeListeners = new ArrayList<>();
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+                walkable[y * width + x] = computeWalkable(x, y);
+        }
+
+        tileChangeListener = (layer, x, y, w, h) -> update(x, y, w, h);
+
+        for (TmxTileLayer layer : this.layers)
+            layer.registerTileChangeListener(tileChangeListener);
+    }
+
+    /**
+     * Updates the walkability of the cells in a region from the tiles, and notifies the grid change listeners if any
+     * of them are changed. This is called when the tiles of the layers are changed, and can be called when the
+     * walkability rule starts to decide differently.
+     *
+     * @param x The x-coordinate of the region, in tiles.
+     * @param y The y-coordinate of the region, in tiles.
+     * @param w The width of the region, in tiles.
+     * @param h The height of the region, in tiles.
+     */
+    public void update(int x, int y, int w, int h)
+    {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        for (int row = Math.max(0, y); row < Math.min(height, y + h); row++)
+        {
+            for (int col = Math.max(0, x); col < Math.min(width, x + w); col++)
+            {
+                boolean cell = computeWalkable(col, row);
+
+                if (walkable[row * width + col] == cell)
+                    continue;
+
+                walkable[row * width + col] = cell;
+
+                minX = Math.min(minX, col);
+                minY = Math.min(minY, row);
+                maxX = Math.max(maxX, col);
+                maxY = Math.max(maxY, row);
+            }
+        }
+
+        if (minX > maxX)
+            return;
+
+        for (IGridChangeListener listener : gridChangeListeners)
+            listener.invoke(this, minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    private boolean computeWalkable(int x, int y)
+    {
+        for (TmxTileLayer layer : layers)
+        {
+            if (!rule.isWalkable(layer, x, y))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The default walkability rule, which looks up the solidity of the tiles once for every GID.
+     */
+    private boolean isTileWalkable(TmxTileLayer layer, int x, int y)
+    {
+        if (layer.isTileEmpty(x, y))
+            return true;
+
+        int gid = layer.getTileGID(x, y);
+
+        if (gid >= gidSolidity.length)
+            gidSolidity = Arrays.copyOf(gidSolidity, Math.max(gid + 1, gidSolidity.length * 2));
+
+        if (gidSolidity[gid] == GID_UNKNOWN)
+        {
+            TmxTileSet tileSet = map.findTileset(gid);
+            TmxTile tile = tileSet == null ? null : tileSet.getTile(gid - tileSet.getFirstGID());
+
+            boolean solid = tile != null && Boolean.TRUE.equals(tile.getProperties().get(SOLID_PROPERTY));
+            gidSolidity[gid] = solid ? GID_SOLID : GID_WALKABLE;
+        }
+
+        return gidSolidity[gid] == GID_WALKABLE;
+    }
+
+    /**
+     * @return True if the cell is walkable, and false if it is blocked or outside the grid.
+     */
+    public boolean isWalkable(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height && walkable[y * width + x];
+    }
+
+    /**
+     * @return The walkability of the cells, row by row, for the searches to read without the bounds checks.
+     */
+    boolean[] getCells()
+    {
+        return walkable;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public TmxMap getMap()
+    {
+        return map;
+    }
+
+    public void registerGridChangeListener(IGridChangeListener listener)
+    {
+        gridChangeListeners.add(listener);
+    }
+
+    public void unregisterGridChangeListener(IGridChangeListener listener)
+    {
+        gridChangeListeners.remove(listener);
+    }
+
+    /**
+     * Stops listening to the tile changes of the layers.
+     */
+    public void dispose()
+    {
+        for (TmxTileLayer layer : layers)
+            layer.unregisterTileChangeListener(tileChangeListener);
+    }
+
+    @FunctionalInterface
+    public interface IWalkabilityRule
+    {
+        /**
+         * Decides whether the tile of a layer at a cell lets the cell be walked.
+         *
+         * @param layer The layer of the tile.
+         * @param x     The x-coordinate of the cell, in tiles.
+         * @param y     The y-coordinate of the cell, in tiles.
+         *
+         * @return True if the tile is walkable.
+         */
+        boolean isWalkable(TmxTileLayer layer, int x, int y);
+    }
+
+    @FunctionalInterface
+    public interface IGridChangeListener
+    {
+        /**
+         * Called when the walkability of the cells in a region of a grid is changed.
+         *
+         * @param grid   The grid whose cells are changed.
+         * @param x      The x-coordinate of the changed region, in tiles.
+         * @param y      The y-coordinate of the changed region, in tiles.
+         * @param width  The width of the changed region, in tiles.
+         * @param height The height of the changed region, in tiles.
+         */
+        void invoke(TmxWalkableGrid grid, int x, int y, int width, int height);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene.tiled.renderers;
+
+import com.shc.silenceengine.graphics.Batcher;
+import com.shc.silenceengine.graphics.VertexLayout;
+import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.TmxTileSet;
+import com.shc.silenceengine.scene.tiled.layers.TmxImageLayer;
+import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Renders the hexagonal maps. The hexagons are staggered along the stagger axis of the map, with every other row (or
+ * column) shifted by half a hexagon, and the length of the sides along that axis is the hex side length of the map.
+ * The tiles are drawn aligned to the bottom-left corners of their cells like in Tiled, so the taller tiles rise above
+ * their cells.
+ *
+ * <p> Only the tiles in the view of the camera are drawn. The range of the rows and columns in the view is found from
+ * the view rectangle, and every tile in that range is tested against the rectangle before it is drawn. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxHexagonalMapRenderer extends TmxMapRenderer
+{
+    private boolean staggerX;
+    private boolean staggerEven;
+
+    private int sideLengthX;
+    private int sideLengthY;
+    private int sideOffsetX;
+    private int sideOffsetY;
+    private int columnWidth;
+    private int rowHeight;
+
+    public TmxHexagonalMapRenderer(TmxMap map)
+    {
+        this(map, map.getHexSideLength(), Collections.emptyMap());
+    }
+
+    public TmxHexagonalMapRenderer(TmxMap map, Map<String, Texture> textures)
+    {
+        this(map, map.getHexSideLength(), textures);
+    }
+
+    /**
+     * Creates a renderer for a map of hexagons with a side length. The staggered maps are hexagonal maps whose sides
+     * are of zero length, where the hexagons become diamonds.
+     *
+     * @param map        The map to render.
+     * @param sideLength The length of the sides of the hexagons along the stagger axis.
+     * @param textures   The already loaded textures of the images, mapped to the absolute paths of the images.
+     */
+    protected TmxHexagonalMapRenderer(TmxMap map, int sideLength, Map<String, Texture> textures)
+    {
+        super(map, textures);
+
+        // Tiled staggers the rows with the odd indices by default
+        staggerX = map.getStaggerAxis() == TmxMap.StaggerAxis.AXIS_X;
+        staggerEven = map.getStaggerIndex() == TmxMap.StaggerIndex.EVEN;
+
+        sideLengthX = staggerX ? sideLength : 0;
+        sideLengthY = staggerX ? 0 : sideLength;
+
+        sideOffsetX = (map.getTileWidth() - sideLengthX) / 2;
+        sideOffsetY = (map.getTileHeight() - sideLengthY) / 2;
+
+        columnWidth = sideOffsetX + sideLengthX;
+        rowHeight = sideOffsetY + sideLengthY;
+    }
+
+    /**
+     * @return Whether the row or column of an index is shifted along the stagger axis.
+     */
+    private boolean isStaggered(int index)
+    {
+        return ((index & 1) == 1) != staggerEven;
+    }
+
+    /**
+     * @return The x-coordinate of the left of the cell of a tile in the world.
+     */
+    private float getCellX(int x, int y)
+    {
+        if (staggerX)
+            return x * columnWidth;
+
+        return x * (map.getTileWidth() + sideLengthX) + (isStaggered(y) ? columnWidth : 0);
+    }
+
+    /**
+     * @return The y-coordinate of the top of the cell of a tile in the world.
+     */
+    private float getCellY(int x, int y)
+    {
+        if (staggerX)
+            return y * (map.getTileHeight() + sideLengthY) + (isStaggered(x) ? rowHeight : 0);
+
+        return y * rowHeight;
+    }
+
+    public float getMapWidth()
+    {
+        if (staggerX)
+            return map.getWidth() * columnWidth + sideOffsetX;
+
+        return map.getWidth() * (map.getTileWidth() + sideLengthX) + (map.getHeight() > 1 ? columnWidth : 0);
+    }
+
+    public float getMapHeight()
+    {
+        if (staggerX)
+            return map.getHeight() * (map.getTileHeight() + sideLengthY) + (map.getWidth() > 1 ? rowHeight : 0);
+
+        return map.getHeight() * rowHeight + sideOffsetY;
+    }
+
+    @Override
+    protected void renderBackgroundColor(Batcher batcher)
+    {
+        // Render the background rectangle
+        applyOrigin(batcher);
+        batcher.begin(Primitive.TRIANGLE_FAN);
+        {
+            batcher.vertex(0, 0);
+            batcher.color(map.getBackgroundColor());
+
+            batcher.vertex(getMapWidth(), 0);
+            batcher.color(map.getBackgroundColor());
+
+            batcher.vertex(getMapWidth(), getMapHeight());
+            batcher.color(map.getBackgroundColor());
+
+            batcher.vertex(0, getMapHeight());
+            batcher.color(map.getBackgroundColor());
+        }
+        batcher.end();
+    }
+
+    @Override
+    protected void renderImageLayer(Batcher batcher, TmxImageLayer imageLayer)
+    {
+        if (!imageLayer.isVisible())
+            return;
+
+        Texture originalTexture = Texture.CURRENT;
+
+        float width = imageLayer.getWidth() * map.getTileWidth();
+        float height = imageLayer.getHeight() * map.getTileHeight();
+
+        textureMap.get(imageLayer.getImage().getSource().getAbsolutePath()).bind();
+        applyOrigin(batcher);
+        batcher.begin(Primitive.TRIANGLE_FAN);
+        {
+            batcher.vertex(imageLayer.getX(), imageLayer.getY());
+            batcher.texCoord(0, 0);
+
+            batcher.vertex(imageLayer.getX() + width, imageLayer.getY());
+            batcher.texCoord(1, 0);
+
+            batcher.vertex(imageLayer.getX() + width, imageLayer.getY() + height);
+            batcher.texCoord(1, 1);
+
+            batcher.vertex(imageLayer.getX(), imageLayer.getY() + height);
+            batcher.texCoord(0, 1);
+        }
+        batcher.end();
+
+        originalTexture.bind();
+    }
+
+    @Override
+    protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
+    {
+        if (!tileLayer.isVisible())
+            return;
+
+        int tileWidth = map.getTileWidth();
+        int tileHeight = map.getTileHeight();
+
+        // The range of the rows and columns in the view. The tiles are aligned to the bottom of their cells, so the
+        // rectangle is grown to include the tall tiles that rise into it.
+        int startX, endX, startY, endY;
+
+        if (staggerX)
+        {
+            startX = (int) Math.floor((viewMinX - maxTileWidth) / columnWidth);
+            endX = (int) Math.ceil(viewMaxX / columnWidth);
+            startY = (int) Math.floor((viewMinY - tileHeight - rowHeight) / (tileHeight + sideLengthY));
+            endY = (int) Math.ceil((viewMaxY + maxTileHeight - tileHeight) / (tileHeight + sideLengthY));
+        }
+        else
+        {
+            startX = (int) Math.floor((viewMinX - maxTileWidth - columnWidth) / (tileWidth + sideLengthX));
+            endX = (int) Math.ceil(viewMaxX / (tileWidth + sideLengthX));
+            startY = (int) Math.floor((viewMinY - tileHeight) / rowHeight);
+            endY = (int) Math.ceil((viewMaxY + maxTileHeight - tileHeight) / rowHeight);
+        }
+
+        startX = Math.max(startX, 0);
+        startY = Math.max(startY, 0);
+        endX = Math.min(endX, tileLayer.getWidth() - 1);
+        endY = Math.min(endY, tileLayer.getHeight() - 1);
+
+        Texture original = Texture.CURRENT;
+        Texture current = textureMap.get(map.getTileset(0).getImage().getSource().getAbsolutePath());
+        current.bind();
+
+        // The tiles only need 2D positions and texcoords, so use the compact interleaved vertices
+        VertexLayout originalLayout = batcher.getVertexLayout();
+        batcher.setVertexLayout(VertexLayout.COMPACT_2D);
+
+        applyOrigin(batcher);
+        batcher.beginQuads();
+        {
+            for (int y = startY; y <= endY; y++)
+            {
+                if (staggerX)
+                {
+                    // The columns that are not shifted down are higher, so they are drawn first
+                    for (int x = startX; x <= endX; x++)
+                    {
+                        if (!isStaggered(x))
+                            current = renderTile(batcher, tileLayer, x, y, current);
+                    }
+
+                    for (int x = startX; x <= endX; x++)
+                    {
+                        if (isStaggered(x))
+                            current = renderTile(batcher, tileLayer, x, y, current);
+                    }
+                }
+                else
+                {
+                    for (int x = startX; x <= endX; x++)
+                        current = renderTile(batcher, tileLayer, x, y, current);
+                }
+            }
+        }
+        batcher.end();
+        batcher.setVertexLayout(originalLayout);
+
+        original.bind();
+    }
+
+    /**
+     * Adds the quad of a tile to the batcher, if it is in the view.
+     *
+     * @return The texture bound after drawing the tile.
+     */
+    private Texture renderTile(Batcher batcher, TmxTileLayer tileLayer, int x, int y, Texture current)
+    {
+        int tileSetIndex = tileLayer.getTileTileSetIndex(x, y);
+
+        if (tileSetIndex == -1)
+            return current;
+
+        TmxTileSet tileSet = map.getTileset(tileSetIndex);
+
+        float tileWidth = tileSet.getTileWidth();
+        float tileHeight = tileSet.getTileHeight();
+
+        // The tile is aligned to the bottom-left corner of its cell
+        float posX = getCellX(x, y);
+        float posY = getCellY(x, y) + map.getTileHeight() - tileHeight;
+
+        if (!isInView(posX, posY, posX + tileWidth, posY + tileHeight))
+            return current;
+
+        Texture texture = textureMap.get(tileSet.getImage().getSource().getAbsolutePath());
+
+        if (texture.getId() != current.getId())
+        {
+            batcher.end();
+            current = texture;
+            texture.bind();
+            applyOrigin(batcher);
+            batcher.beginQuads();
+        }
+
+        // The animated tiles are drawn with the tile of their current frame
+        int tileID = getAnimatedTileID(tileSetIndex, tileLayer.getTileID(x, y));
+
+        int numColsPerRow = tileSet.getImage().getWidth() / tileSet.getTileWidth();
+
+        int tileSetCol = tileID % numColsPerRow;
+        int tileSetRow = tileID / numColsPerRow;
+
+        // The clip space of the tile in the texture
+        float clipX = (tileSet.getMargin() + (tileSet.getTileWidth() + tileSet.getSpacing()) * tileSetCol);
+        float clipY = (tileSet.getMargin() + (tileSet.getTileHeight() + tileSet.getSpacing()) * tileSetRow);
+
+        // The texture coordinates of the tile
+        float minU = clipX / tileSet.getImage().getWidth();
+        float maxU = (clipX + tileWidth) / tileSet.getImage().getWidth();
+        float minV = clipY / tileSet.getImage().getHeight();
+        float maxV = (clipY + tileHeight) / tileSet.getImage().getHeight();
+
+        // Flip the texture coordinates to flip the tile
+        boolean flipX = tileLayer.isTileFlippedHorizontally(x, y);
+        boolean flipY = tileLayer.isTileFlippedVertically(x, y);
+        boolean flipZ = tileLayer.isTileFlippedDiagonally(x, y);
+
+        if (flipZ)
+        {
+            flipX = !flipX;
+            flipY = !flipY;
+        }
+
+        if (flipX)
+        {
+            float temp = minU;
+            minU = maxU;
+            maxU = temp;
+        }
+
+        if (flipY)
+        {
+            float temp = minV;
+            minV = maxV;
+            maxV = temp;
+        }
+
+        float uvCorrectionX = (0.2f / tileSet.getImage().getWidth());
+        float uvCorrectionY = (0.2f / tileSet.getImage().getHeight());
+
+        // Draw the tile, the diagonal flip swaps the top-right and bottom-left corners
+        if (batcher.flushOnOverflow(4))
+            applyOrigin(batcher);
+
+        batcher.quad(posX, posY, minU + uvCorrectionX, minV + uvCorrectionY,
+                flipZ ? posX : posX + tileWidth, flipZ ? posY + tileHeight : posY,
+                maxU - uvCorrectionX, minV + uvCorrectionY,
+                posX + tileWidth, posY + tileHeight, maxU - uvCorrectionX, maxV - uvCorrectionY,
+                flipZ ? posX + tileWidth : posX, flipZ ? posY : posY + tileHeight,
+                minU + uvCorrectionX, maxV - uvCorrectionY);
+
+        return current;
+    }
+}
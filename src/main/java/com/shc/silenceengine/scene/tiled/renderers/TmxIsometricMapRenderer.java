@@ -32,7 +32,8 @@
 import com.shc.silenceengine.scene.tiled.TmxTileSet;
 import com.shc.silenceengine.scene.tiled.layers.TmxImageLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
-import com.shc.silenceengine.scene.tiled.tiles.TmxMapTile;
+
+import java.util.Map;
 
 /**
  * @author Sri Harsha Chilakapati
@@ -46,6 +47,11 @@ public TmxIsometricMapRenderer(TmxMap map)
         super(map);
     }
 
+    public TmxIsometricMapRenderer(TmxMap map, Map<String, Texture> textures)
+    {
+        super(map, textures);
+    }
+
     private Vector2 orthoToIso(float x, float y)
     {
         tempVector.x = (x - y) * map.getTileWidth() / 2;
@@ -58,6 +64,7 @@ private Vector2 orthoToIso(float x, float y)
     protected void renderBackgroundColor(Batcher batcher)
     {
         // Render the background rectangle
+        applyOrigin(batcher);
         batcher.begin(Primitive.TRIANGLE_FAN);
         {
             batcher.vertex(orthoToIso(0, 0));
@@ -84,6 +91,7 @@ protected void renderImageLayer(Batcher batcher, TmxImageLayer imageLayer)
         Texture originalTexture = Texture.CURRENT;
 
         textureMap.get(imageLayer.getImage().getSource().getAbsolutePath()).bind();
+        applyOrigin(batcher);
         batcher.begin(Primitive.TRIANGLE_FAN);
         {
             float tileWidth = map.getTileWidth();
@@ -119,18 +127,43 @@ protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
         Texture current = textureMap.get(map.getTileset(0).getImage().getSource().getAbsolutePath());
         current.bind();
 
+        // The range of the tiles that can be in the view, found from the view rectangle in the tile space. The tiles
+        // are drawn down from their top corner, so the rectangle is grown to include the tiles that hang into it.
+        float halfTileWidth = map.getTileWidth() / 2f;
+        float halfTileHeight = map.getTileHeight() / 2f;
+        float originX = map.getWidth() * halfTileWidth;
+
+        // The a = x - y and b = x + y of the tile coordinates
+        float minA = (viewMinX - maxTileWidth / 2f - originX) / halfTileWidth;
+        float maxA = (viewMaxX + maxTileWidth / 2f - originX) / halfTileWidth;
+        float minB = (viewMinY - maxTileHeight) / halfTileHeight;
+        float maxB = viewMaxY / halfTileHeight;
+
+        int startX = Math.max(0, (int) Math.floor((minA + minB) / 2));
+        int endX = Math.min(tileLayer.getWidth() - 1, (int) Math.ceil((maxA + maxB) / 2));
+        int startY = Math.max(0, (int) Math.floor((minB - maxA) / 2));
+        int endY = Math.min(tileLayer.getHeight() - 1, (int) Math.ceil((maxB - minA) / 2));
+
+        applyOrigin(batcher);
         batcher.begin(Primitive.TRIANGLES);
         {
-            for (int x = 0; x < tileLayer.getWidth(); x++)
+            for (int x = startX; x <= endX; x++)
             {
-                for (int y = 0; y < tileLayer.getHeight(); y++)
+                for (int y = startY; y <= endY; y++)
                 {
-                    TmxMapTile mapTile = tileLayer.getTile(x, y);
+                    int tileSetIndex = tileLayer.getTileTileSetIndex(x, y);
 
-                    if (mapTile.getTileSetID() == -1)
+                    if (tileSetIndex == -1)
                         continue;
 
-                    TmxTileSet tileSet = map.getTileset(mapTile.getTileSetID());
+                    TmxTileSet tileSet = map.getTileset(tileSetIndex);
+
+                    // The range is the bounding box of a diamond in the tile space, so skip the tiles outside the view
+                    Vector2 position = orthoToIso(x, y);
+
+                    if (!isInView(position.x - tileSet.getTileWidth() / 2f, position.y,
+                            position.x + tileSet.getTileWidth() / 2f, position.y + tileSet.getTileHeight()))
+                        continue;
 
                     Texture texture = textureMap.get(tileSet.getImage().getSource().getAbsolutePath());
 
@@ -139,13 +172,17 @@ protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
                         batcher.end();
                         current = texture;
                         texture.bind();
+                        applyOrigin(batcher);
                         batcher.begin(Primitive.TRIANGLES);
                     }
 
+                    // The animated tiles are drawn with the tile of their current frame
+                    int tileID = getAnimatedTileID(tileSetIndex, tileLayer.getTileID(x, y));
+
                     int numColsPerRow = tileSet.getImage().getWidth() / tileSet.getTileWidth();
 
-                    int tileSetCol = (mapTile.getGID() - tileSet.getFirstGID()) % numColsPerRow;
-                    int tileSetRow = (mapTile.getGID() - tileSet.getFirstGID()) / numColsPerRow;
+                    int tileSetCol = tileID % numColsPerRow;
+                    int tileSetRow = tileID / numColsPerRow;
 
                     float tileWidth = tileSet.getTileWidth();
                     float tileHeight = tileSet.getTileHeight();
@@ -161,9 +198,9 @@ protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
                     float maxV = (clipY + tileHeight) / tileSet.getImage().getHeight();
 
                     // Flip the texture coordinates to flip the tile
-                    boolean flipX = mapTile.isFlippedHorizontally();
-                    boolean flipY = mapTile.isFlippedVertically();
-                    boolean flipZ = mapTile.isFlippedDiagonally();
+                    boolean flipX = tileLayer.isTileFlippedHorizontally(x, y);
+                    boolean flipY = tileLayer.isTileFlippedVertically(x, y);
+                    boolean flipZ = tileLayer.isTileFlippedDiagonally(x, y);
 
                     if (flipZ)
                     {
@@ -188,7 +225,10 @@ protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
                     float uvCorrectionX = (0.5f / tileSet.getImage().getWidth());
                     float uvCorrectionY = (0.5f / tileSet.getImage().getHeight());
 
-                    // Draw the tile
+                    // Draw the tile, in a batch that has the room for its six vertices
+                    if (batcher.flushOnOverflow(6))
+                        applyOrigin(batcher);
+
                     batcher.vertex(orthoToIso(x, y).addSelf(-tileWidth / 2, 0).addSelf(0, 0));
                     batcher.texCoord(minU + uvCorrectionX, minV + uvCorrectionY);
 
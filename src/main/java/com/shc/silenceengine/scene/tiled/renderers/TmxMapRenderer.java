@@ -24,49 +24,148 @@
 
 package com.shc.silenceengine.scene.tiled.renderers;
 
+import com.shc.silenceengine.core.IUpdatable;
 import com.shc.silenceengine.core.SilenceException;
 import com.shc.silenceengine.graphics.Batcher;
+import com.shc.silenceengine.graphics.cameras.BaseCamera;
 import com.shc.silenceengine.graphics.opengl.Primitive;
 import com.shc.silenceengine.graphics.opengl.Texture;
 import com.shc.silenceengine.io.FilePath;
+import com.shc.silenceengine.math.Frustum;
+import com.shc.silenceengine.math.Transform;
+import com.shc.silenceengine.math.Vector3;
 import com.shc.silenceengine.scene.tiled.TmxMap;
 import com.shc.silenceengine.scene.tiled.TmxTileSet;
 import com.shc.silenceengine.scene.tiled.layers.TmxImageLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxMapLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
+import com.shc.silenceengine.scene.tiled.tiles.TmxTile;
+import com.shc.silenceengine.utils.TimeUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * The base of the renderers of the Tiled maps. The renderer also plays the animations of the animated tiles, when it
+ * is updated every frame with {@link #update(float)}. The current frame of every tile is kept in a lookup table for
+ * each tileset, indexed by the local ID of the tile, so the renderers only have to look up the tile to draw instead of
+ * changing the tiles in the layers.
+ *
+ * <p> Before the layers are rendered, the corners of the frustum of the current camera are found to know the rectangle
+ * of the world that is in view, so that the renderers can draw only the tiles that are on the screen. </p>
+ *
+ * <p> A map can be placed anywhere in the world by setting its origin, which is applied to the transform of the
+ * batcher while the map is rendered. The textures of the tilesets can also be given to the renderer when it is made, so
+ * many maps can share them, in which case the renderer doesn't dispose them. </p>
+ *
  * @author Sri Harsha Chilakapati
  */
-public abstract class TmxMapRenderer
+public abstract class TmxMapRenderer implements IUpdatable
 {
     protected TmxMap               map;
     protected Map<String, Texture> textureMap;
 
+    // The textures loaded by this renderer, which are disposed along with it
+    private List<Texture> ownedTextures;
+
+    // The local ID of the tile shown in place of every tile, for each tileset
+    protected int[][] animationTable;
+
+    // The animated tiles of every tileset
+    private List<List<TmxTile>> animatedTiles;
+
+    // The time the animations have been played for, in milliseconds
+    private double animationTime;
+
+    // Changes whenever the frame of any animated tile changes
+    private int animationVersion;
+
+    // The size of the largest tiles of all the tilesets
+    protected int maxTileWidth;
+    protected int maxTileHeight;
+
+    // The rectangle of the world in the view of the camera, found before the layers are rendered
+    protected float viewMinX;
+    protected float viewMinY;
+    protected float viewMaxX;
+    protected float viewMaxY;
+
+    // The position of the top-left corner of the map in the world
+    private float originX;
+    private float originY;
+
+    private Transform originalTransform;
+
     public TmxMapRenderer(TmxMap map)
     {
-        textureMap = new HashMap<>();
+        this(map, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a renderer that uses already loaded textures for the images of the map. The images that are not in the
+     * given textures are loaded by the renderer.
+     *
+     * @param map      The map to render.
+     * @param textures The textures of the images, mapped to the absolute paths of the images.
+     */
+    public TmxMapRenderer(TmxMap map, Map<String, Texture> textures)
+    {
+        textureMap = new HashMap<>(textures);
+        ownedTextures = new ArrayList<>();
+        originalTransform = new Transform();
 
         this.map = map;
 
-        for (TmxTileSet tileSet : map.getTileSets())
+        animationTable = new int[map.getNumTileSets()][];
+        animatedTiles = new ArrayList<>();
+
+        for (int i = 0; i < map.getNumTileSets(); i++)
         {
-            FilePath path = tileSet.getImage().getSource();
+            List<TmxTile> tiles = map.getTileset(i).getTiles();
+            List<TmxTile> animated = new ArrayList<>();
+
+            animationTable[i] = new int[tiles.size()];
+
+            for (int id = 0; id < tiles.size(); id++)
+            {
+                TmxTile tile = tiles.get(id);
+                animationTable[i][id] = tile.getFrameTileID(0);
 
-            if (!textureMap.containsKey(path.getAbsolutePath()))
-                textureMap.put(path.getAbsolutePath(), Texture.fromFilePath(path));
+                if (tile.isAnimated())
+                    animated.add(tile);
+            }
+
+            animatedTiles.add(animated);
         }
 
-        for (TmxImageLayer imageLayer : map.getImageLayers())
-        {
-            FilePath path = imageLayer.getImage().getSource();
+        maxTileWidth = map.getTileWidth();
+        maxTileHeight = map.getTileHeight();
 
-            if (!textureMap.containsKey(path.getAbsolutePath()))
-                textureMap.put(path.getAbsolutePath(), Texture.fromFilePath(path));
+        for (TmxTileSet tileSet : map.getTileSets())
+        {
+            maxTileWidth = Math.max(maxTileWidth, tileSet.getTileWidth());
+            maxTileHeight = Math.max(maxTileHeight, tileSet.getTileHeight());
         }
+
+        for (TmxTileSet tileSet : map.getTileSets())
+            loadTexture(tileSet.getImage().getSource());
+
+        for (TmxImageLayer imageLayer : map.getImageLayers())
+            loadTexture(imageLayer.getImage().getSource());
+    }
+
+    private void loadTexture(FilePath path)
+    {
+        if (textureMap.containsKey(path.getAbsolutePath()))
+            return;
+
+        Texture texture = Texture.fromFilePath(path);
+
+        textureMap.put(path.getAbsolutePath(), texture);
+        ownedTextures.add(texture);
     }
 
     public static TmxMapRenderer create(TmxMap map)
@@ -77,14 +176,106 @@ public static TmxMapRenderer create(TmxMap map)
                 return new TmxIsometricMapRenderer(map);
             case ORTHOGONAL:
                 return new TmxOrthogonalMapRenderer(map);
+            case STAGGERED:
+                return new TmxStaggeredMapRenderer(map);
+            case HEXAGONAL:
+                return new TmxHexagonalMapRenderer(map);
+        }
+
+        throw new SilenceException("A TmxMapRenderer has not yet been implemented for "
+                                   + map.getOrientation() + " orientation");
+    }
+
+    /**
+     * Creates a renderer for a map, that uses already loaded textures for the images of the map.
+     *
+     * @param map      The map to render.
+     * @param textures The textures of the images, mapped to the absolute paths of the images.
+     *
+     * @return The renderer for the orientation of the map.
+     */
+    public static TmxMapRenderer create(TmxMap map, Map<String, Texture> textures)
+    {
+        switch (map.getOrientation())
+        {
+            case ISOMETRIC:
+                return new TmxIsometricMapRenderer(map, textures);
+            case ORTHOGONAL:
+                return new TmxOrthogonalMapRenderer(map, textures);
+            case STAGGERED:
+                return new TmxStaggeredMapRenderer(map, textures);
+            case HEXAGONAL:
+                return new TmxHexagonalMapRenderer(map, textures);
         }
 
         throw new SilenceException("A TmxMapRenderer has not yet been implemented for "
                                    + map.getOrientation() + " orientation");
     }
 
+    /**
+     * Advances the animations of the animated tiles.
+     *
+     * @param delta The time taken by the last update, in the default time unit.
+     */
+    @Override
+    public void update(float delta)
+    {
+        animationTime += TimeUtils.convert(delta, TimeUtils.getDefaultTimeUnit(), TimeUtils.Unit.MILLIS);
+
+        boolean changed = false;
+
+        for (int i = 0; i < animatedTiles.size(); i++)
+        {
+            int[] table = animationTable[i];
+
+            for (TmxTile tile : animatedTiles.get(i))
+            {
+                int frameTileID = tile.getFrameTileID(animationTime);
+
+                if (table[tile.getID()] != frameTileID)
+                {
+                    table[tile.getID()] = frameTileID;
+                    changed = true;
+                }
+            }
+        }
+
+        if (changed)
+            animationVersion++;
+    }
+
+    /**
+     * Looks up the tile that is shown in place of a tile, which is the current frame of the animated tiles.
+     *
+     * @param tileSetIndex The index of the tileset of the tile.
+     * @param tileID       The local ID of the tile in the tileset.
+     *
+     * @return The local ID of the tile to draw.
+     */
+    public int getAnimatedTileID(int tileSetIndex, int tileID)
+    {
+        int[] table = animationTable[tileSetIndex];
+        return tileID < table.length ? table[tileID] : tileID;
+    }
+
+    public boolean isAnimated(int tileSetIndex, int tileID)
+    {
+        List<TmxTile> tiles = map.getTileset(tileSetIndex).getTiles();
+        return tileID < tiles.size() && tiles.get(tileID).isAnimated();
+    }
+
+    /**
+     * @return A number that changes whenever the frame of any animated tile changes.
+     */
+    public int getAnimationVersion()
+    {
+        return animationVersion;
+    }
+
     public void render(Batcher batcher)
     {
+        saveTransform(batcher);
+        updateViewBounds();
         renderBackgroundColor(batcher);
 
         // Render the image and tile layers
@@ -96,11 +287,14 @@ public void render(Batcher batcher)
             if (mapLayer instanceof TmxImageLayer)
                 renderImageLayer(batcher, (TmxImageLayer) mapLayer);
         }
+
+        restoreTransform(batcher);
     }
 
     protected void renderBackgroundColor(Batcher batcher)
     {
         // Render the background rectangle
+        applyOrigin(batcher);
         batcher.begin(Primitive.TRIANGLE_FAN);
         {
             batcher.vertex(0, 0);
@@ -120,6 +314,8 @@ protected void renderBackgroundColor(Batcher batcher)
 
     public void renderImageLayers(Batcher batcher, int... layerIDs)
     {
+        saveTransform(batcher);
+
         if (layerIDs == null || layerIDs.length == 0)
         {
             for (TmxImageLayer imageLayer : map.getImageLayers())
@@ -133,12 +329,17 @@ public void renderImageLayers(Batcher batcher, int... layerIDs)
                     renderImageLayer(batcher, map.getImageLayer(layerIndex));
             }
         }
+
+        restoreTransform(batcher);
     }
 
     protected abstract void renderImageLayer(Batcher batcher, TmxImageLayer imageLayer);
 
     public void renderTileLayers(Batcher batcher, int... layerIDs)
     {
+        saveTransform(batcher);
+        updateViewBounds();
+
         if (layerIDs == null || layerIDs.length == 0)
         {
             for (TmxTileLayer tileLayer : map.getTileLayers())
@@ -152,13 +353,106 @@ public void renderTileLayers(Batcher batcher, int... layerIDs)
                     renderTileLayer(batcher, map.getTileLayer(layerIndex));
             }
         }
+
+        restoreTransform(batcher);
     }
 
     protected abstract void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer);
 
+    /**
+     * Keeps the current transform of the batcher, which the origin is applied to, and which is restored later.
+     */
+    private void saveTransform(Batcher batcher)
+    {
+        originalTransform.set(batcher.getTransform());
+    }
+
+    /**
+     * Sets the transform of the batcher to the saved transform, translated to the origin of the map. The batcher
+     * resets its transform whenever it draws a batch, so this is called before every batch, and again when {@link
+     * Batcher#flushOnOverflow(int)} flushes in the middle of one.
+     */
+    protected void applyOrigin(Batcher batcher)
+    {
+        batcher.getTransform().set(originalTransform);
+
+        if (originX == 0 && originY == 0)
+            return;
+
+        Vector3 translation = Vector3.REUSABLE_STACK.pop().set(originX, originY, 0);
+        batcher.getTransform().translateSelf(translation);
+        Vector3.REUSABLE_STACK.push(translation);
+    }
+
+    private void restoreTransform(Batcher batcher)
+    {
+        batcher.getTransform().set(originalTransform);
+    }
+
+    /**
+     * Finds the rectangle of the map that is in the view of the current camera, from the corners of its frustum. The
+     * rectangle is relative to the origin of the map.
+     */
+    protected void updateViewBounds()
+    {
+        Frustum frustum = BaseCamera.CURRENT.getFrustum();
+
+        viewMinX = viewMinY = Float.POSITIVE_INFINITY;
+        viewMaxX = viewMaxY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < 8; i++)
+        {
+            Vector3 corner = frustum.getCorner(i);
+
+            viewMinX = Math.min(viewMinX, corner.x);
+            viewMinY = Math.min(viewMinY, corner.y);
+            viewMaxX = Math.max(viewMaxX, corner.x);
+            viewMaxY = Math.max(viewMaxY, corner.y);
+        }
+
+        viewMinX -= originX;
+        viewMinY -= originY;
+        viewMaxX -= originX;
+        viewMaxY -= originY;
+    }
+
+    /**
+     * Tests whether a rectangle of the world overlaps the rectangle in the view of the camera.
+     */
+    protected boolean isInView(float minX, float minY, float maxX, float maxY)
+    {
+        return maxX >= viewMinX && minX <= viewMaxX && maxY >= viewMinY && minY <= viewMaxY;
+    }
+
+    /**
+     * Disposes the textures that are loaded by this renderer. The textures given to the renderer are not disposed.
+     */
     public void dispose()
     {
-        textureMap.values().forEach(Texture::dispose);
+        ownedTextures.forEach(Texture::dispose);
+        ownedTextures.clear();
+    }
+
+    /**
+     * Places the map in the world, by setting the position of its top-left corner.
+     *
+     * @param x The x-coordinate of the origin of the map in the world.
+     * @param y The y-coordinate of the origin of the map in the world.
+     */
+    public void setOrigin(float x, float y)
+    {
+        originX = x;
+        originY = y;
+    }
+
+    public float getOriginX()
+    {
+        return originX;
+    }
+
+    public float getOriginY()
+    {
+        return originY;
     }
 
     public TmxMap getMap()
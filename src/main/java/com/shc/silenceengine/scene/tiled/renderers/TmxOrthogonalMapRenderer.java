@@ -24,23 +24,63 @@
 
 package com.shc.silenceengine.scene.tiled.renderers;
 
+import com.shc.silenceengine.core.SilenceEngine;
 import com.shc.silenceengine.graphics.Batcher;
+import com.shc.silenceengine.graphics.RenderQueue;
+import com.shc.silenceengine.graphics.opengl.GL3Context;
 import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Program;
 import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.graphics.opengl.VertexArray;
 import com.shc.silenceengine.scene.tiled.TmxMap;
 import com.shc.silenceengine.scene.tiled.TmxTileSet;
 import com.shc.silenceengine.scene.tiled.layers.TmxImageLayer;
 import com.shc.silenceengine.scene.tiled.layers.TmxTileLayer;
-import com.shc.silenceengine.scene.tiled.tiles.TmxMapTile;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Renders the orthogonal maps. The tile layers are split into chunks of CHUNK_SIZE x CHUNK_SIZE tiles, whose vertices
+ * are built once into static buffers, see {@link TmxTileChunk}. Only the chunks that overlap the view of the current
+ * camera, offset by the origin of the map, are drawn, and a chunk is only built again when one of its tiles is changed
+ * with {@link TmxTileLayer#setTile(int, int, int)}. The animated tiles only have their texture coordinates replaced
+ * when their frames change.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class TmxOrthogonalMapRenderer extends TmxMapRenderer
 {
+    // The no. of tiles along each side of a chunk
+    public static final int CHUNK_SIZE = 32;
+
+    private Map<TmxTileLayer, TmxTileChunk[]> chunkMap;
+
+    private TmxTileLayer.ITileChangeListener tileChangeListener;
+    private TmxTileChunk.ITexCoordFunction   texCoordFunction;
+
+    // The texture coordinates of a tile while building the chunks
+    private float[] texCoords;
+
+    private VertexArray vao;
+
     public TmxOrthogonalMapRenderer(TmxMap map)
     {
-        super(map);
+        this(map, Collections.emptyMap());
+    }
+
+    public TmxOrthogonalMapRenderer(TmxMap map, Map<String, Texture> textures)
+    {
+        super(map, textures);
+
+        chunkMap = new HashMap<>();
+        tileChangeListener = this::onTileChanged;
+        texCoordFunction = this::getTexCoords;
+
+        texCoords = new float[8];
+
+        vao = new VertexArray();
     }
 
     protected void renderImageLayer(Batcher batcher, TmxImageLayer imageLayer)
@@ -51,6 +91,7 @@ protected void renderImageLayer(Batcher batcher, TmxImageLayer imageLayer)
         Texture originalTexture = Texture.CURRENT;
 
         textureMap.get(imageLayer.getImage().getSource().getAbsolutePath()).bind();
+        applyOrigin(batcher);
         batcher.begin(Primitive.TRIANGLE_FAN);
         {
             batcher.vertex(imageLayer.getX(), imageLayer.getY());
@@ -75,111 +116,263 @@ protected void renderTileLayer(Batcher batcher, TmxTileLayer tileLayer)
         if (!tileLayer.isVisible())
             return;
 
+        TmxTileChunk[] chunks = getChunks(tileLayer);
+
+        // The chunks are drawn directly, so draw the queued draws first to keep them below the tiles
+        RenderQueue queue = SilenceEngine.graphics.getRenderQueue();
+
+        if (queue != null && !queue.isFlushing())
+            queue.flush();
+
         Texture original = Texture.CURRENT;
-        Texture current = textureMap.get(map.getTileset(0).getImage().getSource().getAbsolutePath());
-        current.bind();
+        VertexArray originalVAO = VertexArray.CURRENT;
+
+        // Validate the VAO, a new one needs the quad indices bound to it
+        if (!vao.isValid())
+            vao = new VertexArray();
+
+        vao.bind();
+        batcher.getQuadIndices().bind(true);
+
+        // The chunks are drawn with the transform the program reads from the batcher
+        applyOrigin(batcher);
+        Program.CURRENT.prepareFrame();
+
+        vao.enableAttributeArray(batcher.getVertexLocation());
+        vao.enableAttributeArray(batcher.getTexCoordLocation());
+
+        // The color is added to the texture color by the shader, so all the vertices use Color.TRANSPARENT, which is
+        // (0, 0, 0, 1) and leaves the texture as it is, like the textured vertices of the Batcher
+        vao.disableAttributeArray(batcher.getColorLocation());
+        GL3Context.vertexAttribute(batcher.getColorLocation(), 0, 0, 0, 1);
+
+        int chunksX = (tileLayer.getWidth() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        for (int i = 0; i < chunks.length; i++)
+        {
+            TmxTileChunk chunk = chunks[i];
+
+            if (chunk.isDirty())
+                buildChunk(chunk, tileLayer, i % chunksX * CHUNK_SIZE, i / chunksX * CHUNK_SIZE);
+
+            // The view bounds are relative to the origin of the map, like the bounds of the chunks
+            if (chunk.isEmpty() || !isInView(chunk.getMinX(), chunk.getMinY(), chunk.getMaxX(), chunk.getMaxY()))
+                continue;
+
+            // Only the texture coordinates of the animated tiles change with the animations
+            if (chunk.hasAnimatedQuads())
+                chunk.updateAnimatedQuads(getAnimationVersion(), texCoordFunction);
+
+            chunk.render(vao);
+        }
+
+        vao.disableAttributeArray(batcher.getVertexLocation());
+        vao.disableAttributeArray(batcher.getTexCoordLocation());
+
+        original.bind();
+
+        if (originalVAO != null && originalVAO.isValid())
+            originalVAO.bind();
+        else
+            GL3Context.bindVertexArray(null);
+    }
+
+    /**
+     * Gets the chunks of a tile layer, creating them the first time the layer is rendered. The chunks are listed row
+     * by row, and are marked dirty whenever a tile in them is changed.
+     */
+    private TmxTileChunk[] getChunks(TmxTileLayer tileLayer)
+    {
+        TmxTileChunk[] chunks = chunkMap.get(tileLayer);
+
+        if (chunks == null)
+        {
+            int chunksX = (tileLayer.getWidth() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            int chunksY = (tileLayer.getHeight() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+            chunks = new TmxTileChunk[chunksX * chunksY];
+
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i] = new TmxTileChunk();
+
+            chunkMap.put(tileLayer, chunks);
+            tileLayer.registerTileChangeListener(tileChangeListener);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Marks all the chunks that overlap the changed region of a layer as dirty, so they are built again before they
+     * are rendered next.
+     */
+    private void onTileChanged(TmxTileLayer tileLayer, int x, int y, int width, int height)
+    {
+        TmxTileChunk[] chunks = chunkMap.get(tileLayer);
+
+        if (chunks == null || width <= 0 || height <= 0)
+            return;
+
+        int chunksX = (tileLayer.getWidth() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        int startX = x / CHUNK_SIZE;
+        int startY = y / CHUNK_SIZE;
+        int endX = (x + width - 1) / CHUNK_SIZE;
+        int endY = (y + height - 1) / CHUNK_SIZE;
+
+        for (int chunkY = startY; chunkY <= endY; chunkY++)
+        {
+            for (int chunkX = startX; chunkX <= endX; chunkX++)
+                chunks[chunkY * chunksX + chunkX].markDirty();
+        }
+    }
 
-        batcher.begin(Primitive.TRIANGLES);
+    /**
+     * Builds the quads of the tiles in a chunk, in the right-down order.
+     */
+    private void buildChunk(TmxTileChunk chunk, TmxTileLayer tileLayer, int startX, int startY)
+    {
+        int endX = Math.min(startX + CHUNK_SIZE, tileLayer.getWidth());
+        int endY = Math.min(startY + CHUNK_SIZE, tileLayer.getHeight());
+
+        float tileWidth = map.getTileWidth();
+        float tileHeight = map.getTileHeight();
+
+        chunk.begin();
         {
-            for (int x = 0; x < tileLayer.getWidth(); x++)
+            for (int y = startY; y < endY; y++)
             {
-                for (int y = 0; y < tileLayer.getHeight(); y++)
+                for (int x = startX; x < endX; x++)
                 {
-                    TmxMapTile mapTile = tileLayer.getTile(x, y);
+                    int tileSetIndex = tileLayer.getTileTileSetIndex(x, y);
 
-                    if (mapTile.getTileSetID() == -1)
+                    if (tileSetIndex == -1)
                         continue;
 
-                    TmxTileSet tileSet = map.getTileset(mapTile.getTileSetID());
+                    TmxTileSet tileSet = map.getTileset(tileSetIndex);
 
                     Texture texture = textureMap.get(tileSet.getImage().getSource().getAbsolutePath());
 
-                    if (texture.getId() != current.getId())
-                    {
-                        batcher.end();
-                        current = texture;
-                        texture.bind();
-                        batcher.begin(Primitive.TRIANGLES);
-                    }
+                    // The GID with the flip flags, which is all that is needed to find the texture coordinates again
+                    int gid = tileLayer.getTileRawGID(x, y);
 
-                    int numColsPerRow = tileSet.getImage().getWidth() / tileSet.getTileWidth();
-
-                    int tileSetCol = (mapTile.getGID() - tileSet.getFirstGID()) % numColsPerRow;
-                    int tileSetRow = (mapTile.getGID() - tileSet.getFirstGID()) / numColsPerRow;
-
-                    float tileWidth = map.getTileWidth();
-                    float tileHeight = map.getTileHeight();
+                    getTexCoords(gid, texCoords);
 
                     // The position of the tile in the world
                     float posX = x * tileWidth;
-                    float posY = y * tileWidth;
-
-                    // The clip space of the tile in the texture
-                    float clipX = (tileSet.getMargin() + (tileSet.getTileWidth() + tileSet.getSpacing()) * tileSetCol);
-                    float clipY = (tileSet.getMargin() + (tileSet.getTileHeight() + tileSet.getSpacing()) * tileSetRow);
-
-                    // The texture coordinates of the tile
-                    float minU = clipX / tileSet.getImage().getWidth();
-                    float maxU = (clipX + tileWidth) / tileSet.getImage().getWidth();
-                    float minV = clipY / tileSet.getImage().getHeight();
-                    float maxV = (clipY + tileHeight) / tileSet.getImage().getHeight();
-
-                    // Flip the texture coordinates to flip the tile
-                    boolean flipX = mapTile.isFlippedHorizontally();
-                    boolean flipY = mapTile.isFlippedVertically();
-                    boolean flipZ = mapTile.isFlippedDiagonally();
-
-                    if (flipZ)
-                    {
-                        flipX = !flipX;
-                        flipY = !flipY;
-                    }
-
-                    if (flipX)
-                    {
-                        float temp = minU;
-                        minU = maxU;
-                        maxU = temp;
-                    }
-
-                    if (flipY)
-                    {
-                        float temp = minV;
-                        minV = maxV;
-                        maxV = temp;
-                    }
-
-                    float uvCorrectionX = (0.2f / tileSet.getImage().getWidth());
-                    float uvCorrectionY = (0.2f / tileSet.getImage().getHeight());
-
-                    // Draw the tile
-                    batcher.vertex(posX, posY);
-                    batcher.texCoord(minU + uvCorrectionX, minV + uvCorrectionY);
-
-                    batcher.vertex(flipZ ? posX : posX + tileWidth, flipZ ? posY + tileHeight : posY);
-                    batcher.texCoord(maxU - uvCorrectionX, minV + uvCorrectionY);
-
-                    batcher.vertex(flipZ ? posX + tileWidth : posX, flipZ ? posY : posY + tileHeight);
-                    batcher.texCoord(minU + uvCorrectionX, maxV - uvCorrectionY);
-
-                    batcher.vertex(flipZ ? posX : posX + tileWidth, flipZ ? posY + tileHeight : posY);
-                    batcher.texCoord(maxU - uvCorrectionX, minV + uvCorrectionY);
-
-                    batcher.vertex(posX + tileWidth, posY + tileHeight);
-                    batcher.texCoord(maxU - uvCorrectionX, maxV - uvCorrectionY);
-
-                    batcher.vertex(flipZ ? posX + tileWidth : posX, flipZ ? posY : posY + tileHeight);
-                    batcher.texCoord(minU + uvCorrectionX, maxV - uvCorrectionY);
+                    float posY = y * tileHeight;
+
+                    // The diagonal flip swaps the top-right and bottom-left corners
+                    boolean flipZ = tileLayer.isTileFlippedDiagonally(x, y);
+
+                    float x1 = flipZ ? posX : posX + tileWidth;
+                    float y1 = flipZ ? posY + tileHeight : posY;
+                    float x3 = flipZ ? posX + tileWidth : posX;
+                    float y3 = flipZ ? posY : posY + tileHeight;
+
+                    if (isAnimated(tileSetIndex, tileLayer.getTileID(x, y)))
+                        chunk.animatedQuad(texture, gid,
+                                posX, posY, texCoords[0], texCoords[1],
+                                x1, y1, texCoords[2], texCoords[3],
+                                posX + tileWidth, posY + tileHeight, texCoords[4], texCoords[5],
+                                x3, y3, texCoords[6], texCoords[7]);
+                    else
+                        chunk.quad(texture,
+                                posX, posY, texCoords[0], texCoords[1],
+                                x1, y1, texCoords[2], texCoords[3],
+                                posX + tileWidth, posY + tileHeight, texCoords[4], texCoords[5],
+                                x3, y3, texCoords[6], texCoords[7]);
                 }
             }
         }
-        batcher.end();
+        chunk.end();
+    }
 
-        original.bind();
+    /**
+     * Finds the texture coordinates of the four corners of a tile, in the clockwise order starting at the top-left.
+     * The animated tiles use the texture coordinates of their current frame.
+     *
+     * @param gid       The GID of the tile along with its flip flags.
+     * @param texCoords The array to store the u and v of the four corners into.
+     */
+    private void getTexCoords(int gid, float[] texCoords)
+    {
+        int tileSetIndex = map.findTileSetIndex(gid);
+        TmxTileSet tileSet = map.getTileset(tileSetIndex);
+
+        boolean flipX = (gid & TmxMap.FLIPPED_HORIZONTALLY_FLAG) != 0;
+        boolean flipY = (gid & TmxMap.FLIPPED_VERTICALLY_FLAG) != 0;
+        boolean flipZ = (gid & TmxMap.FLIPPED_DIAGONALLY_FLAG) != 0;
+
+        gid &= ~(TmxMap.FLIPPED_HORIZONTALLY_FLAG | TmxMap.FLIPPED_VERTICALLY_FLAG | TmxMap.FLIPPED_DIAGONALLY_FLAG);
+
+        int tileID = getAnimatedTileID(tileSetIndex, gid - tileSet.getFirstGID());
+
+        int numColsPerRow = tileSet.getImage().getWidth() / tileSet.getTileWidth();
+
+        int tileSetCol = tileID % numColsPerRow;
+        int tileSetRow = tileID / numColsPerRow;
+
+        float tileWidth = map.getTileWidth();
+        float tileHeight = map.getTileHeight();
+
+        // The clip space of the tile in the texture
+        float clipX = (tileSet.getMargin() + (tileSet.getTileWidth() + tileSet.getSpacing()) * tileSetCol);
+        float clipY = (tileSet.getMargin() + (tileSet.getTileHeight() + tileSet.getSpacing()) * tileSetRow);
+
+        // The texture coordinates of the tile
+        float minU = clipX / tileSet.getImage().getWidth();
+        float maxU = (clipX + tileWidth) / tileSet.getImage().getWidth();
+        float minV = clipY / tileSet.getImage().getHeight();
+        float maxV = (clipY + tileHeight) / tileSet.getImage().getHeight();
+
+        // Flip the texture coordinates to flip the tile
+        if (flipZ)
+        {
+            flipX = !flipX;
+            flipY = !flipY;
+        }
+
+        if (flipX)
+        {
+            float temp = minU;
+            minU = maxU;
+            maxU = temp;
+        }
+
+        if (flipY)
+        {
+            float temp = minV;
+            minV = maxV;
+            maxV = temp;
+        }
+
+        float uvCorrectionX = (0.2f / tileSet.getImage().getWidth());
+        float uvCorrectionY = (0.2f / tileSet.getImage().getHeight());
+
+        texCoords[0] = minU + uvCorrectionX;
+        texCoords[1] = minV + uvCorrectionY;
+        texCoords[2] = maxU - uvCorrectionX;
+        texCoords[3] = minV + uvCorrectionY;
+        texCoords[4] = maxU - uvCorrectionX;
+        texCoords[5] = maxV - uvCorrectionY;
+        texCoords[6] = minU + uvCorrectionX;
+        texCoords[7] = maxV - uvCorrectionY;
     }
 
     public void dispose()
     {
-        textureMap.values().forEach(Texture::dispose);
+        for (Map.Entry<TmxTileLayer, TmxTileChunk[]> entry : chunkMap.entrySet())
+        {
+            entry.getKey().unregisterTileChangeListener(tileChangeListener);
+
+            for (TmxTileChunk chunk : entry.getValue())
+                chunk.dispose();
+        }
+
+        chunkMap.clear();
+        vao.dispose();
+
+        super.dispose();
     }
 }
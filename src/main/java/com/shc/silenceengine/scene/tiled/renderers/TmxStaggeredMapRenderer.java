@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene.tiled.renderers;
+
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.scene.tiled.TmxMap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Renders the staggered isometric maps. The diamonds of a staggered map are laid out like the hexagons of a hexagonal
+ * map whose sides are of zero length, with every other row (or column) shifted by half a tile.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxStaggeredMapRenderer extends TmxHexagonalMapRenderer
+{
+    public TmxStaggeredMapRenderer(TmxMap map)
+    {
+        this(map, Collections.emptyMap());
+    }
+
+    public TmxStaggeredMapRenderer(TmxMap map, Map<String, Texture> textures)
+    {
+        super(map, 0, textures);
+    }
+}
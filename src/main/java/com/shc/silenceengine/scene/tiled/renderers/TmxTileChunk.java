@@ -0,0 +1,421 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.scene.tiled.renderers;
+
+import com.shc.silenceengine.core.SilenceEngine;
+import com.shc.silenceengine.graphics.Batcher;
+import com.shc.silenceengine.graphics.opengl.BufferObject;
+import com.shc.silenceengine.graphics.opengl.GL3Context;
+import com.shc.silenceengine.graphics.opengl.Primitive;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.graphics.opengl.VertexArray;
+import com.shc.silenceengine.math.Frustum;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A TmxTileChunk keeps the vertices of a rectangular block of tiles of a tile layer on the GPU, so they are built and
+ * uploaded only once instead of every frame. The tiles are grouped on the textures of their tilesets, with a static
+ * buffer for each texture, and the quads of a group are drawn in a single draw call with the quad indices of the
+ * {@link Batcher}. The bounds of the tiles are kept too, so that a chunk outside the view is not drawn at all.
+ *
+ * <p> A chunk is built by adding the quads of its tiles between the calls to {@link #begin()} and {@link #end()}, and
+ * is marked dirty when any of its tiles change, so that the renderer builds it again before it is drawn next. </p>
+ *
+ * <p> The quads of the animated tiles are stored after the other quads of their texture. When the frame of any animated
+ * tile changes, only their texture coordinates are looked up again and uploaded over the old ones with {@link
+ * #updateAnimatedQuads(int, ITexCoordFunction)}, so the positions of the tiles are never rebuilt. </p>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxTileChunk
+{
+    // The no. of floats in a vertex, the position and the texcoord
+    private static final int VERTEX_SIZE = 4;
+
+    // The vertices of a chunk while building it, shared as only one chunk is built at a time
+    private static FloatBuffer uploadBuffer;
+
+    // The texture coordinates of an animated quad while updating them
+    private static float[] texCoords = new float[8];
+
+    private List<Group> groups;
+
+    private int numGroups;
+
+    private float minX;
+    private float minY;
+    private float maxX;
+    private float maxY;
+
+    private boolean dirty;
+
+    // The animation version of the texture coordinates of the animated quads
+    private int animationVersion;
+
+    public TmxTileChunk()
+    {
+        groups = new ArrayList<>();
+        dirty = true;
+    }
+
+    /**
+     * Starts building this chunk, discarding the tiles added before.
+     */
+    public void begin()
+    {
+        for (int i = 0; i < numGroups; i++)
+        {
+            groups.get(i).numQuads = 0;
+            groups.get(i).numAnimatedQuads = 0;
+        }
+
+        numGroups = 0;
+
+        minX = minY = Float.POSITIVE_INFINITY;
+        maxX = maxY = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds the quad of a tile to this chunk. The corners are given in clockwise order starting at the top-left.
+     */
+    public void quad(Texture texture,
+                     float x0, float y0, float u0, float v0,
+                     float x1, float y1, float u1, float v1,
+                     float x2, float y2, float u2, float v2,
+                     float x3, float y3, float u3, float v3)
+    {
+        Group group = getGroup(texture);
+
+        if ((group.numQuads + 1) * 4 * VERTEX_SIZE > group.vertices.length)
+            group.vertices = Arrays.copyOf(group.vertices, group.vertices.length * 2);
+
+        putQuad(group.vertices, group.numQuads++ * 4 * VERTEX_SIZE,
+                x0, y0, u0, v0, x1, y1, u1, v1, x2, y2, u2, v2, x3, y3, u3, v3);
+    }
+
+    /**
+     * Adds the quad of an animated tile to this chunk. The texture coordinates of the quad are looked up again with
+     * the tile whenever the animations change.
+     *
+     * @param tile A value that identifies the tile to the texture coordinate function, like its GID.
+     */
+    public void animatedQuad(Texture texture, int tile,
+                             float x0, float y0, float u0, float v0,
+                             float x1, float y1, float u1, float v1,
+                             float x2, float y2, float u2, float v2,
+                             float x3, float y3, float u3, float v3)
+    {
+        Group group = getGroup(texture);
+
+        if ((group.numAnimatedQuads + 1) * 4 * VERTEX_SIZE > group.animatedVertices.length)
+        {
+            group.animatedVertices = Arrays.copyOf(group.animatedVertices, group.animatedVertices.length * 2);
+            group.animatedTiles = Arrays.copyOf(group.animatedTiles, group.animatedTiles.length * 2);
+        }
+
+        group.animatedTiles[group.numAnimatedQuads] = tile;
+
+        putQuad(group.animatedVertices, group.numAnimatedQuads++ * 4 * VERTEX_SIZE,
+                x0, y0, u0, v0, x1, y1, u1, v1, x2, y2, u2, v2, x3, y3, u3, v3);
+    }
+
+    private void putQuad(float[] vertices, int offset,
+                         float x0, float y0, float u0, float v0,
+                         float x1, float y1, float u1, float v1,
+                         float x2, float y2, float u2, float v2,
+                         float x3, float y3, float u3, float v3)
+    {
+        vertices[offset] = x0;
+        vertices[offset + 1] = y0;
+        vertices[offset + 2] = u0;
+        vertices[offset + 3] = v0;
+
+        vertices[offset + 4] = x1;
+        vertices[offset + 5] = y1;
+        vertices[offset + 6] = u1;
+        vertices[offset + 7] = v1;
+
+        vertices[offset + 8] = x2;
+        vertices[offset + 9] = y2;
+        vertices[offset + 10] = u2;
+        vertices[offset + 11] = v2;
+
+        vertices[offset + 12] = x3;
+        vertices[offset + 13] = y3;
+        vertices[offset + 14] = u3;
+        vertices[offset + 15] = v3;
+
+        minX = Math.min(minX, Math.min(Math.min(x0, x1), Math.min(x2, x3)));
+        minY = Math.min(minY, Math.min(Math.min(y0, y1), Math.min(y2, y3)));
+        maxX = Math.max(maxX, Math.max(Math.max(x0, x1), Math.max(x2, x3)));
+        maxY = Math.max(maxY, Math.max(Math.max(y0, y1), Math.max(y2, y3)));
+    }
+
+    private Group getGroup(Texture texture)
+    {
+        for (int i = 0; i < numGroups; i++)
+        {
+            Group group = groups.get(i);
+
+            if (group.texture.getId() == texture.getId())
+                return group;
+        }
+
+        // Reuse the groups from the previous build, along with their buffers
+        if (numGroups == groups.size())
+            groups.add(new Group());
+
+        Group group = groups.get(numGroups++);
+        group.texture = texture;
+
+        return group;
+    }
+
+    /**
+     * Finishes building this chunk, and uploads the vertices of every texture into its static buffer.
+     */
+    public void end()
+    {
+        for (int i = 0; i < groups.size(); i++)
+        {
+            Group group = groups.get(i);
+
+            if (i >= numGroups)
+            {
+                // The textures that are no longer used in this chunk
+                if (group.buffer != null)
+                    group.buffer.dispose();
+
+                group.buffer = null;
+                group.texture = null;
+                continue;
+            }
+
+            int numFloats = group.numQuads * 4 * VERTEX_SIZE;
+            int numAnimatedFloats = group.numAnimatedQuads * 4 * VERTEX_SIZE;
+
+            ensureUploadCapacity(numFloats + numAnimatedFloats);
+
+            uploadBuffer.clear();
+            uploadBuffer.put(group.vertices, 0, numFloats)
+                    .put(group.animatedVertices, 0, numAnimatedFloats)
+                    .flip();
+
+            if (group.buffer == null)
+                group.buffer = new BufferObject(BufferObject.Target.ARRAY_BUFFER);
+
+            group.buffer.uploadData(uploadBuffer, BufferObject.Usage.STATIC_DRAW);
+        }
+
+        groups.subList(numGroups, groups.size()).clear();
+        dirty = false;
+    }
+
+    private static void ensureUploadCapacity(int numFloats)
+    {
+        if (uploadBuffer == null || uploadBuffer.capacity() < numFloats)
+            uploadBuffer = BufferUtils.createFloatBuffer(Math.max(numFloats, 32 * 32 * 4 * VERTEX_SIZE));
+    }
+
+    /**
+     * Looks up the texture coordinates of the animated quads again, and uploads them over the old ones. Nothing is done
+     * when the coordinates are already of the same animation version.
+     *
+     * @param version  The version of the animations, which changes whenever the frame of any tile changes.
+     * @param function The function that looks up the texture coordinates of an animated tile.
+     */
+    public void updateAnimatedQuads(int version, ITexCoordFunction function)
+    {
+        if (animationVersion == version)
+            return;
+
+        animationVersion = version;
+
+        for (int i = 0; i < numGroups; i++)
+        {
+            Group group = groups.get(i);
+
+            if (group.numAnimatedQuads == 0)
+                continue;
+
+            for (int q = 0; q < group.numAnimatedQuads; q++)
+            {
+                function.invoke(group.animatedTiles[q], texCoords);
+
+                int offset = q * 4 * VERTEX_SIZE;
+
+                for (int v = 0; v < 4; v++)
+                {
+                    group.animatedVertices[offset + v * VERTEX_SIZE + 2] = texCoords[v * 2];
+                    group.animatedVertices[offset + v * VERTEX_SIZE + 3] = texCoords[v * 2 + 1];
+                }
+            }
+
+            int numAnimatedFloats = group.numAnimatedQuads * 4 * VERTEX_SIZE;
+            ensureUploadCapacity(numAnimatedFloats);
+
+            uploadBuffer.clear();
+            uploadBuffer.put(group.animatedVertices, 0, numAnimatedFloats).flip();
+
+            // The animated quads are after the other quads, and only their range of the buffer is replaced
+            group.buffer.uploadSubData(uploadBuffer.slice(), group.numQuads * 4 * VERTEX_SIZE * Float.BYTES);
+        }
+    }
+
+    /**
+     * Draws the tiles of this chunk with the current program. The vertex array should have the quad indices of the
+     * batcher bound as its element array buffer.
+     *
+     * @param vao The vertex array to point the vertices with.
+     */
+    public void render(VertexArray vao)
+    {
+        Batcher batcher = SilenceEngine.graphics.getBatcher();
+
+        int stride = VERTEX_SIZE * Float.BYTES;
+
+        for (int i = 0; i < numGroups; i++)
+        {
+            Group group = groups.get(i);
+
+            group.texture.bind();
+
+            vao.pointAttribute(batcher.getVertexLocation(), 2, GL11.GL_FLOAT, false, stride, 0, group.buffer);
+            vao.pointAttribute(batcher.getTexCoordLocation(), 2, GL11.GL_FLOAT, false, stride, 2 * Float.BYTES,
+                    group.buffer);
+
+            GL3Context.drawElements(vao, Primitive.TRIANGLES, 0, (group.numQuads + group.numAnimatedQuads) * 6,
+                    GL11.GL_UNSIGNED_SHORT);
+        }
+    }
+
+    /**
+     * Tests whether any tile of this chunk can be visible in a frustum.
+     *
+     * @param frustum The frustum of the camera.
+     *
+     * @return False if this chunk is completely outside the frustum, or has no tiles.
+     */
+    public boolean isVisible(Frustum frustum)
+    {
+        if (numGroups == 0)
+            return false;
+
+        return frustum.testAABB(minX, minY, -1, maxX, maxY, 1) != Frustum.Containment.OUTSIDE;
+    }
+
+    public boolean isEmpty()
+    {
+        return numGroups == 0;
+    }
+
+    public boolean hasAnimatedQuads()
+    {
+        for (int i = 0; i < numGroups; i++)
+        {
+            if (groups.get(i).numAnimatedQuads > 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    public boolean isDirty()
+    {
+        return dirty;
+    }
+
+    public void markDirty()
+    {
+        dirty = true;
+    }
+
+    public float getMinX()
+    {
+        return minX;
+    }
+
+    public float getMinY()
+    {
+        return minY;
+    }
+
+    public float getMaxX()
+    {
+        return maxX;
+    }
+
+    public float getMaxY()
+    {
+        return maxY;
+    }
+
+    public void dispose()
+    {
+        for (Group group : groups)
+        {
+            if (group.buffer != null)
+                group.buffer.dispose();
+        }
+
+        groups.clear();
+        numGroups = 0;
+        dirty = true;
+    }
+
+    /**
+     * The quads of the tiles that use the same texture.
+     */
+    private static class Group
+    {
+        private Texture      texture;
+        private BufferObject buffer;
+
+        private float[] vertices = new float[64 * VERTEX_SIZE];
+        private int     numQuads;
+
+        private float[] animatedVertices = new float[16 * VERTEX_SIZE];
+        private int[]   animatedTiles    = new int[4];
+        private int     numAnimatedQuads;
+    }
+
+    @FunctionalInterface
+    public interface ITexCoordFunction
+    {
+        /**
+         * Looks up the texture coordinates of the four corners of an animated tile, in the same order as its quad.
+         *
+         * @param tile      The value that identifies the tile, given when its quad was added.
+         * @param texCoords The array to store the u and v of the four corners into.
+         */
+        void invoke(int tile, float[] texCoords);
+    }
+}
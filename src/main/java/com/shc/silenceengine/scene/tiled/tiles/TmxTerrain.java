@@ -24,11 +24,16 @@
 
 package com.shc.silenceengine.scene.tiled.tiles;
 
+import com.shc.silenceengine.scene.tiled.TmxMapCache;
 import com.shc.silenceengine.scene.tiled.TmxProperties;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * @author Sri Harsha Chilakapati
  */
@@ -60,6 +65,22 @@ public void parse(Node node)
             properties.parse(nodes.item(0));
     }
 
+    public void write(DataOutputStream out) throws IOException
+    {
+        TmxMapCache.writeString(out, name);
+        out.writeInt(tileID);
+
+        properties.write(out);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        name = TmxMapCache.readString(buffer);
+        tileID = buffer.getInt();
+
+        properties.read(buffer);
+    }
+
     public String getName()
     {
         return name;
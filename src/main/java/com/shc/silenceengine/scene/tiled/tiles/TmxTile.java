@@ -29,6 +29,9 @@
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -75,24 +78,52 @@ public void parse(Node node)
         {
             animated = true;
 
-            Node frameNode = nodes.item(0).getFirstChild();
+            NodeList frameNodes = ((Element) nodes.item(0)).getElementsByTagName("frame");
 
-            while (frameNode != null)
+            for (int i = 0; i < frameNodes.getLength(); i++)
             {
-                Element frame = (Element) frameNode;
+                Element frame = (Element) frameNodes.item(i);
 
                 int tileID = Integer.parseInt(frame.getAttribute("tileid"));
                 int duration = Integer.parseInt(frame.getAttribute("duration"));
 
-                TmxAnimationFrame animation = new TmxAnimationFrame(tileID, totalDuration);
+                TmxAnimationFrame animation = new TmxAnimationFrame(tileID, duration);
                 frames.add(animation);
                 totalDuration += duration;
-
-                frameNode = frameNode.getNextSibling();
             }
         }
     }
 
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(id);
+        out.writeBoolean(animated);
+        out.writeInt(frames.size());
+
+        for (TmxAnimationFrame frame : frames)
+        {
+            out.writeInt(frame.getTileID());
+            out.writeInt(frame.getDuration());
+        }
+
+        properties.write(out);
+    }
+
+    public void read(ByteBuffer buffer)
+    {
+        id = buffer.getInt();
+        animated = buffer.get() != 0;
+
+        for (int i = buffer.getInt(); i > 0; i--)
+        {
+            TmxAnimationFrame frame = new TmxAnimationFrame(buffer.getInt(), buffer.getInt());
+            frames.add(frame);
+            totalDuration += frame.getDuration();
+        }
+
+        properties.read(buffer);
+    }
+
     public int getID()
     {
         return id;
@@ -118,6 +149,32 @@ public List<TmxAnimationFrame> getFrames()
         return frames;
     }
 
+    /**
+     * Finds the frame of the animation of this tile that is shown at a time. The animation loops after the total
+     * duration of its frames.
+     *
+     * @param time The time since the animation started, in milliseconds.
+     *
+     * @return The ID of the tile shown at that time, or the ID of this tile if it is not animated.
+     */
+    public int getFrameTileID(double time)
+    {
+        if (!animated || totalDuration <= 0)
+            return id;
+
+        double frameTime = time % totalDuration;
+
+        for (TmxAnimationFrame frame : frames)
+        {
+            frameTime -= frame.getDuration();
+
+            if (frameTime < 0)
+                return frame.getTileID();
+        }
+
+        return frames.get(frames.size() - 1).getTileID();
+    }
+
     public TmxProperties getProperties()
     {
         return properties;
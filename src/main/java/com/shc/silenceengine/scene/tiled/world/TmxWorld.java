@@ -0,0 +1,826 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.world;
+
+import com.shc.silenceengine.core.IUpdatable;
+import com.shc.silenceengine.graphics.Batcher;
+import com.shc.silenceengine.graphics.cameras.BaseCamera;
+import com.shc.silenceengine.graphics.opengl.Texture;
+import com.shc.silenceengine.io.FilePath;
+import com.shc.silenceengine.math.Frustum;
+import com.shc.silenceengine.math.Vector3;
+import com.shc.silenceengine.scene.Scene2D;
+import com.shc.silenceengine.scene.entity.Entity2D;
+import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.TmxTileSet;
+import com.shc.silenceengine.scene.tiled.layers.TmxImageLayer;
+import com.shc.silenceengine.scene.tiled.layers.TmxObjectLayer;
+import com.shc.silenceengine.scene.tiled.objects.TmxObject;
+import com.shc.silenceengine.scene.tiled.renderers.TmxMapRenderer;
+import com.shc.silenceengine.utils.FileUtils;
+import com.shc.silenceengine.utils.Logger;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import static org.lwjgl.stb.STBImage.*;
+
+/**
+ * <p> A world made of a grid of TMX maps, which are streamed in and out as the camera moves. Every cell of the grid is
+ * a {@link TmxWorldRegion}, whose map is found by an {@link IRegionLocator}. The regions within the residency radius
+ * around the view of the camera are parsed on a background thread along with the images of their tilesets, and only
+ * the textures, the renderer and the entities of a region are created on the main thread, a few regions per frame, so
+ * the game never stalls on loading a region. </p>
+ *
+ * <p> The regions ahead of the camera in the direction it is moving are prefetched, after the regions in the view are
+ * loaded. The regions that go out of the residency radius are kept until there are more resident regions than the
+ * limit, and then the least recently used regions are unloaded first. The textures are shared by all the regions that
+ * use the same images, and are disposed along with the last region that uses them. </p>
+ *
+ * <pre>
+ *     TmxWorld world = new TmxWorld((x, y) -&gt; FilePath.getResourceFile("world/" + x + "_" + y + ".tmx"), 1024, 1024);
+ *     world.setScene(scene);
+ *     world.setEntityFactory((region, object) -&gt; new Wall(region, object));
+ *
+ *     // Every frame
+ *     world.update(delta);
+ *     world.render(batcher);
+ * </pre>
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxWorld implements IUpdatable
+{
+    // The movement of the camera in a frame, below which it is considered to be still
+    private static final float MOVEMENT_THRESHOLD = 0.01f;
+
+    private IRegionLocator locator;
+
+    private float regionWidth;
+    private float regionHeight;
+
+    private int residencyRadius;
+    private int prefetchDistance;
+    private int maxResidentRegions;
+    private int maxRegionsPerFrame;
+
+    // All the regions that are queued, loading or resident, mapped to the keys of their cells
+    private Map<Long, TmxWorldRegion> regions;
+    private List<TmxWorldRegion>      residentRegions;
+
+    private PriorityBlockingQueue<TmxWorldRegion> loadQueue;
+    private Queue<TmxWorldRegion>                 loadedQueue;
+
+    // The textures shared by the resident regions, and their paths, which the loader thread reads to skip the images
+    private Map<String, SharedTexture> textures;
+    private Set<String>                texturePaths;
+
+    private Thread           loaderThread;
+    private volatile boolean running;
+
+    private Scene2D        scene;
+    private IEntityFactory entityFactory;
+
+    private List<IRegionListener> loadListeners;
+    private List<IRegionListener> unloadListeners;
+
+    private long frame;
+    private long sequence;
+
+    // The rectangle of the world in the view of the camera
+    private float viewMinX;
+    private float viewMinY;
+    private float viewMaxX;
+    private float viewMaxY;
+
+    // The center of the view in the last frame, and the smoothed direction the camera is moving in
+    private float   lastFocusX;
+    private float   lastFocusY;
+    private float   directionX;
+    private float   directionY;
+    private boolean hasFocus;
+
+    /**
+     * Creates a world that streams in the regions around the current camera.
+     *
+     * @param locator      The locator that finds the map of each region.
+     * @param regionWidth  The width of a region in the world.
+     * @param regionHeight The height of a region in the world.
+     */
+    public TmxWorld(IRegionLocator locator, float regionWidth, float regionHeight)
+    {
+        this.locator = locator;
+        this.regionWidth = regionWidth;
+        this.regionHeight = regionHeight;
+
+        residencyRadius = 1;
+        prefetchDistance = 1;
+        maxResidentRegions = 16;
+        maxRegionsPerFrame = 1;
+
+        regions = new HashMap<>();
+        residentRegions = new ArrayList<>();
+
+        loadQueue = new PriorityBlockingQueue<>(16, TmxWorldRegion::compare);
+        loadedQueue = new ConcurrentLinkedQueue<>();
+
+        textures = new HashMap<>();
+        texturePaths = ConcurrentHashMap.newKeySet();
+
+        loadListeners = new ArrayList<>();
+        unloadListeners = new ArrayList<>();
+
+        running = true;
+
+        loaderThread = new Thread(this::loadRegions, "TmxWorld Loader");
+        loaderThread.setDaemon(true);
+        loaderThread.start();
+    }
+
+    private static long getKey(int regionX, int regionY)
+    {
+        return (long) regionX << 32 | regionY & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Requests the regions around the view of the current camera, evicts the least recently used regions, and makes a
+     * few of the loaded regions resident. Also plays the animations of the resident regions.
+     *
+     * @param delta The time taken by the last update, in the default time unit.
+     */
+    @Override
+    public void update(float delta)
+    {
+        frame++;
+
+        if (BaseCamera.CURRENT != null)
+        {
+            updateView();
+            requestRegions();
+            cancelUnusedRegions();
+        }
+
+        for (int i = 0; i < maxRegionsPerFrame; i++)
+        {
+            TmxWorldRegion region = loadedQueue.poll();
+
+            if (region == null)
+                break;
+
+            finishLoading(region);
+        }
+
+        evictRegions();
+
+        for (TmxWorldRegion region : residentRegions)
+            region.getRenderer().update(delta);
+    }
+
+    /**
+     * Finds the rectangle of the world in the view of the current camera, and the direction in which it is moving.
+     */
+    private void updateView()
+    {
+        Frustum frustum = BaseCamera.CURRENT.getFrustum();
+
+        viewMinX = viewMinY = Float.POSITIVE_INFINITY;
+        viewMaxX = viewMaxY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < 8; i++)
+        {
+            Vector3 corner = frustum.getCorner(i);
+
+            viewMinX = Math.min(viewMinX, corner.x);
+            viewMinY = Math.min(viewMinY, corner.y);
+            viewMaxX = Math.max(viewMaxX, corner.x);
+            viewMaxY = Math.max(viewMaxY, corner.y);
+        }
+
+        float focusX = (viewMinX + viewMaxX) / 2;
+        float focusY = (viewMinY + viewMaxY) / 2;
+
+        if (hasFocus)
+        {
+            // Smooth the direction, so a single frame of jitter doesn't prefetch the regions behind the camera
+            directionX = directionX * 0.9f + (focusX - lastFocusX) * 0.1f;
+            directionY = directionY * 0.9f + (focusY - lastFocusY) * 0.1f;
+        }
+
+        lastFocusX = focusX;
+        lastFocusY = focusY;
+        hasFocus = true;
+    }
+
+    /**
+     * Requests the regions in the residency radius around the view, and then the regions ahead of the camera.
+     */
+    private void requestRegions()
+    {
+        int minX = (int) Math.floor(viewMinX / regionWidth) - residencyRadius;
+        int minY = (int) Math.floor(viewMinY / regionHeight) - residencyRadius;
+        int maxX = (int) Math.floor(viewMaxX / regionWidth) + residencyRadius;
+        int maxY = (int) Math.floor(viewMaxY / regionHeight) + residencyRadius;
+
+        for (int y = minY; y <= maxY; y++)
+        {
+            for (int x = minX; x <= maxX; x++)
+                requestRegion(x, y, false);
+        }
+
+        int stepX = directionX > MOVEMENT_THRESHOLD ? 1 : directionX < -MOVEMENT_THRESHOLD ? -1 : 0;
+        int stepY = directionY > MOVEMENT_THRESHOLD ? 1 : directionY < -MOVEMENT_THRESHOLD ? -1 : 0;
+
+        if (stepX == 0 && stepY == 0)
+            return;
+
+        // The regions in the rectangle moved ahead, which are not in the residency radius
+        for (int d = 1; d <= prefetchDistance; d++)
+        {
+            for (int y = minY + stepY * d; y <= maxY + stepY * d; y++)
+            {
+                for (int x = minX + stepX * d; x <= maxX + stepX * d; x++)
+                {
+                    if (x < minX || x > maxX || y < minY || y > maxY)
+                        requestRegion(x, y, true);
+                }
+            }
+        }
+    }
+
+    private void requestRegion(int x, int y, boolean prefetch)
+    {
+        long key = getKey(x, y);
+        TmxWorldRegion region = regions.get(key);
+
+        if (region != null)
+        {
+            region.setLastRequestedFrame(frame);
+
+            if (!prefetch)
+            {
+                region.setLastUsedFrame(frame);
+
+                // A prefetched region that comes into the radius is loaded before the other prefetched regions
+                if (region.isPrefetch() && loadQueue.remove(region))
+                    enqueue(region, false);
+            }
+
+            return;
+        }
+
+        FilePath path = locator.invoke(x, y);
+
+        if (path == null)
+            return;
+
+        region = new TmxWorldRegion(x, y, path, x * regionWidth, y * regionHeight);
+        region.setLastUsedFrame(frame);
+        region.setLastRequestedFrame(frame);
+
+        regions.put(key, region);
+        enqueue(region, prefetch);
+    }
+
+    private void enqueue(TmxWorldRegion region, boolean prefetch)
+    {
+        float dx = region.getOriginX() + regionWidth / 2 - lastFocusX;
+        float dy = region.getOriginY() + regionHeight / 2 - lastFocusY;
+
+        region.setPriority(prefetch, dx * dx + dy * dy, sequence++);
+        loadQueue.add(region);
+    }
+
+    /**
+     * Drops the queued regions that are not requested in this frame, before the loader thread spends any time on
+     * them.
+     */
+    private void cancelUnusedRegions()
+    {
+        Iterator<TmxWorldRegion> iterator = loadQueue.iterator();
+
+        while (iterator.hasNext())
+        {
+            TmxWorldRegion region = iterator.next();
+
+            if (region.getLastRequestedFrame() < frame && loadQueue.remove(region))
+            {
+                regions.remove(getKey(region.getRegionX(), region.getRegionY()));
+                region.setUnloaded();
+            }
+        }
+    }
+
+    /**
+     * The loop of the loader thread, which parses the maps and decodes the images of the queued regions.
+     */
+    private void loadRegions()
+    {
+        while (running)
+        {
+            TmxWorldRegion region;
+
+            try
+            {
+                region = loadQueue.take();
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+
+            region.setLoading();
+
+            try
+            {
+                TmxMap map = new TmxMap(region.getPath());
+                Map<String, TmxWorldRegion.ImageData> images = new HashMap<>();
+
+                for (TmxTileSet tileSet : map.getTileSets())
+                    decodeImage(tileSet.getImage().getSource(), images);
+
+                for (TmxImageLayer imageLayer : map.getImageLayers())
+                    decodeImage(imageLayer.getImage().getSource(), images);
+
+                region.setLoaded(map, images);
+            }
+            catch (Exception e)
+            {
+                Logger.warn("Failed to load the region (" + region.getRegionX() + ", " + region.getRegionY() + ") from "
+                            + region.getPath().getPath() + ": " + e.getMessage());
+
+                region.setFailed();
+            }
+
+            loadedQueue.add(region);
+        }
+    }
+
+    /**
+     * Decodes an image into pixels, unless it is already in a texture. The textures can only be created on the main
+     * thread, so they are uploaded from the pixels when the region becomes resident.
+     */
+    private void decodeImage(FilePath path, Map<String, TmxWorldRegion.ImageData> images)
+    {
+        String key = path.getAbsolutePath();
+
+        if (texturePaths.contains(key) || images.containsKey(key))
+            return;
+
+        ByteBuffer imageBuffer = FileUtils.readToByteBuffer(path);
+
+        IntBuffer width = BufferUtils.createIntBuffer(1);
+        IntBuffer height = BufferUtils.createIntBuffer(1);
+        IntBuffer components = BufferUtils.createIntBuffer(1);
+
+        // Always ask for RGBA, the grey images would be uploaded with the wrong format otherwise
+        ByteBuffer pixels = stbi_load_from_memory(imageBuffer, width, height, components, 4);
+
+        // Leave it to the renderer, which fails with the reason
+        if (pixels == null)
+            return;
+
+        images.put(key, new TmxWorldRegion.ImageData(pixels, width.get(), height.get(), 4));
+    }
+
+    /**
+     * Makes a loaded region resident, by creating its textures, its renderer and the entities of its objects. The
+     * regions that are no longer wanted by the time they are loaded are dropped. The regions are not requested while
+     * there is no camera, so they are only dropped as unwanted when there is one.
+     */
+    private void finishLoading(TmxWorldRegion region)
+    {
+        long key = getKey(region.getRegionX(), region.getRegionY());
+
+        boolean unwanted = BaseCamera.CURRENT != null && region.getLastRequestedFrame() < frame;
+
+        if (region.getState() != TmxWorldRegion.State.LOADED || unwanted)
+        {
+            freeImages(region);
+
+            // The failed regions stay in the map, so they are not requested again
+            if (region.getState() != TmxWorldRegion.State.FAILED)
+            {
+                regions.remove(key);
+                region.setUnloaded();
+            }
+
+            return;
+        }
+
+        TmxMap map = region.getMap();
+        Map<String, Texture> regionTextures = new HashMap<>();
+
+        for (TmxTileSet tileSet : map.getTileSets())
+            acquireTexture(region, tileSet.getImage().getSource(), regionTextures);
+
+        for (TmxImageLayer imageLayer : map.getImageLayers())
+            acquireTexture(region, imageLayer.getImage().getSource(), regionTextures);
+
+        freeImages(region);
+
+        TmxMapRenderer renderer = TmxMapRenderer.create(map, regionTextures);
+        renderer.setOrigin(region.getOriginX(), region.getOriginY());
+
+        region.setResident(renderer);
+        residentRegions.add(region);
+
+        if (entityFactory != null)
+        {
+            for (TmxObjectLayer objectLayer : map.getObjectLayers())
+            {
+                for (TmxObject object : objectLayer.getObjects())
+                {
+                    Entity2D entity = entityFactory.invoke(region, object);
+
+                    if (entity == null)
+                        continue;
+
+                    region.getEntityList().add(entity);
+
+                    if (scene != null)
+                        scene.addChild(entity);
+                }
+            }
+        }
+
+        for (IRegionListener listener : loadListeners)
+            listener.invoke(region);
+    }
+
+    private void acquireTexture(TmxWorldRegion region, FilePath path, Map<String, Texture> regionTextures)
+    {
+        String key = path.getAbsolutePath();
+
+        if (regionTextures.containsKey(key))
+            return;
+
+        SharedTexture shared = textures.get(key);
+
+        if (shared == null)
+        {
+            TmxWorldRegion.ImageData image = region.getImages().get(key);
+
+            // The texture may have been disposed after the loader skipped its image, so load it here in that case
+            Texture texture = image == null ? Texture.fromFilePath(path)
+                                            : Texture.fromByteBuffer(image.pixels, image.width, image.height,
+                                                    image.components);
+
+            shared = new SharedTexture(texture);
+
+            textures.put(key, shared);
+            texturePaths.add(key);
+        }
+
+        shared.references++;
+
+        regionTextures.put(key, shared.texture);
+        region.getTexturePaths().add(key);
+    }
+
+    private void freeImages(TmxWorldRegion region)
+    {
+        if (region.getImages() == null)
+            return;
+
+        for (TmxWorldRegion.ImageData image : region.getImages().values())
+            stbi_image_free(image.pixels);
+
+        region.getImages().clear();
+    }
+
+    /**
+     * Unloads the least recently used regions outside the residency radius, until the resident regions are within
+     * the limit.
+     */
+    private void evictRegions()
+    {
+        while (residentRegions.size() > maxResidentRegions)
+        {
+            TmxWorldRegion leastRecent = null;
+
+            for (TmxWorldRegion region : residentRegions)
+            {
+                // The regions in the residency radius are never evicted
+                if (region.getLastUsedFrame() >= frame)
+                    continue;
+
+                if (leastRecent == null || region.getLastUsedFrame() < leastRecent.getLastUsedFrame())
+                    leastRecent = region;
+            }
+
+            if (leastRecent == null)
+                break;
+
+            unloadRegion(leastRecent);
+        }
+    }
+
+    private void unloadRegion(TmxWorldRegion region)
+    {
+        for (IRegionListener listener : unloadListeners)
+            listener.invoke(region);
+
+        // The scene removes the destroyed entities in a single pass when it updates
+        for (Entity2D entity : region.getEntityList())
+            entity.destroy();
+
+        region.getRenderer().dispose();
+
+        for (String key : region.getTexturePaths())
+        {
+            SharedTexture shared = textures.get(key);
+
+            if (--shared.references == 0)
+            {
+                textures.remove(key);
+                texturePaths.remove(key);
+
+                shared.texture.dispose();
+            }
+        }
+
+        residentRegions.remove(region);
+        regions.remove(getKey(region.getRegionX(), region.getRegionY()));
+
+        region.setUnloaded();
+    }
+
+    /**
+     * Renders the resident regions that are in the view of the current camera.
+     *
+     * @param batcher The batcher to render the regions with.
+     */
+    public void render(Batcher batcher)
+    {
+        if (BaseCamera.CURRENT != null)
+            updateView();
+
+        for (TmxWorldRegion region : residentRegions)
+        {
+            TmxMap map = region.getMap();
+
+            // The tiles can stick out of their region, so the bounds are grown by a tile
+            float minX = region.getOriginX() - map.getTileWidth();
+            float minY = region.getOriginY() - map.getTileHeight();
+            float maxX = region.getOriginX() + Math.max(regionWidth, map.getWidth() * map.getTileWidth())
+                         + map.getTileWidth();
+            float maxY = region.getOriginY() + Math.max(regionHeight, map.getHeight() * map.getTileHeight())
+                         + map.getTileHeight();
+
+            if (maxX >= viewMinX && minX <= viewMaxX && maxY >= viewMinY && minY <= viewMaxY)
+                region.getRenderer().render(batcher);
+        }
+    }
+
+    /**
+     * Stops the loader thread, and unloads all the regions.
+     */
+    public void dispose()
+    {
+        running = false;
+        loaderThread.interrupt();
+
+        try
+        {
+            loaderThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        while (!residentRegions.isEmpty())
+            unloadRegion(residentRegions.get(residentRegions.size() - 1));
+
+        TmxWorldRegion region;
+
+        while ((region = loadedQueue.poll()) != null)
+            freeImages(region);
+
+        loadQueue.clear();
+        regions.clear();
+    }
+
+    /**
+     * Finds the resident region that contains a point in the world.
+     *
+     * @return The region at the point, or null if it is not resident.
+     */
+    public TmxWorldRegion getRegionAt(float x, float y)
+    {
+        int regionX = (int) Math.floor(x / regionWidth);
+        int regionY = (int) Math.floor(y / regionHeight);
+
+        TmxWorldRegion region = regions.get(getKey(regionX, regionY));
+        return region != null && region.isResident() ? region : null;
+    }
+
+    public List<TmxWorldRegion> getResidentRegions()
+    {
+        return residentRegions;
+    }
+
+    /**
+     * @return Whether all the requested regions are resident, which can be used to show a loading screen when the
+     * world is entered for the first time.
+     */
+    public boolean isFullyLoaded()
+    {
+        for (TmxWorldRegion region : regions.values())
+        {
+            TmxWorldRegion.State state = region.getState();
+
+            if (state != TmxWorldRegion.State.RESIDENT && state != TmxWorldRegion.State.FAILED)
+                return false;
+        }
+
+        return true;
+    }
+
+    public void registerLoadListener(IRegionListener listener)
+    {
+        loadListeners.add(listener);
+    }
+
+    public void unregisterLoadListener(IRegionListener listener)
+    {
+        loadListeners.remove(listener);
+    }
+
+    public void registerUnloadListener(IRegionListener listener)
+    {
+        unloadListeners.add(listener);
+    }
+
+    public void unregisterUnloadListener(IRegionListener listener)
+    {
+        unloadListeners.remove(listener);
+    }
+
+    public Scene2D getScene()
+    {
+        return scene;
+    }
+
+    /**
+     * Sets the scene that the entities of the regions are added to, so they are updated and collide with the other
+     * entities in the scene.
+     */
+    public void setScene(Scene2D scene)
+    {
+        this.scene = scene;
+    }
+
+    public IEntityFactory getEntityFactory()
+    {
+        return entityFactory;
+    }
+
+    public void setEntityFactory(IEntityFactory entityFactory)
+    {
+        this.entityFactory = entityFactory;
+    }
+
+    public int getResidencyRadius()
+    {
+        return residencyRadius;
+    }
+
+    /**
+     * Sets the number of regions around the view of the camera that are kept resident.
+     */
+    public void setResidencyRadius(int residencyRadius)
+    {
+        this.residencyRadius = Math.max(0, residencyRadius);
+    }
+
+    public int getPrefetchDistance()
+    {
+        return prefetchDistance;
+    }
+
+    /**
+     * Sets the number of regions beyond the residency radius that are loaded ahead of the moving camera.
+     */
+    public void setPrefetchDistance(int prefetchDistance)
+    {
+        this.prefetchDistance = Math.max(0, prefetchDistance);
+    }
+
+    public int getMaxResidentRegions()
+    {
+        return maxResidentRegions;
+    }
+
+    /**
+     * Sets the number of resident regions above which the least recently used regions are unloaded. The regions in
+     * the residency radius are never unloaded, even if there are more of them than the limit.
+     */
+    public void setMaxResidentRegions(int maxResidentRegions)
+    {
+        this.maxResidentRegions = Math.max(1, maxResidentRegions);
+    }
+
+    public int getMaxRegionsPerFrame()
+    {
+        return maxRegionsPerFrame;
+    }
+
+    /**
+     * Sets the number of loaded regions that are made resident in a single frame, which bounds the time spent on
+     * uploading the textures and creating the entities in a frame.
+     */
+    public void setMaxRegionsPerFrame(int maxRegionsPerFrame)
+    {
+        this.maxRegionsPerFrame = Math.max(1, maxRegionsPerFrame);
+    }
+
+    public float getRegionWidth()
+    {
+        return regionWidth;
+    }
+
+    public float getRegionHeight()
+    {
+        return regionHeight;
+    }
+
+    /**
+     * Finds the map of a region of the world.
+     */
+    @FunctionalInterface
+    public interface IRegionLocator
+    {
+        /**
+         * @param regionX The x-coordinate of the region in the grid of the world.
+         * @param regionY The y-coordinate of the region in the grid of the world.
+         *
+         * @return The path of the TMX file of the region, or null if there is no region there.
+         */
+        FilePath invoke(int regionX, int regionY);
+    }
+
+    /**
+     * Creates the entities for the objects of a region, when it becomes resident.
+     */
+    @FunctionalInterface
+    public interface IEntityFactory
+    {
+        /**
+         * @param region The region of the object. The position of the object is relative to the origin of the region.
+         * @param object The object to create an entity for.
+         *
+         * @return The entity of the object, or null to skip the object.
+         */
+        Entity2D invoke(TmxWorldRegion region, TmxObject object);
+    }
+
+    @FunctionalInterface
+    public interface IRegionListener
+    {
+        void invoke(TmxWorldRegion region);
+    }
+
+    private static class SharedTexture
+    {
+        private Texture texture;
+        private int     references;
+
+        private SharedTexture(Texture texture)
+        {
+            this.texture = texture;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.scene.tiled.world;
+
+import com.shc.silenceengine.io.FilePath;
+import com.shc.silenceengine.scene.entity.Entity2D;
+import com.shc.silenceengine.scene.tiled.TmxMap;
+import com.shc.silenceengine.scene.tiled.renderers.TmxMapRenderer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A region of a {@link TmxWorld}, which is a single TMX map placed in a cell of the grid of the world. The map of the
+ * region is parsed on the loader thread of the world, and the region becomes resident when its textures, renderer and
+ * entities are created on the main thread.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class TmxWorldRegion
+{
+    private int      regionX;
+    private int      regionY;
+    private FilePath path;
+
+    private float originX;
+    private float originY;
+
+    private volatile State state;
+
+    // The regions in the view are loaded before the regions that are prefetched, and the nearer ones first
+    private boolean prefetch;
+    private float   distance;
+    private long    sequence;
+
+    // The frame in which this region was last in the residency radius, to evict the least recently used ones
+    private long lastUsedFrame;
+
+    // The frame in which this region was last requested, either in the residency radius or as a prefetch
+    private long lastRequestedFrame;
+
+    // Filled in by the loader thread
+    private TmxMap                 map;
+    private Map<String, ImageData> images;
+
+    // Filled in on the main thread
+    private TmxMapRenderer renderer;
+    private List<String>   texturePaths;
+    private List<Entity2D> entities;
+
+    TmxWorldRegion(int regionX, int regionY, FilePath path, float originX, float originY)
+    {
+        this.regionX = regionX;
+        this.regionY = regionY;
+        this.path = path;
+        this.originX = originX;
+        this.originY = originY;
+
+        state = State.QUEUED;
+
+        texturePaths = new ArrayList<>();
+        entities = new ArrayList<>();
+    }
+
+    void setLoading()
+    {
+        state = State.LOADING;
+    }
+
+    void setLoaded(TmxMap map, Map<String, ImageData> images)
+    {
+        this.map = map;
+        this.images = images;
+
+        state = State.LOADED;
+    }
+
+    void setFailed()
+    {
+        state = State.FAILED;
+    }
+
+    void setResident(TmxMapRenderer renderer)
+    {
+        this.renderer = renderer;
+        images = null;
+
+        state = State.RESIDENT;
+    }
+
+    void setUnloaded()
+    {
+        map = null;
+        images = null;
+        renderer = null;
+
+        texturePaths.clear();
+        entities.clear();
+
+        state = State.UNLOADED;
+    }
+
+    void setPriority(boolean prefetch, float distance, long sequence)
+    {
+        this.prefetch = prefetch;
+        this.distance = distance;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Orders the regions in which they are loaded, the ones in the view first and then the nearest ones.
+     */
+    static int compare(TmxWorldRegion r1, TmxWorldRegion r2)
+    {
+        if (r1.prefetch != r2.prefetch)
+            return r1.prefetch ? 1 : -1;
+
+        int result = Float.compare(r1.distance, r2.distance);
+        return result != 0 ? result : Long.compare(r1.sequence, r2.sequence);
+    }
+
+    boolean isPrefetch()
+    {
+        return prefetch;
+    }
+
+    long getLastUsedFrame()
+    {
+        return lastUsedFrame;
+    }
+
+    void setLastUsedFrame(long lastUsedFrame)
+    {
+        this.lastUsedFrame = lastUsedFrame;
+    }
+
+    long getLastRequestedFrame()
+    {
+        return lastRequestedFrame;
+    }
+
+    void setLastRequestedFrame(long lastRequestedFrame)
+    {
+        this.lastRequestedFrame = lastRequestedFrame;
+    }
+
+    Map<String, ImageData> getImages()
+    {
+        return images;
+    }
+
+    List<String> getTexturePaths()
+    {
+        return texturePaths;
+    }
+
+    List<Entity2D> getEntityList()
+    {
+        return entities;
+    }
+
+    public int getRegionX()
+    {
+        return regionX;
+    }
+
+    public int getRegionY()
+    {
+        return regionY;
+    }
+
+    public FilePath getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return The x-coordinate of the top-left corner of this region in the world.
+     */
+    public float getOriginX()
+    {
+        return originX;
+    }
+
+    /**
+     * @return The y-coordinate of the top-left corner of this region in the world.
+     */
+    public float getOriginY()
+    {
+        return originY;
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+
+    public boolean isResident()
+    {
+        return state == State.RESIDENT;
+    }
+
+    /**
+     * @return The map of this region, or null if it is not yet loaded.
+     */
+    public TmxMap getMap()
+    {
+        return map;
+    }
+
+    /**
+     * @return The renderer of this region, or null if it is not resident.
+     */
+    public TmxMapRenderer getRenderer()
+    {
+        return renderer;
+    }
+
+    /**
+     * @return The entities created for the objects of this region.
+     */
+    public List<Entity2D> getEntities()
+    {
+        return Collections.unmodifiableList(entities);
+    }
+
+    public enum State
+    {
+        QUEUED, LOADING, LOADED, RESIDENT, FAILED, UNLOADED
+    }
+
+    /**
+     * The pixels of an image decoded on the loader thread, waiting to be uploaded into a texture.
+     */
+    static class ImageData
+    {
+        ByteBuffer pixels;
+
+        int width;
+        int height;
+        int components;
+
+        ImageData(ByteBuffer pixels, int width, int height, int components)
+        {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.components = components;
+        }
+    }
+}
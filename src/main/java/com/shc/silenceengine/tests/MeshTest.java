@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.graphics.models.Mesh;
+import com.shc.silenceengine.utils.Logger;
+
+/**
+ * Checks the growth of the arrays of a Mesh. It needs no OpenGL context.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class MeshTest
+{
+    public static void main(String[] args)
+    {
+        Logger.setPrintTimeStamps(false);
+
+        testAddAfterTrim();
+    }
+
+    private static void testAddAfterTrim()
+    {
+        Logger.log("Trimming an empty mesh, and adding a triangle to it\n");
+
+        Mesh mesh = new Mesh();
+        mesh.trim();
+
+        addTriangles(mesh, 1);
+        check(mesh.getVertexCount() == 3 && mesh.getIndexCount() == 3);
+
+        Logger.log("\nTrimming the mesh again, and adding more triangles than the initial capacity\n");
+
+        mesh.trim();
+        addTriangles(mesh, 100);
+        check(mesh.getVertexCount() == 303 && mesh.getIndexCount() == 303);
+
+        float[] positions = mesh.getPositionData();
+        int[] indices = mesh.getIndexData();
+
+        check(positions[302 * 3] == 302 && indices[302] == 302);
+    }
+
+    private static void addTriangles(Mesh mesh, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            int a = mesh.addVertex(mesh.getVertexCount(), 0, 0, 0, 0, 1, 0, 0);
+            int b = mesh.addVertex(mesh.getVertexCount(), 1, 0, 0, 0, 1, 1, 0);
+            int c = mesh.addVertex(mesh.getVertexCount(), 0, 1, 0, 0, 1, 0, 1);
+
+            mesh.addTriangle(a, b, c);
+        }
+    }
+
+    private static void check(boolean condition)
+    {
+        Logger.log(">> " + condition);
+
+        if (!condition)
+            throw new IllegalStateException("MeshTest failed");
+    }
+}
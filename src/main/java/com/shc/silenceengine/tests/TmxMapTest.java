@@ -48,6 +48,9 @@
 import java.io.IOException;
 
 /**
+ * Press O to move the map to an offset origin, and the camera along with it. The map should stay where it is on the
+ * screen, the way the regions of a TmxWorld are rendered away from the origin of the world.
+ *
  * @author Sri Harsha Chilakapati
  */
 public class TmxMapTest extends Game
@@ -57,6 +60,8 @@ public class TmxMapTest extends Game
 
     private TmxMapRenderer renderer;
 
+    private boolean offset;
+
     public TmxMapTest(TmxMap map)
     {
         super();
@@ -222,7 +227,8 @@ public void init()
     public void resize()
     {
         camera.initProjection(Display.getWidth(), Display.getHeight());
-        camera.center(map.getWidth() * map.getTileWidth() / 2, map.getHeight() * map.getTileHeight() / 2);
+        camera.center(renderer.getOriginX() + map.getWidth() * map.getTileWidth() / 2,
+                renderer.getOriginY() + map.getHeight() * map.getTileHeight() / 2);
     }
 
     @Override
@@ -231,8 +237,25 @@ public void update(float delta)
         if (Keyboard.isClicked(Keyboard.KEY_ESCAPE))
             Game.end();
 
+        if (Keyboard.isClicked(Keyboard.KEY_O))
+        {
+            offset = !offset;
+
+            // Not a multiple of the tile size, and further than the map is large, so nothing at the old place is seen
+            if (offset)
+                renderer.setOrigin(map.getWidth() * map.getTileWidth() * 3 + 17,
+                        map.getHeight() * map.getTileHeight() * 2 + 9);
+            else
+                renderer.setOrigin(0, 0);
+
+            resize();
+        }
+
+        renderer.update(delta);
+
         Display.setTitle("SilenceEngine TmxMapTest | FPS: " + getFPS() +
-                         " | UPS: " + getUPS() + " | RC: " + SilenceEngine.graphics.renderCallsPerFrame);
+                         " | UPS: " + getUPS() + " | RC: " + SilenceEngine.graphics.renderCallsPerFrame +
+                         " | Origin: " + renderer.getOriginX() + ", " + renderer.getOriginY());
     }
 
     @Override
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.shc.silenceengine.tests;
+
+import com.shc.silenceengine.graphics.models.VertexCacheOptimizer;
+import com.shc.silenceengine.utils.Logger;
+
+import java.util.Random;
+
+/**
+ * Checks that the VertexCacheOptimizer lowers the average cache miss ratio of a mesh. It needs no OpenGL context.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public class VertexCacheOptimizerTest
+{
+    // The size of the FIFO cache the ratios are measured with, smaller than the one the optimizer simulates
+    private static final int CACHE_SIZE = 16;
+
+    public static void main(String[] args)
+    {
+        Logger.setPrintTimeStamps(false);
+
+        int size = 64;
+        int[] indices = createGrid(size);
+
+        // Shuffle the triangles, like the ones of a mesh exported in no particular order
+        Random random = new Random(42);
+
+        for (int i = indices.length / 3 - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+
+            for (int k = 0; k < 3; k++)
+            {
+                int temp = indices[i * 3 + k];
+                indices[i * 3 + k] = indices[j * 3 + k];
+                indices[j * 3 + k] = temp;
+            }
+        }
+
+        float before = VertexCacheOptimizer.getCacheMissRatio(indices, CACHE_SIZE);
+        VertexCacheOptimizer.optimize(indices, (size + 1) * (size + 1));
+        float after = VertexCacheOptimizer.getCacheMissRatio(indices, CACHE_SIZE);
+
+        Logger.log("ACMR of a shuffled " + size + "x" + size + " grid: " + before);
+        Logger.log("ACMR after optimizing it: " + after);
+
+        // A grid can't go much below 0.5, and a shuffled one is close to the worst of 3
+        check(after < before && after < 1);
+    }
+
+    /**
+     * Creates the indices of a grid of size x size quads, two triangles for every quad.
+     */
+    private static int[] createGrid(int size)
+    {
+        int[] indices = new int[size * size * 6];
+        int i = 0;
+
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                int topLeft = y * (size + 1) + x;
+                int bottomLeft = topLeft + size + 1;
+
+                indices[i++] = topLeft;
+                indices[i++] = bottomLeft;
+                indices[i++] = topLeft + 1;
+
+                indices[i++] = topLeft + 1;
+                indices[i++] = bottomLeft;
+                indices[i++] = bottomLeft + 1;
+            }
+        }
+
+        return indices;
+    }
+
+    private static void check(boolean condition)
+    {
+        Logger.log(">> " + condition);
+
+        if (!condition)
+            throw new IllegalStateException("VertexCacheOptimizerTest failed");
+    }
+}
@@ -558,4 +558,43 @@ public static boolean isDouble(Object object)
 
         return bool;
     }
+
+    /**
+     * Converts a float to the bits of a 16-bit IEEE half precision float, rounding to the nearest value. Values that
+     * are too large become infinity, and the values too small become zero.
+     *
+     * @param value The float to convert
+     *
+     * @return The half precision float, in the lower 16 bits of a short
+     */
+    public static short toHalfFloat(float value)
+    {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+
+        // NaN and Infinity
+        if (exponent == 0xFF - 127 + 15)
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+
+        // Overflow
+        if (exponent >= 0x1F)
+            return (short) (sign | 0x7C00);
+
+        // Subnormals, and underflow to zero
+        if (exponent <= 0)
+        {
+            if (exponent < -10)
+                return (short) sign;
+
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+
+            return (short) (sign | ((mantissa + (1 << (shift - 1))) >> shift));
+        }
+
+        // Round the mantissa, a carry correctly bumps the exponent
+        return (short) (sign | (((exponent << 23) | mantissa) + 0x1000) >> 13);
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.utils;
+
+/**
+ * @author Sri Harsha Chilakapati
+ */
+public final class SortUtils
+{
+    private SortUtils()
+    {
+    }
+
+    /**
+     * Sorts the keys in ascending order treating them as unsigned, along with the values associated with them, using
+     * a least significant digit radix sort. The sort is stable, so the values with equal keys stay in the order they
+     * were in. Each byte of the key is a pass over the data, and the passes where all the keys have the same byte are
+     * skipped, so the keys with unused high bits cost less.
+     *
+     * @param keys       The keys to sort.
+     * @param values     The values associated with the keys, which are moved along with them.
+     * @param count      The number of keys to sort, from the start of the arrays.
+     * @param tempKeys   A scratch array of at least count keys.
+     * @param tempValues A scratch array of at least count values.
+     */
+    public static void radixSort(long[] keys, int[] values, int count, long[] tempKeys, int[] tempValues)
+    {
+        if (count < 2)
+            return;
+
+        int[] offsets = new int[256];
+
+        long[] srcKeys = keys;
+        int[] srcValues = values;
+        long[] dstKeys = tempKeys;
+        int[] dstValues = tempValues;
+
+        for (int shift = 0; shift < 64; shift += 8)
+        {
+            for (int i = 0; i < 256; i++)
+                offsets[i] = 0;
+
+            for (int i = 0; i < count; i++)
+                offsets[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+
+            // All the keys have the same digit, so this pass wouldn't move anything
+            if (offsets[(int) (srcKeys[0] >>> shift) & 0xFF] == count)
+                continue;
+
+            int total = 0;
+
+            for (int i = 0; i < 256; i++)
+            {
+                int digitCount = offsets[i];
+                offsets[i] = total;
+                total += digitCount;
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                int index = offsets[(int) (srcKeys[i] >>> shift) & 0xFF]++;
+
+                dstKeys[index] = srcKeys[i];
+                dstValues[index] = srcValues[i];
+            }
+
+            long[] swapKeys = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = swapKeys;
+
+            int[] swapValues = srcValues;
+            srcValues = dstValues;
+            dstValues = swapValues;
+        }
+
+        // The sorted data ended up in the scratch arrays after an odd number of passes
+        if (srcKeys != keys)
+        {
+            System.arraycopy(srcKeys, 0, keys, 0, count);
+            System.arraycopy(srcValues, 0, values, 0, count);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014-2015 Sri Harsha Chilakapati
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.shc.silenceengine.utils;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Utilities for reading XML with a streaming {@link XMLStreamReader}, where the document is read one event at a time
+ * instead of being loaded into memory as a whole. The methods that read an element expect the reader to be at its
+ * START_ELEMENT event, and leave the reader at its END_ELEMENT event.
+ *
+ * @author Sri Harsha Chilakapati
+ */
+public final class XMLUtils
+{
+    private XMLUtils()
+    {
+    }
+
+    public static String getAttribute(XMLStreamReader reader, String name, String defaultValue)
+    {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? defaultValue : value;
+    }
+
+    public static int getIntAttribute(XMLStreamReader reader, String name, int defaultValue)
+    {
+        String value = reader.getAttributeValue(null, name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static float getFloatAttribute(XMLStreamReader reader, String name, float defaultValue)
+    {
+        String value = reader.getAttributeValue(null, name);
+        return value == null || value.isEmpty() ? defaultValue : Float.parseFloat(value.trim());
+    }
+
+    public static double getDoubleAttribute(XMLStreamReader reader, String name, double defaultValue)
+    {
+        String value = reader.getAttributeValue(null, name);
+        return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Skips the current element, along with all of its children.
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException
+    {
+        int depth = 1;
+
+        while (depth > 0)
+        {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    /**
+     * Reads the current element into a DOM element, for the small elements that are easier to read as a tree. The
+     * text that is only whitespace is left out of the tree.
+     *
+     * @param reader   The reader at the start of the element.
+     * @param document The document to create the nodes with.
+     *
+     * @return The element, which is not attached to the document.
+     */
+    public static Element readElement(XMLStreamReader reader, Document document) throws XMLStreamException
+    {
+        Element element = document.createElement(reader.getLocalName());
+
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+
+        while (true)
+        {
+            int event = reader.next();
+
+            switch (event)
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.appendChild(readElement(reader, document));
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (!reader.isWhiteSpace())
+                        element.appendChild(document.createTextNode(reader.getText()));
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    return element;
+            }
+        }
+    }
+
+    /**
+     * Creates a stream of the text of the current element, with every character as a byte. The characters are read
+     * from the reader as the stream is read, so the text is never held in a string. The stream ends at the end of the
+     * element, so the element should not have child elements.
+     *
+     * @param reader The reader at the start of the element.
+     *
+     * @return The stream of the text of the element.
+     */
+    public static InputStream getTextInputStream(XMLStreamReader reader)
+    {
+        return new TextInputStream(reader);
+    }
+
+    /**
+     * Reads the characters of the text events of an element as bytes, until the end of the element.
+     */
+    private static class TextInputStream extends InputStream
+    {
+        private XMLStreamReader reader;
+
+        private char[] buffer;
+        private int    position;
+        private int    count;
+
+        // The offset of the characters of the current text event that are not in the buffer yet
+        private int     textOffset;
+        private boolean inText;
+        private boolean ended;
+
+        private TextInputStream(XMLStreamReader reader)
+        {
+            this.reader = reader;
+            buffer = new char[4096];
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (position == count && !fill())
+                return -1;
+
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            if (length == 0)
+                return 0;
+
+            if (position == count && !fill())
+                return -1;
+
+            int read = Math.min(length, count - position);
+
+            for (int i = 0; i < read; i++)
+                bytes[offset + i] = (byte) buffer[position++];
+
+            return read;
+        }
+
+        /**
+         * Fills the buffer with the next characters of the text.
+         *
+         * @return False if the end of the element is reached.
+         */
+        private boolean fill() throws IOException
+        {
+            try
+            {
+                while (!ended)
+                {
+                    if (inText)
+                    {
+                        count = reader.getTextCharacters(textOffset, buffer, 0, buffer.length);
+                        position = 0;
+                        textOffset += count;
+
+                        if (count > 0)
+                            return true;
+
+                        inText = false;
+                    }
+
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)
+                    {
+                        inText = true;
+                        textOffset = 0;
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT)
+                        ended = true;
+                }
+
+                return false;
+            }
+            catch (XMLStreamException e)
+            {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -24,17 +24,43 @@
 
 #version 330 core
 
-uniform sampler2D textureID;
+uniform sampler2D textures[16];
 uniform vec4 ambient;
 
 in vec4 vColor;
 in vec2 vTexCoords;
+flat in int vSlot;
 
 layout(location = 0) out vec4 fragColor;
 
+// The samplers can only be indexed with constants, so the slot selects one of them. The gradients are computed
+// before the branch, since they are undefined inside it.
+vec4 sampleSlot(int slot, vec2 coords, vec2 dx, vec2 dy)
+{
+    switch (slot)
+    {
+        case 1: return textureGrad(textures[1], coords, dx, dy);
+        case 2: return textureGrad(textures[2], coords, dx, dy);
+        case 3: return textureGrad(textures[3], coords, dx, dy);
+        case 4: return textureGrad(textures[4], coords, dx, dy);
+        case 5: return textureGrad(textures[5], coords, dx, dy);
+        case 6: return textureGrad(textures[6], coords, dx, dy);
+        case 7: return textureGrad(textures[7], coords, dx, dy);
+        case 8: return textureGrad(textures[8], coords, dx, dy);
+        case 9: return textureGrad(textures[9], coords, dx, dy);
+        case 10: return textureGrad(textures[10], coords, dx, dy);
+        case 11: return textureGrad(textures[11], coords, dx, dy);
+        case 12: return textureGrad(textures[12], coords, dx, dy);
+        case 13: return textureGrad(textures[13], coords, dx, dy);
+        case 14: return textureGrad(textures[14], coords, dx, dy);
+        case 15: return textureGrad(textures[15], coords, dx, dy);
+        default: return textureGrad(textures[0], coords, dx, dy);
+    }
+}
+
 void main()
 {
-    vec4 texColor = texture(textureID, vTexCoords);
+    vec4 texColor = sampleSlot(vSlot, vTexCoords, dFdx(vTexCoords), dFdy(vTexCoords));
 
     fragColor = vec4(min(texColor.rgb + vColor.rgb, vec3(1.0)), texColor.a * vColor.a);
 
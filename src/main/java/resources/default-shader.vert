@@ -28,17 +28,26 @@ uniform mat4 mTransform;
 uniform mat4 camProj;
 uniform mat4 camView;
 
+// Whether the transform of each instance comes from the instanceTransform attribute
+uniform bool instanced;
+
 layout(location = 0) in vec4 pos;
 layout(location = 1) in vec4 col;
 layout(location = 2) in vec2 tex;
 layout(location = 3) in vec4 norm;
+layout(location = 4) in float slot;
+layout(location = 5) in mat4 instanceTransform;
 
 out vec4 vColor;
 out vec2 vTexCoords;
+flat out int vSlot;
 
 void main()
 {
     vColor      = col;
     vTexCoords  = tex;
-    gl_Position = camProj * camView * mTransform * pos;
+    vSlot       = int(slot + 0.5);
+
+    mat4 model  = instanced ? mTransform * instanceTransform : mTransform;
+    gl_Position = camProj * camView * model * pos;
 }
@@ -46,7 +46,6 @@ struct Light
     float intensity;
 };
 
-uniform mat4 mTransform;
 uniform mat4 camProj;
 uniform mat4 camView;
 
@@ -58,6 +57,7 @@ in vec4 vColor;
 in vec4 vNormal;
 in vec4 vPosition;
 in vec2 vTexCoords;
+flat in mat4 vModel;
 
 layout(location = 0) out vec4 fragColor;
 
@@ -72,7 +72,7 @@ vec4 getBaseColor()
 vec4 getDirectionalLight()
 {
     // The matrices for transforming into different spaces
-    mat4 modelMatrix = mTransform;
+    mat4 modelMatrix = vModel;
     mat3 normalMatrix = transpose(inverse(mat3(modelMatrix)));
 
     // The transformed normal and position
@@ -28,15 +28,20 @@ uniform mat4 mTransform;
 uniform mat4 camProj;
 uniform mat4 camView;
 
+// Whether the transform of each instance comes from the instanceTransform attribute
+uniform bool instanced;
+
 layout(location = 0) in vec4 pos;
 layout(location = 1) in vec4 col;
 layout(location = 2) in vec2 tex;
 layout(location = 3) in vec4 norm;
+layout(location = 5) in mat4 instanceTransform;
 
 out vec4 vColor;
 out vec2 vTexCoords;
 out vec4 vNormal;
 out vec4 vPosition;
+flat out mat4 vModel;
 
 void main()
 {
@@ -44,6 +49,7 @@ void main()
     vTexCoords  = tex;
     vNormal     = norm;
     vPosition   = pos;
+    vModel      = instanced ? mTransform * instanceTransform : mTransform;
 
-    gl_Position = camProj * camView * mTransform * pos;
+    gl_Position = camProj * camView * vModel * pos;
 }
\ No newline at end of file
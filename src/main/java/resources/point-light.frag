@@ -47,7 +47,6 @@ struct Light
     vec4 color;
 };
 
-uniform mat4 mTransform;
 uniform mat4 camProj;
 uniform mat4 camView;
 
@@ -59,6 +58,7 @@ in vec4 vColor;
 in vec4 vNormal;
 in vec4 vPosition;
 in vec2 vTexCoords;
+flat in mat4 vModel;
 
 layout(location = 0) out vec4 fragColor;
 
@@ -73,7 +73,7 @@ vec4 getBaseColor()
 vec4 getPointLight()
 {
     // The matrices for transforming into different spaces
-    mat4 modelMatrix = camProj * camView * mTransform;
+    mat4 modelMatrix = camProj * camView * vModel;
     mat4 lightMatrix = camProj * camView;
     mat3 normalMatrix = transpose(inverse(mat3(modelMatrix)));
 